@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger.plugin;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites the calls to the logging methods of ILog and ScopedLogger into calls to the methods of
+ * the same name in CallSiteLogger, passing the class, method, source file and line of the call in
+ * a LogCallContext. The loggers then don't need to capture the stack trace to find out where they
+ * were called from.
+ * <p>
+ * Every call site gets its own synthetic static field holding its LogCallContext, created once by
+ * the static initializer of the class, so the rewritten calls only read the field and don't
+ * allocate anything. The classes are read twice: the first time to number the call sites, so
+ * their fields can be initialized at the start of the static initializer wherever it is placed in
+ * the class. The call sites of the anonymous (and local) classes also get the class and method
+ * they are defined in, out of the EnclosingMethod attribute.
+ * <p>
+ * The instructions are only added right before the calls (and at the start of the static
+ * initializer) and consumed by them, so the stack map frames stay valid and only the maximum
+ * stack size needs to be recomputed.
+ */
+class CallSiteRewriter extends ClassVisitor {
+    private static final String LIBRARY_PACKAGE = "com/jeefo/android/jeefologger/";
+    private static final String ILOG = LIBRARY_PACKAGE + "ILog";
+    private static final String SCOPED_LOGGER = LIBRARY_PACKAGE + "ScopedLogger";
+    private static final String CALL_SITE_LOGGER = LIBRARY_PACKAGE + "CallSiteLogger";
+    private static final String LOG_CALL_CONTEXT = "L" + LIBRARY_PACKAGE + "LogCallContext;";
+    private static final String CREATE_CALL_SITE = "createCallSite";
+    private static final String CREATE_CALL_SITE_DESCRIPTOR = "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)" + LOG_CALL_CONTEXT;
+    private static final String CREATE_HOSTED_CALL_SITE_DESCRIPTOR = "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I"
+            + "Ljava/lang/String;Ljava/lang/String;)" + LOG_CALL_CONTEXT;
+
+    static final String CALL_SITE_FIELD_PREFIX = "jeefo$callSite";
+    private static final String STATIC_INITIALIZER = "<clinit>";
+
+    private static final String MESSAGE = "(Ljava/lang/String;[Ljava/lang/Object;)V";
+    private static final String EXCEPTION_AND_MESSAGE = "(Ljava/lang/Exception;Ljava/lang/String;[Ljava/lang/Object;)V";
+    private static final String EXCEPTION = "(Ljava/lang/Exception;)V";
+
+    // the name and descriptor of all the ILog methods
+    private static final Set<String> LOGGING_METHODS = new HashSet<>(Arrays.asList(
+            "Verbose" + MESSAGE, "Verbose" + EXCEPTION_AND_MESSAGE,
+            "Debug" + MESSAGE, "Debug" + EXCEPTION_AND_MESSAGE,
+            "Info" + MESSAGE,
+            "Warn" + MESSAGE, "Warn" + EXCEPTION_AND_MESSAGE,
+            "Error" + MESSAGE, "Error" + EXCEPTION_AND_MESSAGE, "Error" + EXCEPTION,
+            "Wtf" + MESSAGE, "Wtf" + EXCEPTION_AND_MESSAGE, "Wtf" + EXCEPTION));
+
+    /**
+     * The method and line of a logging call, found by the first reading of the class
+     */
+    private static class CallSite {
+        final String methodName;
+        final int lineNumber;
+
+        CallSite(String methodName, int lineNumber) {
+            this.methodName = methodName;
+            this.lineNumber = lineNumber;
+        }
+    }
+
+    // filled by the first reading of the class and only read by the second one
+    private final List<CallSite> callSites;
+    private final boolean isCollecting;
+
+    private String internalName;
+    private String className;
+    private String sourceFile = null;
+    // the class and method enclosing an anonymous or local class (null for the other classes)
+    private String hostClassName = null;
+    private String hostMethodName = null;
+    private boolean isInterface = false;
+    private boolean hasStaticInitializer = false;
+    private int callSitesCount = 0;
+
+    private CallSiteRewriter(ClassVisitor classVisitor, List<CallSite> callSites, boolean isCollecting) {
+        super(Opcodes.ASM6, classVisitor);
+        this.callSites = callSites;
+        this.isCollecting = isCollecting;
+    }
+
+    /**
+     * @param classFile the content of a class file
+     * @return the content of the class file with the logging calls rewritten or the same array if
+     * the class doesn't log anything (or is part of the library)
+     */
+    static byte[] rewrite(byte[] classFile) {
+        final ClassReader reader = new ClassReader(classFile);
+        if (reader.getClassName().startsWith(LIBRARY_PACKAGE)) {
+            return classFile;
+        }
+
+        final List<CallSite> callSites = new ArrayList<>();
+        reader.accept(new CallSiteRewriter(null, callSites, true), ClassReader.SKIP_FRAMES);
+        if (callSites.isEmpty()) {
+            return classFile;
+        }
+
+        // the reader is passed to the writer so the methods which are not changed are just copied
+        final ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new CallSiteRewriter(writer, callSites, false), 0);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        internalName = name;
+        className = name.replace('/', '.');
+        isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+        sourceFile = source;
+        super.visitSource(source, debug);
+    }
+
+    @Override
+    public void visitOuterClass(String owner, String name, String descriptor) {
+        // the method is unknown for the classes defined in the initializer of a field
+        if (name != null) {
+            hostClassName = owner.replace('/', '.');
+            hostMethodName = name;
+        }
+        super.visitOuterClass(owner, name, descriptor);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        final MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (methodVisitor == null && !isCollecting) {
+            return null;
+        }
+
+        if (!isCollecting && STATIC_INITIALIZER.equals(name)) {
+            hasStaticInitializer = true;
+            return new CallSiteMethodRewriter(methodVisitor, name) {
+                @Override
+                public void visitCode() {
+                    super.visitCode();
+                    initializeCallSiteFields(mv);
+                }
+            };
+        }
+        return new CallSiteMethodRewriter(methodVisitor, name);
+    }
+
+    @Override
+    public void visitEnd() {
+        if (!isCollecting) {
+            // the fields of an interface can only be public
+            final int fieldAccess = (isInterface ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PRIVATE)
+                    | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC;
+            for (int index = 0; index < callSites.size(); ++index) {
+                super.visitField(fieldAccess, CALL_SITE_FIELD_PREFIX + index, LOG_CALL_CONTEXT, null, null).visitEnd();
+            }
+
+            if (!hasStaticInitializer) {
+                final MethodVisitor staticInitializer = super.visitMethod(Opcodes.ACC_STATIC, STATIC_INITIALIZER, "()V", null, null);
+                staticInitializer.visitCode();
+                initializeCallSiteFields(staticInitializer);
+                staticInitializer.visitInsn(Opcodes.RETURN);
+                staticInitializer.visitMaxs(0, 0);
+                staticInitializer.visitEnd();
+            }
+        }
+        super.visitEnd();
+    }
+
+    /**
+     * Creates the LogCallContext of every call site and stores it in its field
+     *
+     * @param methodVisitor the visitor of the static initializer
+     */
+    private void initializeCallSiteFields(MethodVisitor methodVisitor) {
+        for (int index = 0; index < callSites.size(); ++index) {
+            final CallSite callSite = callSites.get(index);
+            methodVisitor.visitLdcInsn(className);
+            methodVisitor.visitLdcInsn(callSite.methodName);
+            if (sourceFile != null) {
+                methodVisitor.visitLdcInsn(sourceFile);
+            } else {
+                methodVisitor.visitInsn(Opcodes.ACONST_NULL);
+            }
+            methodVisitor.visitLdcInsn(callSite.lineNumber);
+            if (hostMethodName != null) {
+                methodVisitor.visitLdcInsn(hostClassName);
+                methodVisitor.visitLdcInsn(hostMethodName);
+                methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, CALL_SITE_LOGGER, CREATE_CALL_SITE, CREATE_HOSTED_CALL_SITE_DESCRIPTOR, false);
+            } else {
+                methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, CALL_SITE_LOGGER, CREATE_CALL_SITE, CREATE_CALL_SITE_DESCRIPTOR, false);
+            }
+            methodVisitor.visitFieldInsn(Opcodes.PUTSTATIC, internalName, CALL_SITE_FIELD_PREFIX + index, LOG_CALL_CONTEXT);
+        }
+    }
+
+    private class CallSiteMethodRewriter extends MethodVisitor {
+        private final String methodName;
+        // unknown until the first line number is visited, as in StackTraceElement
+        private int lineNumber = -1;
+
+        CallSiteMethodRewriter(MethodVisitor methodVisitor, String methodName) {
+            super(Opcodes.ASM6, methodVisitor);
+            this.methodName = methodName;
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            lineNumber = line;
+            super.visitLineNumber(line, start);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            if (!isLoggingCall(opcode, owner, name, descriptor)) {
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                return;
+            }
+
+            if (isCollecting) {
+                callSites.add(new CallSite(methodName, lineNumber));
+                return;
+            }
+
+            // the calls are met in the same order by both readings of the class
+            super.visitFieldInsn(Opcodes.GETSTATIC, internalName, CALL_SITE_FIELD_PREFIX + callSitesCount, LOG_CALL_CONTEXT);
+            ++callSitesCount;
+
+            // the logger (receiver of the original call) becomes the first parameter
+            final String callSiteDescriptor = "(L" + ILOG + ";"
+                    + descriptor.substring(1, descriptor.indexOf(')'))
+                    + LOG_CALL_CONTEXT + ")V";
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, CALL_SITE_LOGGER, name, callSiteDescriptor, false);
+        }
+
+        private boolean isLoggingCall(int opcode, String owner, String name, String descriptor) {
+            final boolean isLoggerOwner = (opcode == Opcodes.INVOKEINTERFACE && owner.equals(ILOG))
+                    || (opcode == Opcodes.INVOKEVIRTUAL && owner.equals(SCOPED_LOGGER));
+            return isLoggerOwner && LOGGING_METHODS.contains(name + descriptor);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger.plugin;
+
+import com.android.build.gradle.BaseExtension;
+
+import org.gradle.api.Action;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+/**
+ * Gradle plugin instrumenting the calls to the JeeFo loggers of an Android application or library
+ * (see {@link CallSiteRewriter}), so the loggers get the class, method and line of each call
+ * without capturing the stack trace. Apply it after the Android plugin:
+ * <pre>
+ * apply plugin: 'com.android.application'
+ * apply plugin: 'com.jeefo.android.jeefologger.callsites'
+ * </pre>
+ */
+public class CallSitesPlugin implements Plugin<Project> {
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void apply(final Project project) {
+        final Action<Plugin> registerTransform = new Action<Plugin>() {
+            @Override
+            public void execute(Plugin androidPlugin) {
+                project.getExtensions().getByType(BaseExtension.class).registerTransform(new CallSitesTransform());
+            }
+        };
+
+        project.getPlugins().withId("com.android.application", registerTransform);
+        project.getPlugins().withId("com.android.library", registerTransform);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger.plugin;
+
+import com.android.build.api.transform.DirectoryInput;
+import com.android.build.api.transform.Format;
+import com.android.build.api.transform.JarInput;
+import com.android.build.api.transform.QualifiedContent;
+import com.android.build.api.transform.Transform;
+import com.android.build.api.transform.TransformInput;
+import com.android.build.api.transform.TransformInvocation;
+import com.android.build.api.transform.TransformOutputProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs the {@link CallSiteRewriter} over the classes of the project (not over its dependencies),
+ * before they are shrunk, obfuscated or dexed. The classes are always transformed from scratch as
+ * rewriting them is cheap compared to compiling them.
+ */
+class CallSitesTransform extends Transform {
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    @Override
+    public String getName() {
+        return "jeefoCallSites";
+    }
+
+    @Override
+    public Set<QualifiedContent.ContentType> getInputTypes() {
+        return Collections.<QualifiedContent.ContentType>singleton(QualifiedContent.DefaultContentType.CLASSES);
+    }
+
+    @Override
+    public Set<? super QualifiedContent.Scope> getScopes() {
+        return EnumSet.of(QualifiedContent.Scope.PROJECT);
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return false;
+    }
+
+    @Override
+    public void transform(TransformInvocation transformInvocation) throws IOException {
+        final TransformOutputProvider outputProvider = transformInvocation.getOutputProvider();
+        outputProvider.deleteAll();
+
+        for (TransformInput input : transformInvocation.getInputs()) {
+            for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
+                final File outputDirectory = outputProvider.getContentLocation(directoryInput.getName(),
+                        directoryInput.getContentTypes(), directoryInput.getScopes(), Format.DIRECTORY);
+                transformDirectory(directoryInput.getFile(), outputDirectory);
+            }
+
+            for (JarInput jarInput : input.getJarInputs()) {
+                final File outputJar = outputProvider.getContentLocation(jarInput.getName(),
+                        jarInput.getContentTypes(), jarInput.getScopes(), Format.JAR);
+                transformJar(jarInput.getFile(), outputJar);
+            }
+        }
+    }
+
+    private static void transformDirectory(File inputDirectory, File outputDirectory) throws IOException {
+        final File[] files = inputDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Failed to create " + outputDirectory);
+        }
+
+        for (File file : files) {
+            final File outputFile = new File(outputDirectory, file.getName());
+            if (file.isDirectory()) {
+                transformDirectory(file, outputFile);
+                continue;
+            }
+
+            byte[] content = readFully(new FileInputStream(file));
+            if (file.getName().endsWith(CLASS_FILE_EXTENSION)) {
+                content = CallSiteRewriter.rewrite(content);
+            }
+            final OutputStream output = new FileOutputStream(outputFile);
+            try {
+                output.write(content);
+            } finally {
+                output.close();
+            }
+        }
+    }
+
+    private static void transformJar(File inputJar, File outputJar) throws IOException {
+        final File outputDirectory = outputJar.getParentFile();
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Failed to create " + outputDirectory);
+        }
+
+        final ZipInputStream input = new ZipInputStream(new FileInputStream(inputJar));
+        try {
+            final ZipOutputStream output = new ZipOutputStream(new FileOutputStream(outputJar));
+            try {
+                final Set<String> entryNames = new HashSet<>();
+                ZipEntry entry;
+                while ((entry = input.getNextEntry()) != null) {
+                    if (entry.isDirectory() || !entryNames.add(entry.getName())) {
+                        continue;
+                    }
+
+                    byte[] content = readFully(input);
+                    if (entry.getName().endsWith(CLASS_FILE_EXTENSION)) {
+                        content = CallSiteRewriter.rewrite(content);
+                    }
+                    output.putNextEntry(new ZipEntry(entry.getName()));
+                    output.write(content);
+                    output.closeEntry();
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @param input the stream to be read; closed afterwards unless it's a {@link ZipInputStream}
+     * @return the remaining content of the stream (or of the current zip entry)
+     */
+    private static byte[] readFully(InputStream input) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                content.write(buffer, 0, count);
+            }
+        } finally {
+            if (!(input instanceof ZipInputStream)) {
+                input.close();
+            }
+        }
+        return content.toByteArray();
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger.plugin;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CallSiteRewriterTest {
+    private static final String SAMPLE = "com/example/Sample";
+    private static final String ILOG = "com/jeefo/android/jeefologger/ILog";
+    private static final String CALL_SITE_LOGGER = "com/jeefo/android/jeefologger/CallSiteLogger";
+    private static final String LOG_CALL_CONTEXT = "Lcom/jeefo/android/jeefologger/LogCallContext;";
+    private static final String MESSAGE = "(Ljava/lang/String;[Ljava/lang/Object;)V";
+
+    @Test
+    public void rewrite_passesTheCachedCallSiteOfTheCall() {
+        final byte[] classFile = CallSiteRewriter.rewrite(sampleClass(false, "work", 42));
+
+        final Map<String, Integer> fields = readFields(classFile);
+        assertEquals(Arrays.asList("jeefo$callSite0"), new ArrayList<>(fields.keySet()));
+        assertEquals(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                (int) fields.get("jeefo$callSite0"));
+
+        final Map<String, List<String>> methods = readMethods(classFile);
+        assertEquals(Arrays.asList(
+                "ALOAD 1",
+                "LDC message",
+                "ICONST_0",
+                "ANEWARRAY java/lang/Object",
+                "GETSTATIC " + SAMPLE + ".jeefo$callSite0",
+                "INVOKESTATIC " + CALL_SITE_LOGGER + ".Info(L" + ILOG + ";Ljava/lang/String;[Ljava/lang/Object;" + LOG_CALL_CONTEXT + ")V",
+                "RETURN"), methods.get("work"));
+        assertEquals(Arrays.asList(
+                "LDC com.example.Sample",
+                "LDC work",
+                "LDC Sample.java",
+                "LDC 42",
+                "INVOKESTATIC " + CALL_SITE_LOGGER + ".createCallSite(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)" + LOG_CALL_CONTEXT,
+                "PUTSTATIC " + SAMPLE + ".jeefo$callSite0",
+                "RETURN"), methods.get("<clinit>"));
+    }
+
+    @Test
+    public void rewrite_givesEveryCallSiteItsOwnField() {
+        final byte[] classFile = CallSiteRewriter.rewrite(sampleClass(false, "first", 10, "second", 20));
+
+        assertEquals(Arrays.asList("jeefo$callSite0", "jeefo$callSite1"), new ArrayList<>(readFields(classFile).keySet()));
+
+        final Map<String, List<String>> methods = readMethods(classFile);
+        assertTrue(methods.get("first").contains("GETSTATIC " + SAMPLE + ".jeefo$callSite0"));
+        assertTrue(methods.get("second").contains("GETSTATIC " + SAMPLE + ".jeefo$callSite1"));
+
+        final List<String> staticInitializer = methods.get("<clinit>");
+        assertEquals("LDC first", staticInitializer.get(1));
+        assertEquals("LDC 10", staticInitializer.get(3));
+        assertEquals("PUTSTATIC " + SAMPLE + ".jeefo$callSite0", staticInitializer.get(5));
+        assertEquals("LDC second", staticInitializer.get(7));
+        assertEquals("LDC 20", staticInitializer.get(9));
+        assertEquals("PUTSTATIC " + SAMPLE + ".jeefo$callSite1", staticInitializer.get(11));
+    }
+
+    @Test
+    public void rewrite_initializesTheCallSitesBeforeTheStaticInitializer() {
+        // the static initializer is placed after the logging method, as javac does
+        final byte[] classFile = CallSiteRewriter.rewrite(sampleClass(true, "work", 42));
+
+        final List<String> staticInitializer = readMethods(classFile).get("<clinit>");
+        assertEquals("PUTSTATIC " + SAMPLE + ".jeefo$callSite0", staticInitializer.get(5));
+        assertEquals(Arrays.asList("ICONST_1", "PUTSTATIC " + SAMPLE + ".initialized", "RETURN"),
+                staticInitializer.subList(6, staticInitializer.size()));
+    }
+
+    @Test
+    public void rewrite_passesTheHostOfAnAnonymousClass() {
+        final byte[] classFile = CallSiteRewriter.rewrite(anonymousClass("onCreate"));
+
+        assertEquals(Arrays.asList(
+                "LDC com.example.Sample$1",
+                "LDC run",
+                "LDC Sample.java",
+                "LDC 12",
+                "LDC com.example.Sample",
+                "LDC onCreate",
+                "INVOKESTATIC " + CALL_SITE_LOGGER + ".createCallSite(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I"
+                        + "Ljava/lang/String;Ljava/lang/String;)" + LOG_CALL_CONTEXT,
+                "PUTSTATIC " + SAMPLE + "$1.jeefo$callSite0",
+                "RETURN"), readMethods(classFile).get("<clinit>"));
+    }
+
+    @Test
+    public void rewrite_leavesOutTheUnknownHostMethod() {
+        // an anonymous class created by the initializer of a field
+        final List<String> staticInitializer = readMethods(CallSiteRewriter.rewrite(anonymousClass(null))).get("<clinit>");
+
+        assertEquals("LDC 12", staticInitializer.get(3));
+        assertEquals("INVOKESTATIC " + CALL_SITE_LOGGER + ".createCallSite(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I)"
+                + LOG_CALL_CONTEXT, staticInitializer.get(4));
+    }
+
+    @Test
+    public void rewrite_usesPublicFieldsInInterfaces() {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE,
+                SAMPLE, null, "java/lang/Object", null);
+        writer.visitSource("Sample.java", null);
+        addLoggingMethod(writer, Opcodes.ACC_PUBLIC, "work", 7);
+        writer.visitEnd();
+
+        final byte[] classFile = CallSiteRewriter.rewrite(writer.toByteArray());
+
+        assertEquals(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                (int) readFields(classFile).get("jeefo$callSite0"));
+        assertTrue(readMethods(classFile).containsKey("<clinit>"));
+    }
+
+    @Test
+    public void rewrite_keepsTheClassesWithoutLoggingCalls() {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC, SAMPLE, null, "java/lang/Object", null);
+        final MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "work", "()V", null, null);
+        method.visitCode();
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+        final byte[] classFile = writer.toByteArray();
+
+        assertSame(classFile, CallSiteRewriter.rewrite(classFile));
+    }
+
+    @Test
+    public void rewrite_keepsTheLibraryClasses() {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC, "com/jeefo/android/jeefologger/ScopedLogger", null, "java/lang/Object", null);
+        addLoggingMethod(writer, Opcodes.ACC_PUBLIC, "work", 1);
+        writer.visitEnd();
+        final byte[] classFile = writer.toByteArray();
+
+        assertSame(classFile, CallSiteRewriter.rewrite(classFile));
+        assertFalse(readMethods(classFile).containsKey("<clinit>"));
+    }
+
+    /**
+     * @param withStaticInitializer whether the class has a static initializer (placed after the
+     *                              logging methods) setting a static field
+     * @param methods               the name and line of the methods making a logging call
+     * @return the class file of a class whose methods log through an ILog
+     */
+    private static byte[] sampleClass(boolean withStaticInitializer, Object... methods) {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC, SAMPLE, null, "java/lang/Object", null);
+        writer.visitSource("Sample.java", null);
+        for (int index = 0; index < methods.length; index += 2) {
+            addLoggingMethod(writer, Opcodes.ACC_PUBLIC, (String) methods[index], (Integer) methods[index + 1]);
+        }
+
+        if (withStaticInitializer) {
+            writer.visitField(Opcodes.ACC_STATIC, "initialized", "Z", null, null).visitEnd();
+            final MethodVisitor method = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+            method.visitCode();
+            method.visitInsn(Opcodes.ICONST_1);
+            method.visitFieldInsn(Opcodes.PUTSTATIC, SAMPLE, "initialized", "Z");
+            method.visitInsn(Opcodes.RETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * @param hostMethodName the method of the sample class creating the anonymous class (null
+     *                       for the initializer of a field)
+     * @return the class file of an anonymous class of the sample class logging from its run method
+     */
+    private static byte[] anonymousClass(String hostMethodName) {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_7, Opcodes.ACC_SUPER, SAMPLE + "$1", null, "java/lang/Object", null);
+        writer.visitSource("Sample.java", null);
+        writer.visitOuterClass(SAMPLE, hostMethodName, hostMethodName != null ? "()V" : null);
+        writer.visitInnerClass(SAMPLE + "$1", null, null, 0);
+        addLoggingMethod(writer, Opcodes.ACC_PUBLIC, "run", 12);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Adds a method calling ILog#Info(String, Object...) on its parameter
+     */
+    private static void addLoggingMethod(ClassWriter writer, int access, String name, int lineNumber) {
+        final MethodVisitor method = writer.visitMethod(access, name, "(L" + ILOG + ";)V", null, null);
+        method.visitCode();
+        final Label start = new Label();
+        method.visitLabel(start);
+        method.visitLineNumber(lineNumber, start);
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitLdcInsn("message");
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+        method.visitMethodInsn(Opcodes.INVOKEINTERFACE, ILOG, "Info", MESSAGE, true);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * @return the access flags of the fields of the class by their names, in the order of the class file
+     */
+    private static Map<String, Integer> readFields(byte[] classFile) {
+        final Map<String, Integer> fields = new LinkedHashMap<>();
+        new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM6) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                if (name.startsWith(CallSiteRewriter.CALL_SITE_FIELD_PREFIX)) {
+                    assertEquals(LOG_CALL_CONTEXT, descriptor);
+                }
+                fields.put(name, access);
+                return null;
+            }
+        }, 0);
+        fields.remove("initialized");
+        return fields;
+    }
+
+    /**
+     * @return the instructions of the methods of the class by their names (the labels, line
+     * numbers and frames are left out)
+     */
+    private static Map<String, List<String>> readMethods(byte[] classFile) {
+        final Map<String, List<String>> methods = new LinkedHashMap<>();
+        new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM6) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                assertFalse("duplicate method " + name, methods.containsKey(name));
+                final List<String> instructions = new ArrayList<>();
+                methods.put(name, instructions);
+                return new MethodVisitor(Opcodes.ASM6) {
+                    @Override
+                    public void visitInsn(int opcode) {
+                        instructions.add(opcode == Opcodes.ICONST_0 ? "ICONST_0"
+                                : opcode == Opcodes.ICONST_1 ? "ICONST_1"
+                                : opcode == Opcodes.RETURN ? "RETURN" : "INSN " + opcode);
+                    }
+
+                    @Override
+                    public void visitVarInsn(int opcode, int var) {
+                        instructions.add((opcode == Opcodes.ALOAD ? "ALOAD " : "VAR " + opcode + " ") + var);
+                    }
+
+                    @Override
+                    public void visitTypeInsn(int opcode, String type) {
+                        instructions.add((opcode == Opcodes.ANEWARRAY ? "ANEWARRAY " : "TYPE " + opcode + " ") + type);
+                    }
+
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        instructions.add("LDC " + value);
+                    }
+
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                        instructions.add((opcode == Opcodes.GETSTATIC ? "GETSTATIC " : opcode == Opcodes.PUTSTATIC ? "PUTSTATIC " : "FIELD " + opcode + " ")
+                                + owner + "." + name);
+                    }
+
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                        instructions.add((opcode == Opcodes.INVOKESTATIC ? "INVOKESTATIC " : opcode == Opcodes.INVOKEINTERFACE ? "INVOKEINTERFACE " : "INVOKE " + opcode + " ")
+                                + owner + "." + name + descriptor);
+                    }
+                };
+            }
+        }, 0);
+        return methods;
+    }
+}
@@ -16,9 +16,10 @@
 
 package com.jeefo.android.jeefologger;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
-import java.util.LinkedList;
 import java.util.Locale;
 
 /**
@@ -29,20 +30,28 @@ abstract class AbstractScopedLogger implements ILog, IInternalLog {
     final static String TAG_KEY_CLASS = "Class";
     final static String TAG_KEY_METHOD = "Method";
 
-    // Used by classes extending this one
-    LinkedList<StackTraceElement> traceElements = null;
-
-    private String loggingPrefix = "";
-    protected IInternalLog logger;
+    // only set while the logger is constructed, volatile so the logger can be used by other threads
+    // without any locking
+    private volatile String loggingPrefix = "";
+    protected volatile IInternalLog logger;
 
     final String getLoggingPrefix() {
         return loggingPrefix;
     }
 
     /**
+     * @param context the {@link LogCallContext} of the message being logged
      * @return the {@link String} prefix for the logging message including all the tags
      */
-    abstract String getMessageLogPrefix();
+    abstract String getMessageLogPrefix(@NonNull LogCallContext context);
+
+    /**
+     * @return the {@link String} put between the prefix of this logger and the message logged
+     * through it (e.g. a space)
+     */
+    String getMessageStart() {
+        return "";
+    }
 
     /**
      * Used for adding tags to the {@link ILog}. The format of the tag: "[KEY VALUE]"
@@ -52,7 +61,7 @@ abstract class AbstractScopedLogger implements ILog, IInternalLog {
      * @param throwOnNullOrEmptyValue boolean indicating whether a null value param is acceptable
      * @throws IllegalArgumentException for null <i>value</i> IF <i>throwOnNullOrEmptyValue</i> is true
      */
-    final synchronized void addTag(String key, String value, boolean throwOnNullOrEmptyValue) {
+    final void addTag(String key, String value, boolean throwOnNullOrEmptyValue) {
         if (value == null || value.equals("")) {
             if (throwOnNullOrEmptyValue) {
                 throw new IllegalArgumentException("value should be non-null, non-empty string");
@@ -70,7 +79,7 @@ abstract class AbstractScopedLogger implements ILog, IInternalLog {
      *
      * @param logger the {@link IInternalLog} to be stored or null to create a new instance of {@link JeefoLogger}
      */
-    final synchronized void initLogger(@Nullable IInternalLog logger) {
+    final void initLogger(@Nullable IInternalLog logger) {
         if (logger == null) {
             this.logger = FinalLogger.getInstance();
         } else {
@@ -79,68 +88,273 @@ abstract class AbstractScopedLogger implements ILog, IInternalLog {
     }
 
     @Override
-    public final synchronized void InternalVerbose(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalVerbose(traceElements, getMessageLogPrefix() + messageToLog, args);
+    public final boolean isLoggable(@LogLevel int logLevel) {
+        return FinalLogger.isLoggable(logLevel);
+    }
+
+    /**
+     * Logs like {@link ILog#Verbose(String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Verbose(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        try {
+            InternalVerbose(context, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.v(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Verbose(Exception, String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Verbose(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        try {
+            InternalVerbose(context, exception, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.v(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Debug(String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Debug(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        try {
+            InternalDebug(context, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.d(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Debug(Exception, String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Debug(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        try {
+            InternalDebug(context, exception, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.d(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Info(String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Info(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        try {
+            InternalInfo(context, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.i(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Warn(String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Warn(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        try {
+            InternalWarn(context, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.w(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Warn(Exception, String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Warn(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        try {
+            InternalWarn(context, exception, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.w(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Error(String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Error(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        try {
+            InternalError(context, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Error(Exception, String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Error(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        try {
+            InternalError(context, exception, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Error(Exception)} does, but with the context built by the caller
+     *
+     * @param context   the {@link LogCallContext} built by the caller
+     * @param exception the exception to be logged
+     */
+    final void Error(@NonNull LogCallContext context, Exception exception) {
+        try {
+            InternalError(context, exception, getMessageStart());
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, ""));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Wtf(String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Wtf(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        try {
+            InternalWtf(context, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Wtf(Exception, String, Object...)} does, but with the context built by the caller
+     *
+     * @param context      the {@link LogCallContext} built by the caller
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     */
+    final void Wtf(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        try {
+            InternalWtf(context, exception, getMessageStart() + messageToLog, args);
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+        }
+    }
+
+    /**
+     * Logs like {@link ILog#Wtf(Exception)} does, but with the context built by the caller
+     *
+     * @param context   the {@link LogCallContext} built by the caller
+     * @param exception the exception to be logged
+     */
+    final void Wtf(@NonNull LogCallContext context, Exception exception) {
+        try {
+            InternalWtf(context, exception, getMessageStart());
+        } catch (Exception libraryException) {
+            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, getClass().getSimpleName()));
+            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, ""));
+        }
+    }
+
+    @Override
+    public final void InternalVerbose(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        logger.InternalVerbose(context, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalVerbose(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalVerbose(traceElements, exception, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalVerbose(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        logger.InternalVerbose(context, exception, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalDebug(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalDebug(traceElements, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalDebug(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        logger.InternalDebug(context, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalDebug(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalDebug(traceElements, exception, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalDebug(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        logger.InternalDebug(context, exception, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalInfo(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalInfo(traceElements, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalInfo(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        logger.InternalInfo(context, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalWarn(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalWarn(traceElements, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalWarn(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        logger.InternalWarn(context, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalWarn(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalWarn(traceElements, exception, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalWarn(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        logger.InternalWarn(context, exception, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalError(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalError(traceElements, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalError(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        logger.InternalError(context, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalError(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalError(traceElements, exception, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalError(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        logger.InternalError(context, exception, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalWtf(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalWtf(traceElements, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalWtf(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        logger.InternalWtf(context, getMessageLogPrefix(context) + messageToLog, args);
     }
 
     @Override
-    public final synchronized void InternalWtf(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        this.traceElements = traceElements;
-        logger.InternalWtf(traceElements, exception, getMessageLogPrefix() + messageToLog, args);
+    public final void InternalWtf(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        logger.InternalWtf(context, exception, getMessageLogPrefix(context) + messageToLog, args);
     }
 }
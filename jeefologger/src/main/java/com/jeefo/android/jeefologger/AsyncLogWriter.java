@@ -0,0 +1,358 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread draining the {@link LogRecordRingBuffer} in batches and passing the records
+ * to a {@link Target}. The callers only copy their record into the ring buffer and (rarely) wake
+ * this thread up, so the disk I/O never happens on their threads.
+ * <p>
+ * When the ring buffer is full, the {@link BackPressurePolicy} decides whether the callers wait or
+ * records are dropped. The dropped records are counted in a {@link StripedCounter} and reported to
+ * the target once the ring buffer is back to at most half full. The oldest records are dropped by
+ * this thread (the single consumer of the ring buffer) instead of being written, as requested by
+ * the callers waiting for room.
+ * </p>
+ */
+final class AsyncLogWriter extends Thread {
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long PRODUCER_BACK_OFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MIN_DROP_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The destination of the drained records. All the methods are called while holding the lock
+     * passed to the {@link AsyncLogWriter}
+     */
+    interface Target extends LogRecordRingBuffer.RecordHandler {
+        /**
+         * Called every time the ring buffer gets empty and then periodically while it stays empty
+         */
+        void onIdle();
+
+        /**
+         * Called when the writer stops, after all the records were drained
+         */
+        void onStopped();
+
+        /**
+         * Called once the writer caught up after some records were dropped
+         *
+         * @param droppedCount the number of records dropped since the previous call
+         */
+        void onRecordsDropped(long droppedCount);
+    }
+
+    @NonNull
+    private final LogRecordRingBuffer ringBuffer;
+    @NonNull
+    private final Target target;
+    @NonNull
+    private final Object targetLock;
+    @NonNull
+    private final StripedCounter droppedRecords;
+    private final Object drainedMonitor = new Object();
+    // the number of queued records to be dropped instead of written (see BackPressureMode#DROP_OLDEST)
+    private final AtomicInteger discardRequestsCount = new AtomicInteger(0);
+    // the ring buffer is under pressure from this many queued records on
+    private final int highWaterMark;
+    // the value of droppedRecords last reported to the target and when; writer thread only
+    private long reportedDroppedCount;
+    private long lastDropReportNanos;
+
+    @NonNull
+    private volatile BackPressurePolicy backPressurePolicy;
+
+    private volatile boolean running = true;
+    private volatile boolean parked = false;
+    private volatile int drainWaitersCount = 0;
+    private volatile long idleParkNanos;
+
+    /**
+     * @param ringBuffer         the {@link LogRecordRingBuffer} filled by the callers
+     * @param target             the {@link Target} receiving the records
+     * @param targetLock         the lock to be held while calling the target
+     * @param idleFlushMillis    how often the target is notified while idle (0 for the default)
+     * @param backPressurePolicy the {@link BackPressurePolicy} applied when the ring buffer is full
+     * @param droppedRecords     the counter of the dropped records (possibly shared with the
+     *                           previous writers; only the increments from now on are reported)
+     */
+    AsyncLogWriter(@NonNull LogRecordRingBuffer ringBuffer, @NonNull Target target, @NonNull Object targetLock, long idleFlushMillis,
+                   @NonNull BackPressurePolicy backPressurePolicy, @NonNull StripedCounter droppedRecords) {
+        super("JeeFo-LogWriter");
+        this.ringBuffer = ringBuffer;
+        this.target = target;
+        this.targetLock = targetLock;
+        this.backPressurePolicy = backPressurePolicy;
+        this.droppedRecords = droppedRecords;
+        this.reportedDroppedCount = droppedRecords.sum();
+        this.lastDropReportNanos = System.nanoTime() - MIN_DROP_REPORT_INTERVAL_NANOS;
+        this.highWaterMark = ringBuffer.getCapacity() - ringBuffer.getCapacity() / 4;
+        setIdleFlushMillis(idleFlushMillis);
+        setDaemon(true);
+    }
+
+    /**
+     * @param backPressurePolicy the {@link BackPressurePolicy} applied when the ring buffer is full
+     */
+    void setBackPressurePolicy(@NonNull BackPressurePolicy backPressurePolicy) {
+        this.backPressurePolicy = backPressurePolicy;
+    }
+
+    /**
+     * @param idleFlushMillis how often the target is notified while idle (0 for the default)
+     */
+    void setIdleFlushMillis(long idleFlushMillis) {
+        if (idleFlushMillis > 0) {
+            this.idleParkNanos = Math.min(MAX_IDLE_PARK_NANOS, TimeUnit.MILLISECONDS.toNanos(idleFlushMillis));
+        } else {
+            this.idleParkNanos = MAX_IDLE_PARK_NANOS;
+        }
+    }
+
+    /**
+     * Thread-safe. Copies a record into the ring buffer; if the buffer is full, the
+     * {@link BackPressurePolicy} decides whether to wait for a free slot or to drop a record.
+     *
+     * @param record the {@link LogRecord} to be copied (it can be reused afterwards)
+     * @return true if the record was queued or dropped; false if the writer was stopped
+     */
+    boolean enqueue(@NonNull LogRecord record) {
+        final BackPressurePolicy policy = backPressurePolicy;
+        @BackPressureMode final int mode = policy.getMode();
+        if (mode == BackPressureMode.DROP_BELOW_LEVEL && record.logLevel < policy.getMinKeptLevel()
+                && ringBuffer.getProducerPosition() - ringBuffer.getConsumerPosition() >= highWaterMark) {
+            droppedRecords.increment();
+            return true;
+        }
+
+        if (!ringBuffer.offer(record)) {
+            if (mode == BackPressureMode.DROP_NEWEST) {
+                droppedRecords.increment();
+                LockSupport.unpark(this);
+                return true;
+            }
+
+            if (mode == BackPressureMode.DROP_OLDEST) {
+                discardRequestsCount.incrementAndGet();
+            }
+            if (!offerWhenFree(record, policy.getBlockTimeoutMillis())) {
+                if (mode == BackPressureMode.DROP_OLDEST) {
+                    takeDiscardRequest();
+                }
+                if (!running) {
+                    return false;
+                }
+                droppedRecords.increment();
+                return true;
+            }
+        }
+
+        if (parked) {
+            LockSupport.unpark(this);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for a free slot in the ring buffer and copies the record into it
+     *
+     * @param timeoutMillis the maximum time to wait for (0 for unlimited)
+     * @return false if the time ran out or the writer was stopped
+     */
+    private boolean offerWhenFree(@NonNull LogRecord record, long timeoutMillis) {
+        final long deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        do {
+            if (!running) {
+                return false;
+            }
+            LockSupport.unpark(this);
+            LockSupport.parkNanos(PRODUCER_BACK_OFF_NANOS);
+            if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0) {
+                return ringBuffer.offer(record);
+            }
+        } while (!ringBuffer.offer(record));
+        return true;
+    }
+
+    /**
+     * @return whether a queued record should be dropped (and the request was taken)
+     */
+    private boolean takeDiscardRequest() {
+        int requestsCount;
+        while ((requestsCount = discardRequestsCount.get()) > 0) {
+            if (discardRequestsCount.compareAndSet(requestsCount, requestsCount - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks until all the records queued before this call were handed to the target
+     *
+     * @param timeoutMillis the maximum time to wait for
+     * @return whether all the records were drained in time
+     */
+    boolean awaitDrained(long timeoutMillis) {
+        if (Thread.currentThread() == this) {
+            return false;
+        }
+
+        final long targetPosition = ringBuffer.getProducerPosition();
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        synchronized (drainedMonitor) {
+            ++drainWaitersCount;
+            try {
+                while (ringBuffer.getConsumerPosition() < targetPosition) {
+                    final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                    if (remainingMillis <= 0 || !isAlive()) {
+                        return false;
+                    }
+                    LockSupport.unpark(this);
+                    drainedMonitor.wait(Math.min(remainingMillis, 10));
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                --drainWaitersCount;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting records and waits (up to the given timeout) for the queued ones to be written
+     *
+     * @param timeoutMillis the maximum time to wait for
+     */
+    void shutdown(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(this);
+
+        if (Thread.currentThread() != this) {
+            try {
+                join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return whether the writer still accepts records
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        while (running || !ringBuffer.isEmpty()) {
+            final int drainedCount;
+            try {
+                synchronized (targetLock) {
+                    drainedCount = ringBuffer.drain(drainHandler, MAX_BATCH_SIZE);
+                    reportDroppedRecords(false);
+                }
+            } catch (Exception e) {
+                Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to write the persistent log records: " + e.getMessage());
+                continue;
+            }
+
+            if (drainedCount > 0) {
+                notifyDrainWaiters();
+                continue;
+            }
+
+            synchronized (targetLock) {
+                target.onIdle();
+            }
+            notifyDrainWaiters();
+
+            parked = true;
+            // re-check after publishing the parked flag so a record offered in the meantime
+            // does not wait for the whole park duration
+            if (running && ringBuffer.isEmpty()) {
+                LockSupport.parkNanos(this, idleParkNanos);
+            }
+            parked = false;
+        }
+
+        synchronized (targetLock) {
+            reportDroppedRecords(true);
+            target.onStopped();
+        }
+        notifyDrainWaiters();
+    }
+
+    /**
+     * Hands the drained records to the target, except for the ones to be dropped
+     */
+    private final LogRecordRingBuffer.RecordHandler drainHandler = new LogRecordRingBuffer.RecordHandler() {
+        @Override
+        public void onRecord(@NonNull LogRecord record) {
+            if (discardRequestsCount.get() > 0 && takeDiscardRequest()) {
+                droppedRecords.increment();
+                return;
+            }
+            target.onRecord(record);
+        }
+    };
+
+    /**
+     * Tells the target about the records dropped since the last report, once the ring buffer is at
+     * most half full. This happens at most once a second so a long storm doesn't flood the target
+     * with reports; the idle writer still wakes up often enough to report the end of a storm.
+     * Must be called while holding the targetLock.
+     *
+     * @param isStopping whether to report regardless of the above as this is the last call
+     */
+    private void reportDroppedRecords(boolean isStopping) {
+        final long droppedCount = droppedRecords.sum();
+        if (droppedCount == reportedDroppedCount) {
+            return;
+        }
+
+        final long nowNanos = System.nanoTime();
+        if (!isStopping && (nowNanos - lastDropReportNanos < MIN_DROP_REPORT_INTERVAL_NANOS
+                || ringBuffer.getProducerPosition() - ringBuffer.getConsumerPosition() > ringBuffer.getCapacity() / 2)) {
+            return;
+        }
+
+        target.onRecordsDropped(droppedCount - reportedDroppedCount);
+        reportedDroppedCount = droppedCount;
+        lastDropReportNanos = nowNanos;
+    }
+
+    private void notifyDrainWaiters() {
+        if (drainWaitersCount > 0) {
+            synchronized (drainedMonitor) {
+                drainedMonitor.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.IntDef;
+
+import static com.jeefo.android.jeefologger.BackPressureMode.BLOCK;
+import static com.jeefo.android.jeefologger.BackPressureMode.DROP_BELOW_LEVEL;
+import static com.jeefo.android.jeefologger.BackPressureMode.DROP_NEWEST;
+import static com.jeefo.android.jeefologger.BackPressureMode.DROP_OLDEST;
+
+/**
+ * What a logging thread does when the queue of the asynchronous persistence is full (see
+ * {@link BackPressurePolicy})
+ * <p>
+ * {@link BackPressureMode#BLOCK}: the thread waits for the background writer to make room, up to
+ * the {@link BackPressurePolicy#getBlockTimeoutMillis()}; the record is dropped if that passes.
+ * </p>
+ * <p>
+ * {@link BackPressureMode#DROP_NEWEST}: the new record is dropped straight away.
+ * </p>
+ * <p>
+ * {@link BackPressureMode#DROP_OLDEST}: the oldest queued record is dropped to make room for the
+ * new one. The thread only waits for the record being written at that moment.
+ * </p>
+ * <p>
+ * {@link BackPressureMode#DROP_BELOW_LEVEL}: once the queue is three quarters full, the records
+ * below the {@link BackPressurePolicy#getMinKeptLevel()} are dropped straight away, which keeps
+ * the last quarter for the important ones; those wait as with {@link BackPressureMode#BLOCK}.
+ * </p>
+ */
+@IntDef({BLOCK, DROP_NEWEST, DROP_OLDEST, DROP_BELOW_LEVEL})
+public @interface BackPressureMode {
+    int BLOCK = 0;
+    int DROP_NEWEST = 1;
+    int DROP_OLDEST = 2;
+    int DROP_BELOW_LEVEL = 3;
+}
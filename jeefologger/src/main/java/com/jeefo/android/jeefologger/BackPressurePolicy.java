@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Decides what happens when the records are logged faster than the asynchronous persistence (see
+ * {@link JeefoLogger.Builder#withAsyncPersistence(boolean)}) can write them and its queue fills up.
+ * <p>
+ * The dropped records are counted (see {@link JeefoLogger#getDroppedRecordsCount()}) and, once
+ * the writer catches up, a single record telling how many were dropped is written to the log file
+ * in their place.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> The default policy ({@link BackPressurePolicy#BLOCK}) waits as long as needed,
+ * which matches the behaviour of the older versions of the library; a storm of logs can then
+ * stall the logging threads, the UI one included.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class BackPressurePolicy {
+
+    /**
+     * The logging threads wait for room in the queue for as long as needed; nothing is dropped
+     */
+    public static final BackPressurePolicy BLOCK = new Builder().build();
+
+    /**
+     * The records logged while the queue is full are dropped
+     */
+    public static final BackPressurePolicy DROP_NEWEST = new Builder().withMode(BackPressureMode.DROP_NEWEST).build();
+
+    /**
+     * The oldest queued records are dropped to make room for the new ones
+     */
+    public static final BackPressurePolicy DROP_OLDEST = new Builder().withMode(BackPressureMode.DROP_OLDEST).build();
+
+    @BackPressureMode
+    private final int mode;
+    private final long blockTimeoutMillis;
+    @LogLevel
+    private final int minKeptLevel;
+
+    private BackPressurePolicy(@NonNull Builder builder) {
+        this.mode = builder.mode;
+        this.blockTimeoutMillis = builder.blockTimeoutMillis;
+        this.minKeptLevel = builder.minKeptLevel;
+    }
+
+    /**
+     * @return the {@link BackPressureMode}
+     */
+    @BackPressureMode
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the maximum time a logging thread waits for room in the queue before its record is
+     * dropped; 0 if unlimited
+     */
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * @return the level of the records which are not dropped straight away by
+     * {@link BackPressureMode#DROP_BELOW_LEVEL}
+     */
+    @LogLevel
+    public int getMinKeptLevel() {
+        return minKeptLevel;
+    }
+
+    /**
+     * Builder class for the {@link BackPressurePolicy}. By default, the logging threads wait for as
+     * long as needed ({@link BackPressureMode#BLOCK} without a timeout).
+     */
+    public static class Builder {
+        @BackPressureMode
+        private int mode = BackPressureMode.BLOCK;
+        private long blockTimeoutMillis = 0;
+        @LogLevel
+        private int minKeptLevel = LogLevel.WARN;
+
+        /**
+         * @param mode the {@link BackPressureMode}
+         * @return self to allow cascading
+         */
+        public Builder withMode(@BackPressureMode int mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Used by {@link BackPressureMode#BLOCK}, by the records kept by
+         * {@link BackPressureMode#DROP_BELOW_LEVEL} and by {@link BackPressureMode#DROP_OLDEST}
+         * while the oldest record is being written
+         *
+         * @param timeoutMillis the maximum time a logging thread waits for room in the queue
+         *                      before its record is dropped (0 for unlimited)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withBlockTimeout(long timeoutMillis) {
+            if (timeoutMillis < 0) {
+                throw new IllegalArgumentException("timeoutMillis should not be negative");
+            }
+            this.blockTimeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The default level is {@value LogLevel#WARN}
+         *
+         * @param logLevel the records below this level are the first ones dropped by
+         *                 {@link BackPressureMode#DROP_BELOW_LEVEL}
+         * @return self to allow cascading
+         */
+        public Builder withMinKeptLevel(@LogLevel int logLevel) {
+            this.minKeptLevel = logLevel;
+            return this;
+        }
+
+        /**
+         * @return the newly built {@link BackPressurePolicy}
+         */
+        @NonNull
+        public BackPressurePolicy build() {
+            return new BackPressurePolicy(this);
+        }
+    }
+}
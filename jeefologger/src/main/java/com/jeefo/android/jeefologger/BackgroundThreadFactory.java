@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ThreadFactory} for the library's background work (closing, opening and maintaining the
+ * log files). The threads are daemons with the minimum priority so they never keep the process
+ * alive or compete with the app's threads.
+ */
+final class BackgroundThreadFactory implements ThreadFactory {
+    @NonNull
+    private final String namePrefix;
+    private final AtomicInteger threadsCount = new AtomicInteger(0);
+
+    /**
+     * @param namePrefix the prefix of the threads' names
+     */
+    BackgroundThreadFactory(@NonNull String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(@NonNull Runnable runnable) {
+        final Thread thread = new Thread(runnable, namePrefix + "-" + threadsCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Layout of the binary log segments ({@link PersistenceFormat#BINARY}).
+ * <p>
+ * A segment starts with {@link BinaryLogFormat#MAGIC} followed by a list of entries. Every entry
+ * starts with its type and ends with {@link BinaryLogFormat#ENTRY_END}, which is never 0 so the
+ * zero padding of the memory mapped segments can be told apart from the data:
+ * </p>
+ * <ul>
+ * <li>{@link BinaryLogFormat#ENTRY_SESSION}: forget the strings and the time of the previous
+ * entries. Written whenever a segment is opened for writing.</li>
+ * <li>{@link BinaryLogFormat#ENTRY_STRING}: id (varint), length (varint) and the UTF-8 bytes of a
+ * string referenced by the following records. Id 0 is always the empty string.</li>
+ * <li>{@link BinaryLogFormat#ENTRY_RECORD}: time difference from the previous record in
+ * milliseconds (zigzag varint), level (one byte; {@value LogLevel#NONE} for the library's own
+ * records), persistent tags string id (varint), message prefix string id (varint), length (varint)
+ * and the UTF-8 bytes of the rest of the message.</li>
+ * <li>{@link BinaryLogFormat#ENTRY_DEFERRED_RECORD}: a record whose message is formatted when read.
+ * Same as {@link BinaryLogFormat#ENTRY_RECORD} up to the prefix string id, followed by the
+ * template string id (varint), the arguments count (varint), every argument (one of the
+ * <code>ARG_*</code> types followed by its value), and the message suffix (one byte telling
+ * whether there's one, followed by its length as varint and its UTF-8 bytes).</li>
+ * </ul>
+ */
+final class BinaryLogFormat {
+    static final String EXTENSION = ".jlog";
+
+    static final byte[] MAGIC = {'J', 'L', 'O', 'G', 1};
+
+    static final int ENTRY_SESSION = 1;
+    static final int ENTRY_STRING = 2;
+    static final int ENTRY_RECORD = 3;
+    static final int ENTRY_DEFERRED_RECORD = 4;
+    static final int ENTRY_END = '\n';
+
+    static final int EMPTY_STRING_ID = 0;
+
+    // the arguments of the deferred records; the integers are zigzag varints and the floating
+    // point numbers are their raw bits (4 or 8 bytes, little endian)
+    static final int ARG_NULL = 0;
+    static final int ARG_STRING = 1;
+    static final int ARG_INT = 2;
+    static final int ARG_LONG = 3;
+    static final int ARG_SHORT = 4;
+    static final int ARG_BYTE = 5;
+    static final int ARG_FLOAT = 6;
+    static final int ARG_DOUBLE = 7;
+    static final int ARG_BOOLEAN = 8;
+    static final int ARG_CHAR = 9;
+
+    private BinaryLogFormat() {
+    }
+
+    static void writeVarLong(@NonNull ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    static void writeSignedVarLong(@NonNull ByteArrayOutputStream output, long value) {
+        writeVarLong(output, (value << 1) ^ (value >> 63));
+    }
+
+    static void writeFixedLong(@NonNull ByteArrayOutputStream output, long value, int bytesCount) {
+        for (int index = 0; index < bytesCount; ++index) {
+            output.write((int) (value >>> (index * 8)));
+        }
+    }
+
+    static void writeString(@NonNull EncodedRecordBuffer output, @NonNull String value) {
+        writeString(output, value, 0, value.length());
+    }
+
+    /**
+     * @param output the buffer the length and the UTF-8 bytes of the string are appended to
+     * @param value  the string containing the chars to be written
+     * @param start  the index of the first char
+     * @param end    the index after the last char
+     */
+    static void writeString(@NonNull EncodedRecordBuffer output, @NonNull String value, int start, int end) {
+        writeVarLong(output, EncodedRecordBuffer.getUtf8Length(value, start, end));
+        output.writeUtf8(value, start, end);
+    }
+
+    /**
+     * @param input the stream to read from
+     * @return the next byte
+     * @throws EOFException if the stream ended
+     * @throws IOException  if reading failed
+     */
+    static int readByte(@NonNull InputStream input) throws IOException {
+        final int value = input.read();
+        if (value < 0) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    static long readVarLong(@NonNull InputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int nextByte = readByte(input);
+            value |= (long) (nextByte & 0x7F) << shift;
+            if ((nextByte & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in the binary log");
+    }
+
+    static long readSignedVarLong(@NonNull InputStream input) throws IOException {
+        final long value = readVarLong(input);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long readFixedLong(@NonNull InputStream input, int bytesCount) throws IOException {
+        long value = 0;
+        for (int index = 0; index < bytesCount; ++index) {
+            value |= (long) readByte(input) << (index * 8);
+        }
+        return value;
+    }
+
+    @NonNull
+    static String readString(@NonNull InputStream input) throws IOException {
+        final byte[] bytes = new byte[readLength(input)];
+        readFully(input, bytes, bytes.length);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * @param input the stream to read from
+     * @return the length (varint) of the string which follows
+     * @throws IOException if reading failed or the length is invalid
+     */
+    static int readLength(@NonNull InputStream input) throws IOException {
+        final long length = readVarLong(input);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Malformed string in the binary log");
+        }
+        return (int) length;
+    }
+
+    static void readFully(@NonNull InputStream input, @NonNull byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            final int count = input.read(buffer, offset, length - offset);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            offset += count;
+        }
+    }
+
+    static void skipFully(@NonNull InputStream input, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            final long count = input.skip(remaining);
+            if (count <= 0) {
+                readByte(input);
+                --remaining;
+            } else {
+                remaining -= count;
+            }
+        }
+    }
+
+    /**
+     * @param output the buffer the argument is appended to
+     * @param arg    an argument captured by {@link StringUtils#captureArgs(Object[])}
+     */
+    static void writeArg(@NonNull EncodedRecordBuffer output, @Nullable Object arg) {
+        if (arg == null) {
+            output.write(ARG_NULL);
+        } else if (arg instanceof Integer) {
+            output.write(ARG_INT);
+            writeSignedVarLong(output, (Integer) arg);
+        } else if (arg instanceof Long) {
+            output.write(ARG_LONG);
+            writeSignedVarLong(output, (Long) arg);
+        } else if (arg instanceof Short) {
+            output.write(ARG_SHORT);
+            writeSignedVarLong(output, (Short) arg);
+        } else if (arg instanceof Byte) {
+            output.write(ARG_BYTE);
+            output.write((Byte) arg);
+        } else if (arg instanceof Float) {
+            output.write(ARG_FLOAT);
+            writeFixedLong(output, Float.floatToRawIntBits((Float) arg), 4);
+        } else if (arg instanceof Double) {
+            output.write(ARG_DOUBLE);
+            writeFixedLong(output, Double.doubleToRawLongBits((Double) arg), 8);
+        } else if (arg instanceof Boolean) {
+            output.write(ARG_BOOLEAN);
+            output.write((Boolean) arg ? 1 : 0);
+        } else if (arg instanceof Character) {
+            output.write(ARG_CHAR);
+            writeVarLong(output, (Character) arg);
+        } else {
+            output.write(ARG_STRING);
+            writeString(output, arg.toString());
+        }
+    }
+
+    /**
+     * @param input the stream to read from
+     * @return the argument written by {@link BinaryLogFormat#writeArg(EncodedRecordBuffer, Object)}
+     * @throws IOException if reading failed or the argument type is unknown
+     */
+    @Nullable
+    static Object readArg(@NonNull InputStream input) throws IOException {
+        final int argType = readByte(input);
+        switch (argType) {
+            case ARG_NULL:
+                return null;
+            case ARG_STRING:
+                return readString(input);
+            case ARG_INT:
+                return (int) readSignedVarLong(input);
+            case ARG_LONG:
+                return readSignedVarLong(input);
+            case ARG_SHORT:
+                return (short) readSignedVarLong(input);
+            case ARG_BYTE:
+                return (byte) readByte(input);
+            case ARG_FLOAT:
+                return Float.intBitsToFloat((int) readFixedLong(input, 4));
+            case ARG_DOUBLE:
+                return Double.longBitsToDouble(readFixedLong(input, 8));
+            case ARG_BOOLEAN:
+                return readByte(input) != 0;
+            case ARG_CHAR:
+                return (char) readVarLong(input);
+            default:
+                throw new IOException("Unknown argument type in the binary log: " + argType);
+        }
+    }
+}
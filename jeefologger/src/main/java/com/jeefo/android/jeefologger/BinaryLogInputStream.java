@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a segment written with the {@link BinaryLogFormat} and provides the same text lines the
+ * {@link TextLogRecordEncoder} would have written (see {@link BinaryLogReader}).
+ */
+class BinaryLogInputStream extends InputStream {
+    @NonNull
+    private final BinaryLogReader reader;
+    private final TextLogRecordEncoder textEncoder = new TextLogRecordEncoder();
+    private final LogRecord record = new LogRecord();
+    // the records older than this are skipped until the first one which is not
+    private long fromTimestampMillis;
+
+    private final EncodedRecordBuffer line = new EncodedRecordBuffer();
+    private int linePosition = 0;
+    private boolean isFinished = false;
+
+    /**
+     * @param input the raw (already decompressed) content of the binary segment; closed along
+     *              with this stream
+     * @throws IOException if the content does not start with the {@link BinaryLogFormat#MAGIC}
+     */
+    BinaryLogInputStream(@NonNull InputStream input) throws IOException {
+        this(input, true, Long.MIN_VALUE);
+    }
+
+    /**
+     * @param input               the raw (already decompressed) content of the binary segment,
+     *                            positioned at its start or at a sync point (see
+     *                            {@link LogTimeIndex}); closed along with this stream
+     * @param isAtStart           true if the input is positioned at the start of the segment
+     * @param fromTimestampMillis the records logged before this are skipped, up to the first one
+     *                            which is not
+     * @throws IOException if the content does not start with the {@link BinaryLogFormat#MAGIC}
+     */
+    BinaryLogInputStream(@NonNull InputStream input, boolean isAtStart, long fromTimestampMillis) throws IOException {
+        this.reader = new BinaryLogReader(input, isAtStart, null);
+        this.fromTimestampMillis = fromTimestampMillis;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillLine()) {
+            return -1;
+        }
+        return line.getBuffer()[linePosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillLine()) {
+            return -1;
+        }
+
+        final int count = Math.min(length, line.size() - linePosition);
+        System.arraycopy(line.getBuffer(), linePosition, buffer, offset, count);
+        linePosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * @return false if there's nothing left to be read
+     */
+    private boolean fillLine() throws IOException {
+        while (linePosition >= line.size()) {
+            if (isFinished || !reader.readRecord(record)) {
+                isFinished = true;
+                return false;
+            }
+
+            if (record.timestampMillis >= fromTimestampMillis) {
+                fromTimestampMillis = Long.MIN_VALUE;
+                line.reset();
+                textEncoder.encode(record, line);
+                linePosition = 0;
+            }
+        }
+        return true;
+    }
+}
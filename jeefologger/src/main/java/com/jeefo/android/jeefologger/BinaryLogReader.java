@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the records of a segment written with the {@link BinaryLogFormat}.
+ * <p>
+ * With a {@link LogQuery}, the level and the time of every record are checked before the rest of
+ * it is read; the message of a skipped record is not even copied. The tag and text filters are
+ * matched against the UTF-8 bytes, so only the matching records are turned into strings (except
+ * for the deferred records, which have to be formatted first to match the text).
+ * </p>
+ * <p>
+ * The records cut short by a crash (at the end of the segment) and the zero padding of the
+ * memory mapped segments are treated as the end of the segment.
+ * </p>
+ */
+class BinaryLogReader implements ILogSegmentReader {
+    @NonNull
+    private final InputStream input;
+    @Nullable
+    private final LogQuery query;
+    private final LogRecord record = new LogRecord();
+    private final TextLogRecordEncoder textEncoder = new TextLogRecordEncoder();
+    private final EncodedRecordBuffer line = new EncodedRecordBuffer();
+
+    // the strings of the current session, as stored and (lazily) decoded
+    private final List<byte[]> stringsBytes = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+    private long lastTimestampMillis = 0;
+    private boolean isFinished = false;
+
+    private byte[] messageBytes = new byte[256];
+    private byte[] matchedBytes = new byte[256];
+
+    /**
+     * @param input     the raw (already decompressed) content of the binary segment, positioned
+     *                  at its start or at a sync point (see {@link LogTimeIndex}); closed along
+     *                  with this reader
+     * @param isAtStart true if the input is positioned at the start of the segment
+     * @param query     the {@link LogQuery} the records must match (null to read all of them)
+     * @throws IOException if the segment does not start with the {@link BinaryLogFormat#MAGIC}
+     */
+    BinaryLogReader(@NonNull InputStream input, boolean isAtStart, @Nullable LogQuery query) throws IOException {
+        this.input = new BufferedInputStream(input, 64 * 1024);
+        this.query = query;
+
+        if (isAtStart) {
+            for (byte magicByte : BinaryLogFormat.MAGIC) {
+                if (this.input.read() != (magicByte & 0xFF)) {
+                    throw new IOException("Not a binary log file");
+                }
+            }
+        }
+        startSession();
+    }
+
+    @Nullable
+    @Override
+    public String readNext() throws IOException {
+        if (!readRecord(record)) {
+            return null;
+        }
+
+        line.reset();
+        textEncoder.encode(record, line);
+        return new String(line.getBuffer(), 0, line.size() - 1, "UTF-8");
+    }
+
+    /**
+     * @param record the {@link LogRecord} the next matching record is decoded into (null to only
+     *               skip it)
+     * @return false if there's no matching record left
+     * @throws IOException if the segment is malformed
+     */
+    boolean readRecord(@Nullable LogRecord record) throws IOException {
+        try {
+            while (!isFinished) {
+                if (readEntry(record)) {
+                    return true;
+                }
+            }
+        } catch (EOFException e) {
+            // the last record was not completely written
+            isFinished = true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean skipNext() throws IOException {
+        return readRecord(null);
+    }
+
+    @Override
+    public long getRecordTimeMillis() {
+        return lastTimestampMillis;
+    }
+
+    @Override
+    public boolean isRecordTimeTruncated() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * @param record the {@link LogRecord} a matching record is decoded into (null to skip it)
+     * @return true if the entry was a matching record
+     */
+    private boolean readEntry(@Nullable LogRecord record) throws IOException {
+        final int entryType = input.read();
+        switch (entryType) {
+            case -1:
+            case 0:
+                // end of the data (memory mapped segments are padded with zeros)
+                isFinished = true;
+                return false;
+            case BinaryLogFormat.ENTRY_SESSION:
+                startSession();
+                readEntryEnd();
+                return false;
+            case BinaryLogFormat.ENTRY_STRING:
+                final long id = BinaryLogFormat.readVarLong(input);
+                final byte[] value = new byte[BinaryLogFormat.readLength(input)];
+                BinaryLogFormat.readFully(input, value, value.length);
+                readEntryEnd();
+                if (id != stringsBytes.size()) {
+                    throw new IOException("Unexpected string id in the binary log: " + id);
+                }
+                stringsBytes.add(value);
+                strings.add(null);
+                return false;
+            case BinaryLogFormat.ENTRY_RECORD:
+                return readRecordEntry(record);
+            case BinaryLogFormat.ENTRY_DEFERRED_RECORD:
+                return readDeferredRecordEntry(record);
+            default:
+                throw new IOException("Unknown entry in the binary log: " + entryType);
+        }
+    }
+
+    private boolean readRecordEntry(@Nullable LogRecord record) throws IOException {
+        final long timestampMillis = lastTimestampMillis + BinaryLogFormat.readSignedVarLong(input);
+        final int logLevel = BinaryLogFormat.readByte(input);
+        final int tagsId = readStringId();
+        final int prefixId = readStringId();
+        final int messageLength = BinaryLogFormat.readLength(input);
+        lastTimestampMillis = timestampMillis;
+
+        final boolean isMatching = matchesLevelAndTime(logLevel, timestampMillis);
+        if (!isMatching || (record == null && !hasBytesFilters())) {
+            BinaryLogFormat.skipFully(input, messageLength);
+            readEntryEnd();
+            return isMatching;
+        }
+
+        if (messageBytes.length < messageLength) {
+            messageBytes = new byte[Math.max(messageLength, messageBytes.length * 2)];
+        }
+        BinaryLogFormat.readFully(input, messageBytes, messageLength);
+        readEntryEnd();
+
+        if (query != null && !matchesTagsAndText(tagsId, prefixId, messageBytes, messageLength)) {
+            return false;
+        }
+        if (record == null) {
+            return true;
+        }
+
+        //noinspection WrongConstant
+        record.set(timestampMillis, logLevel, LogRecord.getLevelName(logLevel), getString(tagsId),
+                getString(prefixId) + new String(messageBytes, 0, messageLength, "UTF-8"));
+        return true;
+    }
+
+    private boolean readDeferredRecordEntry(@Nullable LogRecord record) throws IOException {
+        final long timestampMillis = lastTimestampMillis + BinaryLogFormat.readSignedVarLong(input);
+        final int logLevel = BinaryLogFormat.readByte(input);
+        final int tagsId = readStringId();
+        final int prefixId = readStringId();
+        final int templateId = readStringId();
+
+        final long argsCount = BinaryLogFormat.readVarLong(input);
+        if (argsCount < 0 || argsCount > Short.MAX_VALUE) {
+            throw new IOException("Malformed arguments in the binary log");
+        }
+        final Object[] args = new Object[(int) argsCount];
+        for (int index = 0; index < args.length; ++index) {
+            args[index] = BinaryLogFormat.readArg(input);
+        }
+
+        final String messageSuffix = BinaryLogFormat.readByte(input) != 0 ? BinaryLogFormat.readString(input) : null;
+        readEntryEnd();
+        lastTimestampMillis = timestampMillis;
+
+        if (!matchesLevelAndTime(logLevel, timestampMillis)
+                || (query != null && !matchesTagsAndText(tagsId, prefixId, null, 0))) {
+            return false;
+        }
+
+        final String text = query != null ? query.getText() : null;
+        if (record == null && text == null) {
+            return true;
+        }
+
+        // the text can only be matched once the message is formatted
+        final LogRecord decodedRecord = record != null ? record : this.record;
+        final String tagsPrefix = getString(tagsId);
+        //noinspection WrongConstant
+        decodedRecord.setDeferred(timestampMillis, logLevel, LogRecord.getLevelName(logLevel), tagsPrefix,
+                getString(prefixId) + getString(templateId), args, messageSuffix);
+        return text == null || (tagsPrefix + decodedRecord.getFormattedMessage()).contains(text);
+    }
+
+    private boolean hasBytesFilters() {
+        return query != null && (query.getTagBytes() != null || query.getTextBytes() != null);
+    }
+
+    private boolean matchesLevelAndTime(int logLevel, long timestampMillis) {
+        if (query == null) {
+            return true;
+        }
+        if (query.isPastEnd(timestampMillis)) {
+            isFinished = true;
+            return false;
+        }
+        return query.matchesLevel(logLevel) && query.matchesTime(timestampMillis);
+    }
+
+    /**
+     * @param messageBytes  the UTF-8 bytes of the message without its prefix; null for the
+     *                      deferred records, whose text is matched once formatted
+     * @param messageLength the length of the message
+     * @return whether the tags and the text match the {@link LogQuery}
+     */
+    private boolean matchesTagsAndText(int tagsId, int prefixId, @Nullable byte[] messageBytes, int messageLength) {
+        //noinspection ConstantConditions
+        final byte[] tagBytes = query.getTagBytes();
+        final byte[] textBytes = messageBytes != null ? query.getTextBytes() : null;
+        if (tagBytes == null && textBytes == null) {
+            return true;
+        }
+
+        final byte[] tags = stringsBytes.get(tagsId);
+        final byte[] prefix = stringsBytes.get(prefixId);
+        int length = append(0, tags, tags.length);
+        length = append(length, prefix, prefix.length);
+        if (tagBytes != null && !LogQuery.contains(matchedBytes, 0, LogQuery.getTagsEnd(matchedBytes, 0, length), tagBytes)) {
+            return false;
+        }
+
+        if (textBytes != null) {
+            length = append(length, messageBytes, messageLength);
+            return LogQuery.contains(matchedBytes, 0, length, textBytes);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the bytes at the given position of matchedBytes, growing it if needed
+     *
+     * @return the position after the copied bytes
+     */
+    private int append(int position, @NonNull byte[] bytes, int length) {
+        if (matchedBytes.length < position + length) {
+            final byte[] newBytes = new byte[Math.max(position + length, matchedBytes.length * 2)];
+            System.arraycopy(matchedBytes, 0, newBytes, 0, position);
+            matchedBytes = newBytes;
+        }
+        System.arraycopy(bytes, 0, matchedBytes, position, length);
+        return position + length;
+    }
+
+    private void startSession() {
+        stringsBytes.clear();
+        strings.clear();
+        stringsBytes.add(new byte[0]);
+        strings.add("");
+        lastTimestampMillis = 0;
+    }
+
+    private int readStringId() throws IOException {
+        final long id = BinaryLogFormat.readVarLong(input);
+        if (id < 0 || id >= stringsBytes.size()) {
+            throw new IOException("Unknown string id in the binary log: " + id);
+        }
+        return (int) id;
+    }
+
+    @NonNull
+    private String getString(int id) throws IOException {
+        String value = strings.get(id);
+        if (value == null) {
+            value = new String(stringsBytes.get(id), "UTF-8");
+            strings.set(id, value);
+        }
+        return value;
+    }
+
+    private void readEntryEnd() throws IOException {
+        if (BinaryLogFormat.readByte(input) != BinaryLogFormat.ENTRY_END) {
+            throw new IOException("Malformed entry in the binary log");
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes the {@link LogRecord}s with the {@link BinaryLogFormat}. The persistent tags, the
+ * "[KEY value]" prefix of the messages (e.g. the class and method of the scoped loggers) and the
+ * format templates of the deferred records repeat in almost every record, so each distinct one is
+ * written once and then referenced by its id.
+ * <p>
+ * The encoder keeps the strings written so far and the time of the last record, so the encoded
+ * records must be written in the same order as they were encoded and it is not thread-safe.
+ * </p>
+ */
+class BinaryLogRecordEncoder implements ILogRecordEncoder {
+    // once there are this many strings, the dictionary starts over with a new session entry
+    static final int MAX_STRINGS_COUNT = 4096;
+    // the size of the table of prefixes and templates (a power of 2); cleared once half full
+    private static final int PARTS_TABLE_SIZE = 1024;
+
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    // the prefix and template Strings seen so far, found by the hash of their chars (see getStringId)
+    private final String[] partsTable = new String[PARTS_TABLE_SIZE];
+    private int partsCount = 0;
+    private boolean isMagicPending;
+    private boolean isSessionPending = true;
+    private long lastTimestampMillis = 0;
+
+    /**
+     * @param isNewSegment true if the segment is empty and the file header must be written first
+     */
+    BinaryLogRecordEncoder(boolean isNewSegment) {
+        this.isMagicPending = isNewSegment;
+    }
+
+    @Override
+    public void encode(@NonNull LogRecord record, @NonNull EncodedRecordBuffer output) throws IOException {
+        if (isMagicPending) {
+            isMagicPending = false;
+            output.write(BinaryLogFormat.MAGIC);
+        }
+        if (isSessionPending || stringIds.size() >= MAX_STRINGS_COUNT) {
+            startSession(output);
+        }
+
+        if (record.template != null) {
+            encodeDeferred(record, record.template, output);
+            return;
+        }
+
+        final String message = record.message;
+        final int prefixLength = getMessagePrefixLength(message);
+        final int tagsId = getStringId(record.type != null ? record.tagsPrefix : "", output);
+        final int prefixId = getStringId(message, 0, prefixLength, output);
+
+        output.write(BinaryLogFormat.ENTRY_RECORD);
+        BinaryLogFormat.writeSignedVarLong(output, record.timestampMillis - lastTimestampMillis);
+        output.write(record.type != null ? record.logLevel : LogLevel.NONE);
+        BinaryLogFormat.writeVarLong(output, tagsId);
+        BinaryLogFormat.writeVarLong(output, prefixId);
+        BinaryLogFormat.writeString(output, message, prefixLength, message.length());
+        output.write(BinaryLogFormat.ENTRY_END);
+        lastTimestampMillis = record.timestampMillis;
+    }
+
+    /**
+     * Starts a new session with the next record, so the strings it references are written again
+     */
+    @Override
+    public void startSyncPoint() {
+        isSessionPending = true;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    private void encodeDeferred(@NonNull LogRecord record, @NonNull String template,
+                                @NonNull EncodedRecordBuffer output) {
+        final int prefixLength = getMessagePrefixLength(template);
+        final int tagsId = getStringId(record.type != null ? record.tagsPrefix : "", output);
+        final int prefixId = getStringId(template, 0, prefixLength, output);
+        final int templateId = getStringId(template, prefixLength, template.length(), output);
+        final Object[] args = record.args != null ? record.args : new Object[0];
+
+        output.write(BinaryLogFormat.ENTRY_DEFERRED_RECORD);
+        BinaryLogFormat.writeSignedVarLong(output, record.timestampMillis - lastTimestampMillis);
+        output.write(record.type != null ? record.logLevel : LogLevel.NONE);
+        BinaryLogFormat.writeVarLong(output, tagsId);
+        BinaryLogFormat.writeVarLong(output, prefixId);
+        BinaryLogFormat.writeVarLong(output, templateId);
+        BinaryLogFormat.writeVarLong(output, args.length);
+        for (Object arg : args) {
+            BinaryLogFormat.writeArg(output, arg);
+        }
+        if (record.messageSuffix != null) {
+            output.write(1);
+            BinaryLogFormat.writeString(output, record.messageSuffix);
+        } else {
+            output.write(0);
+        }
+        output.write(BinaryLogFormat.ENTRY_END);
+        lastTimestampMillis = record.timestampMillis;
+    }
+
+    private void startSession(@NonNull EncodedRecordBuffer output) {
+        isSessionPending = false;
+        stringIds.clear();
+        stringIds.put("", BinaryLogFormat.EMPTY_STRING_ID);
+        lastTimestampMillis = 0;
+
+        output.write(BinaryLogFormat.ENTRY_SESSION);
+        output.write(BinaryLogFormat.ENTRY_END);
+    }
+
+    /**
+     * Same as {@link BinaryLogRecordEncoder#getStringId(String, EncodedRecordBuffer)} for a part
+     * of a string, which is only copied to a new String the first time it's seen
+     *
+     * @param value  the string containing the part to be referenced by a record
+     * @param start  the index of the part's first char
+     * @param end    the index after the part's last char
+     * @param output the buffer the string definition is written to
+     * @return the id of the part
+     */
+    private int getStringId(@NonNull String value, int start, int end,
+                            @NonNull EncodedRecordBuffer output) {
+        if (start == end) {
+            return BinaryLogFormat.EMPTY_STRING_ID;
+        }
+        if (start == 0 && end == value.length()) {
+            return getStringId(value, output);
+        }
+
+        // the parts repeat in almost every record, so the Strings are kept in an open addressing
+        // table looked up with the chars of the part
+        final int length = end - start;
+        final int hash = getHashCode(value, start, end);
+        int slot = (hash ^ (hash >>> 16)) & (PARTS_TABLE_SIZE - 1);
+        String part;
+        while ((part = partsTable[slot]) != null) {
+            if (part.length() == length && value.regionMatches(start, part, 0, length)) {
+                return getStringId(part, output);
+            }
+            slot = (slot + 1) & (PARTS_TABLE_SIZE - 1);
+        }
+
+        part = value.substring(start, end);
+        if (partsCount >= PARTS_TABLE_SIZE / 2) {
+            Arrays.fill(partsTable, null);
+            partsCount = 0;
+            slot = (hash ^ (hash >>> 16)) & (PARTS_TABLE_SIZE - 1);
+        }
+        partsTable[slot] = part;
+        ++partsCount;
+        return getStringId(part, output);
+    }
+
+    /**
+     * @param value  the string to be referenced by a record
+     * @param output the buffer the string definition is written to
+     * @return the id of the string, which is defined first if it's seen for the first time
+     */
+    private int getStringId(@NonNull String value, @NonNull EncodedRecordBuffer output) {
+        final Integer knownId = stringIds.get(value);
+        if (knownId != null) {
+            return knownId;
+        }
+
+        final int newId = stringIds.size();
+        stringIds.put(value, newId);
+
+        output.write(BinaryLogFormat.ENTRY_STRING);
+        BinaryLogFormat.writeVarLong(output, newId);
+        BinaryLogFormat.writeString(output, value, 0, value.length());
+        output.write(BinaryLogFormat.ENTRY_END);
+        return newId;
+    }
+
+    /**
+     * @return the same value as {@link String#hashCode()} of the substring
+     */
+    private static int getHashCode(@NonNull String value, int start, int end) {
+        int hash = 0;
+        for (int index = start; index < end; ++index) {
+            hash = 31 * hash + value.charAt(index);
+        }
+        return hash;
+    }
+
+    /**
+     * @param message the formatted message
+     * @return the length of the "[KEY value][KEY value] " run at the start of the message; 0 if
+     * there's none
+     */
+    static int getMessagePrefixLength(@NonNull String message) {
+        int prefixLength = 0;
+        while (prefixLength < message.length() && message.charAt(prefixLength) == '[') {
+            final int tagEnd = message.indexOf(']', prefixLength);
+            if (tagEnd < 0) {
+                break;
+            }
+            prefixLength = tagEnd + 1;
+        }
+
+        if (prefixLength > 0 && prefixLength < message.length() && message.charAt(prefixLength) == ' ') {
+            ++prefixLength;
+        }
+        return prefixLength;
+    }
+}
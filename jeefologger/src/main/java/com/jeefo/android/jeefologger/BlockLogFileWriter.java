@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * {@link ILogFileWriter} compressing the records into independent blocks (see
+ * {@link BlockLogFormat}). The records of the current block are kept in memory; every flush
+ * (according to the {@link FlushPolicy}) compresses the ones not written yet, appends them to the
+ * block and updates the block's header. Once the block is full, the next record starts a new one.
+ * <p>
+ * Every block is a single deflate stream, sync flushed at every flush. {@link Deflater#SYNC_FLUSH}
+ * is only available from API 19, so the older devices end the stream at every flush and start a
+ * new one using the records before it as the dictionary instead, which costs more CPU per flush.
+ * </p>
+ * <p>
+ * The positions returned by {@link BlockLogFileWriter#write(byte[], int, int, int, long)} are the
+ * ones of the blocks holding the records, as those can be read without the blocks before them.
+ * </p>
+ */
+class BlockLogFileWriter implements ILogFileWriter {
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+    private static final boolean CAN_SYNC_FLUSH = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    @NonNull
+    private final File file;
+    @NonNull
+    private final RandomAccessFile randomAccessFile;
+    @NonNull
+    private final FileChannel channel;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 blockChecksum = new CRC32();
+    private final byte[] header = new byte[BlockLogFormat.HEADER_LENGTH];
+    private final byte[] compressedData = new byte[OUTPUT_BUFFER_SIZE];
+    @NonNull
+    private FlushPolicy flushPolicy;
+
+    // the records of the current block, compressed up to blockCompressedUpTo
+    @NonNull
+    private byte[] blockData = new byte[BlockLogFormat.BLOCK_SIZE];
+    private int blockLength = 0;
+    private int blockCompressedUpTo = 0;
+    // the position of the current block's header; -1 if there is no current block
+    private long blockOffset = -1;
+    private int blockCompressedLength = 0;
+    private long blockFirstTimestamp = 0;
+    // the position the next block starts at
+    private long nextBlockOffset;
+
+    private int pendingRecords = 0;
+    private long oldestPendingRecordNanos = 0;
+
+    /**
+     * @param file        the log {@link File} to append to (created if missing); it must end with
+     *                    a whole block (see {@link FramedLogRecovery})
+     * @param flushPolicy the {@link FlushPolicy} deciding when the buffered records are written
+     * @throws IOException if the file cannot be opened
+     */
+    BlockLogFileWriter(@NonNull File file, @NonNull FlushPolicy flushPolicy) throws IOException {
+        this.file = file;
+        this.flushPolicy = flushPolicy;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        this.nextBlockOffset = channel.size();
+    }
+
+    @Override
+    public long write(@NonNull byte[] data, int offset, int length, @LogLevel int logLevel, long timestampMillis) throws IOException {
+        if (blockOffset != -1 && blockLength + length > BlockLogFormat.BLOCK_SIZE) {
+            closeBlock();
+        }
+        if (blockOffset == -1) {
+            openBlock(timestampMillis);
+        }
+
+        final long recordBlockOffset = blockOffset;
+        if (length > blockData.length) {
+            // too big for the block; it gets a block of its own
+            blockData = new byte[length];
+        }
+        System.arraycopy(data, offset, blockData, blockLength, length);
+        blockLength += length;
+
+        if (pendingRecords == 0) {
+            oldestPendingRecordNanos = System.nanoTime();
+        }
+        ++pendingRecords;
+
+        if (blockLength >= BlockLogFormat.BLOCK_SIZE) {
+            closeBlock();
+        } else {
+            final long pendingMillis = (System.nanoTime() - oldestPendingRecordNanos) / 1000000L;
+            if (flushPolicy.shouldFlush(pendingRecords, blockLength - blockCompressedUpTo, pendingMillis, logLevel)) {
+                flush();
+            }
+        }
+        return recordBlockOffset;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (blockLength == blockCompressedUpTo) {
+            return;
+        }
+
+        blockChecksum.update(blockData, blockCompressedUpTo, blockLength - blockCompressedUpTo);
+        pendingRecords = 0;
+        if (CAN_SYNC_FLUSH) {
+            deflater.setInput(blockData, blockCompressedUpTo, blockLength - blockCompressedUpTo);
+            int compressedCount;
+            do {
+                compressedCount = deflater.deflate(compressedData, 0, compressedData.length, Deflater.SYNC_FLUSH);
+                appendCompressedData(compressedCount);
+            } while (compressedCount == compressedData.length);
+        } else {
+            deflater.reset();
+            if (blockCompressedUpTo > 0) {
+                // the new stream refers back to the records already in the block
+                final int dictionaryLength = Math.min(blockCompressedUpTo, BlockLogFormat.MAX_DICTIONARY_LENGTH);
+                deflater.setDictionary(blockData, blockCompressedUpTo - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(blockData, blockCompressedUpTo, blockLength - blockCompressedUpTo);
+            deflater.finish();
+            while (!deflater.finished()) {
+                appendCompressedData(deflater.deflate(compressedData, 0, compressedData.length));
+            }
+        }
+        blockCompressedUpTo = blockLength;
+
+        // only once the data is there, so the header never describes missing data
+        BlockLogFormat.writeHeader(header, blockLength, blockCompressedLength, blockFirstTimestamp, blockChecksum.getValue());
+        writeFully(ByteBuffer.wrap(header), blockOffset);
+        nextBlockOffset = blockOffset + BlockLogFormat.HEADER_LENGTH + blockCompressedLength;
+    }
+
+    @Override
+    public void flushIfExpired() throws IOException {
+        final long maxPendingMillis = flushPolicy.getMaxPendingMillis();
+        if (pendingRecords > 0 && maxPendingMillis > 0
+                && (System.nanoTime() - oldestPendingRecordNanos) / 1000000L >= maxPendingMillis) {
+            flush();
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public void setFlushPolicy(@NonNull FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    private void openBlock(long timestampMillis) {
+        deflater.reset();
+        blockOffset = nextBlockOffset;
+        blockFirstTimestamp = timestampMillis;
+        blockLength = 0;
+        blockCompressedUpTo = 0;
+        blockCompressedLength = 0;
+        blockChecksum.reset();
+    }
+
+    private void closeBlock() throws IOException {
+        flush();
+        blockOffset = -1;
+        if (blockData.length > BlockLogFormat.BLOCK_SIZE) {
+            blockData = new byte[BlockLogFormat.BLOCK_SIZE];
+        }
+    }
+
+    private void appendCompressedData(int compressedCount) throws IOException {
+        writeFully(ByteBuffer.wrap(compressedData, 0, compressedCount),
+                blockOffset + BlockLogFormat.HEADER_LENGTH + blockCompressedLength);
+        blockCompressedLength += compressedCount;
+    }
+
+    private void writeFully(@NonNull ByteBuffer source, long position) throws IOException {
+        long writePosition = position;
+        while (source.hasRemaining()) {
+            writePosition += channel.write(source, writePosition);
+        }
+    }
+}
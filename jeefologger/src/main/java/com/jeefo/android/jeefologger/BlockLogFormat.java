@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Layout of the block compressed text log segments (see {@link PersistenceFormat#COMPRESSED_TEXT}).
+ * <p>
+ * The text lines are grouped into blocks of up to {@value BLOCK_SIZE} bytes (a longer line gets a
+ * block of its own) and every block is compressed on its own, so it can be inflated without the
+ * ones before it. A block is made of a {@value HEADER_LENGTH} bytes header followed by the raw
+ * deflate data:
+ * </p>
+ * <ul>
+ * <li>{@link BlockLogFormat#BLOCK_MARKER} (one byte)</li>
+ * <li>the uncompressed length (4 bytes, little endian)</li>
+ * <li>the compressed length (4 bytes, little endian)</li>
+ * <li>the time of the first record of the block (8 bytes, little endian)</li>
+ * <li>the CRC32 of the uncompressed data (4 bytes, little endian)</li>
+ * <li>the CRC32 of all the fields above (4 bytes, little endian)</li>
+ * </ul>
+ * <p>
+ * The block being written grows every time the records are flushed: the new records are
+ * compressed and sync flushed (so they can be inflated without the ones which will follow them),
+ * appended to the block, and only then is the header rewritten with the new lengths. A crash
+ * between the two leaves a header describing the data which was there before; the bytes after it
+ * are cut off on the next start (see {@link FramedLogRecovery}). The devices without
+ * {@link java.util.zip.Deflater#SYNC_FLUSH} (before API 19) end the deflate stream at every flush
+ * and start a new one, with the last {@value MAX_DICTIONARY_LENGTH} bytes of the block as the
+ * dictionary, so a block may also be a sequence of streams.
+ * </p>
+ * <p>
+ * A reader looking for a time only reads the headers, hopping from one block to the next, and
+ * inflates the records from the last block started before that time (see
+ * {@link BlockLogFormat#findBlockOffset(File, long)}).
+ * </p>
+ */
+final class BlockLogFormat {
+    static final String EXTENSION = ".zlog";
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int BLOCK_MARKER = 0xB1;
+    static final int HEADER_LENGTH = 25;
+    // the dictionary of every stream but the first of a block (see above); setting a longer one
+    // costs more CPU at every flush than it saves space
+    static final int MAX_DICTIONARY_LENGTH = 8 * 1024;
+    // longer blocks are treated as damaged length fields
+    static final int MAX_UNCOMPRESSED_LENGTH = 16 * 1024 * 1024;
+
+    private static final int UNCOMPRESSED_LENGTH_OFFSET = 1;
+    private static final int COMPRESSED_LENGTH_OFFSET = 5;
+    private static final int FIRST_TIMESTAMP_OFFSET = 9;
+    private static final int DATA_CHECKSUM_OFFSET = 17;
+    private static final int HEADER_CHECKSUM_OFFSET = 21;
+
+    private static final ThreadLocal<CRC32> threadChecksum = new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    private BlockLogFormat() {
+    }
+
+    /**
+     * Fills a block header
+     *
+     * @param header             the array receiving the header
+     * @param uncompressedLength the length of the block's records
+     * @param compressedLength   the length of the deflate data following the header
+     * @param firstTimestamp     the time of the block's first record
+     * @param dataChecksum       the CRC32 of the block's records
+     */
+    static void writeHeader(@NonNull byte[] header, int uncompressedLength, int compressedLength,
+                            long firstTimestamp, long dataChecksum) {
+        header[0] = (byte) BLOCK_MARKER;
+        writeInt(header, UNCOMPRESSED_LENGTH_OFFSET, uncompressedLength);
+        writeInt(header, COMPRESSED_LENGTH_OFFSET, compressedLength);
+        writeInt(header, FIRST_TIMESTAMP_OFFSET, (int) firstTimestamp);
+        writeInt(header, FIRST_TIMESTAMP_OFFSET + 4, (int) (firstTimestamp >>> 32));
+        writeInt(header, DATA_CHECKSUM_OFFSET, (int) dataChecksum);
+        writeInt(header, HEADER_CHECKSUM_OFFSET, computeHeaderChecksum(header, 0));
+    }
+
+    /**
+     * @param data   the array holding a block header
+     * @param offset the offset of the header
+     * @return whether the header is not damaged and its lengths are plausible
+     */
+    static boolean isValidHeader(@NonNull byte[] data, int offset) {
+        if ((data[offset] & 0xFF) != BLOCK_MARKER
+                || readInt(data, offset + HEADER_CHECKSUM_OFFSET) != computeHeaderChecksum(data, offset)) {
+            return false;
+        }
+
+        final int uncompressedLength = getUncompressedLength(data, offset);
+        final int compressedLength = getCompressedLength(data, offset);
+        return uncompressedLength >= 0 && uncompressedLength <= MAX_UNCOMPRESSED_LENGTH
+                && compressedLength >= 0 && compressedLength <= getMaxCompressedLength(uncompressedLength);
+    }
+
+    static int getUncompressedLength(@NonNull byte[] header, int offset) {
+        return readInt(header, offset + UNCOMPRESSED_LENGTH_OFFSET);
+    }
+
+    static int getCompressedLength(@NonNull byte[] header, int offset) {
+        return readInt(header, offset + COMPRESSED_LENGTH_OFFSET);
+    }
+
+    static long getFirstTimestamp(@NonNull byte[] header, int offset) {
+        return (readInt(header, offset + FIRST_TIMESTAMP_OFFSET) & 0xFFFFFFFFL)
+                | ((long) readInt(header, offset + FIRST_TIMESTAMP_OFFSET + 4) << 32);
+    }
+
+    static int getDataChecksum(@NonNull byte[] header, int offset) {
+        return readInt(header, offset + DATA_CHECKSUM_OFFSET);
+    }
+
+    /**
+     * @param uncompressedLength the length of the block's records
+     * @return the upper bound of the deflate data for the block, allowing for a separate stream
+     * (a few bytes each) for every flush of a record
+     */
+    static int getMaxCompressedLength(int uncompressedLength) {
+        return 2 * uncompressedLength + 1024;
+    }
+
+    /**
+     * Reads the block headers of an uncompressed segment (without inflating the blocks)
+     *
+     * @param segmentFile     the block compressed segment
+     * @param timestampMillis the time looked for
+     * @return the offset of the last block whose first record was logged before the given time;
+     * 0 if there's none or the headers cannot be read
+     */
+    static long findBlockOffset(@NonNull File segmentFile, long timestampMillis) {
+        final byte[] header = new byte[HEADER_LENGTH];
+        long foundOffset = 0;
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(segmentFile, "r");
+            final long fileLength = file.length();
+            long offset = 0;
+            while (offset + HEADER_LENGTH <= fileLength) {
+                file.seek(offset);
+                file.readFully(header);
+                if (!isValidHeader(header, 0) || getFirstTimestamp(header, 0) >= timestampMillis) {
+                    break;
+                }
+                foundOffset = offset;
+                offset += HEADER_LENGTH + getCompressedLength(header, 0);
+            }
+        } catch (IOException e) {
+            // the blocks found so far are still valid
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return foundOffset;
+    }
+
+    private static int computeHeaderChecksum(@NonNull byte[] header, int offset) {
+        final CRC32 checksum = threadChecksum.get();
+        checksum.reset();
+        checksum.update(header, offset, HEADER_CHECKSUM_OFFSET);
+        return (int) checksum.getValue();
+    }
+
+    private static void writeInt(@NonNull byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readInt(@NonNull byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+    }
+}
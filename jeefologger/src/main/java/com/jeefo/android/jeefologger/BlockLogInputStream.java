@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a block compressed segment (see {@link BlockLogFormat}) and provides the text lines
+ * carried by its valid blocks. A damaged block is skipped: the reading moves one byte past the
+ * marker of the damaged block and looks for the next marker followed by a valid header, so only
+ * the records of that block are lost.
+ * <p>
+ * Only one block is inflated at a time, so the memory used doesn't depend on the size of the
+ * segment.
+ * </p>
+ */
+class BlockLogInputStream extends InputStream {
+    private static final int INITIAL_WINDOW_SIZE = 32 * 1024;
+
+    @NonNull
+    private final InputStream input;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 checksum = new CRC32();
+    // the bytes read from the input and not consumed yet are [windowStart, windowEnd)
+    private byte[] window = new byte[INITIAL_WINDOW_SIZE];
+    private int windowStart = 0;
+    private int windowEnd = 0;
+    // the position of window[0] in the input
+    private long windowOffset = 0;
+    private boolean isInputFinished = false;
+
+    // the records of the current block are [blockPosition, blockLength) of blockData
+    private byte[] blockData = new byte[BlockLogFormat.BLOCK_SIZE + 1];
+    private int blockPosition = 0;
+    private int blockLength = 0;
+
+    private long blocksCount = 0;
+    private long damagedBytesCount = 0;
+    private long validDataEnd = 0;
+
+    /**
+     * @param input the raw content of the segment, positioned at its start or at the start of a
+     *              block (see {@link BlockLogFormat#findBlockOffset(java.io.File, long)}); closed
+     *              along with this stream
+     */
+    BlockLogInputStream(@NonNull InputStream input) {
+        this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (blockPosition >= blockLength && !readBlock()) {
+            return -1;
+        }
+        return blockData[blockPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (blockPosition >= blockLength && !readBlock()) {
+            return -1;
+        }
+
+        final int count = Math.min(length, blockLength - blockPosition);
+        System.arraycopy(blockData, blockPosition, buffer, offset, count);
+        blockPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        input.close();
+    }
+
+    /**
+     * Drops the rest of the current block and moves to the next valid one
+     *
+     * @return false if there's no valid block left
+     * @throws IOException if reading failed
+     */
+    boolean skipBlock() throws IOException {
+        blockPosition = blockLength;
+        return readBlock();
+    }
+
+    /**
+     * @return the number of valid blocks read so far
+     */
+    long getBlocksCount() {
+        return blocksCount;
+    }
+
+    /**
+     * @return the number of bytes skipped so far because they were not part of a valid block
+     */
+    long getDamagedBytesCount() {
+        return damagedBytesCount;
+    }
+
+    /**
+     * @return the position in the input right after the last valid block read so far
+     */
+    long getValidDataEnd() {
+        return validDataEnd;
+    }
+
+    /**
+     * Finds the next valid block and inflates it
+     *
+     * @return false if there's no valid block left
+     */
+    private boolean readBlock() throws IOException {
+        while (true) {
+            if (!fill(BlockLogFormat.HEADER_LENGTH)) {
+                // a torn header at the end of the input (or nothing at all)
+                damagedBytesCount += windowEnd - windowStart;
+                windowStart = windowEnd;
+                return false;
+            }
+
+            if ((window[windowStart] & 0xFF) != BlockLogFormat.BLOCK_MARKER || !BlockLogFormat.isValidHeader(window, windowStart)) {
+                skipByte();
+                continue;
+            }
+
+            final int compressedLength = BlockLogFormat.getCompressedLength(window, windowStart);
+            if (!fill(BlockLogFormat.HEADER_LENGTH + compressedLength) || !inflateBlock()) {
+                // a damaged (or torn) block; a valid one might start in its bytes
+                skipByte();
+                continue;
+            }
+
+            windowStart += BlockLogFormat.HEADER_LENGTH + compressedLength;
+            ++blocksCount;
+            validDataEnd = windowOffset + windowStart;
+            if (blockLength > 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Inflates the block starting at windowStart into blockData
+     *
+     * @return whether the data matches the lengths and the checksum from the header
+     */
+    private boolean inflateBlock() {
+        final int uncompressedLength = BlockLogFormat.getUncompressedLength(window, windowStart);
+        final int compressedLength = BlockLogFormat.getCompressedLength(window, windowStart);
+        final int dataStart = windowStart + BlockLogFormat.HEADER_LENGTH;
+        // one more byte so a block longer than its header says is noticed
+        if (blockData.length < uncompressedLength + 1) {
+            blockData = new byte[uncompressedLength + 1];
+        }
+
+        int inflatedCount = 0;
+        int consumedCount = 0;
+        try {
+            // a single stream sync flushed by the writer or, from the older devices, a separate
+            // stream for every flush using the data before it as the dictionary
+            while (inflatedCount < uncompressedLength) {
+                inflater.reset();
+                if (inflatedCount > 0) {
+                    final int dictionaryLength = Math.min(inflatedCount, BlockLogFormat.MAX_DICTIONARY_LENGTH);
+                    inflater.setDictionary(blockData, inflatedCount - dictionaryLength, dictionaryLength);
+                }
+                inflater.setInput(window, dataStart + consumedCount, compressedLength - consumedCount);
+
+                while (!inflater.finished()) {
+                    final int count = inflater.inflate(blockData, inflatedCount, uncompressedLength + 1 - inflatedCount);
+                    inflatedCount += count;
+                    if (inflatedCount > uncompressedLength) {
+                        return false;
+                    }
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                }
+                consumedCount = compressedLength - inflater.getRemaining();
+                if (!inflater.finished()) {
+                    // the sync flushed stream goes on up to the end of the data
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            return false;
+        }
+
+        checksum.reset();
+        checksum.update(blockData, 0, uncompressedLength);
+        if (inflatedCount != uncompressedLength || consumedCount != compressedLength || (int) checksum.getValue() != BlockLogFormat.getDataChecksum(window, windowStart)) {
+            return false;
+        }
+
+        blockPosition = 0;
+        blockLength = uncompressedLength;
+        return true;
+    }
+
+    private void skipByte() {
+        ++damagedBytesCount;
+        ++windowStart;
+    }
+
+    /**
+     * Reads from the input until the window holds at least the given number of bytes
+     *
+     * @param length the number of bytes needed from windowStart on
+     * @return false if the input ended before
+     */
+    private boolean fill(int length) throws IOException {
+        if (windowEnd - windowStart >= length) {
+            return true;
+        }
+
+        if (windowStart + length > window.length) {
+            // make room by moving the bytes not consumed yet to the start of the window
+            final byte[] target = length > window.length ? new byte[Math.max(length, window.length * 2)] : window;
+            System.arraycopy(window, windowStart, target, 0, windowEnd - windowStart);
+            window = target;
+            windowOffset += windowStart;
+            windowEnd -= windowStart;
+            windowStart = 0;
+        }
+
+        while (!isInputFinished && windowEnd - windowStart < length) {
+            final int count = input.read(window, windowEnd, window.length - windowEnd);
+            if (count < 0) {
+                isInputFinished = true;
+            } else {
+                windowEnd += count;
+            }
+        }
+        return windowEnd - windowStart >= length;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of the prefixes rendered out of the stack trace, keyed by the frames they were
+ * rendered from. The lookups are done with a key reused by each thread which only points to the
+ * frames of the captured stack trace, so a hit allocates nothing. Only the keys of the rendered
+ * prefixes own a copy of their frames.
+ * <p>
+ * The cache is cleared when it gets full, as a program only has that many call sites unless its
+ * classes are generated at runtime.
+ */
+final class CallSiteCache {
+    private final int maxSize;
+    private final ConcurrentHashMap<Key, String> renderedPrefixes = new ConcurrentHashMap<>();
+    private final ThreadLocal<Key> lookupKey = new ThreadLocal<Key>() {
+        @Override
+        protected Key initialValue() {
+            return new Key(new StackTraceElement[16], 0);
+        }
+    };
+
+    /**
+     * @param maxSize the number of prefixes after which the cache is cleared
+     */
+    CallSiteCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the empty key of the current thread, to which the frames of the call site are added
+     * before calling {@link CallSiteCache#get(Key)}
+     */
+    @NonNull
+    Key getLookupKey() {
+        final Key key = lookupKey.get();
+        key.clear();
+        return key;
+    }
+
+    /**
+     * @param key the frames of the call site
+     * @return the prefix rendered for those frames or null if there's none
+     */
+    @Nullable
+    String get(@NonNull Key key) {
+        return renderedPrefixes.get(key);
+    }
+
+    /**
+     * @param key    the frames of the call site (the lookup key can be passed as it's copied)
+     * @param prefix the prefix rendered for those frames
+     */
+    void put(@NonNull Key key, @NonNull String prefix) {
+        if (renderedPrefixes.size() >= maxSize) {
+            renderedPrefixes.clear();
+        }
+        renderedPrefixes.put(key.copy(), prefix);
+    }
+
+    /**
+     * The sequence of frames a prefix is rendered from
+     */
+    static final class Key {
+        private StackTraceElement[] frames;
+        private int count;
+        private int hash;
+
+        private Key(@NonNull StackTraceElement[] frames, int count) {
+            this.frames = frames;
+            this.count = count;
+            this.hash = 1;
+            for (int index = 0; index < count; ++index) {
+                hash = 31 * hash + frames[index].hashCode();
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(frames, 0, count, null);
+            count = 0;
+            hash = 1;
+        }
+
+        /**
+         * @param frame the next frame of the call site
+         */
+        void add(@NonNull StackTraceElement frame) {
+            if (count == frames.length) {
+                frames = copyFrames(frames, count, 2 * frames.length);
+            }
+            frames[count++] = frame;
+            hash = 31 * hash + frame.hashCode();
+        }
+
+        @NonNull
+        private Key copy() {
+            return new Key(copyFrames(frames, count, count), count);
+        }
+
+        /**
+         * Arrays#copyOf needs API 9
+         */
+        @NonNull
+        private static StackTraceElement[] copyFrames(@NonNull StackTraceElement[] frames, int count, int length) {
+            final StackTraceElement[] copy = new StackTraceElement[length];
+            System.arraycopy(frames, 0, copy, 0, count);
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) other;
+            if (hash != key.hash || count != key.count) {
+                return false;
+            }
+            for (int index = 0; index < count; ++index) {
+                if (!frames[index].equals(key.frames[index])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
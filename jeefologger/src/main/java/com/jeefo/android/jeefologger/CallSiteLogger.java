@@ -0,0 +1,338 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The calls to the {@link ILog} methods in the classes instrumented by the jeefologger-plugin are
+ * replaced with calls to these methods, which get the class, method and line of the call in a
+ * {@link LogCallContext} created once per call site (see
+ * {@link CallSiteLogger#createCallSite(String, String, String, int)}). The call site is passed down
+ * the chain of loggers instead of the stack trace of the thread (see
+ * {@link LogCallContext#capture()}). The loggers which aren't part of the library are called
+ * through their {@link ILog} methods, without the call site.
+ * <p>
+ * <b>NOTE:</b> This is not meant to be called directly
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CallSiteLogger {
+    /**
+     * Private constructor as this should never be initialized
+     */
+    private CallSiteLogger() {
+    }
+
+    /**
+     * Called once per call site by the static initializer of the instrumented class, which keeps
+     * the result in a synthetic field and passes it to the other methods
+     *
+     * @param className  the full name of the class making the call
+     * @param methodName the name of the method making the call
+     * @param fileName   the source file of the class (can be null)
+     * @param lineNumber the line of the call
+     * @return the {@link LogCallContext} of the call site
+     */
+    @NonNull
+    public static LogCallContext createCallSite(String className, String methodName, @Nullable String fileName, int lineNumber) {
+        return LogCallContext.forCallSite(className, methodName, fileName, lineNumber);
+    }
+
+    /**
+     * Same as {@link CallSiteLogger#createCallSite(String, String, String, int)}, for the call sites
+     * of the anonymous classes, which also get the method they are defined in (e.g. the
+     * "[Method run &lt;- Host#method()]" tag of a {@link SmartLogger})
+     *
+     * @param className      the full name of the anonymous class making the call
+     * @param methodName     the name of the method making the call
+     * @param fileName       the source file of the class (can be null)
+     * @param lineNumber     the line of the call
+     * @param hostClassName  the full name of the class in which the anonymous class is defined
+     * @param hostMethodName the name of the method in which the anonymous class is defined
+     * @return the {@link LogCallContext} of the call site
+     */
+    @NonNull
+    public static LogCallContext createCallSite(String className, String methodName, @Nullable String fileName, int lineNumber,
+                                                String hostClassName, String hostMethodName) {
+        return LogCallContext.forCallSite(className, methodName, fileName, lineNumber, hostClassName, hostMethodName);
+    }
+
+    /**
+     * Calls {@link ILog#Verbose(String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Verbose(@NonNull ILog logger, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.VERBOSE)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Verbose(callSite, messageToLog, args);
+        } else {
+            logger.Verbose(messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Verbose(Exception, String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Verbose(@NonNull ILog logger, Exception exception, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.VERBOSE)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Verbose(callSite, exception, messageToLog, args);
+        } else {
+            logger.Verbose(exception, messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Debug(String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Debug(@NonNull ILog logger, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.DEBUG)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Debug(callSite, messageToLog, args);
+        } else {
+            logger.Debug(messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Debug(Exception, String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Debug(@NonNull ILog logger, Exception exception, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.DEBUG)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Debug(callSite, exception, messageToLog, args);
+        } else {
+            logger.Debug(exception, messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Info(String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Info(@NonNull ILog logger, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.INFO)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Info(callSite, messageToLog, args);
+        } else {
+            logger.Info(messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Warn(String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Warn(@NonNull ILog logger, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.WARN)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Warn(callSite, messageToLog, args);
+        } else {
+            logger.Warn(messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Warn(Exception, String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Warn(@NonNull ILog logger, Exception exception, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.WARN)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Warn(callSite, exception, messageToLog, args);
+        } else {
+            logger.Warn(exception, messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Error(String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Error(@NonNull ILog logger, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.ERROR)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Error(callSite, messageToLog, args);
+        } else {
+            logger.Error(messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Error(Exception, String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Error(@NonNull ILog logger, Exception exception, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.ERROR)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Error(callSite, exception, messageToLog, args);
+        } else {
+            logger.Error(exception, messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Error(Exception)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param exception    the exception to be logged
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Error(@NonNull ILog logger, Exception exception, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.ERROR)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Error(callSite, exception);
+        } else {
+            logger.Error(exception);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Wtf(String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Wtf(@NonNull ILog logger, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.WTF)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Wtf(callSite, messageToLog, args);
+        } else {
+            logger.Wtf(messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Wtf(Exception, String, Object...)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param exception    the exception to be logged
+     * @param messageToLog the message to be logged
+     * @param args         arguments for messageToLog
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Wtf(@NonNull ILog logger, Exception exception, String messageToLog, Object[] args, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.WTF)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Wtf(callSite, exception, messageToLog, args);
+        } else {
+            logger.Wtf(exception, messageToLog, args);
+        }
+    }
+
+    /**
+     * Calls {@link ILog#Wtf(Exception)} with the given call site
+     *
+     * @param logger       the {@link ILog} called by the instrumented code
+     * @param exception    the exception to be logged
+     * @param callSite     the call site created by {@link CallSiteLogger#createCallSite(String, String, String, int)}
+     */
+    public static void Wtf(@NonNull ILog logger, Exception exception, @NonNull LogCallContext callSite) {
+        if (!logger.isLoggable(LogLevel.WTF)) {
+            return;
+        }
+
+        if (logger instanceof AbstractScopedLogger) {
+            ((AbstractScopedLogger) logger).Wtf(callSite, exception);
+        } else {
+            logger.Wtf(exception);
+        }
+    }
+}
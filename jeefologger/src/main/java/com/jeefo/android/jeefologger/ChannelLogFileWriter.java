@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link ILogFileWriter} keeping a single append {@link FileChannel} open for the whole session.
+ * The records are collected into an in-memory buffer and written to the channel according to the
+ * {@link FlushPolicy}.
+ */
+class ChannelLogFileWriter implements ILogFileWriter {
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    @NonNull
+    private final File file;
+    @NonNull
+    private final FileOutputStream outputStream;
+    @NonNull
+    private final FileChannel channel;
+    @NonNull
+    private final ByteBuffer buffer;
+    @NonNull
+    private FlushPolicy flushPolicy;
+
+    // the length of the file without the buffered records
+    private long writtenBytesCount;
+    private int pendingRecords = 0;
+    private long oldestPendingRecordNanos = 0;
+
+    /**
+     * @param file        the log {@link File} to append to (created if missing)
+     * @param flushPolicy the {@link FlushPolicy} deciding when the buffered records are written
+     * @throws IOException if the file cannot be opened
+     */
+    ChannelLogFileWriter(@NonNull File file, @NonNull FlushPolicy flushPolicy) throws IOException {
+        this.file = file;
+        this.flushPolicy = flushPolicy;
+        this.outputStream = new FileOutputStream(file, true);
+        this.channel = outputStream.getChannel();
+        this.writtenBytesCount = channel.size();
+        this.buffer = ByteBuffer.allocate(Math.max(DEFAULT_BUFFER_SIZE, flushPolicy.getMaxPendingBytes()));
+    }
+
+    @Override
+    public long write(@NonNull byte[] data, int offset, int length, @LogLevel int logLevel, long timestampMillis) throws IOException {
+        if (length > buffer.remaining()) {
+            flush();
+        }
+
+        final long recordStart = writtenBytesCount + buffer.position();
+        if (length > buffer.capacity()) {
+            // too big for the buffer; it is written straight away
+            writeFully(ByteBuffer.wrap(data, offset, length));
+            return recordStart;
+        }
+
+        if (pendingRecords == 0) {
+            oldestPendingRecordNanos = System.nanoTime();
+        }
+        buffer.put(data, offset, length);
+        ++pendingRecords;
+
+        final long pendingMillis = (System.nanoTime() - oldestPendingRecordNanos) / 1000000L;
+        if (flushPolicy.shouldFlush(pendingRecords, buffer.position(), pendingMillis, logLevel)) {
+            flush();
+        }
+        return recordStart;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+            pendingRecords = 0;
+        }
+    }
+
+    @Override
+    public void flushIfExpired() throws IOException {
+        final long maxPendingMillis = flushPolicy.getMaxPendingMillis();
+        if (pendingRecords > 0 && maxPendingMillis > 0
+                && (System.nanoTime() - oldestPendingRecordNanos) / 1000000L >= maxPendingMillis) {
+            flush();
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Override
+    public void setFlushPolicy(@NonNull FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    private void writeFully(@NonNull ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            writtenBytesCount += channel.write(source);
+        }
+    }
+}
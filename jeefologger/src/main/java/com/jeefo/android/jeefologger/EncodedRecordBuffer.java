@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Reusable buffer the {@link ILogRecordEncoder}s append the encoded records to. Unlike
+ * {@link String#getBytes(String)}, the strings are encoded as UTF-8 straight into the buffer, so a
+ * record is encoded without allocating anything once the buffer is large enough.
+ * <p>
+ * The buffer is not thread-safe; every writing thread uses its own.
+ * </p>
+ */
+final class EncodedRecordBuffer extends ByteArrayOutputStream {
+    static final int INITIAL_CAPACITY = 512;
+    // a buffer grown by an unusually long record is dropped on reset, so it's not kept forever
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    // written for the unpaired surrogates, same as String#getBytes("UTF-8")
+    private static final byte REPLACEMENT_BYTE = '?';
+
+    EncodedRecordBuffer() {
+        super(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return the backing array holding the {@link EncodedRecordBuffer#size()} bytes written so
+     * far. It's only valid until something else is written to the buffer.
+     */
+    @NonNull
+    byte[] getBuffer() {
+        return buf;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            buf = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Reserves room for bytes written directly in the backing array
+     *
+     * @param length the number of bytes to reserve
+     * @return the offset of the reserved bytes in {@link EncodedRecordBuffer#getBuffer()}
+     */
+    int reserve(int length) {
+        ensureCapacity(count + length);
+        final int offset = count;
+        count += length;
+        return offset;
+    }
+
+    /**
+     * @param value the string appended as UTF-8
+     */
+    void writeUtf8(@NonNull String value) {
+        writeUtf8(value, 0, value.length());
+    }
+
+    /**
+     * @param value the string whose chars between start (inclusive) and end (exclusive) are
+     *              appended as UTF-8
+     * @param start the index of the first char
+     * @param end   the index after the last char
+     */
+    void writeUtf8(@NonNull String value, int start, int end) {
+        // most of the log messages are ASCII, which is copied char by char
+        ensureCapacity(count + end - start);
+        int index = start;
+        while (index < end) {
+            final char character = value.charAt(index);
+            if (character >= 0x80) {
+                break;
+            }
+            buf[count++] = (byte) character;
+            ++index;
+        }
+        if (index < end) {
+            writeUtf8Slow(value, index, end);
+        }
+    }
+
+    /**
+     * @param value the string to be measured
+     * @param start the index of the first char
+     * @param end   the index after the last char
+     * @return the number of bytes {@link EncodedRecordBuffer#writeUtf8(String, int, int)} appends
+     */
+    static int getUtf8Length(@NonNull String value, int start, int end) {
+        int length = end - start;
+        for (int index = start; index < end; ++index) {
+            final char character = value.charAt(index);
+            if (character < 0x80) {
+                continue;
+            }
+            if (character < 0x800) {
+                length += 1;
+            } else if (Character.isHighSurrogate(character) && index + 1 < end
+                    && Character.isLowSurrogate(value.charAt(index + 1))) {
+                // 2 chars encoded in 4 bytes
+                length += 2;
+                ++index;
+            } else if (isSurrogate(character)) {
+                // the replacement byte
+                continue;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    private void writeUtf8Slow(@NonNull String value, int start, int end) {
+        for (int index = start; index < end; ++index) {
+            final char character = value.charAt(index);
+            if (character < 0x80) {
+                ensureCapacity(count + 1);
+                buf[count++] = (byte) character;
+            } else if (character < 0x800) {
+                ensureCapacity(count + 2);
+                buf[count++] = (byte) (0xC0 | (character >> 6));
+                buf[count++] = (byte) (0x80 | (character & 0x3F));
+            } else if (Character.isHighSurrogate(character) && index + 1 < end
+                    && Character.isLowSurrogate(value.charAt(index + 1))) {
+                final int codePoint = Character.toCodePoint(character, value.charAt(++index));
+                ensureCapacity(count + 4);
+                buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (isSurrogate(character)) {
+                ensureCapacity(count + 1);
+                buf[count++] = REPLACEMENT_BYTE;
+            } else {
+                ensureCapacity(count + 3);
+                buf[count++] = (byte) (0xE0 | (character >> 12));
+                buf[count++] = (byte) (0x80 | ((character >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (character & 0x3F));
+            }
+        }
+    }
+
+    private static boolean isSurrogate(char character) {
+        return character >= Character.MIN_SURROGATE && character <= Character.MAX_SURROGATE;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            final byte[] newBuffer = new byte[Math.max(capacity, buf.length * 2)];
+            System.arraycopy(buf, 0, newBuffer, 0, count);
+            buf = newBuffer;
+        }
+    }
+}
@@ -4,8 +4,6 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.LinkedList;
-
 import static com.jeefo.android.jeefologger.StringUtils.getFormattedMessage;
 
 /**
@@ -15,9 +13,10 @@ import static com.jeefo.android.jeefologger.StringUtils.getFormattedMessage;
 public class FinalLogger implements IInternalLog {
     static final String TAG_LOGGING_PREFIX = "[JeeFo-Log]";
     @LogLevel
-    static int logcatMinLevel = LogLevel.VERBOSE;
-
-    private static final ILog persistentLogger = PersistentLogger.getInstance();
+    private static volatile int logcatMinLevel = LogLevel.VERBOSE;
+    // the lowest level sent to any of the outputs (logcat, persistence and flight recorder)
+    @LogLevel
+    private static volatile int effectiveMinLevel = LogLevel.VERBOSE;
 
     private static FinalLogger instance;
 
@@ -37,102 +36,152 @@ public class FinalLogger implements IInternalLog {
     private FinalLogger() {
     }
 
-    @Override
-    public void InternalVerbose(@Nullable LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(null, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.VERBOSE) {
-            Log.v(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
+    /**
+     * @param logLevel the level of a message
+     * @return whether a message with that level is sent to any of the outputs. This is a single
+     * volatile read, so the loggers check it before doing any work for the message
+     */
+    static boolean isLoggable(@LogLevel int logLevel) {
+        return logLevel >= effectiveMinLevel;
+    }
+
+    /**
+     * @param logLevel the minimum level of the messages sent to logcat
+     */
+    static void setLogcatMinLevel(@LogLevel int logLevel) {
+        logcatMinLevel = logLevel;
+        updateEffectiveMinLevel();
+    }
+
+    /**
+     * Recomputes the level checked by {@link FinalLogger#isLoggable(int)}. Must be called after
+     * any of the outputs changes the minimum level it accepts or is started/stopped
+     */
+    static synchronized void updateEffectiveMinLevel() {
+        if (FlightRecorder.getCurrent() != null) {
+            // the flight recorder keeps the records of all levels
+            effectiveMinLevel = LogLevel.VERBOSE;
+        } else {
+            effectiveMinLevel = Math.min(logcatMinLevel, PersistentLogger.getMinPersistedLevel());
         }
-        persistentLogger.Verbose(finalMessage);
     }
 
     @Override
-    public void InternalVerbose(@Nullable LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(exception, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.VERBOSE) {
-            Log.v(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Verbose(finalMessage);
+    public void InternalVerbose(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        log(LogLevel.VERBOSE, null, messageToLog, args);
     }
 
     @Override
-    public void InternalDebug(@Nullable LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(null, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.DEBUG) {
-            Log.d(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Debug(finalMessage);
+    public void InternalVerbose(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        log(LogLevel.VERBOSE, exception, messageToLog, args);
     }
 
     @Override
-    public void InternalDebug(@Nullable LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(exception, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.DEBUG) {
-            Log.d(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Debug(finalMessage);
+    public void InternalDebug(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        log(LogLevel.DEBUG, null, messageToLog, args);
     }
 
     @Override
-    public void InternalInfo(@Nullable LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(null, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.INFO) {
-            Log.i(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Info(finalMessage);
+    public void InternalDebug(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        log(LogLevel.DEBUG, exception, messageToLog, args);
     }
 
     @Override
-    public void InternalWarn(@Nullable LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(null, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.WARN) {
-            Log.w(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Warn(finalMessage);
+    public void InternalInfo(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        log(LogLevel.INFO, null, messageToLog, args);
     }
 
     @Override
-    public void InternalWarn(@Nullable LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(exception, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.WARN) {
-            Log.w(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Warn(finalMessage);
+    public void InternalWarn(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        log(LogLevel.WARN, null, messageToLog, args);
     }
 
     @Override
-    public void InternalError(@Nullable LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(null, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.ERROR) {
-            Log.e(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Error(finalMessage);
+    public void InternalWarn(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        log(LogLevel.WARN, exception, messageToLog, args);
     }
 
     @Override
-    public void InternalError(@Nullable LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(exception, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.ERROR) {
-            Log.e(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Error(finalMessage);
+    public void InternalError(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        log(LogLevel.ERROR, null, messageToLog, args);
     }
 
     @Override
-    public void InternalWtf(@Nullable LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(null, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.WTF) {
-            Log.wtf(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
-        }
-        persistentLogger.Wtf(finalMessage);
+    public void InternalError(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        log(LogLevel.ERROR, exception, messageToLog, args);
+    }
+
+    @Override
+    public void InternalWtf(@NonNull LogCallContext context, String messageToLog, Object... args) {
+        log(LogLevel.WTF, null, messageToLog, args);
     }
 
     @Override
-    public void InternalWtf(@Nullable LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args) {
-        String finalMessage = getFormattedMessage(exception, messageToLog, args);
-        if (logcatMinLevel <= LogLevel.WTF) {
-            Log.wtf(TAG_LOGGING_PREFIX + PersistentTagsManager.getTagsStringPrefix(), finalMessage);
+    public void InternalWtf(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+        log(LogLevel.WTF, exception, messageToLog, args);
+    }
+
+    /**
+     * Sends the message to logcat, to the persistent log and to the {@link FlightRecorder}, as
+     * allowed by their minimum levels. The message is formatted at most once and not at all if
+     * it's only persisted with the formatting deferred.
+     *
+     * @param logLevel     the level of the message
+     * @param exception    the exception whose message is logged as well (can be null)
+     * @param messageToLog the message containing placeholders
+     * @param args         the arguments for messageToLog
+     */
+    private static void log(@LogLevel int logLevel, @Nullable Exception exception, String messageToLog, Object... args) {
+        if (!isLoggable(logLevel)) {
+            return;
+        }
+
+        final boolean isLoggedToLogcat = logcatMinLevel <= logLevel;
+        final boolean isPersisted = PersistentLogger.isPersisted(logLevel);
+        final FlightRecorder flightRecorder = FlightRecorder.getCurrent();
+
+        if (!isLoggedToLogcat && flightRecorder == null) {
+            if (isPersisted) {
+                PersistentLogger.persistDeferred(logLevel, exception, messageToLog, args);
+            }
+            return;
+        }
+
+        final String finalMessage = getFormattedMessage(exception, messageToLog, args);
+        final String tagsPrefix = PersistentTagsManager.getTagsStringPrefix();
+        if (isLoggedToLogcat) {
+            logToLogcat(logLevel, TAG_LOGGING_PREFIX + tagsPrefix, finalMessage);
+        }
+
+        if (isPersisted) {
+            PersistentLogger.persist(logLevel, finalMessage);
+        }
+
+        if (flightRecorder != null) {
+            flightRecorder.record(logLevel, tagsPrefix, finalMessage);
+        }
+    }
+
+    private static void logToLogcat(@LogLevel int logLevel, @NonNull String tag, @NonNull String finalMessage) {
+        switch (logLevel) {
+            case LogLevel.VERBOSE:
+                Log.v(tag, finalMessage);
+                break;
+            case LogLevel.DEBUG:
+                Log.d(tag, finalMessage);
+                break;
+            case LogLevel.INFO:
+                Log.i(tag, finalMessage);
+                break;
+            case LogLevel.WARN:
+                Log.w(tag, finalMessage);
+                break;
+            case LogLevel.ERROR:
+                Log.e(tag, finalMessage);
+                break;
+            case LogLevel.WTF:
+                Log.wtf(tag, finalMessage);
+                break;
         }
-        persistentLogger.Wtf(finalMessage);
     }
 }
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the most recent log records in a fixed-size circular byte buffer (see
+ * {@link FlightRecorderPolicy}) and writes them to a new file when a record having the dump level
+ * is logged or the app crashes.
+ * <p>
+ * Every record is stored as: total length (4 bytes), time (8 bytes), level (1 byte), persistent
+ * tags length (4 bytes), the UTF-8 persistent tags and the UTF-8 message. Recording a message only
+ * copies its bytes into the buffer; the dumps are written on a background thread, except for the
+ * crash one which is written before the process dies.
+ * </p>
+ * <p>
+ * Starting the recorder does no file system work, so it records from the very start of the app;
+ * the dumps directory is only created when the first dump is written.
+ * </p>
+ */
+final class FlightRecorder {
+    static final String DIRECTORY_NAME = "flightRecordings";
+    static final String DUMP_SUFFIX = "_Flight.txt";
+
+    private static final int HEADER_SIZE = 4 + 8 + 1 + 4;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    @Nullable
+    private static volatile FlightRecorder current = null;
+    @Nullable
+    private static volatile File dumpsDirectory = null;
+    private static boolean wasCrashHandlerInstalled = false;
+
+    @NonNull
+    private final FlightRecorderPolicy policy;
+    // the application context, used to find the logs directory
+    @NonNull
+    private final Context context;
+    // null until the first dump
+    @Nullable
+    private volatile File directory = null;
+    private final int capacity;
+    // only used while holding the recorder's lock
+    private final ByteBuffer buffer;
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int head = 0;
+    private int tail = 0;
+    private int usedBytes = 0;
+
+    private final ExecutorService dumpExecutor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("JeeFo-FlightRecorder"));
+
+    /**
+     * Replaces the current flight recorder (if any) with a new one using the given policy and
+     * installs the crash handler if the policy asks for it
+     *
+     * @param context the application context; the dumps go to a subdirectory of the logs directory
+     * @param policy  the {@link FlightRecorderPolicy} or null to stop recording
+     */
+    static synchronized void start(@NonNull Context context, @Nullable FlightRecorderPolicy policy) {
+        stop();
+        if (policy == null) {
+            return;
+        }
+
+        current = new FlightRecorder(policy, context);
+        FinalLogger.updateEffectiveMinLevel();
+
+        if (policy.isDumpOnCrash() && !wasCrashHandlerInstalled) {
+            wasCrashHandlerInstalled = true;
+            Thread.setDefaultUncaughtExceptionHandler(new CrashHandler(Thread.getDefaultUncaughtExceptionHandler()));
+        }
+    }
+
+    /**
+     * Stops recording, waiting for the pending dumps to be written
+     */
+    static synchronized void stop() {
+        final FlightRecorder recorder = current;
+        current = null;
+        FinalLogger.updateEffectiveMinLevel();
+        if (recorder != null) {
+            recorder.dumpExecutor.shutdown();
+            try {
+                recorder.dumpExecutor.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the running flight recorder or null if there's none
+     */
+    @Nullable
+    static FlightRecorder getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return all the dump files (oldest first) or null if the flight recorder was never started
+     */
+    @Nullable
+    static File[] getAllDumps() {
+        File directory = dumpsDirectory;
+        if (directory == null) {
+            final FlightRecorder recorder = current;
+            if (recorder == null) {
+                return null;
+            }
+            directory = recorder.getDirectory();
+            if (directory == null) {
+                return new File[0];
+            }
+        }
+
+        final File[] dumps = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(DUMP_SUFFIX);
+            }
+        });
+        if (dumps == null) {
+            return new File[0];
+        }
+
+        // the names start with the dump time
+        Arrays.sort(dumps);
+        return dumps;
+    }
+
+    private FlightRecorder(@NonNull FlightRecorderPolicy policy, @NonNull Context context) {
+        this.policy = policy;
+        this.context = context;
+        this.capacity = policy.getCapacityBytes();
+        this.buffer = policy.isUsingDirectBuffer()
+                ? ByteBuffer.allocateDirect(capacity)
+                : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Thread-safe. Adds a record to the buffer (dropping the oldest ones if needed) and
+     * schedules a dump if the level requires it.
+     *
+     * @param logLevel   the level of the record
+     * @param tagsPrefix the persistent tags
+     * @param message    the formatted message
+     */
+    void record(@LogLevel int logLevel, @NonNull String tagsPrefix, @NonNull String message) {
+        append(System.currentTimeMillis(), logLevel, tagsPrefix, message);
+
+        if (logLevel >= policy.getDumpLevel()) {
+            final byte[] snapshot = takeSnapshot();
+            try {
+                dumpExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeDump(snapshot);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the recorder was stopped in the meantime
+            }
+        }
+    }
+
+    private void append(long timestampMillis, @LogLevel int logLevel, @NonNull String tagsPrefix, @NonNull String message) {
+        final byte[] tagsBytes;
+        byte[] messageBytes;
+        try {
+            tagsBytes = tagsPrefix.getBytes("UTF-8");
+            messageBytes = message.getBytes("UTF-8");
+        } catch (IOException e) {
+            // never, as UTF-8 is always supported
+            return;
+        }
+
+        int recordSize = HEADER_SIZE + tagsBytes.length + messageBytes.length;
+        if (recordSize > capacity) {
+            if (HEADER_SIZE + tagsBytes.length >= capacity) {
+                return;
+            }
+            // keep the beginning of a message which would not fit even in the empty buffer
+            final byte[] messageStart = new byte[capacity - HEADER_SIZE - tagsBytes.length];
+            System.arraycopy(messageBytes, 0, messageStart, 0, messageStart.length);
+            messageBytes = messageStart;
+            recordSize = capacity;
+        }
+
+        synchronized (this) {
+            while (capacity - usedBytes < recordSize) {
+                // drop the oldest record
+                final int oldestSize = readInt(head);
+                head = (head + oldestSize) % capacity;
+                usedBytes -= oldestSize;
+            }
+
+            writeLong(header, 0, recordSize, 4);
+            writeLong(header, 4, timestampMillis, 8);
+            header[12] = (byte) logLevel;
+            writeLong(header, 13, tagsBytes.length, 4);
+
+            put(header);
+            put(tagsBytes);
+            put(messageBytes);
+            usedBytes += recordSize;
+        }
+    }
+
+    /**
+     * Writes the records from the buffer to a new file straight away, on the calling thread
+     */
+    void dumpNow() {
+        writeDump(takeSnapshot());
+    }
+
+    /**
+     * @return the content of the buffer (oldest record first), which is emptied
+     */
+    @NonNull
+    private synchronized byte[] takeSnapshot() {
+        final byte[] snapshot = new byte[usedBytes];
+        final int firstPartLength = Math.min(usedBytes, capacity - head);
+        buffer.position(head);
+        buffer.get(snapshot, 0, firstPartLength);
+        if (firstPartLength < usedBytes) {
+            buffer.position(0);
+            buffer.get(snapshot, firstPartLength, usedBytes - firstPartLength);
+        }
+
+        head = 0;
+        tail = 0;
+        usedBytes = 0;
+        return snapshot;
+    }
+
+    /**
+     * @return the dumps directory, created if missing; null if it cannot be created
+     */
+    @Nullable
+    private File getDirectory() {
+        File currentDirectory = directory;
+        if (currentDirectory == null) {
+            // creating it twice at the same time does no harm
+            currentDirectory = new File(PersistentLogger.getLogsDirectory(context), DIRECTORY_NAME);
+            if (!currentDirectory.exists() && !currentDirectory.mkdirs()) {
+                Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to create the flight recordings directory");
+                return null;
+            }
+            directory = currentDirectory;
+            dumpsDirectory = currentDirectory;
+        }
+        return currentDirectory;
+    }
+
+    /**
+     * Writes the records to a temporary file which is then renamed, so a dump file is either
+     * complete or missing
+     *
+     * @param snapshot the records taken out of the buffer
+     */
+    private void writeDump(@NonNull byte[] snapshot) {
+        final File dumpDirectory = getDirectory();
+        if (dumpDirectory == null) {
+            return;
+        }
+
+        final String dumpName = new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss_SSS", Locale.UK).format(new Date());
+        File dumpFile = new File(dumpDirectory, dumpName + DUMP_SUFFIX);
+        for (int index = 1; dumpFile.exists(); ++index) {
+            dumpFile = new File(dumpDirectory, dumpName + "_" + index + DUMP_SUFFIX);
+        }
+        final File temporaryFile = new File(dumpFile.getPath() + LogSegmentFiles.TEMPORARY_EXTENSION);
+
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(temporaryFile);
+            final TextLogRecordEncoder encoder = new TextLogRecordEncoder();
+            final EncodedRecordBuffer line = new EncodedRecordBuffer();
+            final LogRecord record = new LogRecord();
+
+            int offset = 0;
+            while (offset + HEADER_SIZE <= snapshot.length) {
+                final int recordSize = (int) readLong(snapshot, offset, 4);
+                final long timestampMillis = readLong(snapshot, offset + 4, 8);
+                final int logLevel = snapshot[offset + 12];
+                final int tagsLength = (int) readLong(snapshot, offset + 13, 4);
+                final int tagsOffset = offset + HEADER_SIZE;
+                final int messageOffset = tagsOffset + tagsLength;
+
+                //noinspection WrongConstant
+                record.set(timestampMillis, logLevel, LogRecord.getLevelName(logLevel),
+                        new String(snapshot, tagsOffset, tagsLength, "UTF-8"),
+                        new String(snapshot, messageOffset, offset + recordSize - messageOffset, "UTF-8"));
+                line.reset();
+                encoder.encode(record, line);
+                line.writeTo(outputStream);
+                offset += recordSize;
+            }
+            outputStream.close();
+            outputStream = null;
+
+            if (!temporaryFile.renameTo(dumpFile)) {
+                throw new IOException("Failed to rename " + temporaryFile.getName());
+            }
+            deleteDumpsOverLimit();
+        } catch (IOException e) {
+            Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to write the flight recording: " + e.getMessage());
+            closeQuietly(outputStream);
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+        }
+    }
+
+    private void deleteDumpsOverLimit() {
+        final int maxDumpCount = policy.getMaxDumpCount();
+        final File[] dumps = getAllDumps();
+        if (maxDumpCount <= 0 || dumps == null) {
+            return;
+        }
+
+        for (int index = 0; index < dumps.length - maxDumpCount; ++index) {
+            if (!dumps[index].delete()) {
+                Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to delete the old flight recording " + dumps[index].getName());
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the recorder's lock
+     */
+    private void put(@NonNull byte[] data) {
+        final int firstPartLength = Math.min(data.length, capacity - tail);
+        buffer.position(tail);
+        buffer.put(data, 0, firstPartLength);
+        if (firstPartLength < data.length) {
+            buffer.position(0);
+            buffer.put(data, firstPartLength, data.length - firstPartLength);
+        }
+        tail = (tail + data.length) % capacity;
+    }
+
+    /**
+     * Must be called while holding the recorder's lock
+     */
+    private int readInt(int position) {
+        int value = 0;
+        for (int index = 0; index < 4; ++index) {
+            value |= (buffer.get((position + index) % capacity) & 0xFF) << (index * 8);
+        }
+        return value;
+    }
+
+    private static void writeLong(@NonNull byte[] destination, int offset, long value, int bytesCount) {
+        for (int index = 0; index < bytesCount; ++index) {
+            destination[offset + index] = (byte) (value >>> (index * 8));
+        }
+    }
+
+    private static long readLong(@NonNull byte[] source, int offset, int bytesCount) {
+        long value = 0;
+        for (int index = 0; index < bytesCount; ++index) {
+            value |= (long) (source[offset + index] & 0xFF) << (index * 8);
+        }
+        return value;
+    }
+
+    private static void closeQuietly(@Nullable OutputStream outputStream) {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Logs the uncaught exceptions, writes the pending persistent records and dumps the flight
+     * recorder before handing the exception to the previous handler
+     */
+    private static final class CrashHandler implements Thread.UncaughtExceptionHandler {
+        @Nullable
+        private final Thread.UncaughtExceptionHandler previousHandler;
+
+        CrashHandler(@Nullable Thread.UncaughtExceptionHandler previousHandler) {
+            this.previousHandler = previousHandler;
+        }
+
+        @Override
+        public void uncaughtException(Thread thread, Throwable throwable) {
+            try {
+                final StringWriter stackTrace = new StringWriter();
+                throwable.printStackTrace(new PrintWriter(stackTrace));
+                final String message = "Uncaught exception in thread \"" + thread.getName() + "\": " + stackTrace;
+
+                PersistentLogger.persist(LogLevel.WTF, message);
+                PersistentLogger.flush();
+
+                final FlightRecorder recorder = current;
+                if (recorder != null && recorder.policy.isDumpOnCrash()) {
+                    recorder.append(System.currentTimeMillis(), LogLevel.WTF, PersistentTagsManager.getTagsStringPrefix(), message);
+                    recorder.dumpNow();
+                }
+            } catch (Throwable handlerThrowable) {
+                Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to record the crash: " + handlerThrowable.getMessage());
+            }
+
+            if (previousHandler != null) {
+                previousHandler.uncaughtException(thread, throwable);
+            } else {
+                throwable.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Settings of the flight recorder: an in-memory buffer keeping the most recent log records of all
+ * levels (regardless of the minimum persistence level), which is written to a file only when
+ * something goes wrong.
+ * <p>
+ * The buffer has a fixed size in bytes and is allocated once. When it is full, the oldest records
+ * are dropped to make room for the new ones. Once a record having the dump level (or above) is
+ * logged, or the app crashes, the content of the buffer is written to a new file (see
+ * {@link JeefoLogger#getAllFlightRecordings()}).
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class FlightRecorderPolicy {
+
+    private final int capacityBytes;
+    private final boolean useDirectBuffer;
+    @LogLevel
+    private final int dumpLevel;
+    private final boolean dumpOnCrash;
+    private final int maxDumpCount;
+
+    private FlightRecorderPolicy(@NonNull Builder builder) {
+        this.capacityBytes = builder.capacityBytes;
+        this.useDirectBuffer = builder.useDirectBuffer;
+        this.dumpLevel = builder.dumpLevel;
+        this.dumpOnCrash = builder.dumpOnCrash;
+        this.maxDumpCount = builder.maxDumpCount;
+    }
+
+    /**
+     * @return the size of the in-memory buffer in bytes
+     */
+    public int getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * @return whether the buffer is allocated outside of the Java heap
+     */
+    public boolean isUsingDirectBuffer() {
+        return useDirectBuffer;
+    }
+
+    /**
+     * @return the minimum level of the records triggering a dump
+     */
+    @LogLevel
+    public int getDumpLevel() {
+        return dumpLevel;
+    }
+
+    /**
+     * @return whether an uncaught exception handler dumping the buffer is installed
+     */
+    public boolean isDumpOnCrash() {
+        return dumpOnCrash;
+    }
+
+    /**
+     * @return the maximum number of dump files kept; 0 if unlimited
+     */
+    public int getMaxDumpCount() {
+        return maxDumpCount;
+    }
+
+    /**
+     * Builder class for the {@link FlightRecorderPolicy}. By default, the buffer holds 256KB on
+     * the Java heap, it is dumped for the {@value LogLevel#ERROR} (and above) records and on crash,
+     * and the last 10 dumps are kept.
+     */
+    public static class Builder {
+        private int capacityBytes = 256 * 1024;
+        private boolean useDirectBuffer = false;
+        @LogLevel
+        private int dumpLevel = LogLevel.ERROR;
+        private boolean dumpOnCrash = true;
+        private int maxDumpCount = 10;
+
+        /**
+         * <b>NOTE:</b> Every record takes 17 bytes plus its UTF-8 persistent tags and message, so
+         * 256KB keep roughly the last 2000 records of 100 characters
+         *
+         * @param capacityBytes the size of the in-memory buffer
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for values below 1KB
+         */
+        public Builder withCapacityBytes(int capacityBytes) {
+            if (capacityBytes < 1024) {
+                throw new IllegalArgumentException("capacityBytes should be at least 1024");
+            }
+            this.capacityBytes = capacityBytes;
+            return this;
+        }
+
+        /**
+         * @param useDirectBuffer whether the buffer should be allocated outside of the Java heap
+         *                        (a direct ByteBuffer), so it does not add to the garbage
+         *                        collector's work
+         * @return self to allow cascading
+         */
+        public Builder withDirectBuffer(boolean useDirectBuffer) {
+            this.useDirectBuffer = useDirectBuffer;
+            return this;
+        }
+
+        /**
+         * @param dumpLevel the records having this level (or above) trigger a dump. Use
+         *                  {@value LogLevel#NONE} to only dump on crash.
+         * @return self to allow cascading
+         */
+        public Builder withDumpLevel(@LogLevel int dumpLevel) {
+            this.dumpLevel = dumpLevel;
+            return this;
+        }
+
+        /**
+         * The uncaught exception handler logs the crash, writes the pending persistent records and
+         * dumps the buffer before handing the exception to the previously installed handler.
+         *
+         * @param dumpOnCrash whether an uncaught exception handler should be installed (the
+         *                    default is true)
+         * @return self to allow cascading
+         */
+        public Builder withDumpOnCrash(boolean dumpOnCrash) {
+            this.dumpOnCrash = dumpOnCrash;
+            return this;
+        }
+
+        /**
+         * @param maxDumpCount the oldest dump files are deleted once there are more than this
+         *                     many (0 for unlimited)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withMaxDumpCount(int maxDumpCount) {
+            if (maxDumpCount < 0) {
+                throw new IllegalArgumentException("maxDumpCount should not be negative");
+            }
+            this.maxDumpCount = maxDumpCount;
+            return this;
+        }
+
+        /**
+         * @return the newly built {@link FlightRecorderPolicy}
+         */
+        @NonNull
+        public FlightRecorderPolicy build() {
+            return new FlightRecorderPolicy(this);
+        }
+    }
+}
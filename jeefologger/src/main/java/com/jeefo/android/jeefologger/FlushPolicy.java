@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Decides when the buffered persistent log records are pushed from memory to the log file.
+ * <p>
+ * The log file is kept open for the whole session and the records are collected in memory until
+ * one of the configured thresholds is reached. A threshold set to 0 (or a level set to
+ * {@value LogLevel#NONE}) is disabled.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> The default policy ({@link FlushPolicy#EVERY_RECORD}) flushes after every record,
+ * which matches the behaviour of the older versions of the library.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class FlushPolicy {
+
+    /**
+     * Every record is written to the log file as soon as it is logged
+     */
+    public static final FlushPolicy EVERY_RECORD = new Builder().flushEveryRecords(1).build();
+
+    private final int maxPendingRecords;
+    private final int maxPendingBytes;
+    private final long maxPendingMillis;
+    @LogLevel
+    private final int alwaysFlushLevel;
+
+    private FlushPolicy(@NonNull Builder builder) {
+        this.maxPendingRecords = builder.maxPendingRecords;
+        this.maxPendingBytes = builder.maxPendingBytes;
+        this.maxPendingMillis = builder.maxPendingMillis;
+        this.alwaysFlushLevel = builder.alwaysFlushLevel;
+    }
+
+    /**
+     * @return the maximum number of records kept in memory before flushing; 0 if disabled
+     */
+    public int getMaxPendingRecords() {
+        return maxPendingRecords;
+    }
+
+    /**
+     * @return the maximum number of bytes kept in memory before flushing; 0 if disabled
+     */
+    public int getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * @return the maximum age (in milliseconds) of the oldest record kept in memory; 0 if disabled
+     */
+    public long getMaxPendingMillis() {
+        return maxPendingMillis;
+    }
+
+    /**
+     * @return the minimum level for which the records are always flushed straight away
+     */
+    @LogLevel
+    public int getAlwaysFlushLevel() {
+        return alwaysFlushLevel;
+    }
+
+    /**
+     * @param pendingRecords        the number of records waiting in memory (including the new one)
+     * @param pendingBytes          the number of bytes waiting in memory (including the new record)
+     * @param millisSinceLastFlush  the time passed since the last flush
+     * @param logLevel              the level of the newly added record
+     * @return whether the pending records should be written to the file now
+     */
+    boolean shouldFlush(int pendingRecords, int pendingBytes, long millisSinceLastFlush, @LogLevel int logLevel) {
+        return (logLevel >= alwaysFlushLevel)
+                || (maxPendingRecords > 0 && pendingRecords >= maxPendingRecords)
+                || (maxPendingBytes > 0 && pendingBytes >= maxPendingBytes)
+                || (maxPendingMillis > 0 && millisSinceLastFlush >= maxPendingMillis);
+    }
+
+    /**
+     * Builder class for the {@link FlushPolicy}. By default, all the thresholds are disabled except
+     * for the level one which flushes the {@value LogLevel#WARN} (and above) records straight away
+     */
+    public static class Builder {
+        private int maxPendingRecords = 0;
+        private int maxPendingBytes = 0;
+        private long maxPendingMillis = 0;
+        @LogLevel
+        private int alwaysFlushLevel = LogLevel.WARN;
+
+        /**
+         * @param recordsCount flush once this many records are waiting in memory (0 to disable)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder flushEveryRecords(int recordsCount) {
+            if (recordsCount < 0) {
+                throw new IllegalArgumentException("recordsCount should not be negative");
+            }
+            this.maxPendingRecords = recordsCount;
+            return this;
+        }
+
+        /**
+         * @param bytesCount flush once this many bytes are waiting in memory (0 to disable)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder flushEveryBytes(int bytesCount) {
+            if (bytesCount < 0) {
+                throw new IllegalArgumentException("bytesCount should not be negative");
+            }
+            this.maxPendingBytes = bytesCount;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The time is checked when a new record is logged. Use
+         * {@link JeefoLogger#flush()} if the pending records must reach the file while nothing
+         * else is being logged.
+         *
+         * @param millis flush once the oldest record waiting in memory is this old (0 to disable)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder flushEveryMillis(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("millis should not be negative");
+            }
+            this.maxPendingMillis = millis;
+            return this;
+        }
+
+        /**
+         * @param logLevel the records having this level (or above) are always flushed straight
+         *                 away. Use {@value LogLevel#NONE} to disable it.
+         * @return self to allow cascading
+         */
+        public Builder flushAlwaysFromLevel(@LogLevel int logLevel) {
+            this.alwaysFlushLevel = logLevel;
+            return this;
+        }
+
+        /**
+         * @return the newly built {@link FlushPolicy}
+         */
+        @NonNull
+        public FlushPolicy build() {
+            return new FlushPolicy(this);
+        }
+    }
+}
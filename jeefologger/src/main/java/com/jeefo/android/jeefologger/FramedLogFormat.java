@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.util.zip.CRC32;
+
+/**
+ * Layout of the framed text log segments (see
+ * {@link JeefoLogger.Builder#withPersistenceRecordFraming(boolean)}).
+ * <p>
+ * Every text line is wrapped in a frame: {@link FramedLogFormat#FRAME_MARKER} (one byte), the
+ * length of the line (4 bytes, little endian), the CRC32 of the length bytes and of the line
+ * (4 bytes, little endian) and the UTF-8 bytes of the line itself, ending with '\n'. So a frame
+ * never ends with a zero byte and the zero padding of the memory mapped segments can still be
+ * told apart from the data.
+ * </p>
+ * <p>
+ * A record torn by a crash (or damaged in any other way) fails the checksum. The readers skip it
+ * and look for the next marker followed by a valid frame (see {@link FramedLogInputStream}) and
+ * the segment left open by a crash gets its torn tail truncated on the next start (see
+ * {@link FramedLogRecovery}).
+ * </p>
+ */
+final class FramedLogFormat {
+    static final String EXTENSION = ".flog";
+
+    static final int FRAME_MARKER = 0xFA;
+    static final int HEADER_LENGTH = 9;
+    // longer lines are treated as damaged length fields
+    static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+    // the checksum is computed on the writing threads, so every one of them has its own
+    private static final ThreadLocal<CRC32> threadChecksum = new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    private FramedLogFormat() {
+    }
+
+    /**
+     * Fills the header of a frame whose payload follows it in the same array
+     *
+     * @param frame         the array holding the frame
+     * @param headerOffset  the offset of the frame's {@value HEADER_LENGTH} bytes header
+     * @param payloadLength the length of the payload
+     */
+    static void writeHeader(@NonNull byte[] frame, int headerOffset, int payloadLength) {
+        frame[headerOffset] = (byte) FRAME_MARKER;
+        writeInt(frame, headerOffset + 1, payloadLength);
+        writeInt(frame, headerOffset + 5, (int) computeChecksum(frame, headerOffset, payloadLength));
+    }
+
+    /**
+     * @param frame        the array holding a frame
+     * @param headerOffset the offset of the frame's header
+     * @return the length of the payload as written in the header; not validated
+     */
+    static int readPayloadLength(@NonNull byte[] frame, int headerOffset) {
+        return readInt(frame, headerOffset + 1);
+    }
+
+    /**
+     * @param frame         the array holding the whole frame
+     * @param headerOffset  the offset of the frame's header
+     * @param payloadLength the length of the payload
+     * @return whether the checksum in the header matches the frame
+     */
+    static boolean isValid(@NonNull byte[] frame, int headerOffset, int payloadLength) {
+        return (frame[headerOffset] & 0xFF) == FRAME_MARKER
+                && readInt(frame, headerOffset + 5) == (int) computeChecksum(frame, headerOffset, payloadLength);
+    }
+
+    private static long computeChecksum(@NonNull byte[] frame, int headerOffset, int payloadLength) {
+        final CRC32 checksum = threadChecksum.get();
+        checksum.reset();
+        checksum.update(frame, headerOffset + 1, 4);
+        checksum.update(frame, headerOffset + HEADER_LENGTH, payloadLength);
+        return checksum.getValue();
+    }
+
+    private static void writeInt(@NonNull byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readInt(@NonNull byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+    }
+}
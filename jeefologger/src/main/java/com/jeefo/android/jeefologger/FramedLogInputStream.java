@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a framed segment (see {@link FramedLogFormat}) and provides the text lines carried by its
+ * valid frames. The damaged frames are skipped: the reading moves one byte past the marker of the
+ * damaged frame and looks for the next marker followed by a frame with a matching checksum. So a
+ * torn or overwritten record only loses itself, not the records after it.
+ * <p>
+ * The zero bytes met while looking for a frame (the padding of the memory mapped segments) are
+ * skipped without being counted as damaged.
+ * </p>
+ */
+class FramedLogInputStream extends InputStream {
+    private static final int INITIAL_WINDOW_SIZE = 64 * 1024;
+
+    @NonNull
+    private final InputStream input;
+    // the bytes read from the input and not consumed yet are [windowStart, windowEnd)
+    private byte[] window = new byte[INITIAL_WINDOW_SIZE];
+    private int windowStart = 0;
+    private int windowEnd = 0;
+    // the position of window[0] in the input
+    private long windowOffset = 0;
+    private boolean isInputFinished = false;
+
+    // the payload of the current frame is [payloadPosition, payloadEnd) of the window
+    private int payloadPosition = 0;
+    private int payloadEnd = 0;
+
+    private long framesCount = 0;
+    private long damagedBytesCount = 0;
+    private long validDataEnd = 0;
+
+    /**
+     * @param input the raw (already decompressed) content of the framed segment, positioned at its
+     *              start or at the start of a frame (see {@link LogTimeIndex}); closed along with
+     *              this stream
+     */
+    FramedLogInputStream(@NonNull InputStream input) {
+        this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (payloadPosition >= payloadEnd && !readFrame()) {
+            return -1;
+        }
+        return window[payloadPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (payloadPosition >= payloadEnd && !readFrame()) {
+            return -1;
+        }
+
+        final int count = Math.min(length, payloadEnd - payloadPosition);
+        System.arraycopy(window, payloadPosition, buffer, offset, count);
+        payloadPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Drops the rest of the current frame's payload and moves to the next valid frame
+     *
+     * @return false if there's no valid frame left
+     * @throws IOException if reading failed
+     */
+    boolean skipFrame() throws IOException {
+        payloadPosition = payloadEnd;
+        return readFrame();
+    }
+
+    /**
+     * @return the number of valid frames read so far
+     */
+    long getFramesCount() {
+        return framesCount;
+    }
+
+    /**
+     * @return the number of non-zero bytes skipped so far because they were not part of a valid
+     * frame
+     */
+    long getDamagedBytesCount() {
+        return damagedBytesCount;
+    }
+
+    /**
+     * @return the position in the input right after the last valid frame read so far
+     */
+    long getValidDataEnd() {
+        return validDataEnd;
+    }
+
+    /**
+     * Finds the next valid frame and makes its payload the current one
+     *
+     * @return false if there's no valid frame left
+     */
+    private boolean readFrame() throws IOException {
+        while (true) {
+            if (!fill(FramedLogFormat.HEADER_LENGTH)) {
+                // a torn header at the end of the input (or nothing at all)
+                while (windowStart < windowEnd) {
+                    skipByte();
+                }
+                return false;
+            }
+
+            if ((window[windowStart] & 0xFF) != FramedLogFormat.FRAME_MARKER) {
+                skipByte();
+                continue;
+            }
+
+            final int payloadLength = FramedLogFormat.readPayloadLength(window, windowStart);
+            if (payloadLength < 0 || payloadLength > FramedLogFormat.MAX_PAYLOAD_LENGTH
+                    || !fill(FramedLogFormat.HEADER_LENGTH + payloadLength)
+                    || !FramedLogFormat.isValid(window, windowStart, payloadLength)) {
+                // a damaged (or torn) frame; a valid one might start in its bytes
+                skipByte();
+                continue;
+            }
+
+            payloadPosition = windowStart + FramedLogFormat.HEADER_LENGTH;
+            payloadEnd = payloadPosition + payloadLength;
+            windowStart = payloadEnd;
+            ++framesCount;
+            validDataEnd = windowOffset + windowStart;
+            return true;
+        }
+    }
+
+    private void skipByte() {
+        if (window[windowStart] != 0) {
+            ++damagedBytesCount;
+        }
+        ++windowStart;
+    }
+
+    /**
+     * Reads from the input until the window holds at least the given number of bytes
+     *
+     * @param length the number of bytes needed from windowStart on
+     * @return false if the input ended before
+     */
+    private boolean fill(int length) throws IOException {
+        if (windowEnd - windowStart >= length) {
+            return true;
+        }
+
+        if (windowStart + length > window.length) {
+            // make room by moving the bytes not consumed yet to the start of the window
+            final byte[] target = length > window.length ? new byte[Math.max(length, window.length * 2)] : window;
+            System.arraycopy(window, windowStart, target, 0, windowEnd - windowStart);
+            window = target;
+            windowOffset += windowStart;
+            windowEnd -= windowStart;
+            windowStart = 0;
+        }
+
+        while (!isInputFinished && windowEnd - windowStart < length) {
+            final int count = input.read(window, windowEnd, window.length - windowEnd);
+            if (count < 0) {
+                isInputFinished = true;
+            } else {
+                windowEnd += count;
+            }
+        }
+        return windowEnd - windowStart >= length;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Wraps every record encoded by another {@link ILogRecordEncoder} in a frame carrying its length
+ * and checksum (see {@link FramedLogFormat}). The frame is written around the record in the same
+ * {@link EncodedRecordBuffer}, so nothing is copied.
+ * <p>
+ * The encoder is as thread-safe as the wrapped one.
+ * </p>
+ */
+class FramedLogRecordEncoder implements ILogRecordEncoder {
+    @NonNull
+    private final ILogRecordEncoder payloadEncoder;
+
+    /**
+     * @param payloadEncoder the {@link ILogRecordEncoder} of the framed records
+     */
+    FramedLogRecordEncoder(@NonNull ILogRecordEncoder payloadEncoder) {
+        this.payloadEncoder = payloadEncoder;
+    }
+
+    /**
+     * @param record the {@link LogRecord} to be encoded
+     * @param output the buffer the frame is appended to
+     * @throws IOException if the record cannot be encoded or it's longer than
+     *                     {@link FramedLogFormat#MAX_PAYLOAD_LENGTH}
+     */
+    @Override
+    public void encode(@NonNull LogRecord record, @NonNull EncodedRecordBuffer output) throws IOException {
+        final int headerOffset = output.reserve(FramedLogFormat.HEADER_LENGTH);
+        payloadEncoder.encode(record, output);
+
+        final int payloadLength = output.size() - headerOffset - FramedLogFormat.HEADER_LENGTH;
+        if (payloadLength > FramedLogFormat.MAX_PAYLOAD_LENGTH) {
+            throw new IOException("The record is too long to be framed: " + payloadLength + " bytes");
+        }
+        FramedLogFormat.writeHeader(output.getBuffer(), headerOffset, payloadLength);
+    }
+
+    @Override
+    public void startSyncPoint() {
+        payloadEncoder.startSyncPoint();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return payloadEncoder.isThreadSafe();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Startup check of the framed segment the previous session was writing to (see
+ * {@link FramedLogFormat}). If the process died in the middle of a write, the segment ends with a
+ * torn frame (or with the zero padding of the memory mapped segments). The segment is read once,
+ * checking the frames without decoding them, and cut right after the last valid frame, so the new
+ * records are not appended after the garbage.
+ * <p>
+ * The block compressed segments (see {@link BlockLogFormat}) are checked the same way, block by
+ * block, and cut right after the last valid block.
+ * </p>
+ * <p>
+ * The damaged frames (or blocks) found before the last valid one are left in place; the readers
+ * skip them.
+ * </p>
+ */
+final class FramedLogRecovery {
+
+    /**
+     * What the check of a segment found
+     */
+    static final class Result {
+        // the number of valid records in the segment (of valid blocks for the block compressed ones)
+        final long recordsCount;
+        // the number of non-zero bytes skipped because they were not part of a valid frame or block
+        final long damagedBytesCount;
+        // the number of bytes cut off from the end of the segment (damaged or zero padding)
+        final long truncatedBytesCount;
+
+        Result(long recordsCount, long damagedBytesCount, long truncatedBytesCount) {
+            this.recordsCount = recordsCount;
+            this.damagedBytesCount = damagedBytesCount;
+            this.truncatedBytesCount = truncatedBytesCount;
+        }
+
+        /**
+         * @return whether the segment had any damaged frame (the zero padding left by the memory
+         * mapped writer is cut off silently)
+         */
+        boolean wasDamaged() {
+            return damagedBytesCount > 0;
+        }
+    }
+
+    private FramedLogRecovery() {
+    }
+
+    /**
+     * Must be called before the segment is opened for writing
+     *
+     * @param segmentFile the uncompressed framed (or block compressed) segment
+     * @return the {@link Result} of the check
+     * @throws IOException if the segment cannot be read or truncated
+     */
+    @NonNull
+    static Result recover(@NonNull File segmentFile) throws IOException {
+        if (LogSegmentFiles.isBlockCompressed(segmentFile)) {
+            return recoverBlocks(segmentFile);
+        }
+
+        final FramedLogInputStream input = new FramedLogInputStream(new FileInputStream(segmentFile));
+        final long fileLength;
+        try {
+            //noinspection StatementWithEmptyBody
+            while (input.skipFrame()) {
+            }
+            fileLength = segmentFile.length();
+        } finally {
+            input.close();
+        }
+
+        truncate(segmentFile, input.getValidDataEnd(), fileLength);
+        return new Result(input.getFramesCount(), input.getDamagedBytesCount(), Math.max(0, fileLength - input.getValidDataEnd()));
+    }
+
+    @NonNull
+    private static Result recoverBlocks(@NonNull File segmentFile) throws IOException {
+        final BlockLogInputStream input = new BlockLogInputStream(new FileInputStream(segmentFile));
+        final long fileLength;
+        try {
+            //noinspection StatementWithEmptyBody
+            while (input.skipBlock()) {
+            }
+            fileLength = segmentFile.length();
+        } finally {
+            input.close();
+        }
+
+        truncate(segmentFile, input.getValidDataEnd(), fileLength);
+        return new Result(input.getBlocksCount(), input.getDamagedBytesCount(), Math.max(0, fileLength - input.getValidDataEnd()));
+    }
+
+    /**
+     * Cuts the segment (and its time index) right after its valid data, if anything follows it
+     */
+    private static void truncate(@NonNull File segmentFile, long validDataEnd, long fileLength) throws IOException {
+        if (validDataEnd < fileLength) {
+            final RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+            try {
+                file.setLength(validDataEnd);
+            } finally {
+                file.close();
+            }
+            LogTimeIndex.truncate(segmentFile, validDataEnd);
+        }
+    }
+
+    /**
+     * @param logsDirectory the directory holding the segments
+     * @param process       the process whose segments are checked (the other processes may still
+     *                      be writing theirs)
+     * @return the latest segment of the process if it's an uncompressed framed one or a block
+     * compressed one; null otherwise
+     */
+    @Nullable
+    static File findLastCheckedSegment(@NonNull File logsDirectory, @NonNull String process) {
+        final File[] segments = LogSegmentFiles.listSegments(logsDirectory, process);
+        if (segments.length == 0) {
+            return null;
+        }
+
+        final File lastSegment = segments[segments.length - 1];
+        return lastSegment.getName().endsWith(FramedLogFormat.EXTENSION) || LogSegmentFiles.isBlockCompressed(lastSegment)
+                ? lastSegment
+                : null;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Shares the syncs of the log file between the threads waiting for their records to be durable.
+ * <p>
+ * The first thread asking for a sync performs it, optionally after waiting a short window for
+ * more records to join. The threads asking in the meantime wait for the next sync, which covers
+ * all of them at once.
+ * </p>
+ */
+final class GroupCommitter {
+
+    /**
+     * The actual sync of everything written so far
+     */
+    interface SyncAction {
+        void sync() throws IOException;
+    }
+
+    @NonNull
+    private final SyncAction syncAction;
+    private final Object monitor = new Object();
+    private volatile long windowMillis;
+
+    // guarded by the monitor
+    private long requestsCount = 0;
+    private long syncedRequestsCount = 0;
+    private boolean isSyncing = false;
+
+    /**
+     * @param syncAction   the {@link SyncAction} making the written records durable
+     * @param windowMillis how long a sync waits for more records to join (0 to sync straight away)
+     */
+    GroupCommitter(@NonNull SyncAction syncAction, long windowMillis) {
+        this.syncAction = syncAction;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param windowMillis how long a sync waits for more records to join (0 to sync straight away)
+     */
+    void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Blocks until everything the calling thread wrote before this call is durable. An interrupt
+     * does not cut the wait short, as the records would not be durable; the interrupt status of
+     * the thread is restored before returning.
+     *
+     * @throws IOException if the sync performed by the calling thread failed
+     */
+    void commit() throws IOException {
+        // cleared until the sync is done, as it would close an interruptible channel
+        boolean wasInterrupted = Thread.interrupted();
+        try {
+            synchronized (monitor) {
+                final long request = ++requestsCount;
+                while (syncedRequestsCount < request) {
+                    if (!isSyncing) {
+                        isSyncing = true;
+                        break;
+                    }
+
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        wasInterrupted = true;
+                    }
+                }
+
+                if (syncedRequestsCount >= request) {
+                    return;
+                }
+            }
+
+            long coveredRequestsCount = 0;
+            boolean wasSynced = false;
+            try {
+                final long window = windowMillis;
+                // an interrupted thread does not wait for more records to join
+                if (window > 0 && !wasInterrupted) {
+                    try {
+                        Thread.sleep(window);
+                    } catch (InterruptedException e) {
+                        wasInterrupted = true;
+                    }
+                }
+
+                synchronized (monitor) {
+                    // the requests made so far wrote their records before asking
+                    coveredRequestsCount = requestsCount;
+                }
+                syncAction.sync();
+                wasSynced = true;
+            } finally {
+                synchronized (monitor) {
+                    isSyncing = false;
+                    if (wasSynced) {
+                        syncedRequestsCount = Math.max(syncedRequestsCount, coveredRequestsCount);
+                    }
+                    monitor.notifyAll();
+                }
+            }
+        } finally {
+            if (wasInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package com.jeefo.android.jeefologger;
 
-import android.support.annotation.Nullable;
+import android.support.annotation.NonNull;
 
 import java.io.Serializable;
-import java.util.LinkedList;
 
 /**
  * Created by Alexandru Iustin Dochioiu on 7/14/2018
@@ -13,115 +12,115 @@ interface IInternalLog extends Serializable {
     /**
      * Write a custom message to the verbose log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalVerbose(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args);
+    void InternalVerbose(@NonNull LogCallContext context, String messageToLog, Object... args);
 
     /**
      * Write the exception message to the verbose log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param exception     the exception to be logged
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalVerbose(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args);
+    void InternalVerbose(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args);
 
     /**
      * Write a custom message to the debug log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalDebug(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args);
+    void InternalDebug(@NonNull LogCallContext context, String messageToLog, Object... args);
 
     /**
      * Write the exception message to the debug log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param exception     the exception to be logged
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalDebug(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args);
+    void InternalDebug(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args);
 
     /**
      * Write a custom message to the info log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalInfo(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args);
+    void InternalInfo(@NonNull LogCallContext context, String messageToLog, Object... args);
 
     /**
      * Write a custom message to the warning logged
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalWarn(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args);
+    void InternalWarn(@NonNull LogCallContext context, String messageToLog, Object... args);
 
     /**
      * Write the exception message to the warning log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param exception     the exception to be logged
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalWarn(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args);
+    void InternalWarn(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args);
 
     /**
      * Write a custom message to the error log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalError(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args);
+    void InternalError(@NonNull LogCallContext context, String messageToLog, Object... args);
 
     /**
      * Write the exception message and a custom message to the error log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param exception     the exception to be logged
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalError(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args);
+    void InternalError(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args);
 
     /**
      * Write a custom message to the wtf log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalWtf(@Nullable final LinkedList<StackTraceElement> traceElements, String messageToLog, Object... args);
+    void InternalWtf(@NonNull LogCallContext context, String messageToLog, Object... args);
 
     /**
      * Write the exception message and a custom message to the wtf log
      *
-     * @param traceElements the stackTrace (can be null) used by the {@link SmartLogger} when
+     * @param context       the {@link LogCallContext} of the call, used by the loggers when
      *                      computing the logging prefix
      * @param exception     the exception to be logged
      * @param messageToLog  the message to be logged
      * @param args          arguments for messageToLog
      */
-    void InternalWtf(@Nullable final LinkedList<StackTraceElement> traceElements, Exception exception, String messageToLog, Object... args);
+    void InternalWtf(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args);
 }
@@ -132,4 +132,14 @@ public interface ILog extends Serializable {
      * @param exception the exception to be logged
      */
     void Wtf(Exception exception);
+
+    /**
+     * Checks whether a message with the given level is logged anywhere (logcat, persistence or
+     * flight recorder). The logging methods already do this check before any other work, so use
+     * it only to avoid computing expensive arguments for the messages which would be discarded
+     *
+     * @param logLevel the {@link LogLevel} of the message
+     * @return true if a message with that level is logged
+     */
+    boolean isLoggable(@LogLevel int logLevel);
 }
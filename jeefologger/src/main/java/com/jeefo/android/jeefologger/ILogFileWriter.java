@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Storage backend used by the {@link PersistentLogger} for appending the already encoded records
+ * to a log file. The implementations are not thread-safe unless
+ * {@link ILogFileWriter#supportsConcurrentWrites()} says otherwise; the callers are expected to
+ * serialize the calls.
+ */
+interface ILogFileWriter {
+
+    /**
+     * Appends an encoded record to the log file
+     *
+     * @param data            the array holding the encoded record
+     * @param offset          the offset of the record inside the array
+     * @param length          the length of the record
+     * @param logLevel        the level of the record (used for deciding when to flush)
+     * @param timestampMillis the time when the record was logged
+     * @return the position in the file where the record starts
+     * @throws IOException if writing to the file failed
+     */
+    long write(@NonNull byte[] data, int offset, int length, @LogLevel int logLevel, long timestampMillis) throws IOException;
+
+    /**
+     * Pushes all the records kept in memory to the log file
+     *
+     * @throws IOException if writing to the file failed
+     */
+    void flush() throws IOException;
+
+    /**
+     * Pushes the records kept in memory to the log file only if the oldest one is older than the
+     * {@link FlushPolicy} allows
+     *
+     * @throws IOException if writing to the file failed
+     */
+    void flushIfExpired() throws IOException;
+
+    /**
+     * Makes sure the records already pushed to the log file (see {@link ILogFileWriter#flush()})
+     * reach the storage device, so they survive a power loss or an OS crash. This can be called
+     * while another thread is writing.
+     *
+     * @throws IOException if syncing the file failed
+     */
+    void force() throws IOException;
+
+    /**
+     * Flushes the pending records and releases the file
+     *
+     * @throws IOException if writing to or closing the file failed
+     */
+    void close() throws IOException;
+
+    /**
+     * @param flushPolicy the {@link FlushPolicy} to be used from now on
+     */
+    void setFlushPolicy(@NonNull FlushPolicy flushPolicy);
+
+    /**
+     * @return whether {@link ILogFileWriter#write(byte[], int, int, int, long)} can be called by multiple
+     * threads at the same time (the other methods still need to be serialized)
+     */
+    boolean supportsConcurrentWrites();
+
+    /**
+     * @return the log {@link File} this writer appends to
+     */
+    @NonNull
+    File getFile();
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Turns the {@link LogRecord}s into the bytes stored in a log segment. A new encoder is created for
+ * every segment, so the encoders are free to keep per-segment state.
+ */
+interface ILogRecordEncoder {
+
+    /**
+     * @param record the {@link LogRecord} to be encoded
+     * @param output the buffer the bytes to be appended to the segment are written to (after its
+     *               current content)
+     * @throws IOException if the record cannot be encoded
+     */
+    void encode(@NonNull LogRecord record, @NonNull EncodedRecordBuffer output) throws IOException;
+
+    /**
+     * Makes the next encoded record readable without the ones before it, so the segment can be
+     * read starting from there (see {@link LogTimeIndex})
+     */
+    void startSyncPoint();
+
+    /**
+     * @return whether {@link ILogRecordEncoder#encode(LogRecord, EncodedRecordBuffer)} can be
+     * called by multiple threads at the same time and the encoded records can be written in any
+     * order
+     */
+    boolean isThreadSafe();
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the records of a log segment one at a time, skipping the ones which do not match a
+ * {@link LogQuery}
+ */
+interface ILogSegmentReader extends Closeable {
+
+    /**
+     * @return the next matching record as the text written by the {@link TextLogRecordEncoder}
+     * (without the line terminator); null if there's none left
+     * @throws IOException if reading or decoding the segment failed
+     */
+    @Nullable
+    String readNext() throws IOException;
+
+    /**
+     * Same as {@link ILogSegmentReader#readNext()}, but the record is not turned into a string
+     *
+     * @return false if there's no matching record left
+     * @throws IOException if reading or decoding the segment failed
+     */
+    boolean skipNext() throws IOException;
+
+    /**
+     * @return the time of the record returned (or skipped) last
+     */
+    long getRecordTimeMillis();
+
+    /**
+     * @return whether the time of the record returned (or skipped) last only has whole seconds
+     */
+    boolean isRecordTimeTruncated();
+}
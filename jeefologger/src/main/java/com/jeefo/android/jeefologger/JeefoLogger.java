@@ -22,6 +22,9 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 
 /**
@@ -58,7 +61,7 @@ public class JeefoLogger {
      */
     @Deprecated
     public static void initLazyLogger(@NonNull Context context) {
-        LazyLogger.packageName = context.getPackageName();
+        LazyLogger.setPackageName(context.getPackageName());
     }
 
     /**
@@ -111,16 +114,145 @@ public class JeefoLogger {
 
     /**
      * Each {@link File} object will have the name following the structure:
-     * yyyy_MM_dd_Log.txt
+     * yyyy_MM_dd_Log.txt for the first log file (segment) of a day and yyyy_MM_dd_Log_N.txt for
+     * the following ones (see {@link RotationPolicy}). The log files of the other processes of the
+     * app have the process in their name (see {@link Builder#withMultiProcessPersistence(boolean)}).
      *
-     * @return array of all the log files as long as the persistent logging was initialized;
-     * null if the persistent logging was not initialized
+     * @return array of all the log files, ordered from the oldest to the newest segment, as long
+     * as the persistent logging was initialized; null if the persistent logging was not initialized
      */
     @Nullable
     public static File[] getAllLogFiles() {
         return PersistentLogger.getAllLogFiles();
     }
 
+    /**
+     * Opens one of the log files returned by {@link JeefoLogger#getAllLogFiles()} for reading. The
+     * compressed log files (see {@link Builder#withPersistenceCompression(boolean)}) are
+     * decompressed, the binary and block compressed ones (see {@link Builder#withPersistenceFormat(int)})
+     * are decoded and the framed ones (see {@link Builder#withPersistenceRecordFraming(boolean)}) are unwrapped
+     * on the fly, so the content is always the plain text of the log.
+     * <p>
+     * <b>NOTE:</b> The caller is responsible for closing the returned stream
+     *
+     * @param logFile the log {@link File} to be read
+     * @return the {@link InputStream} with the plain content of the log file
+     * @throws IOException if the log file cannot be opened
+     */
+    @NonNull
+    public static InputStream openLogFile(@NonNull File logFile) throws IOException {
+        return LogSegmentFiles.open(logFile);
+    }
+
+    /**
+     * Same as {@link JeefoLogger#openLogFile(File)}, but the returned stream starts with the first
+     * message logged at or after the given time. With the time index enabled (see
+     * {@link Builder#withPersistenceTimeIndex(boolean)}), only a few KB of the log file are read
+     * to find it; otherwise the log file is read from the start.
+     * <p>
+     * <b>NOTE:</b> The text log files only keep the time to the second, so the messages logged in
+     * the same second as the given time are included. The caller is responsible for closing the
+     * returned stream.
+     *
+     * @param logFile        the log {@link File} to be read
+     * @param fromTimeMillis the time (as in {@link System#currentTimeMillis()}) to start from
+     * @return the {@link InputStream} with the plain content of the log file, from the given time
+     * @throws IOException if the log file cannot be opened
+     */
+    @NonNull
+    public static InputStream openLogFile(@NonNull File logFile, long fromTimeMillis) throws IOException {
+        return LogSegmentFiles.open(logFile, fromTimeMillis);
+    }
+
+    /**
+     * Reads the persisted messages matching the given {@link LogQuery}, from the oldest to the
+     * newest, without loading the log files into memory. The log files are only read as the
+     * returned {@link LogCursor} is iterated.
+     * <p>
+     * <b>NOTE:</b> The caller is responsible for closing the returned cursor if it is not read to
+     * the end. The messages still buffered in memory (see {@link FlushPolicy}) are not returned;
+     * call {@link JeefoLogger#flush()} first to include them.
+     *
+     * @param query the {@link LogQuery} the messages must match (e.g. {@link LogQuery#ALL})
+     * @return the {@link LogCursor} returning the matching messages as long as the persistent
+     * logging was initialized; null if the persistent logging was not initialized
+     */
+    @Nullable
+    public static LogCursor queryLogs(@NonNull LogQuery query) {
+        final File[] logFiles = PersistentLogger.getAllLogFiles();
+        return logFiles != null ? new LogCursor(logFiles, query) : null;
+    }
+
+    /**
+     * Writes the log files into a single ZIP or tar archive, e.g. to share or upload them. The log
+     * files are not loaded into memory: the ones exported whole are copied by the OS straight to
+     * the output and only the ones cut down to the time range (if any, see
+     * {@link LogExportOptions}) are decoded, one message at a time. The last entry of the archive,
+     * "manifest.json", lists for every exported file the log file it comes from, its size, its
+     * number of messages and the time of the first and the last one.
+     * <p>
+     * <b>NOTE:</b> Pass a {@link java.io.FileOutputStream} to export to a file; its channel is
+     * used directly, which lets the OS copy the log files without reading them into the app. The
+     * output stream is not closed. The messages still buffered in memory (see
+     * {@link FlushPolicy}) are not exported; call {@link JeefoLogger#flush()} first to include them.
+     *
+     * @param output  the {@link OutputStream} the archive is written to
+     * @param options the {@link LogExportOptions} (e.g. {@link LogExportOptions#ALL_AS_ZIP})
+     * @return true if the logs were exported; false if no log files were given and the persistent
+     * logging was not initialized
+     * @throws IOException if writing the archive failed
+     */
+    public static boolean exportLogs(@NonNull OutputStream output, @NonNull LogExportOptions options) throws IOException {
+        File[] logFiles = options.getLogFiles();
+        if (logFiles == null) {
+            logFiles = PersistentLogger.getAllLogFiles();
+        }
+        if (logFiles == null) {
+            return false;
+        }
+
+        LogExporter.export(logFiles, options, output);
+        return true;
+    }
+
+    /**
+     * @return array of all the flight recorder dumps (oldest first, see
+     * {@link Builder#withFlightRecorder(FlightRecorderPolicy)}); null if the flight recorder was
+     * never started
+     */
+    @Nullable
+    public static File[] getAllFlightRecordings() {
+        return FlightRecorder.getAllDumps();
+    }
+
+    /**
+     * Writes to the log file all the persistent records which are still kept in memory because of
+     * the {@link FlushPolicy}. It is a good idea to call this when the app goes to background.
+     */
+    public static void flush() {
+        PersistentLogger.flush();
+    }
+
+    /**
+     * @return the number of persistent records dropped so far because they were logged faster
+     * than they could be written (see {@link BackPressurePolicy}) or before the log file was
+     * opened (see {@link Builder#withBackgroundPersistenceInit(int)})
+     */
+    public static long getDroppedRecordsCount() {
+        return PersistentLogger.getDroppedRecordsCount();
+    }
+
+    /**
+     * Writes all the pending persistent records and closes the log file. When the asynchronous
+     * persistence is used, this also stops the background writer. Nothing else is persisted until
+     * {@link Builder#buildAndInit()} is called again.
+     * <p>
+     * <b>NOTE:</b> Call this when the app is about to exit so no record kept in memory is lost
+     */
+    public static void shutdown() {
+        PersistentLogger.shutdown();
+    }
+
     /**
      * Private constructor as this should never be initialized
      */
@@ -131,6 +263,9 @@ public class JeefoLogger {
      * Builder class for setting up the JeeFoLogger
      */
     public static class Builder {
+        private static final int DEFAULT_ASYNC_BUFFER_CAPACITY = 4096;
+        private static final int DEFAULT_EARLY_BUFFER_CAPACITY = 1024;
+
         WeakReference<Context> appContextWeakReference;
 
         private boolean useLazyLogger = false;
@@ -139,6 +274,33 @@ public class JeefoLogger {
         private int minPersistenceLevel = LogLevel.VERBOSE;
         @LogLevel
         private int minLogcatLevel = LogLevel.VERBOSE;
+        @NonNull
+        private FlushPolicy persistenceFlushPolicy = FlushPolicy.EVERY_RECORD;
+        private int asyncPersistenceBufferCapacity = PersistenceSettings.SYNCHRONOUS;
+        @NonNull
+        private BackPressurePolicy asyncPersistenceBackPressure = BackPressurePolicy.BLOCK;
+        private int earlyPersistenceBufferCapacity = DEFAULT_EARLY_BUFFER_CAPACITY;
+        @PersistenceStorage
+        private int persistenceStorage = PersistenceStorage.STREAM;
+        @PersistenceFormat
+        private int persistenceFormat = PersistenceFormat.TEXT;
+        private boolean deferPersistenceFormatting = false;
+        @PersistenceTimestamp
+        private int persistenceTimestamp = PersistenceTimestamp.SECONDS;
+        private boolean framePersistentRecords = false;
+        private boolean useMultiProcessPersistence = false;
+        @PersistenceDurability
+        private int persistenceDurability = PersistenceDurability.NONE;
+        private long groupCommitWindowMillis = 0;
+        @NonNull
+        private RotationPolicy persistenceRotationPolicy = RotationPolicy.DAILY;
+        private RetentionPolicy persistenceRetentionPolicy = RetentionPolicy.UNLIMITED;
+        private int compressionThreadsCount = 0;
+        private boolean useTimeIndex = false;
+        private int timeIndexIntervalBytes = LogTimeIndex.DEFAULT_INTERVAL_BYTES;
+        private long timeIndexIntervalMillis = LogTimeIndex.DEFAULT_INTERVAL_MILLIS;
+        @Nullable
+        private FlightRecorderPolicy flightRecorderPolicy = null;
 
         @SuppressWarnings("ConstantConditions")
         public Builder(@NonNull Context context) {
@@ -195,6 +357,328 @@ public class JeefoLogger {
             return this;
         }
 
+        /**
+         * The log file is kept open while the app is running and the records are written to it
+         * according to the given {@link FlushPolicy}. Batching the records (e.g. every 64 records
+         * or 16KB) drastically improves the logging throughput at the cost of losing the records
+         * still kept in memory if the process gets killed.
+         * <p>
+         * <b>NOTE:</b> The default policy is {@link FlushPolicy#EVERY_RECORD}
+         *
+         * @param flushPolicy the {@link FlushPolicy} used for the log file
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the flush policy is null
+         */
+        @SuppressWarnings("ConstantConditions")
+        public Builder withPersistenceFlushPolicy(@NonNull FlushPolicy flushPolicy) {
+            if (flushPolicy == null) {
+                throw new IllegalArgumentException("Non-null flush policy required!");
+            }
+            this.persistenceFlushPolicy = flushPolicy;
+            return this;
+        }
+
+        /**
+         * When enabled, the records are copied into a preallocated in-memory queue and written to
+         * the log file by a dedicated background thread, so the disk I/O never happens on the
+         * thread logging the message. The queue holds {@value #DEFAULT_ASYNC_BUFFER_CAPACITY}
+         * records; if it ever fills up, the logging threads wait for the writer to catch up (see
+         * {@link Builder#withAsyncPersistenceBackPressure(BackPressurePolicy)}).
+         * <p>
+         * <b>NOTE:</b> Use {@link JeefoLogger#flush()} or {@link JeefoLogger#shutdown()} to make
+         * sure the queued records reach the log file
+         *
+         * @param useAsyncPersistence whether the records should be written on a background thread
+         * @return self to allow cascading
+         */
+        public Builder withAsyncPersistence(boolean useAsyncPersistence) {
+            this.asyncPersistenceBufferCapacity = useAsyncPersistence ? DEFAULT_ASYNC_BUFFER_CAPACITY : PersistenceSettings.SYNCHRONOUS;
+            return this;
+        }
+
+        /**
+         * Enables the asynchronous persistence (see {@link Builder#withAsyncPersistence(boolean)})
+         * using a queue of the given size
+         *
+         * @param bufferCapacity the number of records the queue can hold (rounded up to the next
+         *                       power of two)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the capacity is not positive
+         */
+        public Builder withAsyncPersistence(int bufferCapacity) {
+            if (bufferCapacity <= 0) {
+                throw new IllegalArgumentException("Positive buffer capacity required!");
+            }
+            this.asyncPersistenceBufferCapacity = bufferCapacity;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The default policy is {@link BackPressurePolicy#BLOCK}. It only applies to
+         * the asynchronous persistence (see {@link Builder#withAsyncPersistence(boolean)}).
+         *
+         * @param backPressurePolicy what the logging threads do when the queue is full
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the policy is null
+         */
+        @SuppressWarnings("ConstantConditions")
+        public Builder withAsyncPersistenceBackPressure(@NonNull BackPressurePolicy backPressurePolicy) {
+            if (backPressurePolicy == null) {
+                throw new IllegalArgumentException("Non-null back-pressure policy required!");
+            }
+            this.asyncPersistenceBackPressure = backPressurePolicy;
+            return this;
+        }
+
+        /**
+         * When enabled (the default), {@link Builder#buildAndInit()} does no file system work on
+         * the calling thread: the logs directory and the log file are created, recovered and
+         * opened on a background thread. The messages logged meanwhile are kept in memory, up to
+         * {@value #DEFAULT_EARLY_BUFFER_CAPACITY} of them, and written as soon as the log file is
+         * open; the ones logged beyond that are dropped and their number is written to the log
+         * file instead.
+         * <p>
+         * <b>NOTE:</b> {@link JeefoLogger#flush()}, {@link JeefoLogger#shutdown()} and
+         * {@link JeefoLogger#getAllLogFiles()} wait for the log file to be opened, and so does
+         * logging a message the {@link PersistenceDurability} asks to be synced. The flight
+         * recorder and its crash handler are started straight away (see
+         * {@link Builder#withFlightRecorder(FlightRecorderPolicy)}), so a crash during the
+         * initialization is recorded and the messages kept in memory are written before the app
+         * dies.
+         *
+         * @param initInBackground whether the log file is opened on a background thread
+         * @return self to allow cascading
+         */
+        public Builder withBackgroundPersistenceInit(boolean initInBackground) {
+            this.earlyPersistenceBufferCapacity = initInBackground ? DEFAULT_EARLY_BUFFER_CAPACITY : PersistenceSettings.SYNCHRONOUS;
+            return this;
+        }
+
+        /**
+         * Enables the background initialization (see {@link Builder#withBackgroundPersistenceInit(boolean)})
+         * keeping up to the given number of messages in memory until the log file is open
+         *
+         * @param earlyBufferCapacity the number of messages kept in memory (rounded up to the
+         *                            next power of two)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the capacity is not positive
+         */
+        public Builder withBackgroundPersistenceInit(int earlyBufferCapacity) {
+            if (earlyBufferCapacity <= 0) {
+                throw new IllegalArgumentException("Positive buffer capacity required!");
+            }
+            this.earlyPersistenceBufferCapacity = earlyBufferCapacity;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The default storage is {@link PersistenceStorage#STREAM}. The
+         * {@link FlushPolicy} does not apply to {@link PersistenceStorage#MEMORY_MAPPED} as its
+         * records reach the system's page cache as soon as they are logged. The storage is ignored
+         * by the {@link PersistenceFormat#COMPRESSED_TEXT} log files, which are always streamed.
+         *
+         * @param storage the {@link PersistenceStorage} used for writing the log file
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceStorage(@PersistenceStorage int storage) {
+            this.persistenceStorage = storage;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The default format is {@link PersistenceFormat#TEXT}. The
+         * {@link PersistenceFormat#BINARY} and {@link PersistenceFormat#COMPRESSED_TEXT} log
+         * files must be read through {@link JeefoLogger#openLogFile(File)}, which converts them
+         * back to plain text.
+         *
+         * @param format the {@link PersistenceFormat} of the log files
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceFormat(@PersistenceFormat int format) {
+            this.persistenceFormat = format;
+            return this;
+        }
+
+        /**
+         * When enabled, the {@link PersistenceFormat#BINARY} log files keep the format template
+         * and the arguments of the messages, which are only formatted when the log file is read
+         * through {@link JeefoLogger#openLogFile(File)}. The messages which are also sent to
+         * logcat are still formatted straight away (once for both).
+         * <p>
+         * <b>NOTE:</b> The arguments are captured when the message is logged: the strings and the
+         * boxed primitives as they are and any other object as its toString() value. Placeholders
+         * which need the original object (such as the date ones) will not be formatted.
+         * This has no effect for the {@link PersistenceFormat#TEXT} log files.
+         *
+         * @param deferFormatting whether the persisted messages are formatted when read
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceDeferredFormatting(boolean deferFormatting) {
+            this.deferPersistenceFormatting = deferFormatting;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The default is {@link PersistenceTimestamp#SECONDS}. This has no effect for
+         * the {@link PersistenceFormat#BINARY} log files, which always keep the milliseconds.
+         *
+         * @param timestamp the {@link PersistenceTimestamp} in front of every line of the text
+         *                  log files
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceTimestamp(@PersistenceTimestamp int timestamp) {
+            this.persistenceTimestamp = timestamp;
+            return this;
+        }
+
+        /**
+         * When enabled, every line of the text log files is wrapped in a frame holding its length
+         * and checksum ("yyyy_MM_dd_Log.flog"). A line torn by a crash in the middle of a write is
+         * then detected and skipped when the log file is read through
+         * {@link JeefoLogger#openLogFile(File)} and the log file left open by the crash gets its
+         * torn end cut off when the persistence is initialized again.
+         * <p>
+         * <b>NOTE:</b> The framed log files must be read through
+         * {@link JeefoLogger#openLogFile(File)}. This has no effect for the
+         * {@link PersistenceFormat#BINARY} and {@link PersistenceFormat#COMPRESSED_TEXT} log
+         * files (the latter check their blocks instead).
+         *
+         * @param frameRecords whether the records of the text log files are framed
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceRecordFraming(boolean frameRecords) {
+            this.framePersistentRecords = frameRecords;
+            return this;
+        }
+
+        /**
+         * Must be enabled when the persistence is initialized by more than one process of the app
+         * (e.g. by a service running in its own "android:process"). Every process then writes its
+         * own log files, without any locking between the processes: the main process keeps the
+         * usual names and the other ones get their name added ("yyyy_MM_dd_Log-remote.txt" for
+         * the "com.example:remote" process). The rotation, the compression and the retention of
+         * every process only affect its own log files.
+         * <p>
+         * {@link JeefoLogger#queryLogs(LogQuery)} merges the messages of all the processes in a
+         * single time-ordered sequence and so does {@link JeefoLogger#exportLogs(OutputStream, LogExportOptions)}
+         * when asked to (see {@link LogExportOptions.Builder#withMergedProcesses(boolean)}).
+         * <p>
+         * <b>NOTE:</b> All the processes must use the same setting. Without it, the processes
+         * append to the same log files and their records can end up interleaved mid-line.
+         *
+         * @param multiProcess whether every process of the app writes its own log files
+         * @return self to allow cascading
+         */
+        public Builder withMultiProcessPersistence(boolean multiProcess) {
+            this.useMultiProcessPersistence = multiProcess;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The default policy is {@link RotationPolicy#DAILY}
+         *
+         * @param rotationPolicy the {@link RotationPolicy} deciding when a new log file is started
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the rotation policy is null
+         */
+        @SuppressWarnings("ConstantConditions")
+        public Builder withPersistenceRotationPolicy(@NonNull RotationPolicy rotationPolicy) {
+            if (rotationPolicy == null) {
+                throw new IllegalArgumentException("Non-null rotation policy required!");
+            }
+            this.persistenceRotationPolicy = rotationPolicy;
+            return this;
+        }
+
+        /**
+         * <b>NOTE:</b> The default policy is {@link RetentionPolicy#UNLIMITED}
+         *
+         * @param retentionPolicy the {@link RetentionPolicy} deciding when the oldest log files
+         *                        are deleted
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the retention policy is null
+         */
+        @SuppressWarnings("ConstantConditions")
+        public Builder withPersistenceRetentionPolicy(@NonNull RetentionPolicy retentionPolicy) {
+            if (retentionPolicy == null) {
+                throw new IllegalArgumentException("Non-null retention policy required!");
+            }
+            this.persistenceRetentionPolicy = retentionPolicy;
+            return this;
+        }
+
+        /**
+         * When enabled, the log files which are not written anymore (see {@link RotationPolicy})
+         * are compressed with GZIP on a low priority background thread. Their name gets an extra
+         * ".gz" extension. Use {@link JeefoLogger#openLogFile(File)} to read them. The
+         * {@link PersistenceFormat#COMPRESSED_TEXT} log files are left as they are.
+         *
+         * @param compressLogFiles whether the old log files should be compressed
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceCompression(boolean compressLogFiles) {
+            this.compressionThreadsCount = compressLogFiles ? 1 : 0;
+            return this;
+        }
+
+        /**
+         * Enables the compression of the old log files (see
+         * {@link Builder#withPersistenceCompression(boolean)}), compressing up to the given number
+         * of files in parallel
+         *
+         * @param maxThreadsCount the maximum number of log files compressed in parallel (capped to
+         *                        the number of cores)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the threads count is not positive
+         */
+        public Builder withPersistenceCompression(int maxThreadsCount) {
+            if (maxThreadsCount <= 0) {
+                throw new IllegalArgumentException("Positive threads count required!");
+            }
+            this.compressionThreadsCount = maxThreadsCount;
+            return this;
+        }
+
+        /**
+         * When enabled, every log file gets a small index file (with an extra ".idx" extension)
+         * mapping the time to the position in the log file every 64 KB or 10 seconds of log. This
+         * makes {@link JeefoLogger#openLogFile(File, long)} read only a few KB of the log file
+         * instead of all of it. The index files are not returned by
+         * {@link JeefoLogger#getAllLogFiles()}. The {@link PersistenceFormat#COMPRESSED_TEXT} log
+         * files don't need one as their blocks already start with their time.
+         *
+         * @param useTimeIndex whether the log files should be indexed by time
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceTimeIndex(boolean useTimeIndex) {
+            this.useTimeIndex = useTimeIndex;
+            return this;
+        }
+
+        /**
+         * Enables the time index of the log files (see
+         * {@link Builder#withPersistenceTimeIndex(boolean)}) with custom intervals. The smaller
+         * the intervals, the bigger the index and the less is read to find a given time.
+         *
+         * @param intervalBytes  the distance between the indexed messages in bytes (0 to disable)
+         * @param intervalMillis the distance between the indexed messages in milliseconds (0 to
+         *                       disable)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values or if both are disabled
+         */
+        public Builder withPersistenceTimeIndex(int intervalBytes, long intervalMillis) {
+            if (intervalBytes < 0 || intervalMillis < 0) {
+                throw new IllegalArgumentException("The index intervals should not be negative");
+            }
+            if (intervalBytes == 0 && intervalMillis == 0) {
+                throw new IllegalArgumentException("At least one index interval required!");
+            }
+            this.useTimeIndex = true;
+            this.timeIndexIntervalBytes = intervalBytes;
+            this.timeIndexIntervalMillis = intervalMillis;
+            return this;
+        }
+
         /**
          * As an extra security measure, this can be set to {@value LogLevel#NONE} when rolling
          * for production. That will ensure no message is passed to logcat ( so it cannot be
@@ -210,6 +694,54 @@ public class JeefoLogger {
             return this;
         }
 
+        /**
+         * <b>NOTE:</b> The default durability is {@link PersistenceDurability#NONE}. The syncs
+         * are expensive (from a few to tens of milliseconds each, depending on the storage), so
+         * {@link PersistenceDurability#GROUP_COMMIT} should only be used for the logs which must
+         * survive a power loss.
+         *
+         * @param durability the {@link PersistenceDurability} of the persistent records
+         * @return self to allow cascading
+         */
+        public Builder withPersistenceDurability(@PersistenceDurability int durability) {
+            this.persistenceDurability = durability;
+            return this;
+        }
+
+        /**
+         * Makes every {@link PersistenceDurability#GROUP_COMMIT} sync wait for the given time
+         * before starting, so more records get synced together. This increases the throughput
+         * when many threads are logging, at the cost of a longer wait for each logging call.
+         *
+         * @param windowMillis the time a sync waits for more records (0 to sync straight away,
+         *                     which is the default)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withPersistenceGroupCommitWindow(long windowMillis) {
+            if (windowMillis < 0) {
+                throw new IllegalArgumentException("windowMillis should not be negative");
+            }
+            this.groupCommitWindowMillis = windowMillis;
+            return this;
+        }
+
+        /**
+         * Keeps the most recent records of all levels in memory and writes them to a file when an
+         * error is logged or the app crashes (see {@link FlightRecorderPolicy}). The records are
+         * kept even if they are below the minimum persistence level or the persistence is off.
+         * Use {@link JeefoLogger#getAllFlightRecordings()} to get the dumps.
+         * <p>
+         * <b>NOTE:</b> The flight recorder is off by default
+         *
+         * @param policy the {@link FlightRecorderPolicy} or null to turn the flight recorder off
+         * @return self to allow cascading
+         */
+        public Builder withFlightRecorder(@Nullable FlightRecorderPolicy policy) {
+            this.flightRecorderPolicy = policy;
+            return this;
+        }
+
         /**
          * Called to build the JeeFoLogger settings and initialize it using them
          */
@@ -218,17 +750,43 @@ public class JeefoLogger {
 
             if (context != null) {
 
-                FinalLogger.logcatMinLevel = minLogcatLevel;
+                FinalLogger.setLogcatMinLevel(minLogcatLevel);
 
                 if (useLazyLogger) {
-                    LazyLogger.packageName = context.getPackageName();
+                    LazyLogger.setPackageName(context.getPackageName());
                 } else {
-                    LazyLogger.packageName = null;
+                    LazyLogger.setPackageName(null);
                 }
 
                 PersistentLogger.setIsActive(usePersistence);
                 if (usePersistence) {
-                    PersistentLogger.init(context, minPersistenceLevel);
+                    final PersistenceSettings settings = PersistenceSettings.withMinLevel(minPersistenceLevel);
+                    settings.flushPolicy = persistenceFlushPolicy;
+                    settings.asyncBufferCapacity = asyncPersistenceBufferCapacity;
+                    settings.backPressurePolicy = asyncPersistenceBackPressure;
+                    settings.earlyBufferCapacity = earlyPersistenceBufferCapacity;
+                    settings.storage = persistenceStorage;
+                    settings.format = persistenceFormat;
+                    settings.deferFormatting = deferPersistenceFormatting;
+                    settings.timestamp = persistenceTimestamp;
+                    settings.framedRecords = framePersistentRecords;
+                    settings.multiProcess = useMultiProcessPersistence;
+                    settings.durability = persistenceDurability;
+                    settings.groupCommitWindowMillis = groupCommitWindowMillis;
+                    settings.rotationPolicy = persistenceRotationPolicy;
+                    settings.retentionPolicy = persistenceRetentionPolicy;
+                    settings.compressionThreadsCount = compressionThreadsCount;
+                    settings.timeIndex = useTimeIndex;
+                    settings.timeIndexIntervalBytes = timeIndexIntervalBytes;
+                    settings.timeIndexIntervalMillis = timeIndexIntervalMillis;
+                    PersistentLogger.init(context, settings);
+                }
+
+                // started straight away, so a crash during the background init is recorded too
+                if (flightRecorderPolicy != null) {
+                    FlightRecorder.start(context, flightRecorderPolicy);
+                } else {
+                    FlightRecorder.stop();
                 }
             } else {
                 Log.w(TAG_LIBRARY_LOG, "Cannot initialize JeeFoLogger as the context was lost");
@@ -17,6 +17,7 @@
 
 package com.jeefo.android.jeefologger;
 
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 /**
@@ -28,13 +29,19 @@ import android.util.Log;
  */
 public class LazyLogger {
     private static final ILog lazyLoggerImplementation = new LazyLoggerInternal();
-    static String packageName = null;
+    // the package name of the app followed by '.', or null if the lazy logger was not initialized
+    @Nullable
+    static volatile String packagePrefix = null;
 
     /**
      * @param messageToLog the message to be logged
      * @param args         arguments for messageToLog
      */
     public static void Verbose(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.VERBOSE)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Verbose(messageToLog, args);
         } catch (Exception libraryException) {
@@ -49,6 +56,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Verbose(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.VERBOSE)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Verbose(exception, messageToLog, args);
         } catch (Exception libraryException) {
@@ -62,6 +73,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Debug(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.DEBUG)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Debug(messageToLog, args);
         } catch (Exception libraryException) {
@@ -76,6 +91,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Debug(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.DEBUG)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Debug(exception, messageToLog, args);
         } catch (Exception libraryException) {
@@ -89,6 +108,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Info(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.INFO)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Info(messageToLog, args);
         } catch (Exception libraryException) {
@@ -102,6 +125,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Warn(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WARN)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Warn(messageToLog, args);
         } catch (Exception libraryException) {
@@ -116,6 +143,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Warn(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WARN)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Warn(exception, messageToLog, args);
         } catch (Exception libraryException) {
@@ -129,6 +160,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Error(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Error(messageToLog, args);
         } catch (Exception libraryException) {
@@ -143,6 +178,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Error(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Error(exception, messageToLog, args);
         } catch (Exception libraryException) {
@@ -155,6 +194,10 @@ public class LazyLogger {
      * @param exception the exception to be logged
      */
     public static void Error(Exception exception) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Error(exception);
         } catch (Exception libraryException) {
@@ -168,6 +211,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Wtf(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Wtf(messageToLog, args);
         } catch (Exception libraryException) {
@@ -182,6 +229,10 @@ public class LazyLogger {
      * @param args         arguments for messageToLog
      */
     public static void Wtf(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Wtf(exception, messageToLog, args);
         } catch (Exception libraryException) {
@@ -194,6 +245,10 @@ public class LazyLogger {
      * @param exception the exception to be logged
      */
     public static void Wtf(Exception exception) {
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
+        }
+
         try {
             lazyLoggerImplementation.Wtf(exception);
         } catch (Exception libraryException) {
@@ -202,6 +257,22 @@ public class LazyLogger {
         }
     }
 
+    /**
+     * @param packageName the package of the classes whose method calls are shown in the tags or
+     *                    null to stop the lazy logger
+     */
+    static void setPackageName(@Nullable String packageName) {
+        packagePrefix = packageName != null ? packageName + "." : null;
+    }
+
+    /**
+     * @param logLevel the {@link LogLevel} of the message
+     * @return true if a message with that level is logged (see {@link ILog#isLoggable(int)})
+     */
+    public static boolean isLoggable(@LogLevel int logLevel) {
+        return FinalLogger.isLoggable(logLevel);
+    }
+
     /**
      * Private Constructor to avoid initialization
      */
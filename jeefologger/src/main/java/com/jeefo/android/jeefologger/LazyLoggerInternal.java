@@ -16,15 +16,11 @@
 
 package com.jeefo.android.jeefologger;
 
-import android.util.Pair;
-
-import java.util.LinkedList;
-import java.util.List;
+import android.support.annotation.NonNull;
 
 /**
  * Created by Alexandru Iustin Dochioiu on 6/2/2018
  */
-@SuppressWarnings({"unchecked", "RedundantCast"})
 class LazyLoggerInternal extends AbstractScopedLogger {
 
     /**
@@ -38,31 +34,17 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      * @return the prefix containing the tags or a LazyLoggerNotInitialized tag if that's the case
      */
     @Override
-    String getMessageLogPrefix() {
-        if (LazyLogger.packageName == null) {
+    String getMessageLogPrefix(@NonNull LogCallContext context) {
+        final String packagePrefix = LazyLogger.packagePrefix;
+        if (packagePrefix == null) {
             return "[LazyLoggerNotInitialized]";
         }
-        StringBuilder logPrefix = new StringBuilder();
-
-        List<Pair<String, LinkedList<String>>> traces = LazyLoggerUtils.getAllTraceForPackage(LazyLogger.packageName);
-
-        for (Pair<String, LinkedList<String>> trace : traces) {
-            logPrefix.append("[").append(TAG_KEY_CLASS).append(" ").append(trace.first).append("]");
-            for (final String methodName : trace.second) {
-                logPrefix.append("[").append(TAG_KEY_METHOD).append(" ").append(methodName).append("]");
-            }
-        }
-
-        return logPrefix.append(" ").toString();
+        return LazyLoggerUtils.getTracePrefix(packagePrefix, context.getThreadStackTrace());
     }
 
-    /**
-     * @param messageToLog the message to be logged
-     * @param args         arguments for messageToLog
-     */
     @Override
     public void Verbose(String messageToLog, Object... args) {
-        InternalVerbose((LinkedList) null, messageToLog, args);
+        InternalVerbose(LogCallContext.NONE, messageToLog, args);
     }
 
     /**
@@ -72,7 +54,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Verbose(Exception exception, String messageToLog, Object... args) {
-        InternalVerbose((LinkedList) null, exception, messageToLog, args);
+        InternalVerbose(LogCallContext.NONE, exception, messageToLog, args);
     }
 
     /**
@@ -81,7 +63,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Debug(String messageToLog, Object... args) {
-        InternalDebug((LinkedList) null, messageToLog, args);
+        InternalDebug(LogCallContext.NONE, messageToLog, args);
     }
 
     /**
@@ -91,7 +73,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Debug(Exception exception, String messageToLog, Object... args) {
-        InternalDebug((LinkedList) null, exception, messageToLog, args);
+        InternalDebug(LogCallContext.NONE, exception, messageToLog, args);
     }
 
     /**
@@ -100,7 +82,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Info(String messageToLog, Object... args) {
-        InternalInfo((LinkedList) null, messageToLog, args);
+        InternalInfo(LogCallContext.NONE, messageToLog, args);
     }
 
     /**
@@ -109,7 +91,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Warn(String messageToLog, Object... args) {
-        InternalWarn((LinkedList) null, messageToLog, args);
+        InternalWarn(LogCallContext.NONE, messageToLog, args);
     }
 
     /**
@@ -119,7 +101,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Warn(Exception exception, String messageToLog, Object... args) {
-        InternalWarn((LinkedList) null, exception, messageToLog, args);
+        InternalWarn(LogCallContext.NONE, exception, messageToLog, args);
     }
 
     /**
@@ -128,7 +110,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Error(String messageToLog, Object... args) {
-        InternalError((LinkedList) null, messageToLog, args);
+        InternalError(LogCallContext.NONE, messageToLog, args);
     }
 
     /**
@@ -138,7 +120,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Error(Exception exception, String messageToLog, Object... args) {
-        InternalError((LinkedList) null, exception, messageToLog, args);
+        InternalError(LogCallContext.NONE, exception, messageToLog, args);
     }
 
     /**
@@ -146,7 +128,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Error(Exception exception) {
-        InternalError((LinkedList) null, exception, "");
+        InternalError(LogCallContext.NONE, exception, "");
     }
 
     /**
@@ -155,7 +137,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Wtf(String messageToLog, Object... args) {
-        InternalWtf((LinkedList) null, messageToLog, args);
+        InternalWtf(LogCallContext.NONE, messageToLog, args);
 
     }
 
@@ -166,7 +148,7 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Wtf(Exception exception, String messageToLog, Object... args) {
-        InternalWtf((LinkedList) null, exception, messageToLog, args);
+        InternalWtf(LogCallContext.NONE, exception, messageToLog, args);
     }
 
     /**
@@ -174,6 +156,6 @@ class LazyLoggerInternal extends AbstractScopedLogger {
      */
     @Override
     public void Wtf(Exception exception) {
-        InternalWtf((LinkedList) null, exception, "");
+        InternalWtf(LogCallContext.NONE, exception, "");
     }
 }
@@ -17,11 +17,9 @@
 package com.jeefo.android.jeefologger;
 
 import android.support.annotation.NonNull;
-import android.util.Pair;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 import static com.jeefo.android.jeefologger.SmartLoggerUtils.getClassNameFromFileName;
 
@@ -29,64 +27,113 @@ import static com.jeefo.android.jeefologger.SmartLoggerUtils.getClassNameFromFil
  * Created by Alexandru Iustin Dochioiu on 6/3/2018
  */
 public class LazyLoggerUtils {
+    private static final int MAX_CACHED_CALL_SITES = 1024;
+    private static final CallSiteCache tracePrefixes = new CallSiteCache(MAX_CACHED_CALL_SITES);
+
     /**
-     * Queries the entire stack trace and groups all method calls and classes part of a given package
-     * in the calling order. It automatically groups consecutive method calls made part of the same class.
-     * It also automatically groups method calls made through anonymous classes.
+     * Renders the "[Class X][Method Y]" tags of all the method calls made by the classes of a
+     * given package in the stack trace (see
+     * {@link LazyLoggerUtils#renderTracePrefix(String, StackTraceElement[])}). The tags are
+     * rendered once per sequence of frames of the package and then taken from a cache.
      *
-     * @param packageName only the method calls made from classes containing this package name will
-     *                    be considered
-     * @return the entire ordered trace of method calls with the class they originated from (only for
-     * the classes part of the given package)
+     * @param packagePrefix only the method calls made from classes whose name starts with this
+     *                      prefix (the package name followed by '.') will be considered
+     * @param elements      the stack trace to be inspected
+     * @return the tags followed by a space
      */
-    static List<Pair<String, LinkedList<String>>> getAllTraceForPackage(@NonNull String packageName) {
-        final StackTraceElement[] ste = Thread.currentThread().getStackTrace();
-        final LinkedList<Pair<String, LinkedList<String>>> packageCalls = new LinkedList<>();
+    @NonNull
+    static String getTracePrefix(@NonNull String packagePrefix, @NonNull StackTraceElement[] elements) {
+        final CallSiteCache.Key packageFrames = tracePrefixes.getLookupKey();
+        for (int index = elements.length - 1; index >= 0; --index) {
+            if (elements[index].getClassName().startsWith(packagePrefix)) {
+                packageFrames.add(elements[index]);
+            }
+        }
 
-        for (int index = ste.length - 1; index >= 0; --index) {
-            if (ste[index].getClassName().contains(packageName)) {
-                final boolean isAnonymousClass = ste[index].getClassName().contains("$");
-                final String className = getClassNameFromFileName(ste[index].getFileName());
-                String methodName = ste[index].getMethodName() + "()";
+        String tracePrefix = tracePrefixes.get(packageFrames);
+        if (tracePrefix == null) {
+            tracePrefix = renderTracePrefix(packagePrefix, elements);
+            tracePrefixes.put(packageFrames, tracePrefix);
+        }
+        return tracePrefix;
+    }
 
-                if (methodName.contains("access$")) {
-                    // Those are compiler generated methods used for accessing members of a (host)
-                    // class from an anon class. We are not interested in displaying them
-                    continue;
-                }
+    /**
+     * Goes through the entire stack trace and groups all method calls and classes part of a given
+     * package in the calling order. It automatically groups consecutive method calls made part of
+     * the same class. It also automatically groups method calls made through anonymous classes.
+     *
+     * @param packagePrefix the package name followed by '.'
+     * @param elements      the stack trace to be inspected
+     * @return the "[Class X][Method Y]" tags of the ordered trace of method calls followed by a space
+     */
+    @NonNull
+    private static String renderTracePrefix(@NonNull String packagePrefix, @NonNull StackTraceElement[] elements) {
+        // the classes in calling order and, for each of them, the methods called in that class
+        final List<String> classNames = new ArrayList<>();
+        final List<List<String>> methodNames = new ArrayList<>();
 
-                if (packageCalls.size() > 0) {
-                    if (className.equals(packageCalls.getLast().first)) {
-                        if (!isAnonymousClass) {
-                            // add a second method to the same class then continue
-                            packageCalls.getLast().second.add(methodName);
+        for (int index = elements.length - 1; index >= 0; --index) {
+            final StackTraceElement element = elements[index];
+            if (!element.getClassName().startsWith(packagePrefix)) {
+                continue;
+            }
 
-                        } else {
-                            final String callingMethodName = packageCalls.getLast().second.removeLast();
-                            methodName = String.format(Locale.UK, "%s <- %s#%s", methodName, packageCalls.getLast().first, callingMethodName);
-                            packageCalls.getLast().second.add(methodName);
-                        }
-                        continue;
-                    }
-                }
+            final String methodName = element.getMethodName() + "()";
+            if (methodName.contains("access$")) {
+                // Those are compiler generated methods used for accessing members of a (host)
+                // class from an anon class. We are not interested in displaying them
+                continue;
+            }
 
-                if (!isAnonymousClass) {
-                    final LinkedList<String> methodCalls = new LinkedList<>();
-                    methodCalls.add(ste[index].getMethodName());
+            final boolean isAnonymousClass = element.getClassName().indexOf('$') >= 0;
+            final String className = getClassNameFromFileName(element.getFileName());
+            final int lastCall = classNames.size() - 1;
 
-                    packageCalls.add(new Pair<>(className, methodCalls));
+            if (lastCall >= 0 && className.equals(classNames.get(lastCall))) {
+                final List<String> lastMethods = methodNames.get(lastCall);
+                if (!isAnonymousClass) {
+                    // add a second method to the same class then continue
+                    lastMethods.add(methodName);
                 } else {
-                    StringBuilder callingMethodsName = new StringBuilder();
-                    for (String methodCall : packageCalls.getLast().second) {
-                        callingMethodsName.append('#').append(methodCall);
-                    }
-                    methodName = String.format(Locale.UK, "%s <- %s%s()", methodName, packageCalls.getLast().first, callingMethodsName.toString());
-                    packageCalls.removeLast();
-                    packageCalls.getLast().second.add(methodName);
+                    final String callingMethodName = lastMethods.remove(lastMethods.size() - 1);
+                    lastMethods.add(methodName + " <- " + className + "#" + callingMethodName);
+                }
+                continue;
+            }
+
+            if (!isAnonymousClass || lastCall < 0) {
+                final List<String> methodCalls = new ArrayList<>();
+                methodCalls.add(element.getMethodName());
+                classNames.add(className);
+                methodNames.add(methodCalls);
+            } else {
+                // the anonymous class was called from another class: the call is added to the
+                // class before that one (or replaces it if there's none)
+                final StringBuilder callingMethodsName = new StringBuilder(methodName)
+                        .append(" <- ").append(classNames.get(lastCall));
+                for (String methodCall : methodNames.get(lastCall)) {
+                    callingMethodsName.append('#').append(methodCall);
+                }
+                callingMethodsName.append("()");
+
+                classNames.remove(lastCall);
+                methodNames.remove(lastCall);
+                if (lastCall == 0) {
+                    classNames.add(className);
+                    methodNames.add(new ArrayList<String>());
                 }
+                methodNames.get(methodNames.size() - 1).add(callingMethodsName.toString());
             }
         }
 
-        return packageCalls;
+        final StringBuilder tracePrefix = new StringBuilder();
+        for (int call = 0; call < classNames.size(); ++call) {
+            tracePrefix.append("[").append(AbstractScopedLogger.TAG_KEY_CLASS).append(" ").append(classNames.get(call)).append("]");
+            for (String methodName : methodNames.get(call)) {
+                tracePrefix.append("[").append(AbstractScopedLogger.TAG_KEY_METHOD).append(" ").append(methodName).append("]");
+            }
+        }
+        return tracePrefix.append(" ").toString();
     }
 }
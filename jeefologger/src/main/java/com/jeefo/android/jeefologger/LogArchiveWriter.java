@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes an archive (see {@link LogExportFormat}) entry by entry. The size of every entry must be
+ * known before its content is written, so the content is never buffered.
+ * <p>
+ * The content of the files is moved with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * which lets the OS copy it straight to the output without passing it through the Java heap.
+ * </p>
+ */
+abstract class LogArchiveWriter {
+    @NonNull
+    private final WritableByteChannel output;
+    private long writtenBytesCount = 0;
+
+    private long entrySize = -1;
+    private long entryWrittenBytesCount = 0;
+
+    /**
+     * @param output the channel the archive is written to; not closed by the writer
+     */
+    LogArchiveWriter(@NonNull WritableByteChannel output) {
+        this.output = output;
+    }
+
+    /**
+     * @param format the {@link LogExportFormat} of the archive
+     * @param output the channel the archive is written to; not closed by the writer
+     * @return the writer for the given format
+     */
+    @NonNull
+    static LogArchiveWriter create(@LogExportFormat int format, @NonNull WritableByteChannel output) {
+        if (format == LogExportFormat.TAR) {
+            return new TarLogArchiveWriter(output);
+        }
+        return new ZipLogArchiveWriter(output);
+    }
+
+    /**
+     * Starts a new entry. Exactly the given number of bytes must be written before the entry ends.
+     *
+     * @param name           the name of the entry (the file name in the archive)
+     * @param modifiedMillis the time the file was last modified
+     * @param size           the size of the content
+     * @param crc32          the CRC-32 of the content
+     * @throws IOException if writing failed
+     */
+    final void startEntry(@NonNull String name, long modifiedMillis, long size, long crc32) throws IOException {
+        if (entrySize != -1) {
+            throw new IllegalStateException("The previous entry was not ended");
+        }
+        writeEntryHeader(name, modifiedMillis, size, crc32);
+        entrySize = size;
+        entryWrittenBytesCount = 0;
+    }
+
+    /**
+     * Writes a part of the current entry's content
+     *
+     * @throws IOException if writing failed or the entry is longer than announced
+     */
+    final void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+        checkEntrySize(length);
+        write(ByteBuffer.wrap(bytes, offset, length));
+        entryWrittenBytesCount += length;
+    }
+
+    /**
+     * Copies a part of a file as the current entry's content, without reading it into memory
+     *
+     * @param source   the channel of the file
+     * @param position the position in the file of the first copied byte
+     * @param count    the number of bytes to be copied
+     * @throws IOException if copying failed or the file is shorter than expected
+     */
+    final void transferFrom(@NonNull FileChannel source, long position, long count) throws IOException {
+        checkEntrySize(count);
+        long transferredCount = 0;
+        while (transferredCount < count) {
+            final long chunkCount = source.transferTo(position + transferredCount, count - transferredCount, output);
+            if (chunkCount <= 0) {
+                throw new IOException("The file was truncated while being exported");
+            }
+            transferredCount += chunkCount;
+        }
+        writtenBytesCount += count;
+        entryWrittenBytesCount += count;
+    }
+
+    /**
+     * @throws IOException if writing failed or the entry is shorter than announced
+     */
+    final void endEntry() throws IOException {
+        if (entryWrittenBytesCount != entrySize) {
+            throw new IOException("The entry has " + entryWrittenBytesCount + " bytes instead of " + entrySize);
+        }
+        writeEntryEnd(entrySize);
+        entrySize = -1;
+    }
+
+    /**
+     * Ends the archive. The output channel is left open.
+     *
+     * @throws IOException if writing failed
+     */
+    final void finish() throws IOException {
+        if (entrySize != -1) {
+            throw new IllegalStateException("The last entry was not ended");
+        }
+        writeArchiveEnd();
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    final long getWrittenBytesCount() {
+        return writtenBytesCount;
+    }
+
+    /**
+     * Writes all the remaining bytes of the buffer to the output
+     */
+    final void write(@NonNull ByteBuffer buffer) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+        writtenBytesCount += length;
+    }
+
+    private void checkEntrySize(long length) throws IOException {
+        if (entrySize == -1) {
+            throw new IllegalStateException("No entry was started");
+        }
+        if (entryWrittenBytesCount + length > entrySize) {
+            throw new IOException("The entry is longer than the " + entrySize + " bytes announced");
+        }
+    }
+
+    abstract void writeEntryHeader(@NonNull String name, long modifiedMillis, long size, long crc32) throws IOException;
+
+    abstract void writeEntryEnd(long size) throws IOException;
+
+    abstract void writeArchiveEnd() throws IOException;
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The context of a single logging call, passed along the chain of {@link IInternalLog} loggers
+ * instead of being stored in any of them, so a logger can be used by many threads at once without
+ * locking. It is never modified once created.
+ * <p>
+ * The class is public only because the instrumented classes keep the context of each call site in
+ * a field (see {@link CallSiteLogger}); its members are internal to the library.
+ * </p>
+ */
+public final class LogCallContext {
+
+    /**
+     * The context of the calls which don't need the stack trace (e.g. made by the {@link LazyLogger})
+     */
+    static final LogCallContext NONE = new LogCallContext(null, false);
+
+    @Nullable
+    private final StackTraceElement[] traceElements;
+    private final boolean isCallSite;
+
+    private LogCallContext(@Nullable StackTraceElement[] traceElements, boolean isCallSite) {
+        this.traceElements = traceElements;
+        this.isCallSite = isCallSite;
+    }
+
+    /**
+     * Called by the public logging methods, which are the entry points of the not instrumented calls
+     *
+     * @return the context holding the stack trace of the current thread
+     */
+    @NonNull
+    static LogCallContext capture() {
+        return new LogCallContext(Thread.currentThread().getStackTrace(), false);
+    }
+
+    /**
+     * Called once per call site of the instrumented classes (see {@link CallSiteLogger})
+     *
+     * @param className  the full name of the class making the call
+     * @param methodName the name of the method making the call
+     * @param fileName   the source file of the class (can be null)
+     * @param lineNumber the line of the call
+     * @return the context holding the single frame of the instrumented call
+     */
+    @NonNull
+    static LogCallContext forCallSite(String className, String methodName, @Nullable String fileName, int lineNumber) {
+        return new LogCallContext(new StackTraceElement[]{new StackTraceElement(className, methodName, fileName, lineNumber)}, true);
+    }
+
+    /**
+     * Called once per call site of the anonymous classes instrumented (see {@link CallSiteLogger})
+     *
+     * @param className      the full name of the anonymous class making the call
+     * @param methodName     the name of the method making the call
+     * @param fileName       the source file of the class (can be null)
+     * @param lineNumber     the line of the call
+     * @param hostClassName  the full name of the class in which the anonymous class is defined
+     * @param hostMethodName the name of the method in which the anonymous class is defined
+     * @return the context holding the frame of the instrumented call followed by the frame of
+     * its host method, the way it would be found in the stack trace of a synchronous call
+     */
+    @NonNull
+    static LogCallContext forCallSite(String className, String methodName, @Nullable String fileName, int lineNumber,
+                                      String hostClassName, String hostMethodName) {
+        return new LogCallContext(new StackTraceElement[]{
+                new StackTraceElement(className, methodName, fileName, lineNumber),
+                new StackTraceElement(hostClassName, hostMethodName, fileName, -1)}, true);
+    }
+
+    /**
+     * @return the stack trace of the thread or the frames of the instrumented call (can be null,
+     * see {@link LogCallContext#NONE})
+     */
+    @Nullable
+    StackTraceElement[] getTraceElements() {
+        return traceElements;
+    }
+
+    /**
+     * @return whether the trace elements are the frames of an instrumented call rather than
+     * the stack trace of the thread (which holds the frames of the loggers as well)
+     */
+    boolean isCallSite() {
+        return isCallSite;
+    }
+
+    /**
+     * @return the stack trace of the thread captured for this call or, if it wasn't captured (e.g.
+     * the call was instrumented), the current stack trace of the thread
+     */
+    @NonNull
+    StackTraceElement[] getThreadStackTrace() {
+        if (traceElements != null && !isCallSite) {
+            return traceElements;
+        }
+        return Thread.currentThread().getStackTrace();
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Lazily reads the persisted messages matching a {@link LogQuery}, from the oldest to the newest
+ * log file (see {@link JeefoLogger#queryLogs(LogQuery)}).
+ * <p>
+ * Only one log file per process is open at a time and only one message per process is kept in
+ * memory, so the memory used does not depend on the size of the logs. Every message is returned
+ * as it appears in the text log files: "yyyy/MM/dd HH:mm:ss TYPE/[TAGS]message" (without the line
+ * terminator).
+ * </p>
+ * <p>
+ * The messages of the different processes of the app (see
+ * {@link JeefoLogger.Builder#withMultiProcessPersistence(boolean)}) are merged by their time, the
+ * messages of the same process being kept in the order they were written. The messages logged in
+ * the same millisecond (or second, for the text log files without milliseconds) by different
+ * processes are returned main process first.
+ * </p>
+ * <p>
+ * A log file which cannot be read (e.g. deleted meanwhile by the {@link RetentionPolicy}) is
+ * skipped. The cursor must be closed if it is not read to the end.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class LogCursor implements Iterator<String>, Closeable {
+
+    /**
+     * Orders the processes by the time of their next message and then by their position in the
+     * logs directory
+     */
+    private static final Comparator<ProcessMessages> NEXT_MESSAGE_ORDER = new Comparator<ProcessMessages>() {
+        @Override
+        public int compare(ProcessMessages first, ProcessMessages second) {
+            if (first.nextTimeMillis != second.nextTimeMillis) {
+                return first.nextTimeMillis < second.nextTimeMillis ? -1 : 1;
+            }
+            return first.order < second.order ? -1 : (first.order == second.order ? 0 : 1);
+        }
+    };
+
+    @NonNull
+    private final LogQuery query;
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat(LogSegmentFiles.DAY_PATTERN, Locale.UK);
+    @NonNull
+    private final List<ProcessMessages> processes;
+    // the processes with a message read ahead; null until the first message is asked for
+    @Nullable
+    private PriorityQueue<ProcessMessages> pendingProcesses = null;
+
+    @Nullable
+    private String nextMessage = null;
+    // the process nextMessage comes from
+    @Nullable
+    private ProcessMessages nextMessageProcess = null;
+    private long nextTimeMillis = 0;
+    @NonNull
+    private String lastProcess = LogSegmentFiles.MAIN_PROCESS;
+    private long lastTimeMillis = 0;
+
+    /**
+     * @param segments the log segments, oldest first
+     * @param query    the {@link LogQuery} the messages must match
+     */
+    LogCursor(@NonNull File[] segments, @NonNull LogQuery query) {
+        this(segments, query, null);
+    }
+
+    /**
+     * @param segments  the log segments, oldest first
+     * @param query     the {@link LogQuery} the messages must match
+     * @param maxCounts the maximum number of messages returned for every process (as returned by
+     *                  {@link LogCursor#getProcessCounts()} after a first pass, to leave out the
+     *                  ones logged meanwhile); the processes missing are skipped. Null for no limit.
+     */
+    LogCursor(@NonNull File[] segments, @NonNull LogQuery query, @Nullable Map<String, Long> maxCounts) {
+        this.query = query;
+
+        // the order of the segments is kept within every process
+        final Map<String, List<File>> processSegments = new LinkedHashMap<>();
+        for (File segment : segments) {
+            final LogSegmentFiles.SegmentName segmentName = LogSegmentFiles.parse(segment.getName());
+            final String process = segmentName != null ? segmentName.process : LogSegmentFiles.MAIN_PROCESS;
+            List<File> files = processSegments.get(process);
+            if (files == null) {
+                files = new ArrayList<>();
+                processSegments.put(process, files);
+            }
+            files.add(segment);
+        }
+
+        final List<String> processNames = new ArrayList<>(processSegments.keySet());
+        // the main process ("") first
+        Collections.sort(processNames);
+        processes = new ArrayList<>(processNames.size());
+        for (String process : processNames) {
+            final Long maxCount = maxCounts != null ? maxCounts.get(process) : null;
+            if (maxCounts == null || maxCount != null) {
+                processes.add(new ProcessMessages(process, processSegments.get(process), processes.size(),
+                        maxCount != null ? maxCount : Long.MAX_VALUE));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextMessage != null) {
+            return true;
+        }
+
+        PriorityQueue<ProcessMessages> queue = pendingProcesses;
+        if (queue == null) {
+            queue = new PriorityQueue<>(Math.max(1, processes.size()), NEXT_MESSAGE_ORDER);
+            for (ProcessMessages process : processes) {
+                if (process.readAhead()) {
+                    queue.add(process);
+                }
+            }
+            pendingProcesses = queue;
+        }
+
+        final ProcessMessages process = queue.poll();
+        if (process == null) {
+            return false;
+        }
+
+        nextMessage = process.nextMessage;
+        nextMessageProcess = process;
+        nextTimeMillis = process.nextTimeMillis;
+        if (process.readAhead()) {
+            queue.add(process);
+        }
+        return true;
+    }
+
+    /**
+     * @return the next matching message
+     * @throws NoSuchElementException if there's no message left
+     */
+    @NonNull
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final String message = nextMessage;
+        nextMessage = null;
+        //noinspection ConstantConditions
+        ++nextMessageProcess.returnedCount;
+        lastProcess = nextMessageProcess.name;
+        lastTimeMillis = nextTimeMillis;
+        //noinspection ConstantConditions
+        return message;
+    }
+
+    /**
+     * @return the process which logged the message returned last, as it appears in the names of
+     * its log files (e.g. "remote" for "yyyy_MM_dd_Log-remote.txt"); an empty string for the main
+     * process (see {@link JeefoLogger.Builder#withMultiProcessPersistence(boolean)})
+     */
+    @NonNull
+    public String getLastProcess() {
+        return lastProcess;
+    }
+
+    /**
+     * @return the time of the message returned last (to the second if the log file has no
+     * milliseconds)
+     */
+    long getLastTimeMillis() {
+        return lastTimeMillis;
+    }
+
+    /**
+     * @return the number of messages returned so far for every process which has log files
+     */
+    @NonNull
+    Map<String, Long> getProcessCounts() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (ProcessMessages process : processes) {
+            counts.put(process.name, process.returnedCount);
+        }
+        return counts;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, as the log files are read-only
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("The log files are read-only");
+    }
+
+    /**
+     * Closes the log files being read. Nothing is returned afterwards.
+     */
+    @Override
+    public void close() {
+        nextMessage = null;
+        pendingProcesses = new PriorityQueue<>(1, NEXT_MESSAGE_ORDER);
+        for (ProcessMessages process : processes) {
+            process.close();
+        }
+    }
+
+    /**
+     * @return the start of the day the segment was opened in; {@link Long#MIN_VALUE} if unknown
+     */
+    private long getDayStartMillis(@NonNull File segment) {
+        final LogSegmentFiles.SegmentName segmentName = LogSegmentFiles.parse(segment.getName());
+        if (segmentName == null) {
+            return Long.MIN_VALUE;
+        }
+
+        try {
+            return dayFormat.parse(segmentName.day).getTime();
+        } catch (ParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Reads the segments of one process, one message ahead
+     */
+    private final class ProcessMessages {
+        @NonNull
+        final String name;
+        @NonNull
+        final List<File> segments;
+        final int order;
+        final long maxCount;
+
+        int nextSegmentIndex = 0;
+        @Nullable
+        ILogSegmentReader reader = null;
+        // the message read ahead and its time
+        @Nullable
+        String nextMessage = null;
+        long nextTimeMillis = 0;
+        // the messages read so far, the one read ahead included
+        long readCount = 0;
+        // the messages returned by the cursor
+        long returnedCount = 0;
+
+        ProcessMessages(@NonNull String name, @NonNull List<File> segments, int order, long maxCount) {
+            this.name = name;
+            this.segments = segments;
+            this.order = order;
+            this.maxCount = maxCount;
+        }
+
+        /**
+         * Reads the next matching message of the process
+         *
+         * @return false if there's none left
+         */
+        boolean readAhead() {
+            nextMessage = null;
+            if (readCount >= maxCount) {
+                close();
+                return false;
+            }
+
+            while (nextMessage == null) {
+                if (reader == null && !openNextSegment()) {
+                    return false;
+                }
+
+                try {
+                    //noinspection ConstantConditions
+                    nextMessage = reader.readNext();
+                } catch (IOException e) {
+                    Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to read the log file: " + e.getMessage());
+                }
+                if (nextMessage == null) {
+                    closeReader();
+                }
+            }
+
+            //noinspection ConstantConditions
+            nextTimeMillis = reader.getRecordTimeMillis();
+            ++readCount;
+            return true;
+        }
+
+        /**
+         * Opens the next log segment which can hold matching messages
+         *
+         * @return false if there's none left
+         */
+        private boolean openNextSegment() {
+            while (nextSegmentIndex < segments.size()) {
+                final File segment = segments.get(nextSegmentIndex++);
+
+                if (getDayStartMillis(segment) >= query.getToTimeMillis()) {
+                    // the segments are sorted by day, so all the following ones are too new as well
+                    nextSegmentIndex = segments.size();
+                    return false;
+                }
+
+                try {
+                    final File file = LogSegmentFiles.resolve(segment);
+                    final boolean isLastSegment = nextSegmentIndex == segments.size();
+                    if (!isLastSegment && file.lastModified() < query.getSkippedBeforeMillis()) {
+                        // closed before the time range started
+                        continue;
+                    }
+
+                    reader = LogSegmentFiles.openReader(file, query);
+                    return true;
+                } catch (IOException e) {
+                    Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to open the log file " + segment.getName() + ": " + e.getMessage());
+                }
+            }
+            return false;
+        }
+
+        void close() {
+            nextSegmentIndex = segments.size();
+            nextMessage = null;
+            closeReader();
+        }
+
+        private void closeReader() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                reader = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.IntDef;
+
+import static com.jeefo.android.jeefologger.LogExportFormat.TAR;
+import static com.jeefo.android.jeefologger.LogExportFormat.ZIP;
+
+/**
+ * The format of the bundle written by {@link JeefoLogger#exportLogs(java.io.OutputStream, LogExportOptions)}
+ * <p>
+ * {@link LogExportFormat#ZIP}: a ZIP archive with the log files stored as they are (not compressed
+ * again). It can be opened on any platform without extra tools.
+ * </p>
+ * <p>
+ * {@link LogExportFormat#TAR}: a POSIX (ustar) tar archive. Unlike the ZIP one, it is not limited
+ * to 4 GB and 65535 files.
+ * </p>
+ */
+@IntDef({ZIP, TAR})
+public @interface LogExportFormat {
+    int ZIP = 0;
+    int TAR = 1;
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+
+/**
+ * What {@link JeefoLogger#exportLogs(java.io.OutputStream, LogExportOptions)} writes: the format of
+ * the bundle, the log files included and, optionally, the time range the messages must be in.
+ * <p>
+ * Without a time range, every log file is copied as it is. With one, the log files entirely
+ * inside the time range are still copied as they are, the ones entirely outside of it are left
+ * out and the ones only partly inside are cut down to the messages in the time range (written as
+ * plain text, decompressed and decoded if needed).
+ * </p>
+ * <p>
+ * <b>NOTE:</b> The text log files only keep the time to the second (unless written with
+ * {@link PersistenceTimestamp#MILLISECONDS} or {@link PersistenceTimestamp#MONOTONIC_NANOS}), so
+ * their messages are included if the second they were logged in overlaps the time range.
+ * </p>
+ * <p>
+ * When the messages of the processes are merged (see {@link Builder#withMergedProcesses(boolean)}),
+ * the log files are replaced by a single plain text file holding the messages (in the time range,
+ * if any) of all the processes, ordered by time.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class LogExportOptions {
+
+    /**
+     * All the log files, in a ZIP archive
+     */
+    public static final LogExportOptions ALL_AS_ZIP = new Builder().build();
+
+    @LogExportFormat
+    private final int format;
+    @Nullable
+    private final File[] logFiles;
+    private final long fromTimeMillis;
+    private final long toTimeMillis;
+    private final boolean mergedProcesses;
+
+    private LogExportOptions(@NonNull Builder builder) {
+        this.format = builder.format;
+        this.logFiles = builder.logFiles;
+        this.fromTimeMillis = builder.fromTimeMillis;
+        this.toTimeMillis = builder.toTimeMillis;
+        this.mergedProcesses = builder.mergedProcesses;
+    }
+
+    /**
+     * @return the {@link LogExportFormat} of the bundle
+     */
+    @LogExportFormat
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the log files to be exported; null for all of them
+     */
+    @Nullable
+    public File[] getLogFiles() {
+        return logFiles != null ? logFiles.clone() : null;
+    }
+
+    /**
+     * @return the time of the oldest messages (inclusive); {@link Long#MIN_VALUE} if unlimited
+     */
+    public long getFromTimeMillis() {
+        return fromTimeMillis;
+    }
+
+    /**
+     * @return the time after the newest messages (exclusive); {@link Long#MAX_VALUE} if unlimited
+     */
+    public long getToTimeMillis() {
+        return toTimeMillis;
+    }
+
+    /**
+     * @return whether the messages of all the processes are written as a single time-ordered file
+     */
+    public boolean areProcessesMerged() {
+        return mergedProcesses;
+    }
+
+    /**
+     * @return whether the log files are cut down to a time range
+     */
+    boolean hasTimeRange() {
+        return fromTimeMillis != Long.MIN_VALUE || toTimeMillis != Long.MAX_VALUE;
+    }
+
+    /**
+     * Builder class for the {@link LogExportOptions}. By default, all the log files are exported
+     * as they are, in a ZIP archive.
+     */
+    public static class Builder {
+        @LogExportFormat
+        private int format = LogExportFormat.ZIP;
+        private File[] logFiles = null;
+        private long fromTimeMillis = Long.MIN_VALUE;
+        private long toTimeMillis = Long.MAX_VALUE;
+        private boolean mergedProcesses = false;
+
+        /**
+         * @param format the {@link LogExportFormat} of the bundle
+         * @return self to allow cascading
+         */
+        public Builder withFormat(@LogExportFormat int format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param logFiles the log files to be exported (some of the ones returned by
+         *                 {@link JeefoLogger#getAllLogFiles()}); null to export all of them
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if one of the files is not a log file
+         */
+        public Builder withLogFiles(@Nullable File... logFiles) {
+            if (logFiles != null) {
+                for (File logFile : logFiles) {
+                    if (logFile == null || LogSegmentFiles.parse(logFile.getName()) == null) {
+                        throw new IllegalArgumentException("Not a log file: " + logFile);
+                    }
+                }
+            }
+            this.logFiles = logFiles != null ? logFiles.clone() : null;
+            return this;
+        }
+
+        /**
+         * @param fromTimeMillis the time of the oldest messages (inclusive)
+         * @param toTimeMillis   the time after the newest messages (exclusive)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the time range ends before it starts
+         */
+        public Builder withTimeRange(long fromTimeMillis, long toTimeMillis) {
+            if (fromTimeMillis > toTimeMillis) {
+                throw new IllegalArgumentException("The time range should not end before it starts");
+            }
+            this.fromTimeMillis = fromTimeMillis;
+            this.toTimeMillis = toTimeMillis;
+            return this;
+        }
+
+        /**
+         * When enabled, the log files of all the processes of the app (see
+         * {@link JeefoLogger.Builder#withMultiProcessPersistence(boolean)}) are exported as a
+         * single plain text file ("{@value LogExporter#MERGED_NAME}") with their messages ordered
+         * by time. The messages of the processes other than the main one get the process added
+         * after the time, e.g. "yyyy/MM/dd HH:mm:ss [remote] TYPE/[TAGS]message".
+         *
+         * @param mergeProcesses whether the messages of all the processes are merged in one file
+         * @return self to allow cascading
+         */
+        public Builder withMergedProcesses(boolean mergeProcesses) {
+            this.mergedProcesses = mergeProcesses;
+            return this;
+        }
+
+        /**
+         * @return the newly built {@link LogExportOptions}
+         */
+        @NonNull
+        public LogExportOptions build() {
+            return new LogExportOptions(this);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Writes the log files into a single archive (see {@link JeefoLogger#exportLogs(OutputStream, LogExportOptions)}).
+ * <p>
+ * Every log file is read once to count its records and to find the time of the first and the last
+ * one (along with the CRC-32 the ZIP archives need). The log files which are kept whole are then
+ * copied with {@link java.nio.channels.FileChannel#transferTo(long, long, WritableByteChannel)},
+ * so their content never goes through the Java heap; only the ones cut down to the time range are
+ * decoded and written record by record. Either way, the memory used does not depend on the size
+ * of the logs.
+ * </p>
+ * <p>
+ * When the processes are merged (see {@link LogExportOptions#areProcessesMerged()}), the messages
+ * of all the log files are read through a {@link LogCursor} instead, twice: once for the size and
+ * the checksum of the merged entry and once to write it. The second pass stops every process at
+ * the number of messages it had in the first one, so the messages logged meanwhile are left out.
+ * </p>
+ * <p>
+ * The last entry of the archive is the {@value MANIFEST_NAME}, listing every exported file.
+ * </p>
+ */
+final class LogExporter {
+    static final String MANIFEST_NAME = "manifest.json";
+    static final String MERGED_NAME = "merged_Log.txt";
+
+    /**
+     * The records of (a part of) a log file
+     */
+    private static final class RecordsSummary {
+        long recordsCount = 0;
+        long firstTimeMillis = 0;
+        long lastTimeMillis = 0;
+
+        void add(long timeMillis) {
+            if (recordsCount == 0) {
+                firstTimeMillis = timeMillis;
+            }
+            lastTimeMillis = timeMillis;
+            ++recordsCount;
+        }
+    }
+
+    @NonNull
+    private final LogExportOptions options;
+    @NonNull
+    private final LogQuery timeRangeQuery;
+    @NonNull
+    private final LogArchiveWriter archiveWriter;
+    private final StringBuilder manifestFiles = new StringBuilder();
+    private final byte[] buffer = new byte[64 * 1024];
+
+    private LogExporter(@NonNull LogExportOptions options, @NonNull LogArchiveWriter archiveWriter) {
+        this.options = options;
+        this.timeRangeQuery = new LogQuery.Builder()
+                .withTimeRange(options.getFromTimeMillis(), options.getToTimeMillis())
+                .build();
+        this.archiveWriter = archiveWriter;
+    }
+
+    /**
+     * @param segments the log segments to be exported
+     * @param options  the {@link LogExportOptions}
+     * @param output   the stream the archive is written to; not closed. The channel of a
+     *                 {@link FileOutputStream} is used directly, so the OS can copy the log
+     *                 files from one file to the other.
+     * @throws IOException if writing the archive failed
+     */
+    static void export(@NonNull File[] segments, @NonNull LogExportOptions options, @NonNull OutputStream output) throws IOException {
+        final WritableByteChannel channel = output instanceof FileOutputStream
+                ? ((FileOutputStream) output).getChannel()
+                : Channels.newChannel(output);
+        final LogExporter exporter = new LogExporter(options, LogArchiveWriter.create(options.getFormat(), channel));
+
+        final File[] sortedSegments = segments.clone();
+        Arrays.sort(sortedSegments, LogSegmentFiles.SEGMENTS_ORDER);
+        if (options.areProcessesMerged()) {
+            exporter.exportMergedProcesses(sortedSegments);
+        } else {
+            for (File segment : sortedSegments) {
+                exporter.exportSegment(segment);
+            }
+        }
+
+        exporter.writeManifest();
+        exporter.archiveWriter.finish();
+        output.flush();
+    }
+
+    private void exportSegment(@NonNull File segment) throws IOException {
+        final File file;
+        final FileInputStream fileInput;
+        try {
+            file = LogSegmentFiles.resolve(segment);
+            fileInput = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Log file not exported (deleted meanwhile): " + segment.getName());
+            return;
+        }
+
+        try {
+            // the log file being written can grow meanwhile, so only the current content is exported
+            final long size = fileInput.getChannel().size();
+            final CRC32 checksum = new CRC32();
+            final RecordsSummary allRecords = new RecordsSummary();
+            final RecordsSummary recordsInRange = new RecordsSummary();
+            summarize(file, fileInput, size, checksum, allRecords, recordsInRange);
+
+            if (!options.hasTimeRange() || (allRecords.recordsCount > 0 && recordsInRange.recordsCount == allRecords.recordsCount)) {
+                archiveWriter.startEntry(file.getName(), file.lastModified(), size, checksum.getValue());
+                archiveWriter.transferFrom(fileInput.getChannel(), 0, size);
+                archiveWriter.endEntry();
+                addToManifest(file.getName(), file.getName(), size, allRecords, false);
+            } else if (recordsInRange.recordsCount > 0) {
+                exportRecordsInRange(segment, file);
+            }
+        } finally {
+            fileInput.close();
+        }
+    }
+
+    /**
+     * Reads the first bytes of the log file, up to the given size
+     *
+     * @param checksum       the checksum updated with all the bytes read
+     * @param allRecords     the summary of all the records
+     * @param recordsInRange the summary of the records inside the time range
+     */
+    private void summarize(@NonNull File file, @NonNull FileInputStream fileInput, long size, @NonNull CRC32 checksum,
+                           @NonNull RecordsSummary allRecords, @NonNull RecordsSummary recordsInRange) throws IOException {
+        final InputStream checkedInput = new CheckedInputStream(new LimitedInputStream(fileInput, size), checksum);
+
+        ILogSegmentReader reader = null;
+        try {
+            reader = LogSegmentFiles.openReader(file, checkedInput, LogQuery.ALL);
+            while (reader.skipNext()) {
+                final long timeMillis = reader.getRecordTimeMillis();
+                allRecords.add(timeMillis);
+                if (reader.isRecordTimeTruncated() ? timeRangeQuery.matchesSecond(timeMillis) : timeRangeQuery.matchesTime(timeMillis)) {
+                    recordsInRange.add(timeMillis);
+                }
+            }
+        } catch (IOException e) {
+            // the file is exported as it is anyway
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to read the log file " + file.getName() + ": " + e.getMessage());
+        }
+
+        try {
+            // the checksum covers the bytes after the records as well (e.g. the padding of the
+            // memory mapped segments)
+            //noinspection StatementWithEmptyBody
+            while (checkedInput.read(buffer) != -1) {
+            }
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the records of the log file which are inside the time range, as plain text. The
+     * records are read twice: once for the size and the checksum of the entry and once to write them.
+     */
+    private void exportRecordsInRange(@NonNull File segment, @NonNull File file) throws IOException {
+        final CRC32 checksum = new CRC32();
+        final RecordsSummary records = new RecordsSummary();
+        long size = 0;
+
+        ILogSegmentReader reader = null;
+        try {
+            reader = LogSegmentFiles.openReader(segment, timeRangeQuery);
+            String message;
+            while ((message = reader.readNext()) != null) {
+                final byte[] line = (message + '\n').getBytes("UTF-8");
+                checksum.update(line);
+                size += line.length;
+                records.add(reader.getRecordTimeMillis());
+            }
+        } catch (IOException e) {
+            // the records read so far are still exported
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to read the log file " + file.getName() + ": " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+        if (records.recordsCount == 0) {
+            return;
+        }
+
+        final String entryName = getPlainTextName(file);
+        archiveWriter.startEntry(entryName, file.lastModified(), size, checksum.getValue());
+        reader = LogSegmentFiles.openReader(segment, timeRangeQuery);
+        try {
+            // the records logged meanwhile are left out
+            for (long index = 0; index < records.recordsCount; ++index) {
+                final String message = reader.readNext();
+                if (message == null) {
+                    break;
+                }
+                final byte[] line = (message + '\n').getBytes("UTF-8");
+                archiveWriter.write(line, 0, line.length);
+            }
+        } finally {
+            reader.close();
+        }
+        archiveWriter.endEntry();
+        addToManifest(entryName, file.getName(), size, records, true);
+    }
+
+    /**
+     * Writes the messages of all the segments, in the time range, as a single plain text entry
+     * ordered by time (see {@link LogCursor})
+     */
+    private void exportMergedProcesses(@NonNull File[] segments) throws IOException {
+        final CRC32 checksum = new CRC32();
+        final RecordsSummary records = new RecordsSummary();
+        long size = 0;
+
+        final Map<String, Long> processCounts;
+        LogCursor cursor = new LogCursor(segments, timeRangeQuery);
+        try {
+            while (cursor.hasNext()) {
+                final byte[] line = getMergedLine(cursor.next(), cursor.getLastProcess());
+                checksum.update(line);
+                size += line.length;
+                records.add(cursor.getLastTimeMillis());
+            }
+            processCounts = cursor.getProcessCounts();
+        } finally {
+            cursor.close();
+        }
+
+        final long modifiedMillis = System.currentTimeMillis();
+        archiveWriter.startEntry(MERGED_NAME, modifiedMillis, size, checksum.getValue());
+        cursor = new LogCursor(segments, timeRangeQuery, processCounts);
+        try {
+            while (cursor.hasNext()) {
+                final byte[] line = getMergedLine(cursor.next(), cursor.getLastProcess());
+                archiveWriter.write(line, 0, line.length);
+            }
+        } finally {
+            cursor.close();
+        }
+        archiveWriter.endEntry();
+        addToManifest(MERGED_NAME, null, size, records, options.hasTimeRange());
+    }
+
+    /**
+     * @param message the message as returned by the {@link LogCursor}
+     * @param process the process which logged it
+     * @return the UTF-8 line of the merged entry, with the process added after the time unless
+     * it's the main one
+     */
+    @NonNull
+    private static byte[] getMergedLine(@NonNull String message, @NonNull String process) throws IOException {
+        if (process.length() == 0) {
+            return (message + '\n').getBytes("UTF-8");
+        }
+
+        // the time may have milliseconds and a monotonic time after it (see TextLogReader)
+        int timeEnd = TimestampEncoder.SECONDS_LENGTH;
+        if (message.startsWith(".", timeEnd)) {
+            timeEnd += 4;
+        }
+        if (message.startsWith(" +", timeEnd)) {
+            final int monotonicTimeEnd = message.indexOf("ns", timeEnd);
+            if (monotonicTimeEnd != -1) {
+                timeEnd = monotonicTimeEnd + 2;
+            }
+        }
+        timeEnd = Math.min(timeEnd, message.length());
+        return (message.substring(0, timeEnd) + " [" + process + "]" + message.substring(timeEnd) + '\n').getBytes("UTF-8");
+    }
+
+    private void addToManifest(@NonNull String entryName, @Nullable String logFileName, long size,
+                               @NonNull RecordsSummary records, boolean isCut) {
+        if (manifestFiles.length() > 0) {
+            manifestFiles.append(",\n");
+        }
+        manifestFiles.append("    {\"name\": ").append(toJsonString(entryName))
+                .append(", \"logFile\": ").append(logFileName != null ? toJsonString(logFileName) : "null")
+                .append(", \"bytes\": ").append(size)
+                .append(", \"records\": ").append(records.recordsCount)
+                .append(", \"firstTimeMillis\": ").append(records.recordsCount > 0 ? String.valueOf(records.firstTimeMillis) : "null")
+                .append(", \"lastTimeMillis\": ").append(records.recordsCount > 0 ? String.valueOf(records.lastTimeMillis) : "null")
+                .append(", \"cut\": ").append(isCut)
+                .append('}');
+    }
+
+    private void writeManifest() throws IOException {
+        final String manifest = "{\n"
+                + "  \"fromTimeMillis\": " + (options.getFromTimeMillis() != Long.MIN_VALUE ? String.valueOf(options.getFromTimeMillis()) : "null") + ",\n"
+                + "  \"toTimeMillis\": " + (options.getToTimeMillis() != Long.MAX_VALUE ? String.valueOf(options.getToTimeMillis()) : "null") + ",\n"
+                + "  \"files\": [\n"
+                + manifestFiles
+                + (manifestFiles.length() > 0 ? "\n" : "")
+                + "  ]\n"
+                + "}\n";
+        final byte[] manifestBytes = manifest.getBytes("UTF-8");
+        final CRC32 checksum = new CRC32();
+        checksum.update(manifestBytes);
+
+        archiveWriter.startEntry(MANIFEST_NAME, System.currentTimeMillis(), manifestBytes.length, checksum.getValue());
+        archiveWriter.write(manifestBytes, 0, manifestBytes.length);
+        archiveWriter.endEntry();
+    }
+
+    /**
+     * @return the name of the log file without the compression extension and with the text one
+     */
+    @NonNull
+    private static String getPlainTextName(@NonNull File file) {
+        final LogSegmentFiles.SegmentName segmentName = LogSegmentFiles.parse(file.getName());
+        if (segmentName == null) {
+            return file.getName() + LogSegmentFiles.TEXT_EXTENSION;
+        }
+        return LogSegmentFiles.getSegmentName(segmentName.day, segmentName.process, segmentName.index,
+                LogSegmentFiles.TEXT_EXTENSION);
+    }
+
+    @NonNull
+    private static String toJsonString(@NonNull String value) {
+        final StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int index = 0; index < value.length(); ++index) {
+            final char character = value.charAt(index);
+            if (character == '"' || character == '\\') {
+                builder.append('\\').append(character);
+            } else if (character < ' ') {
+                builder.append(String.format("\\u%04x", (int) character));
+            } else {
+                builder.append(character);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Reads up to a given number of bytes from a stream which is left open when closed (the log
+     * file is still copied afterwards)
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remainingCount;
+
+        LimitedInputStream(@NonNull InputStream input, long maxCount) {
+            super(input);
+            this.remainingCount = maxCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remainingCount <= 0) {
+                return -1;
+            }
+            final int value = in.read();
+            if (value != -1) {
+                --remainingCount;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remainingCount <= 0) {
+                return -1;
+            }
+            final int readCount = in.read(bytes, offset, (int) Math.min(length, remainingCount));
+            if (readCount > 0) {
+                remainingCount -= readCount;
+            }
+            return readCount;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            final long skippedCount = in.skip(Math.min(count, remainingCount));
+            remainingCount -= skippedCount;
+            return skippedCount;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remainingCount);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
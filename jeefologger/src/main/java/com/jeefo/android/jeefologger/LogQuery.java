@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Filters for the persisted log messages read through {@link JeefoLogger#queryLogs(LogQuery)}.
+ * <p>
+ * The filters are applied while the log files are read: the level and the time are checked
+ * before the rest of a message is decoded and the tag and text filters are matched against the
+ * raw UTF-8 bytes, so only the matching messages are turned into strings. The log files written
+ * entirely before the time range are not opened at all and the ones indexed by time (see
+ * {@link JeefoLogger.Builder#withPersistenceTimeIndex(boolean)}) are read from the start of the
+ * time range.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> The text log files only keep the time to the second (unless written with
+ * {@link PersistenceTimestamp#MILLISECONDS} or {@link PersistenceTimestamp#MONOTONIC_NANOS}), so
+ * their messages are included if the second they were logged in overlaps the time range.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class LogQuery {
+
+    /**
+     * Every persisted message
+     */
+    public static final LogQuery ALL = new Builder().build();
+
+    // the records logged concurrently can be written slightly out of order, so the reading of a
+    // log file stops only once the records are this much past the end of the time range
+    private static final long OUT_OF_ORDER_TOLERANCE_MILLIS = 2000;
+
+    @LogLevel
+    private final int minLevel;
+    private final long fromTimeMillis;
+    private final long toTimeMillis;
+    @Nullable
+    private final String tag;
+    @Nullable
+    private final String text;
+    @Nullable
+    private final byte[] tagBytes;
+    @Nullable
+    private final byte[] textBytes;
+
+    private LogQuery(@NonNull Builder builder) {
+        this.minLevel = builder.minLevel;
+        this.fromTimeMillis = builder.fromTimeMillis;
+        this.toTimeMillis = builder.toTimeMillis;
+        this.tag = builder.tag;
+        this.text = builder.text;
+        this.tagBytes = getUtf8Bytes(tag);
+        this.textBytes = getUtf8Bytes(text);
+    }
+
+    /**
+     * @return the minimum level of the messages
+     */
+    @LogLevel
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    /**
+     * @return the time of the oldest messages (inclusive); {@link Long#MIN_VALUE} if unlimited
+     */
+    public long getFromTimeMillis() {
+        return fromTimeMillis;
+    }
+
+    /**
+     * @return the time after the newest messages (exclusive); {@link Long#MAX_VALUE} if unlimited
+     */
+    public long getToTimeMillis() {
+        return toTimeMillis;
+    }
+
+    /**
+     * @return the text one of the tags must contain; null if not filtered by tag
+     */
+    @Nullable
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return the text the tags or the message must contain; null if not filtered by text
+     */
+    @Nullable
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @param logLevel the level of a record ({@value LogLevel#NONE} for the library's own records,
+     *                 which always match)
+     * @return whether the level matches
+     */
+    boolean matchesLevel(int logLevel) {
+        return logLevel >= minLevel;
+    }
+
+    /**
+     * @param timestampMillis the time of a record
+     * @return whether the time is inside the time range
+     */
+    boolean matchesTime(long timestampMillis) {
+        return timestampMillis >= fromTimeMillis && timestampMillis < toTimeMillis;
+    }
+
+    /**
+     * @param secondMillis the time of a record, truncated to the second
+     * @return whether the second overlaps the time range
+     */
+    boolean matchesSecond(long secondMillis) {
+        return secondMillis + 1000 > fromTimeMillis && secondMillis < toTimeMillis;
+    }
+
+    /**
+     * @param timestampMillis the time of a record
+     * @return whether no record from the rest of the log file can match anymore
+     */
+    boolean isPastEnd(long timestampMillis) {
+        return toTimeMillis != Long.MAX_VALUE && timestampMillis - toTimeMillis >= OUT_OF_ORDER_TOLERANCE_MILLIS;
+    }
+
+    /**
+     * @return the time before which the last write of a log file means it can be skipped
+     */
+    long getSkippedBeforeMillis() {
+        return fromTimeMillis != Long.MIN_VALUE ? fromTimeMillis - OUT_OF_ORDER_TOLERANCE_MILLIS : Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the UTF-8 bytes of the tag filter; null if not filtered by tag
+     */
+    @Nullable
+    byte[] getTagBytes() {
+        return tagBytes;
+    }
+
+    /**
+     * @return the UTF-8 bytes of the text filter; null if not filtered by text
+     */
+    @Nullable
+    byte[] getTextBytes() {
+        return textBytes;
+    }
+
+    /**
+     * @param data   the bytes to be searched
+     * @param start  the start of the searched range
+     * @param end    the end of the searched range (exclusive)
+     * @param needle the bytes looked for
+     * @return whether the range of data contains the needle
+     */
+    static boolean contains(@NonNull byte[] data, int start, int end, @NonNull byte[] needle) {
+        if (needle.length == 0) {
+            return true;
+        }
+
+        final byte firstByte = needle[0];
+        final int lastMatchStart = end - needle.length;
+        for (int matchStart = start; matchStart <= lastMatchStart; ++matchStart) {
+            if (data[matchStart] != firstByte) {
+                continue;
+            }
+
+            int index = 1;
+            while (index < needle.length && data[matchStart + index] == needle[index]) {
+                ++index;
+            }
+            if (index == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param data  the bytes holding a record's tags and message (see {@link TextLogRecordEncoder})
+     * @param start the start of the tags and message in data
+     * @param end   the end of the tags and message in data (exclusive)
+     * @return the end of the "[KEY value][KEY value]" run at the start, holding the persistent
+     * tags and the tags of the scoped loggers
+     */
+    static int getTagsEnd(@NonNull byte[] data, int start, int end) {
+        int tagsEnd = start;
+        while (tagsEnd < end && data[tagsEnd] == '[') {
+            int tagEnd = tagsEnd + 1;
+            while (tagEnd < end && data[tagEnd] != ']') {
+                ++tagEnd;
+            }
+            if (tagEnd == end) {
+                break;
+            }
+            tagsEnd = tagEnd + 1;
+        }
+        return tagsEnd;
+    }
+
+    @Nullable
+    private static byte[] getUtf8Bytes(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builder class for the {@link LogQuery}. By default, all the messages match.
+     */
+    public static class Builder {
+        @LogLevel
+        private int minLevel = LogLevel.VERBOSE;
+        private long fromTimeMillis = Long.MIN_VALUE;
+        private long toTimeMillis = Long.MAX_VALUE;
+        private String tag = null;
+        private String text = null;
+
+        /**
+         * <b>NOTE:</b> The messages of the library itself (such as "Session Started") have no
+         * level and always match
+         *
+         * @param minLevel the minimum level of the messages
+         * @return self to allow cascading
+         */
+        public Builder withMinLevel(@LogLevel int minLevel) {
+            this.minLevel = minLevel;
+            return this;
+        }
+
+        /**
+         * @param fromTimeMillis the time of the oldest messages (inclusive)
+         * @param toTimeMillis   the time after the newest messages (exclusive)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException if the time range ends before it starts
+         */
+        public Builder withTimeRange(long fromTimeMillis, long toTimeMillis) {
+            if (fromTimeMillis > toTimeMillis) {
+                throw new IllegalArgumentException("The time range should not end before it starts");
+            }
+            this.fromTimeMillis = fromTimeMillis;
+            this.toTimeMillis = toTimeMillis;
+            return this;
+        }
+
+        /**
+         * Matches the messages having a tag which contains the given text (case sensitive). Both
+         * the persistent tags and the tags of the scoped loggers (e.g. "[Class Foo]") count.
+         *
+         * @param tag the text to look for in the tags (null to match all the messages)
+         * @return self to allow cascading
+         */
+        public Builder withTag(@Nullable String tag) {
+            this.tag = tag;
+            return this;
+        }
+
+        /**
+         * Matches the messages whose tags or text contain the given text (case sensitive)
+         *
+         * @param text the text to look for (null to match all the messages)
+         * @return self to allow cascading
+         */
+        public Builder withText(@Nullable String text) {
+            this.text = text;
+            return this;
+        }
+
+        /**
+         * @return the newly built {@link LogQuery}
+         */
+        @NonNull
+        public LogQuery build() {
+            return new LogQuery(this);
+        }
+    }
+}
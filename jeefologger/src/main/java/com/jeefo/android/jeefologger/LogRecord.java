@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A single persistent log record, captured on the caller's thread and encoded later by the
+ * {@link PersistentLogger}. The instances are mutable so they can be preallocated and reused (see
+ * {@link LogRecordRingBuffer}).
+ * <p>
+ * The message is either already formatted ({@link LogRecord#message}) or kept as the format
+ * template and its arguments, which are only formatted when (and if) the text is needed.
+ * </p>
+ */
+final class LogRecord {
+    private static final String[] LEVEL_NAMES = {"VERBOSE", "DEBUG", "INFO", "WARN", "ERROR", "WTF"};
+
+    long timestampMillis;
+    /**
+     * The {@link System#nanoTime()} when the record was logged; 0 if not recorded (see
+     * {@link PersistenceTimestamp#MONOTONIC_NANOS})
+     */
+    long monotonicNanos;
+    @LogLevel
+    int logLevel;
+    /**
+     * The level name written in front of the message or null for the records generated by the
+     * library itself (such as "Session Started")
+     */
+    @Nullable
+    String type;
+    @NonNull
+    String tagsPrefix = "";
+    @NonNull
+    String message = "";
+    /**
+     * The format template of a record whose formatting is deferred; null if the message is
+     * already formatted
+     */
+    @Nullable
+    String template;
+    @Nullable
+    Object[] args;
+    /**
+     * Appended after the formatted template (the exception's message); null if none
+     */
+    @Nullable
+    String messageSuffix;
+
+    /**
+     * @param logLevel the level of a record
+     * @return the name of the level as written in the log; null for {@value LogLevel#NONE}
+     */
+    @Nullable
+    static String getLevelName(int logLevel) {
+        return logLevel >= 0 && logLevel < LEVEL_NAMES.length ? LEVEL_NAMES[logLevel] : null;
+    }
+
+    /**
+     * @param timestampMillis the time when the record was logged
+     * @param logLevel        the level of the record
+     * @param type            the level name or null for the library records
+     * @param tagsPrefix      the persistent tags at the time the record was logged
+     * @param message         the already formatted message
+     */
+    void set(long timestampMillis, @LogLevel int logLevel, @Nullable String type, @NonNull String tagsPrefix, @NonNull String message) {
+        this.timestampMillis = timestampMillis;
+        this.monotonicNanos = 0;
+        this.logLevel = logLevel;
+        this.type = type;
+        this.tagsPrefix = tagsPrefix;
+        this.message = message;
+        this.template = null;
+        this.args = null;
+        this.messageSuffix = null;
+    }
+
+    /**
+     * @param timestampMillis the time when the record was logged
+     * @param logLevel        the level of the record
+     * @param type            the level name or null for the library records
+     * @param tagsPrefix      the persistent tags at the time the record was logged
+     * @param template        the format template of the message
+     * @param args            the captured arguments (see {@link StringUtils#captureArgs(Object[])})
+     * @param messageSuffix   the text appended after the formatted template or null
+     */
+    void setDeferred(long timestampMillis, @LogLevel int logLevel, @Nullable String type, @NonNull String tagsPrefix,
+                     @NonNull String template, @NonNull Object[] args, @Nullable String messageSuffix) {
+        set(timestampMillis, logLevel, type, tagsPrefix, "");
+        this.template = template;
+        this.args = args;
+        this.messageSuffix = messageSuffix;
+    }
+
+    /**
+     * @param other the {@link LogRecord} whose values are copied into this one
+     */
+    void copyFrom(@NonNull LogRecord other) {
+        this.timestampMillis = other.timestampMillis;
+        this.monotonicNanos = other.monotonicNanos;
+        this.logLevel = other.logLevel;
+        this.type = other.type;
+        this.tagsPrefix = other.tagsPrefix;
+        this.message = other.message;
+        this.template = other.template;
+        this.args = other.args;
+        this.messageSuffix = other.messageSuffix;
+    }
+
+    /**
+     * @return the formatted message, formatting the template first if needed
+     */
+    @NonNull
+    String getFormattedMessage() {
+        if (template == null) {
+            return message;
+        }
+
+        final String formattedTemplate = StringUtils.formatTemplate(template, args != null ? args : new Object[0]);
+        return messageSuffix != null ? formattedTemplate + messageSuffix : formattedTemplate;
+    }
+
+    /**
+     * Drops the references so the strings can be garbage collected while the record sits unused
+     */
+    void clear() {
+        this.type = null;
+        this.tagsPrefix = "";
+        this.message = "";
+        this.template = null;
+        this.args = null;
+        this.messageSuffix = null;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer / single-consumer queue of preallocated {@link LogRecord}s.
+ * <p>
+ * Every slot has a sequence number telling whether it is free for the producer claiming a given
+ * position or it holds a published record for the consumer. The producers claim positions with a
+ * single CAS and never block each other while copying the record fields, so adding a record does
+ * not allocate and does not take any lock.
+ * </p>
+ */
+final class LogRecordRingBuffer {
+
+    /**
+     * Called by {@link LogRecordRingBuffer#drain(RecordHandler, int)} for every published record
+     */
+    interface RecordHandler {
+        /**
+         * @param record the {@link LogRecord}; it is reused as soon as this method returns so it
+         *               should not be stored
+         */
+        void onRecord(@NonNull LogRecord record);
+    }
+
+    @NonNull
+    private final LogRecord[] records;
+    @NonNull
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong producerPosition = new AtomicLong(0);
+    private volatile long consumerPosition = 0;
+
+    /**
+     * @param capacity the minimum number of records the buffer can hold (rounded up to the next
+     *                 power of two)
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    LogRecordRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive");
+        }
+
+        int actualCapacity = 1;
+        while (actualCapacity < capacity) {
+            actualCapacity <<= 1;
+        }
+
+        records = new LogRecord[actualCapacity];
+        sequences = new AtomicLongArray(actualCapacity);
+        for (int index = 0; index < actualCapacity; ++index) {
+            records[index] = new LogRecord();
+            sequences.set(index, index);
+        }
+        mask = actualCapacity - 1;
+    }
+
+    /**
+     * Thread-safe. Copies a new record into the buffer if there's any free slot
+     *
+     * @param record the {@link LogRecord} to be copied (it can be reused afterwards)
+     * @return true if the record was added; false if the buffer is full
+     */
+    boolean offer(@NonNull LogRecord record) {
+        long position = producerPosition.get();
+
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (producerPosition.compareAndSet(position, position + 1)) {
+                    records[index].copyFrom(record);
+                    // publish the record to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = producerPosition.get();
+            } else if (difference < 0) {
+                // the consumer did not free this slot yet
+                return false;
+            } else {
+                // another producer claimed this position in the meantime
+                position = producerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * Must be called from a single (consumer) thread. Hands the published records to the handler
+     * in the order in which they were claimed
+     *
+     * @param handler        the {@link RecordHandler} receiving the records
+     * @param maxRecordCount the maximum number of records to be drained
+     * @return the number of records drained
+     */
+    int drain(@NonNull RecordHandler handler, int maxRecordCount) {
+        long position = consumerPosition;
+        int drainedCount = 0;
+
+        try {
+            while (drainedCount < maxRecordCount) {
+                final int index = (int) (position & mask);
+                if (sequences.get(index) != position + 1) {
+                    // not published yet
+                    break;
+                }
+
+                try {
+                    handler.onRecord(records[index]);
+                } finally {
+                    records[index].clear();
+                    sequences.set(index, position + records.length);
+                    ++position;
+                    ++drainedCount;
+                }
+            }
+        } finally {
+            consumerPosition = position;
+        }
+
+        return drainedCount;
+    }
+
+    /**
+     * @return the position the next record will be claimed at; every record claimed before the
+     * call has a lower position
+     */
+    long getProducerPosition() {
+        return producerPosition.get();
+    }
+
+    /**
+     * @return the position of the next record to be drained
+     */
+    long getConsumerPosition() {
+        return consumerPosition;
+    }
+
+    /**
+     * @return whether there's no claimed record left to be drained
+     */
+    boolean isEmpty() {
+        return producerPosition.get() == consumerPosition;
+    }
+
+    /**
+     * @return the number of records the buffer can hold
+     */
+    int getCapacity() {
+        return records.length;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link RetentionPolicy} (and the {@link RotationPolicy#getMaxSegmentCount()}) to the
+ * closed log segments, deleting the oldest ones first.
+ * <p>
+ * The logs directory is listed once, when started; afterwards the size and the time of every
+ * segment are kept in a ledger which is updated as the segments are closed and compressed. All
+ * the work, ledger updates included, is done in order on a single background thread, so the
+ * ledger needs no locking. The active segment is never part of the ledger, so it's never deleted.
+ * </p>
+ * <p>
+ * Only the segments of the current process are tracked, as the other processes of the app (see
+ * {@link JeefoLogger.Builder#withMultiProcessPersistence(boolean)}) may still be writing theirs;
+ * each process applies the limits to its own segments.
+ * </p>
+ */
+final class LogRetentionManager {
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * A closed segment tracked by the ledger
+     */
+    private static final class LedgerEntry {
+        // the segment itself or its compressed version
+        @NonNull
+        File file;
+        long bytesCount;
+        final long lastModifiedMillis;
+
+        LedgerEntry(@NonNull File file) {
+            this.file = file;
+            this.bytesCount = file.length();
+            this.lastModifiedMillis = file.lastModified();
+        }
+    }
+
+    @NonNull
+    private final File logsDirectory;
+    @NonNull
+    private final String process;
+    @NonNull
+    private final ThreadPoolExecutor executor;
+    @NonNull
+    private volatile RetentionPolicy retentionPolicy;
+    private volatile int maxSegmentCount;
+
+    // the closed segments (keyed by their uncompressed file), oldest first; background thread only
+    private final TreeMap<File, LedgerEntry> ledger = new TreeMap<>(LogSegmentFiles.SEGMENTS_ORDER);
+    private long ledgerBytesCount = 0;
+    private long activeBytesCount = 0;
+
+    /**
+     * @param logsDirectory   the directory holding the segments
+     * @param process         the process whose segments are tracked
+     * @param retentionPolicy the {@link RetentionPolicy} to be applied
+     * @param maxSegmentCount the {@link RotationPolicy#getMaxSegmentCount()} (0 for unlimited)
+     */
+    LogRetentionManager(@NonNull File logsDirectory, @NonNull String process,
+                        @NonNull RetentionPolicy retentionPolicy, int maxSegmentCount) {
+        this.logsDirectory = logsDirectory;
+        this.process = process;
+        this.retentionPolicy = retentionPolicy;
+        this.maxSegmentCount = maxSegmentCount;
+
+        // no core thread, so the single thread stops when idle (allowCoreThreadTimeOut needs API 9)
+        executor = new ThreadPoolExecutor(0, 1,
+                IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory("JeeFo-LogRetention"));
+    }
+
+    /**
+     * @param retentionPolicy the {@link RetentionPolicy} to be applied
+     * @param maxSegmentCount the {@link RotationPolicy#getMaxSegmentCount()} (0 for unlimited)
+     * @return whether there's nothing to be applied, so the manager is not needed
+     */
+    static boolean isUnlimited(@NonNull RetentionPolicy retentionPolicy, int maxSegmentCount) {
+        return retentionPolicy.isUnlimited() && maxSegmentCount == 0;
+    }
+
+    /**
+     * Changes the limits; they are applied straight away in background
+     *
+     * @param retentionPolicy the {@link RetentionPolicy} to be applied
+     * @param maxSegmentCount the {@link RotationPolicy#getMaxSegmentCount()} (0 for unlimited)
+     */
+    void setLimits(@NonNull RetentionPolicy retentionPolicy, int maxSegmentCount) {
+        this.retentionPolicy = retentionPolicy;
+        this.maxSegmentCount = maxSegmentCount;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteSegmentsOverLimits();
+            }
+        });
+    }
+
+    /**
+     * Builds the ledger from the content of the logs directory and applies the limits. Returns
+     * straight away.
+     *
+     * @param activeSegment    the segment currently written
+     * @param activeBytesCount the size of the segment currently written
+     */
+    void start(@NonNull final File activeSegment, final long activeBytesCount) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File segment : LogSegmentFiles.listSegments(logsDirectory, process)) {
+                    if (!segment.equals(activeSegment)) {
+                        addToLedger(segment);
+                    }
+                }
+                LogRetentionManager.this.activeBytesCount = activeBytesCount;
+                deleteSegmentsOverLimits();
+            }
+        });
+    }
+
+    /**
+     * Adds a segment which is not written anymore to the ledger and applies the limits. Returns
+     * straight away.
+     *
+     * @param segmentFile      the segment which was just closed
+     * @param activeBytesCount the size of the segment written from now on
+     */
+    void onSegmentClosed(@NonNull final File segmentFile, final long activeBytesCount) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                addToLedger(segmentFile);
+                LogRetentionManager.this.activeBytesCount = activeBytesCount;
+                deleteSegmentsOverLimits();
+            }
+        });
+    }
+
+    /**
+     * Updates the size of a segment which was replaced by its compressed version. Returns straight
+     * away.
+     *
+     * @param segmentFile    the original segment (already deleted)
+     * @param compressedFile the compressed version of the segment
+     */
+    void onSegmentCompressed(@NonNull final File segmentFile, @NonNull final File compressedFile) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final LedgerEntry entry = ledger.get(segmentFile);
+                if (entry == null) {
+                    // the segment was deleted while being compressed
+                    delete(compressedFile);
+                    return;
+                }
+
+                final long compressedBytesCount = compressedFile.length();
+                ledgerBytesCount += compressedBytesCount - entry.bytesCount;
+                entry.bytesCount = compressedBytesCount;
+                entry.file = compressedFile;
+            }
+        });
+    }
+
+    /**
+     * Must be called on the background thread
+     *
+     * @param segmentFile the segment (or its compressed version) to be tracked
+     */
+    private void addToLedger(@NonNull File segmentFile) {
+        File plainFile = segmentFile;
+        File actualFile = segmentFile;
+
+        final String fileName = segmentFile.getName();
+        if (fileName.endsWith(LogSegmentCompressor.GZIP_EXTENSION)) {
+            plainFile = new File(segmentFile.getParentFile(),
+                    fileName.substring(0, fileName.length() - LogSegmentCompressor.GZIP_EXTENSION.length()));
+        } else if (!segmentFile.exists()) {
+            // compressed in the meantime
+            actualFile = new File(segmentFile.getPath() + LogSegmentCompressor.GZIP_EXTENSION);
+            if (!actualFile.exists()) {
+                return;
+            }
+        }
+
+        if (ledger.containsKey(plainFile)) {
+            // both versions exist as the app was killed while compressing; the plain one (listed
+            // first) is tracked until it gets compressed again
+            return;
+        }
+
+        final LedgerEntry entry = new LedgerEntry(actualFile);
+        ledger.put(plainFile, entry);
+        ledgerBytesCount += entry.bytesCount;
+    }
+
+    /**
+     * Deletes the oldest segments until all the limits are met. Must be called on the background
+     * thread.
+     */
+    private void deleteSegmentsOverLimits() {
+        final RetentionPolicy policy = retentionPolicy;
+        final int maxFileCount = getMaxFileCount(policy.getMaxFileCount(), maxSegmentCount);
+        final long maxTotalBytes = policy.getMaxTotalBytes();
+        final long maxAgeMillis = policy.getMaxAgeMillis();
+        final long nowMillis = System.currentTimeMillis();
+
+        final Iterator<Map.Entry<File, LedgerEntry>> iterator = ledger.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final LedgerEntry oldestEntry = iterator.next().getValue();
+
+            // the active segment counts towards the limits as well
+            final boolean isOverLimits = (maxFileCount > 0 && ledger.size() + 1 > maxFileCount)
+                    || (maxTotalBytes > 0 && ledgerBytesCount + activeBytesCount > maxTotalBytes)
+                    || (maxAgeMillis > 0 && nowMillis - oldestEntry.lastModifiedMillis > maxAgeMillis);
+            if (!isOverLimits) {
+                return;
+            }
+
+            delete(oldestEntry.file);
+            final File indexFile = LogTimeIndex.getIndexFile(oldestEntry.file);
+            if (indexFile.exists()) {
+                delete(indexFile);
+            }
+            iterator.remove();
+            ledgerBytesCount -= oldestEntry.bytesCount;
+        }
+    }
+
+    private void execute(@NonNull Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (Exception e) {
+            Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to apply the retention policy: " + e.getMessage());
+        }
+    }
+
+    private static int getMaxFileCount(int firstCount, int secondCount) {
+        if (firstCount == 0 || secondCount == 0) {
+            return Math.max(firstCount, secondCount);
+        }
+        return Math.min(firstCount, secondCount);
+    }
+
+    private static void delete(@NonNull File file) {
+        if (!file.delete() && file.exists()) {
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to delete the old log segment " + file.getName());
+        }
+    }
+}
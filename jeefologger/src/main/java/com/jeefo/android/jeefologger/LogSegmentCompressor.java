@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the closed log segments with GZIP on low priority background threads, replacing
+ * "name.txt" with "name.txt.gz". The compressed file is written under a temporary name and only
+ * replaces the original once complete, so a segment is never lost if the process dies meanwhile.
+ */
+final class LogSegmentCompressor {
+    static final String GZIP_EXTENSION = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Notified (on the background threads) about the segments which were compressed
+     */
+    interface Listener {
+        /**
+         * @param segmentFile    the original segment, which was deleted
+         * @param compressedFile the compressed version of the segment
+         */
+        void onSegmentCompressed(@NonNull File segmentFile, @NonNull File compressedFile);
+    }
+
+    @NonNull
+    private final ThreadPoolExecutor executor;
+    @Nullable
+    private final Listener listener;
+
+    /**
+     * @param maxThreadsCount the maximum number of segments compressed in parallel (capped to the
+     *                        number of available cores)
+     * @param listener        the {@link Listener} notified about the compressed segments (can be null)
+     */
+    LogSegmentCompressor(int maxThreadsCount, @Nullable Listener listener) {
+        this.listener = listener;
+
+        final int threadsCount = Math.max(1, Math.min(maxThreadsCount, Runtime.getRuntime().availableProcessors()));
+
+        executor = new ThreadPoolExecutor(threadsCount, threadsCount,
+                IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory("JeeFo-LogCompressor"));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            // not available before API 9, where the idle threads are kept instead
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Queues a closed segment to be compressed. Returns straight away.
+     *
+     * @param segmentFile the closed segment; ignored if already compressed (block compressed
+     *                    segments included, see {@link BlockLogFormat})
+     */
+    void compressLater(@NonNull final File segmentFile) {
+        if (segmentFile.getName().endsWith(GZIP_EXTENSION) || LogSegmentFiles.isBlockCompressed(segmentFile)) {
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compress(segmentFile);
+            }
+        });
+    }
+
+    /**
+     * Stops the background threads once the segments already queued are compressed. Nothing can
+     * be queued afterwards.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Compresses a segment on the calling thread
+     *
+     * @param segmentFile the closed segment
+     */
+    private void compress(@NonNull File segmentFile) {
+        if (!segmentFile.exists()) {
+            // already compressed or deleted
+            return;
+        }
+
+        final File compressedFile = new File(segmentFile.getPath() + GZIP_EXTENSION);
+        final File temporaryFile = new File(compressedFile.getPath() + LogSegmentFiles.TEMPORARY_EXTENSION);
+
+        try {
+            copyCompressed(segmentFile, temporaryFile);
+
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.setLastModified(segmentFile.lastModified());
+            if (!temporaryFile.renameTo(compressedFile)) {
+                throw new IOException("Cannot rename " + temporaryFile.getName());
+            }
+            if (!segmentFile.delete()) {
+                Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to delete the compressed log segment " + segmentFile.getName());
+            }
+            if (listener != null) {
+                listener.onSegmentCompressed(segmentFile, compressedFile);
+            }
+        } catch (IOException e) {
+            Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to compress the log segment " + segmentFile.getName() + ": " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+        }
+    }
+
+    private static void copyCompressed(@NonNull File source, @NonNull File destination) throws IOException {
+        final InputStream inputStream = new FileInputStream(source);
+        try {
+            final OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(destination), BUFFER_SIZE);
+            try {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int readCount;
+                while ((readCount = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, readCount);
+                }
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+}
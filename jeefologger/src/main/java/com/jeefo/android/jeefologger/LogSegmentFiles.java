@@ -0,0 +1,489 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Naming of the log files (segments). The first segment of a day is named "yyyy_MM_dd_Log.txt"
+ * and the following ones "yyyy_MM_dd_Log_1.txt", "yyyy_MM_dd_Log_2.txt" and so on. The binary
+ * segments use the ".jlog" extension instead, the framed text segments the ".flog" one, the block
+ * compressed text segments the ".zlog" one and the compressed segments keep their name with an
+ * extra ".gz" extension. The time indexes of the segments (see {@link LogTimeIndex}) are named
+ * after the uncompressed segment with an extra ".idx" extension.
+ * <p>
+ * The segments written by a secondary process (see
+ * {@link JeefoLogger.Builder#withMultiProcessPersistence(boolean)}) have the process in their name:
+ * "yyyy_MM_dd_Log-remote.txt", "yyyy_MM_dd_Log-remote_1.txt" and so on.
+ * </p>
+ */
+final class LogSegmentFiles {
+    static final String DAY_PATTERN = "yyyy_MM_dd";
+    static final String TEXT_EXTENSION = ".txt";
+    static final String TEMPORARY_EXTENSION = ".tmp";
+    // the start of every text line (see TextLogRecordEncoder)
+    private static final String TEXT_TIME_PATTERN = "yyyy/MM/dd HH:mm:ss";
+
+    // the process of the main segments (see getProcessTag)
+    static final String MAIN_PROCESS = "";
+
+    private static final Pattern SEGMENT_NAME_PATTERN = Pattern.compile("^(\\d{4}_\\d{2}_\\d{2})_Log(?:-([A-Za-z0-9-]+))?(?:_(\\d+))?(\\..+)$");
+
+    /**
+     * The parts of a segment's file name
+     */
+    static final class SegmentName {
+        @NonNull
+        final String day;
+        @NonNull
+        final String process;
+        final int index;
+        @NonNull
+        final String extension;
+
+        SegmentName(@NonNull String day, @NonNull String process, int index, @NonNull String extension) {
+            this.day = day;
+            this.process = process;
+            this.index = index;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * Orders the segments by day, then by process (the main one first) and then by index
+     */
+    static final Comparator<File> SEGMENTS_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(File first, File second) {
+            final SegmentName firstName = parse(first.getName());
+            final SegmentName secondName = parse(second.getName());
+
+            if (firstName == null || secondName == null) {
+                return first.getName().compareTo(second.getName());
+            }
+
+            final int dayComparison = firstName.day.compareTo(secondName.day);
+            if (dayComparison != 0) {
+                return dayComparison;
+            }
+            final int processComparison = firstName.process.compareTo(secondName.process);
+            if (processComparison != 0) {
+                return processComparison;
+            }
+            if (firstName.index != secondName.index) {
+                return firstName.index < secondName.index ? -1 : 1;
+            }
+            return firstName.extension.compareTo(secondName.extension);
+        }
+    };
+
+    private LogSegmentFiles() {
+    }
+
+    /**
+     * @param day       the day formatted with {@value DAY_PATTERN}
+     * @param process   the process writing the segment ({@link LogSegmentFiles#MAIN_PROCESS} for
+     *                  the main one)
+     * @param index     the index of the segment in the day (0 for the first one)
+     * @param extension the file extension (including the dot)
+     * @return the file name of the segment
+     */
+    @NonNull
+    static String getSegmentName(@NonNull String day, @NonNull String process, int index, @NonNull String extension) {
+        final String prefix = process.length() == 0 ? day + "_Log" : day + "_Log-" + process;
+        if (index == 0) {
+            return prefix + extension;
+        }
+        return prefix + "_" + index + extension;
+    }
+
+    /**
+     * Turns the name of a process into the part of the segment names telling its segments apart
+     * from the ones of the other processes of the app
+     *
+     * @param packageName the package name of the app
+     * @param processName the name of the process (e.g. "com.example:remote")
+     * @return {@link LogSegmentFiles#MAIN_PROCESS} for the main process, the part after ':' for
+     * the private processes (e.g. "remote") and the whole name with every character other than
+     * letters, digits and '-' replaced by '-' for the rest
+     */
+    @NonNull
+    static String getProcessTag(@NonNull String packageName, @NonNull String processName) {
+        if (processName.equals(packageName)) {
+            return MAIN_PROCESS;
+        }
+
+        final String name = processName.startsWith(packageName + ":")
+                ? processName.substring(packageName.length() + 1)
+                : processName;
+        final StringBuilder tag = new StringBuilder(name.length());
+        for (int index = 0; index < name.length(); ++index) {
+            final char character = name.charAt(index);
+            final boolean isAllowed = (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')
+                    || (character >= '0' && character <= '9') || character == '-';
+            tag.append(isAllowed ? character : '-');
+        }
+        return tag.toString();
+    }
+
+    /**
+     * @param fileName the name of a file from the logs directory
+     * @return the parts of the name or null if this is not a log segment (temporary and index
+     * files included)
+     */
+    @Nullable
+    static SegmentName parse(@NonNull String fileName) {
+        final Matcher matcher = SEGMENT_NAME_PATTERN.matcher(fileName);
+        if (!matcher.matches() || fileName.endsWith(TEMPORARY_EXTENSION) || fileName.endsWith(LogTimeIndex.EXTENSION)) {
+            return null;
+        }
+
+        final String process = matcher.group(2);
+        final String index = matcher.group(3);
+        return new SegmentName(matcher.group(1), process == null ? MAIN_PROCESS : process,
+                index == null ? 0 : Integer.parseInt(index), matcher.group(4));
+    }
+
+    /**
+     * @param logsDirectory the directory holding the log files
+     * @return all the log segments (of all the processes), ordered by day, process and index
+     * (oldest first); empty array if the directory cannot be listed
+     */
+    @NonNull
+    static File[] listSegments(@NonNull File logsDirectory) {
+        return listSegments(logsDirectory, null);
+    }
+
+    /**
+     * @param logsDirectory the directory holding the log files
+     * @param process       the process whose segments are listed; null for all of them
+     * @return the log segments of the process, ordered by day and index (oldest first); empty
+     * array if the directory cannot be listed
+     */
+    @NonNull
+    static File[] listSegments(@NonNull File logsDirectory, @Nullable final String process) {
+        final File[] segments = logsDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                if (!file.isFile()) {
+                    return false;
+                }
+                final SegmentName segmentName = parse(file.getName());
+                return segmentName != null && (process == null || process.equals(segmentName.process));
+            }
+        });
+
+        if (segments == null) {
+            return new File[0];
+        }
+
+        Arrays.sort(segments, SEGMENTS_ORDER);
+        return segments;
+    }
+
+    /**
+     * Opens a log segment for reading, decompressing and decoding it on the fly if needed. If the
+     * segment was compressed after being listed, its compressed version is opened instead.
+     *
+     * @param segmentFile the log segment (e.g. one returned by {@link LogSegmentFiles#listSegments(File)})
+     * @return an {@link InputStream} with the plain text content of the segment
+     * @throws IOException if the segment cannot be opened
+     */
+    @NonNull
+    static InputStream open(@NonNull File segmentFile) throws IOException {
+        return open(segmentFile, Long.MIN_VALUE);
+    }
+
+    /**
+     * Same as {@link LogSegmentFiles#open(File)}, but starting from the first record logged at or
+     * after the given time. The {@link LogTimeIndex} of the segment (if any) gives the position
+     * to start from, so only the records of one index interval are decoded and skipped; the
+     * compressed segments are still decompressed from the start. The block compressed segments
+     * (see {@link BlockLogFormat}) start from the block holding that time.
+     * <p>
+     * <b>NOTE:</b> The text segments only keep the time to the second, so the records logged in
+     * the same second as the given time are included.
+     *
+     * @param segmentFile   the log segment
+     * @param fromTimeMillis the time of the first record to be read
+     * @return an {@link InputStream} with the plain text content of the segment, starting with
+     * the first record logged at or after the given time
+     * @throws IOException if the segment cannot be opened
+     */
+    @NonNull
+    static InputStream open(@NonNull File segmentFile, long fromTimeMillis) throws IOException {
+        final File file = resolve(segmentFile);
+        final boolean isBinary = isBinary(file);
+
+        long fromSecondMillis = Long.MIN_VALUE;
+        long startOffset = 0;
+        if (fromTimeMillis != Long.MIN_VALUE) {
+            // the text lines only have the time to the second
+            fromSecondMillis = fromTimeMillis - ((fromTimeMillis % 1000) + 1000) % 1000;
+            startOffset = findStartOffset(file, fromSecondMillis);
+        }
+
+        InputStream inputStream = openRaw(file, startOffset);
+        try {
+            if (isFramed(file)) {
+                inputStream = new FramedLogInputStream(inputStream);
+            } else if (isBlockCompressed(file)) {
+                inputStream = new BlockLogInputStream(inputStream);
+            }
+            if (isBinary) {
+                inputStream = new BinaryLogInputStream(inputStream, startOffset == 0, fromTimeMillis);
+            } else if (fromSecondMillis != Long.MIN_VALUE) {
+                inputStream = skipTextLinesBefore(inputStream, fromSecondMillis);
+            }
+            return inputStream;
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a log segment for reading the records matching a {@link LogQuery}. If the segment is
+     * indexed (see {@link LogTimeIndex}), the reading starts from the query's time range.
+     *
+     * @param segmentFile the log segment (e.g. one returned by {@link LogSegmentFiles#listSegments(File)})
+     * @param query       the {@link LogQuery} the records must match
+     * @return the {@link ILogSegmentReader} returning the matching records
+     * @throws IOException if the segment cannot be opened
+     */
+    @NonNull
+    static ILogSegmentReader openReader(@NonNull File segmentFile, @NonNull LogQuery query) throws IOException {
+        final File file = resolve(segmentFile);
+        final long fromTimeMillis = query.getFromTimeMillis();
+        final long startOffset = fromTimeMillis != Long.MIN_VALUE
+                ? findStartOffset(file, fromTimeMillis - ((fromTimeMillis % 1000) + 1000) % 1000)
+                : 0;
+
+        InputStream inputStream = openRaw(file, startOffset);
+        try {
+            if (isFramed(file)) {
+                inputStream = new FramedLogInputStream(inputStream);
+            } else if (isBlockCompressed(file)) {
+                inputStream = new BlockLogInputStream(inputStream);
+            }
+            if (isBinary(file)) {
+                return new BinaryLogReader(inputStream, startOffset == 0, query);
+            }
+            return new TextLogReader(inputStream, query);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Same as {@link LogSegmentFiles#openReader(File, LogQuery)}, but reading the whole segment
+     * from an already opened stream
+     *
+     * @param file      the existing log segment (compressed or not)
+     * @param fileInput the raw content of the file, from its start; closed along with the reader
+     * @param query     the {@link LogQuery} the records must match
+     * @return the {@link ILogSegmentReader} returning the matching records
+     * @throws IOException if the segment cannot be decompressed or decoded
+     */
+    @NonNull
+    static ILogSegmentReader openReader(@NonNull File file, @NonNull InputStream fileInput, @NonNull LogQuery query) throws IOException {
+        InputStream inputStream = fileInput;
+        try {
+            if (isCompressed(file)) {
+                inputStream = new GZIPInputStream(fileInput, 64 * 1024);
+            }
+            if (isFramed(file)) {
+                inputStream = new FramedLogInputStream(inputStream);
+            } else if (isBlockCompressed(file)) {
+                inputStream = new BlockLogInputStream(inputStream);
+            }
+            if (isBinary(file)) {
+                return new BinaryLogReader(inputStream, true, query);
+            }
+            return new TextLogReader(inputStream, query);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param segmentFile the log segment
+     * @return the segment itself or its compressed version if it was compressed after being listed
+     * @throws FileNotFoundException if neither exists
+     */
+    @NonNull
+    static File resolve(@NonNull File segmentFile) throws FileNotFoundException {
+        if (segmentFile.exists()) {
+            return segmentFile;
+        }
+
+        final File compressedFile = new File(segmentFile.getPath() + LogSegmentCompressor.GZIP_EXTENSION);
+        if (!compressedFile.exists()) {
+            throw new FileNotFoundException(segmentFile.getPath());
+        }
+        return compressedFile;
+    }
+
+    /**
+     * @param file the existing log segment (compressed or not)
+     * @return the segment's raw content (decompressed if needed) starting from the given offset
+     * @throws IOException if the segment cannot be opened
+     */
+    @NonNull
+    private static InputStream openRaw(@NonNull File file, long offset) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            if (isCompressed(file)) {
+                inputStream = new GZIPInputStream(inputStream, 64 * 1024);
+            }
+            skipFully(inputStream, offset);
+            return inputStream;
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the offset of the last indexed record (or block) older than the given time; 0 if
+     * unknown
+     */
+    private static long findStartOffset(@NonNull File file, long timestampMillis) {
+        if (isBlockCompressed(file)) {
+            return BlockLogFormat.findBlockOffset(file, timestampMillis);
+        }
+
+        final long startOffset = LogTimeIndex.findOffset(file, timestampMillis);
+        if (!isCompressed(file) && startOffset > file.length()) {
+            // the indexed record did not reach the file (yet)
+            return 0;
+        }
+        return startOffset;
+    }
+
+    static boolean isCompressed(@NonNull File file) {
+        return file.getName().endsWith(LogSegmentCompressor.GZIP_EXTENSION);
+    }
+
+    static boolean isBinary(@NonNull File file) {
+        final String fileName = file.getName();
+        return fileName.endsWith(BinaryLogFormat.EXTENSION)
+                || fileName.endsWith(BinaryLogFormat.EXTENSION + LogSegmentCompressor.GZIP_EXTENSION);
+    }
+
+    static boolean isFramed(@NonNull File file) {
+        final String fileName = file.getName();
+        return fileName.endsWith(FramedLogFormat.EXTENSION)
+                || fileName.endsWith(FramedLogFormat.EXTENSION + LogSegmentCompressor.GZIP_EXTENSION);
+    }
+
+    static boolean isBlockCompressed(@NonNull File file) {
+        return file.getName().endsWith(BlockLogFormat.EXTENSION);
+    }
+
+    /**
+     * Skips the given number of bytes or up to the end of the stream, whichever comes first
+     */
+    private static void skipFully(@NonNull InputStream inputStream, long bytesCount) throws IOException {
+        long remainingCount = bytesCount;
+        while (remainingCount > 0) {
+            final long skippedCount = inputStream.skip(remainingCount);
+            if (skippedCount <= 0 && inputStream.read() == -1) {
+                return;
+            }
+            remainingCount -= Math.max(1, skippedCount);
+        }
+    }
+
+    /**
+     * Skips the text lines until the first one logged at or after the given time. The lines
+     * without a time (e.g. the continuation of a multi-line message) are skipped along with
+     * the record they belong to.
+     *
+     * @param inputStream    the text content of a segment
+     * @param fromTimeMillis the time of the first line to be kept (whole seconds)
+     * @return the stream continuing with the first line to be kept
+     * @throws IOException if reading failed
+     */
+    @NonNull
+    private static InputStream skipTextLinesBefore(@NonNull InputStream inputStream, long fromTimeMillis) throws IOException {
+        final InputStream bufferedStream = new BufferedInputStream(inputStream, 64 * 1024);
+        final SimpleDateFormat timeFormat = new SimpleDateFormat(TEXT_TIME_PATTERN, Locale.UK);
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+        while (true) {
+            line.reset();
+            int nextByte;
+            while ((nextByte = bufferedStream.read()) != -1) {
+                line.write(nextByte);
+                if (nextByte == '\n') {
+                    break;
+                }
+            }
+            if (line.size() == 0) {
+                return bufferedStream;
+            }
+
+            final String lineStart = new String(line.toByteArray(), 0, Math.min(line.size(), TEXT_TIME_PATTERN.length()), "UTF-8");
+            final Date lineTime = timeFormat.parse(lineStart, new ParsePosition(0));
+            if (lineTime != null && lineTime.getTime() >= fromTimeMillis) {
+                return new SequenceInputStream(new ByteArrayInputStream(line.toByteArray()), bufferedStream);
+            }
+        }
+    }
+
+    /**
+     * @param logsDirectory the directory holding the log files
+     * @param day           the day formatted with {@value DAY_PATTERN}
+     * @param process       the process writing the segments
+     * @return the highest segment index used by the process in the given day; -1 if there's no
+     * segment yet
+     */
+    static int getLastSegmentIndex(@NonNull File logsDirectory, @NonNull String day, @NonNull String process) {
+        int lastIndex = -1;
+        for (File segment : listSegments(logsDirectory, process)) {
+            final SegmentName segmentName = parse(segment.getName());
+            if (segmentName != null && segmentName.day.equals(day)) {
+                lastIndex = Math.max(lastIndex, segmentName.index);
+            }
+        }
+        return lastIndex;
+    }
+}
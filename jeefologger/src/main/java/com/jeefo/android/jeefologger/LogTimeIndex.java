@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Sparse time index of a log segment, kept in a sidecar file named after the segment with an
+ * extra ".idx" extension (e.g. "2018_07_15_Log.txt.idx").
+ * <p>
+ * Every few KB or seconds of log, the time and the position of a record are appended to the index
+ * as two 8 bytes (big endian) numbers. The positions refer to the uncompressed segment and the
+ * records found there can be decoded without the ones before them (see
+ * {@link ILogRecordEncoder#startSyncPoint()}). A reader looking for a time reads the index, which
+ * is tiny compared to the segment, and only scans the records from the closest entry on.
+ * </p>
+ * <p>
+ * The positions always increase but the times don't have to: the wall clock can be set back while
+ * the app is running, so the index is not searched as if it was sorted by time.
+ * </p>
+ */
+final class LogTimeIndex {
+    static final String EXTENSION = ".idx";
+    static final int DEFAULT_INTERVAL_BYTES = 64 * 1024;
+    static final long DEFAULT_INTERVAL_MILLIS = 10000;
+
+    private static final int ENTRY_SIZE = 16;
+
+    @NonNull
+    private final File file;
+    @NonNull
+    private final FileOutputStream outputStream;
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    private final long intervalBytes;
+    private final long intervalMillis;
+
+    // -1 until the first record is indexed
+    private volatile long lastOffset = -1;
+    private volatile long lastTimestampMillis = Long.MIN_VALUE;
+    private boolean isClosed = false;
+
+    /**
+     * @param segmentFile    the segment to be indexed; the index is appended to if it exists
+     * @param intervalBytes  the distance between the indexed records in bytes (0 to disable)
+     * @param intervalMillis the distance between the indexed records in milliseconds (0 to disable)
+     * @throws IOException if the index file cannot be opened
+     */
+    LogTimeIndex(@NonNull File segmentFile, long intervalBytes, long intervalMillis) throws IOException {
+        this.file = getIndexFile(segmentFile);
+        this.outputStream = new FileOutputStream(file, true);
+        this.intervalBytes = intervalBytes;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * @param timestampMillis the time of the record about to be written
+     * @param offset          the (approximate) position of the record in the segment
+     * @return whether the record should be indexed; the first one written to the segment always is
+     * and so is the first one after the clock was set back by more than the interval
+     */
+    boolean isDue(long timestampMillis, long offset) {
+        return lastOffset < 0
+                || (intervalBytes > 0 && offset - lastOffset >= intervalBytes)
+                || (intervalMillis > 0 && Math.abs(timestampMillis - lastTimestampMillis) >= intervalMillis);
+    }
+
+    /**
+     * Appends a record to the index. The records logged concurrently can arrive out of order, so a
+     * record placed before the last indexed one is ignored; an older record is indexed as it is.
+     * Failing to write the index is logged and disables the index for the rest of the segment, as
+     * the log itself is unaffected.
+     *
+     * @param timestampMillis the time of the record
+     * @param offset          the position of the record in the segment
+     */
+    synchronized void add(long timestampMillis, long offset) {
+        if (isClosed || offset <= lastOffset) {
+            return;
+        }
+
+        entry.clear();
+        entry.putLong(timestampMillis).putLong(offset);
+        try {
+            outputStream.write(entry.array(), 0, ENTRY_SIZE);
+            lastOffset = offset;
+            lastTimestampMillis = timestampMillis;
+        } catch (IOException e) {
+            Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to update the log index " + file.getName() + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param segmentFile a log segment (compressed or not)
+     * @return the index file of the segment (which might not exist)
+     */
+    @NonNull
+    static File getIndexFile(@NonNull File segmentFile) {
+        String path = segmentFile.getPath();
+        if (path.endsWith(LogSegmentCompressor.GZIP_EXTENSION)) {
+            path = path.substring(0, path.length() - LogSegmentCompressor.GZIP_EXTENSION.length());
+        }
+        return new File(path + EXTENSION);
+    }
+
+    /**
+     * Drops the entries pointing past the end of the segment's data, e.g. after its torn tail was
+     * cut off (see {@link FramedLogRecovery}), so the records appended from there on are not
+     * looked up at stale positions. The entries are appended in the order of their positions, so
+     * only the last ones are checked.
+     *
+     * @param segmentFile the uncompressed log segment
+     * @param dataLength  the length of the segment's data
+     * @throws IOException if the index cannot be read or truncated
+     */
+    static void truncate(@NonNull File segmentFile, long dataLength) throws IOException {
+        final File indexFile = getIndexFile(segmentFile);
+        if (!indexFile.exists()) {
+            return;
+        }
+
+        final RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        try {
+            // a torn entry is dropped as well
+            long entriesCount = index.length() / ENTRY_SIZE;
+            while (entriesCount > 0) {
+                index.seek((entriesCount - 1) * ENTRY_SIZE + 8);
+                if (index.readLong() < dataLength) {
+                    break;
+                }
+                --entriesCount;
+            }
+            if (index.length() != entriesCount * ENTRY_SIZE) {
+                index.setLength(entriesCount * ENTRY_SIZE);
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Reads the index of a segment in the order of the positions, so the first record not older
+     * than the given time is found even if the clock was set back in the meantime
+     *
+     * @param segmentFile     a log segment (compressed or not)
+     * @param timestampMillis the time looked for
+     * @return the position of the last indexed record placed before the first indexed record not
+     * older than the given time; 0 if there's no such record or no index
+     */
+    static long findOffset(@NonNull File segmentFile, long timestampMillis) {
+        final File indexFile = getIndexFile(segmentFile);
+        if (!indexFile.exists()) {
+            return 0;
+        }
+
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                // a torn entry is ignored
+                final long entriesCount = indexFile.length() / ENTRY_SIZE;
+                long offset = 0;
+
+                for (long index = 0; index < entriesCount; ++index) {
+                    if (input.readLong() >= timestampMillis) {
+                        break;
+                    }
+                    offset = input.readLong();
+                }
+                return offset;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to read the log index " + indexFile.getName() + ": " + e.getMessage());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe {@link ILogFileWriter} copying the records straight into a memory mapped region of
+ * the log file.
+ * <p>
+ * Every record reserves its bytes with an atomic bump of the write position, so the writing
+ * threads copy their records in parallel without any lock. When a record does not fit in the
+ * current region, the next region is mapped starting with that record. The rare records which
+ * fall outside of the current region (because another thread already moved to the next one) are
+ * written with a positional write.
+ * </p>
+ * <p>
+ * The mapped regions make the file longer than the data written into it, with the tail filled with
+ * zero bytes. The file is truncated to the real length on {@link MappedLogFileWriter#close()}; after
+ * a crash, {@link MappedLogFileWriter#findEndOfData(RandomAccessFile)} finds where the data ends.
+ * </p>
+ */
+class MappedLogFileWriter implements ILogFileWriter {
+    static final int DEFAULT_REGION_SIZE = 1024 * 1024;
+    private static final int RECOVERY_SCAN_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * An immutable mapped part of the file: [start, start + buffer.capacity())
+     */
+    private static final class Region {
+        final long start;
+        final long end;
+        @NonNull
+        final MappedByteBuffer buffer;
+
+        Region(long start, @NonNull MappedByteBuffer buffer) {
+            this.start = start;
+            this.end = start + buffer.capacity();
+            this.buffer = buffer;
+        }
+    }
+
+    @NonNull
+    private final File file;
+    @NonNull
+    private final RandomAccessFile randomAccessFile;
+    @NonNull
+    private final FileChannel channel;
+    private final int regionSize;
+
+    private final AtomicLong writePosition;
+    private final AtomicInteger activeWritesCount = new AtomicInteger(0);
+    private final Object remapLock = new Object();
+    private volatile Region region;
+    private volatile boolean isClosed = false;
+
+    /**
+     * @param file       the log {@link File} to append to (created if missing)
+     * @param regionSize the size of every mapped region
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    MappedLogFileWriter(@NonNull File file, int regionSize) throws IOException {
+        this.file = file;
+        this.regionSize = regionSize;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+
+        final long endOfData = findEndOfData(randomAccessFile);
+        this.writePosition = new AtomicLong(endOfData);
+        this.region = mapRegion(endOfData, regionSize);
+    }
+
+    @Override
+    public long write(@NonNull byte[] data, int offset, int length, @LogLevel int logLevel, long timestampMillis) throws IOException {
+        activeWritesCount.incrementAndGet();
+        try {
+            if (isClosed) {
+                throw new IOException("The log file was closed");
+            }
+
+            final long recordStart = writePosition.getAndAdd(length);
+            final long recordEnd = recordStart + length;
+
+            Region currentRegion = region;
+            if (recordEnd > currentRegion.end) {
+                currentRegion = remapFor(recordStart, recordEnd);
+            }
+
+            if (recordStart >= currentRegion.start && recordEnd <= currentRegion.end) {
+                final ByteBuffer target = currentRegion.buffer.duplicate();
+                target.position((int) (recordStart - currentRegion.start));
+                target.put(data, offset, length);
+            } else {
+                // the record belongs to an older region; write it the slow way
+                final ByteBuffer source = ByteBuffer.wrap(data, offset, length);
+                long filePosition = recordStart;
+                while (source.hasRemaining()) {
+                    filePosition += channel.write(source, filePosition);
+                }
+            }
+            return recordStart;
+        } finally {
+            activeWritesCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Nothing to do as the records are visible in the page cache as soon as they are copied
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void flushIfExpired() {
+    }
+
+    /**
+     * Writes back the pages of the current region and syncs the file, which takes care of the
+     * older regions and of the records written the slow way
+     */
+    @Override
+    public void force() throws IOException {
+        region.buffer.force();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+
+        // wait for the records being copied right now
+        while (activeWritesCount.get() > 0) {
+            Thread.yield();
+        }
+
+        try {
+            randomAccessFile.setLength(writePosition.get());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * The flush policy does not apply here as there's no in-memory buffering
+     */
+    @Override
+    public void setFlushPolicy(@NonNull FlushPolicy flushPolicy) {
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param recordStart the file position of the record which does not fit in the current region
+     * @param recordEnd   the file position right after the record
+     * @return the {@link Region} which is current after remapping (if that was needed)
+     * @throws IOException if mapping the file failed
+     */
+    @NonNull
+    private Region remapFor(long recordStart, long recordEnd) throws IOException {
+        synchronized (remapLock) {
+            final Region currentRegion = region;
+            if (recordEnd <= currentRegion.end) {
+                // another thread already remapped
+                return currentRegion;
+            }
+
+            final Region newRegion = mapRegion(recordStart, Math.max(regionSize, recordEnd - recordStart));
+            region = newRegion;
+            return newRegion;
+        }
+    }
+
+    @NonNull
+    private Region mapRegion(long start, long size) throws IOException {
+        return new Region(start, channel.map(FileChannel.MapMode.READ_WRITE, start, size));
+    }
+
+    /**
+     * Finds the real end of the data in a log file which might have been left with a zero-filled
+     * tail by a memory mapped writer (e.g. the process was killed before closing it). Only the tail
+     * is scanned, backwards, so this is cheap even for big files.
+     *
+     * @param file the log file, opened for reading
+     * @return the length of the data, without the zero-filled tail
+     * @throws IOException if reading the file failed
+     */
+    static long findEndOfData(@NonNull RandomAccessFile file) throws IOException {
+        final byte[] chunk = new byte[RECOVERY_SCAN_CHUNK_SIZE];
+        long chunkEnd = file.length();
+
+        while (chunkEnd > 0) {
+            final int chunkLength = (int) Math.min(chunk.length, chunkEnd);
+            final long chunkStart = chunkEnd - chunkLength;
+            file.seek(chunkStart);
+            file.readFully(chunk, 0, chunkLength);
+
+            for (int index = chunkLength - 1; index >= 0; --index) {
+                if (chunk[index] != 0) {
+                    return chunkStart + index + 1;
+                }
+            }
+            chunkEnd = chunkStart;
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.IntDef;
+
+import static com.jeefo.android.jeefologger.PersistenceDurability.GROUP_COMMIT;
+import static com.jeefo.android.jeefologger.PersistenceDurability.NONE;
+import static com.jeefo.android.jeefologger.PersistenceDurability.SYNC_ON_ERROR;
+
+/**
+ * How hard the persistent logger tries to get the records onto the storage device
+ * <p>
+ * {@link PersistenceDurability#NONE}: the records are handed to the OS (according to the
+ * {@link FlushPolicy}) which writes them to the storage device whenever it decides to. They
+ * survive the app being killed but not a power loss or an OS crash.
+ * </p>
+ * <p>
+ * {@link PersistenceDurability#GROUP_COMMIT}: every logging call returns only after its record was
+ * synced to the storage device. The threads logging at the same time share a single sync, so the
+ * cost is one sync per group of records rather than one per record.
+ * </p>
+ * <p>
+ * {@link PersistenceDurability#SYNC_ON_ERROR}: same as {@link PersistenceDurability#NONE}, except
+ * for the {@value LogLevel#ERROR} and {@value LogLevel#WTF} records which are synced (together with
+ * everything logged before them) before the logging call returns.
+ * </p>
+ */
+@IntDef({NONE, GROUP_COMMIT, SYNC_ON_ERROR})
+public @interface PersistenceDurability {
+    int NONE = 0;
+    int GROUP_COMMIT = 1;
+    int SYNC_ON_ERROR = 2;
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.IntDef;
+
+import static com.jeefo.android.jeefologger.PersistenceFormat.BINARY;
+import static com.jeefo.android.jeefologger.PersistenceFormat.COMPRESSED_TEXT;
+import static com.jeefo.android.jeefologger.PersistenceFormat.TEXT;
+
+/**
+ * The format of the persistent log files
+ * <p>
+ * {@link PersistenceFormat#TEXT}: one plain text line per record ("yyyy_MM_dd_Log.txt")
+ * </p>
+ * <p>
+ * {@link PersistenceFormat#BINARY}: compact binary records ("yyyy_MM_dd_Log.jlog"). The time is
+ * stored as the difference from the previous record, the level as a single byte and the persistent
+ * tags and the class/method tags are written once per file and then referenced by id. The files
+ * are several times smaller and cheaper to write; {@link JeefoLogger#openLogFile(java.io.File)}
+ * turns them back into the plain text layout.
+ * </p>
+ * <p>
+ * {@link PersistenceFormat#COMPRESSED_TEXT}: the text lines compressed in blocks of 64 KB while
+ * being written ("yyyy_MM_dd_Log.zlog"). Every block can be inflated on its own and starts with
+ * the time of its first line, so {@link JeefoLogger#openLogFile(java.io.File, long)} skips
+ * straight to the block holding a given time. The file currently written stays compressed and
+ * tolerates crashes: a block torn by one is cut off on the next start.
+ * {@link JeefoLogger#openLogFile(java.io.File)} inflates them back into plain text.
+ * </p>
+ */
+@IntDef({TEXT, BINARY, COMPRESSED_TEXT})
+public @interface PersistenceFormat {
+    int TEXT = 0;
+    int BINARY = 1;
+    int COMPRESSED_TEXT = 2;
+}
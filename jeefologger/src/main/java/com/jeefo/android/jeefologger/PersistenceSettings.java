@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Internal holder of all the settings the {@link PersistentLogger} is initialized with. Those
+ * are collected by the {@link JeefoLogger.Builder}.
+ */
+final class PersistenceSettings {
+    /**
+     * Value of {@link PersistenceSettings#asyncBufferCapacity} for writing the records on the
+     * caller's thread
+     */
+    static final int SYNCHRONOUS = 0;
+
+    @LogLevel
+    int minLevel = LogLevel.VERBOSE;
+    @NonNull
+    FlushPolicy flushPolicy = FlushPolicy.EVERY_RECORD;
+    int asyncBufferCapacity = SYNCHRONOUS;
+    /**
+     * What the callers do when the {@link AsyncLogWriter} can't keep up with them
+     */
+    @NonNull
+    BackPressurePolicy backPressurePolicy = BackPressurePolicy.BLOCK;
+    /**
+     * The number of records kept in memory while the log file is opened in background;
+     * {@link PersistenceSettings#SYNCHRONOUS} to open it on the caller's thread
+     */
+    int earlyBufferCapacity = SYNCHRONOUS;
+    @PersistenceStorage
+    int storage = PersistenceStorage.STREAM;
+    @PersistenceFormat
+    int format = PersistenceFormat.TEXT;
+    /**
+     * Whether the {@link PersistenceFormat#BINARY} records keep the format template and the
+     * arguments instead of the formatted message
+     */
+    boolean deferFormatting = false;
+    @PersistenceTimestamp
+    int timestamp = PersistenceTimestamp.SECONDS;
+    /**
+     * Whether the {@link PersistenceFormat#TEXT} records are wrapped in frames (see
+     * {@link FramedLogFormat})
+     */
+    boolean framedRecords = false;
+    /**
+     * Whether every process of the app writes its own log files (see
+     * {@link LogSegmentFiles#getProcessTag(String, String)})
+     */
+    boolean multiProcess = false;
+    @PersistenceDurability
+    int durability = PersistenceDurability.NONE;
+    /**
+     * How long a {@link PersistenceDurability#GROUP_COMMIT} sync waits for more records to join
+     */
+    long groupCommitWindowMillis = 0;
+    @NonNull
+    RotationPolicy rotationPolicy = RotationPolicy.DAILY;
+    @NonNull
+    RetentionPolicy retentionPolicy = RetentionPolicy.UNLIMITED;
+    /**
+     * The maximum number of segments compressed in parallel; 0 to keep them uncompressed
+     */
+    int compressionThreadsCount = 0;
+    /**
+     * Whether a {@link LogTimeIndex} is kept for every segment
+     */
+    boolean timeIndex = false;
+    int timeIndexIntervalBytes = LogTimeIndex.DEFAULT_INTERVAL_BYTES;
+    long timeIndexIntervalMillis = LogTimeIndex.DEFAULT_INTERVAL_MILLIS;
+
+    /**
+     * @param minLevel the minimum level of the persisted records
+     * @return the default settings using the given minimum level
+     */
+    @NonNull
+    static PersistenceSettings withMinLevel(@LogLevel int minLevel) {
+        final PersistenceSettings settings = new PersistenceSettings();
+        settings.minLevel = minLevel;
+        return settings;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.IntDef;
+
+import static com.jeefo.android.jeefologger.PersistenceStorage.MEMORY_MAPPED;
+import static com.jeefo.android.jeefologger.PersistenceStorage.STREAM;
+
+/**
+ * The way the persistent records are stored into the log file
+ * <p>
+ * {@link PersistenceStorage#STREAM}: the records are appended through a file channel kept open for
+ * the whole session (see {@link FlushPolicy})
+ * </p>
+ * <p>
+ * {@link PersistenceStorage#MEMORY_MAPPED}: the records are copied straight into a memory mapped
+ * region of the log file, so no write() system call is made while logging and the logging threads
+ * do not wait for each other. The log file grows in steps of 1MB while being written and is
+ * truncated to its real length when closed.
+ * </p>
+ */
+@IntDef({STREAM, MEMORY_MAPPED})
+public @interface PersistenceStorage {
+    int STREAM = 0;
+    int MEMORY_MAPPED = 1;
+}
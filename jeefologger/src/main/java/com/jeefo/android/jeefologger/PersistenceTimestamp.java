@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.IntDef;
+
+import static com.jeefo.android.jeefologger.PersistenceTimestamp.MILLISECONDS;
+import static com.jeefo.android.jeefologger.PersistenceTimestamp.MONOTONIC_NANOS;
+import static com.jeefo.android.jeefologger.PersistenceTimestamp.SECONDS;
+
+/**
+ * The time written in front of every record of the {@link PersistenceFormat#TEXT} log files
+ * <p>
+ * {@link PersistenceTimestamp#SECONDS}: "yyyy/MM/dd HH:mm:ss"
+ * </p>
+ * <p>
+ * {@link PersistenceTimestamp#MILLISECONDS}: "yyyy/MM/dd HH:mm:ss.SSS"
+ * </p>
+ * <p>
+ * {@link PersistenceTimestamp#MONOTONIC_NANOS}: "yyyy/MM/dd HH:mm:ss.SSS +123456789ns", where the
+ * last value is {@link System#nanoTime()} at the time the record was logged. Unlike the wall clock
+ * time, it is never adjusted, so it gives the exact order and the exact time between the records
+ * of the same process.
+ * </p>
+ */
+@IntDef({SECONDS, MILLISECONDS, MONOTONIC_NANOS})
+public @interface PersistenceTimestamp {
+    int SECONDS = 0;
+    int MILLISECONDS = 1;
+    int MONOTONIC_NANOS = 2;
+}
@@ -22,25 +22,77 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Alexandru Iustin Dochioiu on 29/01/18.
  */
 
 class PersistentLogger implements ILog {
+    private static final long ASYNC_DRAIN_TIMEOUT_MILLIS = 5000;
+    private static final long INIT_THREAD_KEEP_ALIVE_SECONDS = 30;
 
     @LogLevel
-    private static int persistenceMinLevel = LogLevel.NONE;
-    private static boolean wasInitialised = false;
+    private static volatile int persistenceMinLevel = LogLevel.NONE;
+    private static volatile boolean wasInitialised = false;
     private static File logsPath;
-    private static File logFile;
+    // the part of the log file names telling this process apart (see LogSegmentFiles#getProcessTag)
+    @NonNull
+    private static String processTag = LogSegmentFiles.MAIN_PROCESS;
+    private static volatile RotatingLogFileWriter logFileWriter;
+    // the format the log files were opened with (it cannot be changed until shutdown)
+    @PersistenceFormat
+    private static int logFileFormat = PersistenceFormat.TEXT;
+    // true if the records keep the format template and the arguments instead of the message
+    private static volatile boolean isFormattingDeferred = false;
+    // true if the records keep the monotonic time (see PersistenceTimestamp#MONOTONIC_NANOS)
+    private static volatile boolean isMonotonicTimeRecorded = false;
+    @PersistenceDurability
+    private static volatile int durability = PersistenceDurability.NONE;
+
+    // the record being persisted by the current thread (copied if it goes to the async writer)
+    private static final ThreadLocal<LogRecord> threadRecord = new ThreadLocal<LogRecord>() {
+        @Override
+        protected LogRecord initialValue() {
+            return new LogRecord();
+        }
+    };
+    // null when the records are written on the caller's thread
+    @Nullable
+    private static volatile AsyncLogWriter asyncLogWriter = null;
+    // the records dropped as they were logged faster than they could be written
+    private static final StripedCounter droppedRecords = new StripedCounter();
+    // null when the closed segments are kept uncompressed
+    @Nullable
+    private static LogSegmentCompressor segmentCompressor = null;
+    // null when the log files are never deleted
+    @Nullable
+    private static volatile LogRetentionManager retentionManager = null;
+    private static boolean wasShutdownHookAdded = false;
+
+    // opens the log files when the persistence is initialized in background
+    private static final ThreadPoolExecutor initExecutor = createInitExecutor();
+    // the last initialization handed to the initExecutor; null if there was none
+    @Nullable
+    private static volatile Future<?> pendingInit = null;
+    // the records logged while the log file is opened in background; null once it's open
+    @Nullable
+    private static volatile LogRecordRingBuffer earlyRecords = null;
+    // the time the background initialization was requested, used for the "Session Started" record
+    private static long sessionStartMillis = 0;
+    private static int droppedEarlyRecordsCount = 0;
+    // guards the three fields above; may be taken while holding the lockObject, never the other way
+    private static final Object earlyRecordsLock = new Object();
 
     private static final Object lockObject = new Object();
 
@@ -65,170 +117,844 @@ class PersistentLogger implements ILog {
      * @throws IllegalArgumentException if the context is null
      */
     public static void init(@NonNull final Context context, @LogLevel final int persistenceLevel) {
+        init(context, PersistenceSettings.withMinLevel(persistenceLevel));
+    }
+
+    /**
+     * Initializes the persistence or updates its settings. Unless
+     * {@link PersistenceSettings#earlyBufferCapacity} is {@link PersistenceSettings#SYNCHRONOUS},
+     * the log files are opened on a background thread and this returns straight away; the records
+     * logged meanwhile are kept in memory and written as soon as the log file is open.
+     *
+     * @param context  any kind of context.
+     * @param settings the {@link PersistenceSettings} collected by the {@link JeefoLogger.Builder}
+     * @throws IllegalArgumentException if the context is null
+     */
+    static void init(@NonNull final Context context, @NonNull final PersistenceSettings settings) {
+        if (settings.earlyBufferCapacity == PersistenceSettings.SYNCHRONOUS) {
+            // the background initializations requested before are applied first
+            awaitPendingInit();
+            initNow(context, settings);
+            return;
+        }
+
+        //noinspection ConstantConditions
+        if (context == null) {
+            throw new IllegalArgumentException("Non-null context required.");
+        }
+
+        // published before the buffer is armed, so committing an early record always waits for it
+        final FutureTask<Void> initTask = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                initNow(context, settings);
+            }
+        }, null);
+        pendingInit = initTask;
+
+        synchronized (earlyRecordsLock) {
+            persistenceMinLevel = settings.minLevel;
+            if (!wasInitialised && earlyRecords == null) {
+                isMonotonicTimeRecorded = settings.format != PersistenceFormat.BINARY
+                        && settings.timestamp == PersistenceTimestamp.MONOTONIC_NANOS;
+                sessionStartMillis = System.currentTimeMillis();
+                droppedEarlyRecordsCount = 0;
+                earlyRecords = new LogRecordRingBuffer(settings.earlyBufferCapacity);
+            }
+        }
+        FinalLogger.updateEffectiveMinLevel();
+
+        initExecutor.execute(initTask);
+    }
+
+    /**
+     * Waits (for a limited time) for the background initialization requested last, if any
+     */
+    private static void awaitPendingInit() {
+        final Future<?> currentInit = pendingInit;
+        if (currentInit == null || currentInit.isDone()) {
+            return;
+        }
+
+        try {
+            currentInit.get(ASYNC_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to initialize the persistent logging: " + e.getCause());
+        } catch (TimeoutException e) {
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "The persistent logging is still being initialized");
+        }
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor createInitExecutor() {
+        // no core thread, so the single thread stops when idle (allowCoreThreadTimeOut needs API 9)
+        return new ThreadPoolExecutor(0, 1,
+                INIT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new BackgroundThreadFactory("JeeFo-LogInit"));
+    }
+
+    /**
+     * Opens the log files (or updates the settings if they are already open) on the calling thread
+     *
+     * @param context  any kind of context.
+     * @param settings the {@link PersistenceSettings} to be applied
+     * @throws IllegalArgumentException if the context is null
+     */
+    private static void initNow(@NonNull final Context context, @NonNull final PersistenceSettings settings) {
         // use the same lock as the one for the messages writing to avoid some kind of race
         // condition (a very unlikely one though but still good to have this)
         synchronized (lockObject) {
-            persistenceMinLevel = persistenceLevel;
+            persistenceMinLevel = settings.minLevel;
+            durability = settings.durability;
+            groupCommitter.setWindowMillis(settings.groupCommitWindowMillis);
 
-            if (!wasInitialised) {
+            if (wasInitialised) {
+                logFileWriter.setFlushPolicy(settings.flushPolicy);
+                updateRetentionManager(settings);
+                isFormattingDeferred = settings.deferFormatting && logFileFormat == PersistenceFormat.BINARY;
+            } else {
                 //noinspection ConstantConditions
                 if (context == null) {
                     throw new IllegalArgumentException("Non-null context required.");
                 }
 
-                //TODO: Move log files into a private dir
-                if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
-                    logsPath = context.getExternalFilesDir(Environment.DIRECTORY_DCIM);
-                } else {
-                    logsPath = context.getFilesDir();
-                }
+                logsPath = getLogsDirectory(context);
+                processTag = settings.multiProcess ? getProcessTag(context) : LogSegmentFiles.MAIN_PROCESS;
 
                 try {
-                    File newLogsPath = new File(logsPath, "jeefoLogFiles");
-                    if (newLogsPath.exists() || newLogsPath.mkdir()) {
-                        logsPath = newLogsPath;
+                    // before the segment is opened for writing, as its torn end might be cut off
+                    final String recoveryReport = recoverLastSegment(logsPath, processTag);
+                    segmentCompressor = settings.compressionThreadsCount > 0
+                            ? new LogSegmentCompressor(settings.compressionThreadsCount, compressedSegmentsListener)
+                            : null;
+                    logFileWriter = new RotatingLogFileWriter(logsPath, processTag, settings.rotationPolicy, settings.flushPolicy,
+                            createLogFileWriterFactory(settings), createSegmentListener(segmentCompressor));
+                    retentionManager = null;
+                    updateRetentionManager(settings);
+                    compressClosedSegments(segmentCompressor, logsPath, processTag, logFileWriter.getFile());
+                    isMonotonicTimeRecorded = settings.format != PersistenceFormat.BINARY
+                            && settings.timestamp == PersistenceTimestamp.MONOTONIC_NANOS;
+                    // the records logged meanwhile in memory come after the session start
+                    final long startMillis = earlyRecords != null ? sessionStartMillis : System.currentTimeMillis();
+                    final LogRecord sessionRecord = new LogRecord();
+                    sessionRecord.set(startMillis, LogLevel.NONE, null, "", "Session Started");
+                    recordMonotonicTime(sessionRecord);
+                    writeRecord(sessionRecord);
+                    if (recoveryReport != null) {
+                        sessionRecord.set(startMillis, LogLevel.NONE, null, "", recoveryReport);
+                        recordMonotonicTime(sessionRecord);
+                        writeRecord(sessionRecord);
                     }
+                    logFileFormat = settings.format;
+                    isFormattingDeferred = settings.deferFormatting && logFileFormat == PersistenceFormat.BINARY;
+                    wasInitialised = true;
                 } catch (Exception e) {
-                    Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to create logs directory, use default DCIM instead ; " + e.getMessage());
+                    Log.e(JeefoLogger.TAG_LIBRARY_LOG, String.format(Locale.UK,
+                            "Failed to open or create the file for the persistent logging: %s", e.getMessage()));
+                    closeWriterQuietly();
+                    shutdownSegmentCompressor();
                 }
+                writeEarlyRecords();
+            }
+        }
+        FinalLogger.updateEffectiveMinLevel();
 
-                final String timeStamp = new SimpleDateFormat("yyyy_MM_dd", Locale.UK).format(new Date());
-                logFile = new File(logsPath, timeStamp + "_Log.txt");
-                BufferedWriter outStream = null;
+        updateAsyncLogWriter(settings);
+    }
 
+    /**
+     * @param context any kind of context
+     * @return the directory holding the log files, created if missing
+     */
+    @NonNull
+    static File getLogsDirectory(@NonNull Context context) {
+        File logsDirectory;
+
+        //TODO: Move log files into a private dir
+        if (Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
+            logsDirectory = context.getExternalFilesDir(Environment.DIRECTORY_DCIM);
+        } else {
+            logsDirectory = context.getFilesDir();
+        }
+
+        try {
+            File newLogsPath = new File(logsDirectory, "jeefoLogFiles");
+            if (newLogsPath.exists() || newLogsPath.mkdir()) {
+                logsDirectory = newLogsPath;
+            }
+        } catch (Exception e) {
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to create logs directory, use default DCIM instead ; " + e.getMessage());
+        }
+        return logsDirectory;
+    }
+
+    /**
+     * @param context any kind of context
+     * @return the part of the log file names telling this process apart from the other processes
+     * of the app; "pidN" if the name of the process cannot be read
+     */
+    @NonNull
+    private static String getProcessTag(@NonNull Context context) {
+        final String processName = readProcessName();
+        if (processName == null) {
+            return "pid" + android.os.Process.myPid();
+        }
+        return LogSegmentFiles.getProcessTag(context.getPackageName(), processName);
+    }
+
+    /**
+     * @return the name of the current process (e.g. "com.example:remote"); null if unknown
+     */
+    @Nullable
+    private static String readProcessName() {
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream("/proc/self/cmdline");
+            final byte[] buffer = new byte[256];
+            int length = 0;
+            int readCount;
+            while (length < buffer.length && (readCount = input.read(buffer, length, buffer.length - length)) > 0) {
+                length += readCount;
+            }
+
+            // the arguments are separated by '\0'
+            int nameLength = 0;
+            while (nameLength < length && buffer[nameLength] != 0) {
+                ++nameLength;
+            }
+            final String processName = new String(buffer, 0, nameLength, "UTF-8").trim();
+            return processName.length() == 0 ? null : processName;
+        } catch (IOException e) {
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to read the process name: " + e.getMessage());
+            return null;
+        } finally {
+            if (input != null) {
                 try {
-                    FileWriter logWriter = new FileWriter(logFile, true);
-                    outStream = new BufferedWriter(logWriter);
+                    input.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
-                    outStream.write(
-                            new SimpleDateFormat("yyyy/MM/dd HH:mm:ss ", Locale.UK).format(new Date()) +
-                                    "Session Started" + "\n");
-                    wasInitialised = true;
-                } catch (Exception e) {
-                    Log.e(JeefoLogger.TAG_LIBRARY_LOG, String.format(Locale.UK,
-                            "Failed to open or create the file for the persistent logging: %s", e.getMessage()));
-                } finally {
-                    if (outStream != null) {
-                        try {
-                            outStream.close();
-                        } catch (Exception e) {
-                            Log.e(JeefoLogger.TAG_LIBRARY_LOG, String.format(Locale.UK,
-                                    "Failed to close the file stream for the persistent logger: %s", e.getMessage()));
-                        }
+    /**
+     * Cuts off the torn end of the framed or block compressed segment left by the previous session
+     * of this process (see {@link FramedLogRecovery}), if its latest segment is one of those
+     *
+     * @param logsDirectory the directory holding the log files
+     * @param process       the process whose segment is checked
+     * @return the line reporting the damage found, to be added to the log; null if there was none
+     */
+    @Nullable
+    private static String recoverLastSegment(@NonNull File logsDirectory, @NonNull String process) {
+        final File segmentFile = FramedLogRecovery.findLastCheckedSegment(logsDirectory, process);
+        if (segmentFile == null) {
+            return null;
+        }
+
+        try {
+            final FramedLogRecovery.Result result = FramedLogRecovery.recover(segmentFile);
+            if (!result.wasDamaged()) {
+                return null;
+            }
+
+            final String report = String.format(Locale.UK,
+                    "Recovered %s: %d %s salvaged, %d damaged bytes skipped, %d bytes cut off the end",
+                    segmentFile.getName(), result.recordsCount,
+                    LogSegmentFiles.isBlockCompressed(segmentFile) ? "blocks" : "records",
+                    result.damagedBytesCount, result.truncatedBytesCount);
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, report);
+            return report;
+        } catch (IOException e) {
+            Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to check the log file " + segmentFile.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param settings the {@link PersistenceSettings} with the storage, the format and the time
+     *                 index of the log files
+     * @return the {@link RotatingLogFileWriter.Factory} creating the matching {@link ILogFileWriter}s,
+     * {@link ILogRecordEncoder}s and {@link LogTimeIndex}es
+     */
+    @NonNull
+    private static RotatingLogFileWriter.Factory createLogFileWriterFactory(@NonNull PersistenceSettings settings) {
+        final ILogRecordEncoder textEncoder = new TextLogRecordEncoder(settings.timestamp);
+        // null unless the text records are framed (the compressed blocks have their own checksums)
+        final ILogRecordEncoder framedEncoder = settings.framedRecords && settings.format == PersistenceFormat.TEXT
+                ? new FramedLogRecordEncoder(textEncoder)
+                : null;
+        @PersistenceStorage final int storage = settings.storage;
+        @PersistenceFormat final int format = settings.format;
+        final boolean useTimeIndex = settings.timeIndex;
+        final int timeIndexIntervalBytes = settings.timeIndexIntervalBytes;
+        final long timeIndexIntervalMillis = settings.timeIndexIntervalMillis;
+
+        return new RotatingLogFileWriter.Factory() {
+            @NonNull
+            @Override
+            public ILogFileWriter create(@NonNull File segmentFile, @NonNull FlushPolicy flushPolicy) throws IOException {
+                if (format == PersistenceFormat.COMPRESSED_TEXT) {
+                    return new BlockLogFileWriter(segmentFile, flushPolicy);
+                }
+                switch (storage) {
+                    case PersistenceStorage.MEMORY_MAPPED:
+                        return new MappedLogFileWriter(segmentFile, MappedLogFileWriter.DEFAULT_REGION_SIZE);
+                    case PersistenceStorage.STREAM:
+                    default:
+                        return new ChannelLogFileWriter(segmentFile, flushPolicy);
+                }
+            }
+
+            @NonNull
+            @Override
+            public ILogRecordEncoder createEncoder(boolean isEmptySegment) {
+                if (format == PersistenceFormat.BINARY) {
+                    return new BinaryLogRecordEncoder(isEmptySegment);
+                }
+                return framedEncoder != null ? framedEncoder : textEncoder;
+            }
+
+            @NonNull
+            @Override
+            public String getSegmentExtension() {
+                if (format == PersistenceFormat.BINARY) {
+                    return BinaryLogFormat.EXTENSION;
+                }
+                if (format == PersistenceFormat.COMPRESSED_TEXT) {
+                    return BlockLogFormat.EXTENSION;
+                }
+                return framedEncoder != null ? FramedLogFormat.EXTENSION : LogSegmentFiles.TEXT_EXTENSION;
+            }
+
+            @Nullable
+            @Override
+            public LogTimeIndex createTimeIndex(@NonNull File segmentFile) throws IOException {
+                // the headers of the blocks already tell where the time of every block starts
+                return useTimeIndex && format != PersistenceFormat.COMPRESSED_TEXT
+                        ? new LogTimeIndex(segmentFile, timeIndexIntervalBytes, timeIndexIntervalMillis)
+                        : null;
+            }
+        };
+    }
+
+    /**
+     * @param compressor the {@link LogSegmentCompressor} or null if compression is disabled
+     * @return the {@link RotatingLogFileWriter.Listener} handing the closed segments to the
+     * {@link LogRetentionManager} and to the compressor
+     */
+    @NonNull
+    private static RotatingLogFileWriter.Listener createSegmentListener(@Nullable final LogSegmentCompressor compressor) {
+        return new RotatingLogFileWriter.Listener() {
+            @Override
+            public void onSegmentClosed(@NonNull File segmentFile) {
+                final LogRetentionManager currentManager = retentionManager;
+                final RotatingLogFileWriter currentFileWriter = logFileWriter;
+                if (currentManager != null && currentFileWriter != null) {
+                    currentManager.onSegmentClosed(segmentFile, currentFileWriter.getBytesCount());
+                }
+                if (compressor != null) {
+                    compressor.compressLater(segmentFile);
+                }
+            }
+        };
+    }
+
+    /**
+     * Keeps the {@link LogRetentionManager}'s ledger in sync with the compressed segments
+     */
+    private static final LogSegmentCompressor.Listener compressedSegmentsListener = new LogSegmentCompressor.Listener() {
+        @Override
+        public void onSegmentCompressed(@NonNull File segmentFile, @NonNull File compressedFile) {
+            final LogRetentionManager currentManager = retentionManager;
+            if (currentManager != null) {
+                currentManager.onSegmentCompressed(segmentFile, compressedFile);
+            }
+        }
+    };
+
+    /**
+     * Starts, updates or stops the {@link LogRetentionManager} to match the settings. Must be
+     * called while holding the lockObject, after the log file was opened.
+     *
+     * @param settings the {@link PersistenceSettings} to be applied
+     */
+    private static void updateRetentionManager(@NonNull PersistenceSettings settings) {
+        final int maxSegmentCount = settings.rotationPolicy.getMaxSegmentCount();
+        final LogRetentionManager currentManager = retentionManager;
+
+        if (LogRetentionManager.isUnlimited(settings.retentionPolicy, maxSegmentCount)) {
+            retentionManager = null;
+        } else if (currentManager != null) {
+            currentManager.setLimits(settings.retentionPolicy, maxSegmentCount);
+        } else {
+            final LogRetentionManager newManager = new LogRetentionManager(logsPath, processTag,
+                    settings.retentionPolicy, maxSegmentCount);
+            newManager.start(logFileWriter.getFile(), logFileWriter.getBytesCount());
+            retentionManager = newManager;
+        }
+    }
+
+    /**
+     * Queues for compression the segments left uncompressed by the previous sessions of this
+     * process (the other processes may still be writing theirs)
+     *
+     * @param compressor    the {@link LogSegmentCompressor} or null if compression is disabled
+     * @param logsDirectory the directory holding the segments
+     * @param process       the process whose segments are compressed
+     * @param activeSegment the segment currently written, which is left untouched
+     */
+    private static void compressClosedSegments(@Nullable LogSegmentCompressor compressor, @NonNull File logsDirectory,
+                                               @NonNull String process, @NonNull File activeSegment) {
+        if (compressor == null) {
+            return;
+        }
+
+        for (File segment : LogSegmentFiles.listSegments(logsDirectory, process)) {
+            if (!segment.equals(activeSegment)) {
+                compressor.compressLater(segment);
+            }
+        }
+    }
+
+    /**
+     * Starts or stops the {@link AsyncLogWriter} to match the settings. Must be called without
+     * holding the lockObject as stopping the writer waits for it to drain the queued records.
+     *
+     * @param settings the {@link PersistenceSettings} to be applied
+     */
+    private static synchronized void updateAsyncLogWriter(@NonNull PersistenceSettings settings) {
+        final AsyncLogWriter currentWriter = asyncLogWriter;
+        final boolean useAsyncWriter = wasInitialised && settings.asyncBufferCapacity != PersistenceSettings.SYNCHRONOUS;
+
+        if (currentWriter != null) {
+            if (useAsyncWriter && currentWriter.isRunning()) {
+                currentWriter.setIdleFlushMillis(settings.flushPolicy.getMaxPendingMillis());
+                currentWriter.setBackPressurePolicy(settings.backPressurePolicy);
+                return;
+            }
+
+            // from now on the records are written synchronously
+            asyncLogWriter = null;
+            currentWriter.shutdown(ASYNC_DRAIN_TIMEOUT_MILLIS);
+        }
+
+        if (useAsyncWriter) {
+            final AsyncLogWriter newWriter = new AsyncLogWriter(
+                    new LogRecordRingBuffer(settings.asyncBufferCapacity),
+                    asyncWriterTarget,
+                    lockObject,
+                    settings.flushPolicy.getMaxPendingMillis(),
+                    settings.backPressurePolicy,
+                    droppedRecords);
+            newWriter.start();
+            asyncLogWriter = newWriter;
+
+            if (!wasShutdownHookAdded) {
+                wasShutdownHookAdded = true;
+                Runtime.getRuntime().addShutdownHook(new Thread("JeeFo-LogShutdown") {
+                    @Override
+                    public void run() {
+                        shutdown();
                     }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes all the records kept in memory to the log file. When the records are written
+     * asynchronously, this waits for the ones logged before the call to be written first.
+     */
+    static void flush() {
+        awaitPendingInit();
+        final AsyncLogWriter currentWriter = asyncLogWriter;
+        if (currentWriter != null) {
+            currentWriter.awaitDrained(ASYNC_DRAIN_TIMEOUT_MILLIS);
+        }
+
+        synchronized (lockObject) {
+            if (wasInitialised) {
+                try {
+                    logFileWriter.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
     }
 
     /**
-     * @return array of all the log files as long as the persistent logging was initialized;
-     * null if the persistent logging was not initialized
+     * Writes all the pending records, stops the background writer (if any) and closes the log
+     * file. Nothing is persisted afterwards until the persistence is initialized again.
+     */
+    static void shutdown() {
+        awaitPendingInit();
+        synchronized (PersistentLogger.class) {
+            final AsyncLogWriter currentWriter = asyncLogWriter;
+            asyncLogWriter = null;
+            if (currentWriter != null) {
+                currentWriter.shutdown(ASYNC_DRAIN_TIMEOUT_MILLIS);
+            }
+        }
+
+        synchronized (lockObject) {
+            wasInitialised = false;
+            closeWriterQuietly();
+            shutdownSegmentCompressor();
+        }
+        FinalLogger.updateEffectiveMinLevel();
+    }
+
+    /**
+     * @return array of all the log segments (oldest first) as long as the persistent logging was
+     * initialized; null if the persistent logging was not initialized
      */
     @Nullable
     static File[] getAllLogFiles() {
+        awaitPendingInit();
         synchronized (lockObject) {
-            if (wasInitialised) {
-                return logsPath.listFiles();
+            if (logsPath != null) {
+                return LogSegmentFiles.listSegments(logsPath);
             } else {
                 return null;
             }
         }
     }
 
+    /**
+     * @return the number of records dropped so far, while the log file was opened or by the
+     * {@link BackPressurePolicy} of the {@link AsyncLogWriter}
+     */
+    static long getDroppedRecordsCount() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * @return the minimum level of the persisted messages; {@value LogLevel#NONE} if nothing is
+     * persisted
+     */
+    @LogLevel
+    static int getMinPersistedLevel() {
+        return wasInitialised || earlyRecords != null ? persistenceMinLevel : LogLevel.NONE;
+    }
+
+    /**
+     * @param logLevel the level of a message
+     * @return whether a message with that level would be persisted
+     */
+    static boolean isPersisted(@LogLevel int logLevel) {
+        return (wasInitialised || earlyRecords != null) && logLevel >= persistenceMinLevel;
+    }
+
+    /**
+     * @return whether the messages should be handed over unformatted (see
+     * {@link PersistentLogger#persistDeferred(int, Exception, String, Object...)})
+     */
+    static boolean isFormattingDeferred() {
+        return isFormattingDeferred;
+    }
+
+    /**
+     * Persists an already formatted message (if the level allows it)
+     *
+     * @param logLevel the level of the message
+     * @param message  the formatted message
+     */
+    static void persist(@LogLevel int logLevel, @NonNull String message) {
+        if (!isPersisted(logLevel)) {
+            return;
+        }
+
+        final LogRecord record = threadRecord.get();
+        record.set(System.currentTimeMillis(), logLevel, LogRecord.getLevelName(logLevel),
+                PersistentTagsManager.getTagsStringPrefix(), message);
+        recordMonotonicTime(record);
+        persistRecord(record);
+    }
+
+    /**
+     * Persists a message (if the level allows it), keeping the template and a snapshot of the
+     * arguments instead of formatting it when the formatting is deferred (see
+     * {@link PersistentLogger#setRecord(LogRecord, long, int, String, Exception, String, Object[], boolean)})
+     *
+     * @param logLevel     the level of the message
+     * @param exception    the exception whose message is appended (can be null)
+     * @param messageToLog the message containing placeholders
+     * @param args         the arguments for messageToLog
+     */
+    static void persistDeferred(@LogLevel int logLevel, @Nullable Exception exception, @Nullable String messageToLog, Object... args) {
+        if (!isPersisted(logLevel)) {
+            return;
+        }
+
+        final LogRecord record = threadRecord.get();
+        setRecord(record, System.currentTimeMillis(), logLevel, PersistentTagsManager.getTagsStringPrefix(),
+                exception, messageToLog, args, isFormattingDeferred);
+        recordMonotonicTime(record);
+        persistRecord(record);
+    }
+
+    /**
+     * Fills a record with a message. The template and a snapshot of the arguments are kept
+     * instead of the formatted message only when the formatting is deferred and all the arguments
+     * can be captured (see {@link StringUtils#captureArgs(Object[])}), so the message reads the
+     * same either way.
+     *
+     * @param record               the {@link LogRecord} to be filled
+     * @param timestampMillis      the time of the message
+     * @param logLevel             the level of the message
+     * @param tags                 the persistent tags prefix
+     * @param exception            the exception whose message is appended (can be null)
+     * @param messageToLog         the message containing placeholders
+     * @param args                 the arguments for messageToLog
+     * @param isFormattingDeferred whether the formatting is deferred to read time
+     */
+    static void setRecord(@NonNull LogRecord record, long timestampMillis, @LogLevel int logLevel, @NonNull String tags,
+                          @Nullable Exception exception, @Nullable String messageToLog, Object[] args,
+                          boolean isFormattingDeferred) {
+        final Object[] capturedArgs = isFormattingDeferred && messageToLog != null && !messageToLog.equals("")
+                ? StringUtils.captureArgs(args) : null;
+        if (capturedArgs == null) {
+            record.set(timestampMillis, logLevel, LogRecord.getLevelName(logLevel), tags,
+                    StringUtils.getFormattedMessage(exception, messageToLog, args));
+            return;
+        }
+
+        record.setDeferred(timestampMillis, logLevel, LogRecord.getLevelName(logLevel), tags, messageToLog, capturedArgs,
+                exception != null ? StringUtils.getExceptionSuffix(exception) : null);
+    }
+
     @Override
     public void Verbose(String messageToLog, Object... args) {
-        logMessageIfInitialized("VERBOSE", LogLevel.VERBOSE, null, messageToLog, args);
+        persistDeferred(LogLevel.VERBOSE, null, messageToLog, args);
     }
 
     @Override
     public void Verbose(Exception exception, String messageToLog, Object... args) {
-        logMessageIfInitialized("VERBOSE", LogLevel.VERBOSE, exception, messageToLog, args);
+        persistDeferred(LogLevel.VERBOSE, exception, messageToLog, args);
     }
 
     @Override
     public void Debug(String messageToLog, Object... args) {
-        logMessageIfInitialized("DEBUG", LogLevel.DEBUG, null, messageToLog, args);
+        persistDeferred(LogLevel.DEBUG, null, messageToLog, args);
     }
 
     @Override
     public void Debug(Exception exception, String messageToLog, Object... args) {
-        logMessageIfInitialized("DEBUG", LogLevel.DEBUG, exception, messageToLog, args);
+        persistDeferred(LogLevel.DEBUG, exception, messageToLog, args);
     }
 
     @Override
     public void Info(String messageToLog, Object... args) {
-        logMessageIfInitialized("INFO", LogLevel.INFO, null, messageToLog, args);
+        persistDeferred(LogLevel.INFO, null, messageToLog, args);
     }
 
     @Override
     public void Warn(String messageToLog, Object... args) {
-        logMessageIfInitialized("WARN", LogLevel.WARN, null, messageToLog, args);
+        persistDeferred(LogLevel.WARN, null, messageToLog, args);
     }
 
     @Override
     public void Warn(Exception exception, String messageToLog, Object... args) {
-        logMessageIfInitialized("WARN", LogLevel.WARN, exception, messageToLog, args);
+        persistDeferred(LogLevel.WARN, exception, messageToLog, args);
     }
 
     @Override
     public void Error(String messageToLog, Object... args) {
-        logMessageIfInitialized("ERROR", LogLevel.ERROR, null, messageToLog, args);
+        persistDeferred(LogLevel.ERROR, null, messageToLog, args);
     }
 
     @Override
     public void Error(Exception exception, String messageToLog, Object... args) {
-        logMessageIfInitialized("ERROR", LogLevel.ERROR, exception, messageToLog, args);
+        persistDeferred(LogLevel.ERROR, exception, messageToLog, args);
     }
 
     @Override
     public void Error(Exception exception) {
-        logMessageIfInitialized("ERROR", LogLevel.ERROR, exception);
+        logExceptionIfInitialized(LogLevel.ERROR, exception);
     }
 
     @Override
     public void Wtf(String messageToLog, Object... args) {
-        logMessageIfInitialized("WTF", LogLevel.WTF, null, messageToLog, args);
+        persistDeferred(LogLevel.WTF, null, messageToLog, args);
     }
 
     @Override
     public void Wtf(Exception exception, String messageToLog, Object... args) {
-        logMessageIfInitialized("WTF", LogLevel.WTF, exception, messageToLog, args);
+        persistDeferred(LogLevel.WTF, exception, messageToLog, args);
     }
 
     @Override
     public void Wtf(Exception exception) {
-        logMessageIfInitialized("WTF", LogLevel.WTF, exception);
+        logExceptionIfInitialized(LogLevel.WTF, exception);
     }
 
-    private void logMessageIfInitialized(@NonNull String type, @LogLevel int logLevel, @Nullable Exception exception, @NonNull String messageToLog, @Nullable Object... args) {
-        synchronized (lockObject) {
-            if (wasInitialised && logLevel >= persistenceMinLevel) {
+    @Override
+    public boolean isLoggable(@LogLevel int logLevel) {
+        return isPersisted(logLevel);
+    }
+
+    private void logExceptionIfInitialized(@LogLevel int logLevel, Exception exception) {
+        if (isPersisted(logLevel)) {
+            persist(logLevel, " EXCEPTION_ONLY :: " + exception.getMessage() + "--" + exception.toString());
+        }
+    }
+
+    /**
+     * Keeps the monotonic time in the record if the log lines show it (see
+     * {@link PersistenceTimestamp#MONOTONIC_NANOS})
+     */
+    private static void recordMonotonicTime(@NonNull LogRecord record) {
+        if (isMonotonicTimeRecorded) {
+            record.monotonicNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Writes the record and, if the {@link PersistenceDurability} asks for it, waits for it to be
+     * synced to the storage device
+     *
+     * @param record the calling thread's {@link LogRecord}, cleared afterwards
+     */
+    private static void persistRecord(@NonNull LogRecord record) {
+        final int logLevel = record.logLevel;
+        writeOrEnqueueRecord(record);
+
+        final int currentDurability = durability;
+        if (currentDurability == PersistenceDurability.GROUP_COMMIT
+                || (currentDurability == PersistenceDurability.SYNC_ON_ERROR && logLevel >= LogLevel.ERROR)) {
+            commit();
+        }
+    }
+
+    /**
+     * Blocks until all the records logged so far by the calling thread are synced to the storage
+     * device
+     */
+    private static void commit() {
+        if (earlyRecords != null) {
+            // the record is only kept in memory until the log file is open
+            awaitPendingInit();
+        }
+
+        final AsyncLogWriter currentWriter = asyncLogWriter;
+        if (currentWriter != null) {
+            currentWriter.awaitDrained(ASYNC_DRAIN_TIMEOUT_MILLIS);
+        }
+
+        try {
+            groupCommitter.commit();
+        } catch (IOException e) {
+            // the log file was closed in the meantime, unless persistence is still active
+            if (wasInitialised) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Hands the record to the {@link AsyncLogWriter} if there's one running; otherwise the record
+     * is written straight away on the caller's thread
+     *
+     * @param record the calling thread's {@link LogRecord}, cleared afterwards
+     */
+    private static void writeOrEnqueueRecord(@NonNull LogRecord record) {
+        try {
+            if (earlyRecords != null && offerEarlyRecord(record)) {
+                return;
+            }
+
+            final AsyncLogWriter currentWriter = asyncLogWriter;
+            if (currentWriter != null && currentWriter.enqueue(record)) {
+                return;
+            }
+
+            final RotatingLogFileWriter currentFileWriter = logFileWriter;
+            if (currentFileWriter != null && currentFileWriter.supportsConcurrentWrites()) {
+                // no need for the lock; the storage takes care of the concurrent writes
                 try {
-                    FileWriter logWriter = new FileWriter(logFile, true);
-                    BufferedWriter outStream = new BufferedWriter(logWriter);
-                    outStream.write(
-                            new SimpleDateFormat("yyyy/MM/dd HH:mm:ss ", Locale.UK).format(new Date()) + type + "/" +
-                                    PersistentTagsManager.getTagsStringPrefix() + StringUtils.getFormattedMessage(exception, messageToLog, args) + "\n");
-                    outStream.close();
+                    currentFileWriter.write(record);
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    // the log file was closed in the meantime, unless persistence is still active
+                    if (wasInitialised) {
+                        e.printStackTrace();
+                    }
                 }
+                return;
             }
+
+            synchronized (lockObject) {
+                if (wasInitialised) {
+                    try {
+                        writeRecord(record);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            record.clear();
         }
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private void logMessageIfInitialized(String type, @LogLevel int logLevel, Exception exception) {
-        synchronized (lockObject) {
-            if (wasInitialised && logLevel >= persistenceMinLevel) {
+    /**
+     * Keeps the record in memory if the log file is still being opened in background. Drops it
+     * (and counts it) if too many records were logged meanwhile.
+     *
+     * @param record the {@link LogRecord} to be copied
+     * @return false if the log file is open now, so the record should be written as usual
+     */
+    private static boolean offerEarlyRecord(@NonNull LogRecord record) {
+        synchronized (earlyRecordsLock) {
+            final LogRecordRingBuffer buffer = earlyRecords;
+            if (buffer == null) {
+                return false;
+            }
+
+            if (!buffer.offer(record)) {
+                ++droppedEarlyRecordsCount;
+                droppedRecords.increment();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the records logged while the log file was opened in background (or drops them if it
+     * failed to open) and stops keeping them in memory. Must be called while holding the
+     * lockObject, right after the log file was opened.
+     */
+    private static void writeEarlyRecords() {
+        synchronized (earlyRecordsLock) {
+            final LogRecordRingBuffer buffer = earlyRecords;
+            if (buffer == null) {
+                return;
+            }
+            earlyRecords = null;
+
+            if (!wasInitialised) {
+                Log.e(JeefoLogger.TAG_LIBRARY_LOG, String.format(Locale.UK,
+                        "%d records logged before the persistent logging failed to start were dropped",
+                        buffer.getProducerPosition() - buffer.getConsumerPosition() + droppedEarlyRecordsCount));
+                return;
+            }
+
+            buffer.drain(earlyRecordsWriter, buffer.getCapacity());
+            if (droppedEarlyRecordsCount > 0) {
+                final String report = String.format(Locale.UK,
+                        "%d records logged before the log file was opened were dropped (more than %d)",
+                        droppedEarlyRecordsCount, buffer.getCapacity());
+                Log.w(JeefoLogger.TAG_LIBRARY_LOG, report);
+                final LogRecord reportRecord = new LogRecord();
+                reportRecord.set(System.currentTimeMillis(), LogLevel.NONE, null, "", report);
+                recordMonotonicTime(reportRecord);
                 try {
-                    FileWriter logWriter = new FileWriter(logFile, true);
-                    BufferedWriter outStream = new BufferedWriter(logWriter);
-                    outStream.write(
-                            new SimpleDateFormat("yyyy/MM/dd HH:mm:ss ", Locale.UK).format(new Date()) + type + "/" +
-                                    PersistentTagsManager.getTagsStringPrefix() + " EXCEPTION_ONLY :: " + exception.getMessage() + "--" + exception.toString() + "\n");
-                    outStream.close();
+                    writeRecord(reportRecord);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -236,6 +962,139 @@ class PersistentLogger implements ILog {
         }
     }
 
+    /**
+     * Writes the records kept in memory while the log file was opened, always while holding the
+     * lockObject
+     */
+    private static final LogRecordRingBuffer.RecordHandler earlyRecordsWriter = new LogRecordRingBuffer.RecordHandler() {
+        @Override
+        public void onRecord(@NonNull LogRecord record) {
+            try {
+                writeRecord(record);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
+    /**
+     * Must be called while holding the lockObject
+     *
+     * @param record the {@link LogRecord} to be appended to the log file
+     * @throws IOException if writing to the file failed
+     */
+    private static void writeRecord(@NonNull LogRecord record) throws IOException {
+        logFileWriter.write(record);
+    }
+
+    /**
+     * Must be called while holding the lockObject
+     */
+    private static void closeWriterQuietly() {
+        if (logFileWriter != null) {
+            try {
+                logFileWriter.close();
+            } catch (Exception e) {
+                Log.e(JeefoLogger.TAG_LIBRARY_LOG, String.format(Locale.UK,
+                        "Failed to close the file stream for the persistent logger: %s", e.getMessage()));
+            }
+            logFileWriter = null;
+        }
+    }
+
+    /**
+     * Must be called while holding the lockObject
+     */
+    private static void shutdownSegmentCompressor() {
+        if (segmentCompressor != null) {
+            segmentCompressor.shutdown();
+            segmentCompressor = null;
+        }
+    }
+
+    /**
+     * Syncs the log file for the {@link GroupCommitter}. Only the flush needs the lockObject; the
+     * records keep being written while the file is synced.
+     */
+    private static final GroupCommitter groupCommitter = new GroupCommitter(new GroupCommitter.SyncAction() {
+        @Override
+        public void sync() throws IOException {
+            final RotatingLogFileWriter currentFileWriter;
+            synchronized (lockObject) {
+                currentFileWriter = logFileWriter;
+                if (!wasInitialised || currentFileWriter == null) {
+                    return;
+                }
+                currentFileWriter.flush();
+            }
+            currentFileWriter.force();
+        }
+    }, 0);
+
+    /**
+     * Receives the records drained by the {@link AsyncLogWriter}, always while holding the
+     * lockObject
+     */
+    private static final AsyncLogWriter.Target asyncWriterTarget = new AsyncLogWriter.Target() {
+        @Override
+        public void onRecord(@NonNull LogRecord record) {
+            if (!wasInitialised) {
+                return;
+            }
+
+            try {
+                writeRecord(record);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onIdle() {
+            if (!wasInitialised) {
+                return;
+            }
+
+            try {
+                logFileWriter.flushIfExpired();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onStopped() {
+            if (!wasInitialised) {
+                return;
+            }
+
+            try {
+                logFileWriter.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onRecordsDropped(long droppedCount) {
+            final String report = String.format(Locale.UK,
+                    "%d records were dropped as they were logged faster than they could be written", droppedCount);
+            Log.w(JeefoLogger.TAG_LIBRARY_LOG, report);
+            if (!wasInitialised) {
+                return;
+            }
+
+            final LogRecord reportRecord = new LogRecord();
+            reportRecord.set(System.currentTimeMillis(), LogLevel.NONE, null, "", report);
+            recordMonotonicTime(reportRecord);
+            try {
+                writeRecord(reportRecord);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
     /**
      * Private to avoid instantiation as this is a singleton
      */
@@ -247,6 +1106,8 @@ class PersistentLogger implements ILog {
             synchronized (lockObject) {
                 persistenceMinLevel = LogLevel.NONE;
             }
+            FinalLogger.updateEffectiveMinLevel();
+            flush();
         }
     }
 }
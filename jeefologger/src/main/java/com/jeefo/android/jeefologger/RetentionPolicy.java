@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Limits the disk space used by the log files (segments). Once a limit is exceeded, the oldest
+ * segments are deleted until the log is within all the limits again. A limit set to 0 is disabled.
+ * <p>
+ * The limits are checked on a background thread when the persistence is initialized and every
+ * time a segment is closed (see {@link RotationPolicy}). The sizes of the segments are tracked in
+ * memory, so the logs directory is only listed once per session. The segment currently written is
+ * never deleted, but its size counts towards the total.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> The default policy ({@link RetentionPolicy#UNLIMITED}) keeps all the segments
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class RetentionPolicy {
+
+    /**
+     * No segment is ever deleted
+     */
+    public static final RetentionPolicy UNLIMITED = new Builder().build();
+
+    private final long maxTotalBytes;
+    private final long maxAgeMillis;
+    private final int maxFileCount;
+
+    private RetentionPolicy(@NonNull Builder builder) {
+        this.maxTotalBytes = builder.maxTotalBytes;
+        this.maxAgeMillis = builder.maxAgeMillis;
+        this.maxFileCount = builder.maxFileCount;
+    }
+
+    /**
+     * @return the maximum size in bytes of all the segments together; 0 if unlimited
+     */
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    /**
+     * @return the maximum time (in milliseconds) a segment is kept after it was last written; 0
+     * if unlimited
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @return the maximum number of segments kept; 0 if unlimited
+     */
+    public int getMaxFileCount() {
+        return maxFileCount;
+    }
+
+    /**
+     * @return whether all the limits are disabled
+     */
+    boolean isUnlimited() {
+        return maxTotalBytes == 0 && maxAgeMillis == 0 && maxFileCount == 0;
+    }
+
+    /**
+     * Builder class for the {@link RetentionPolicy}. By default, all the limits are disabled
+     */
+    public static class Builder {
+        private long maxTotalBytes = 0;
+        private long maxAgeMillis = 0;
+        private int maxFileCount = 0;
+
+        /**
+         * <b>NOTE:</b> The segment currently written can get the log slightly over this limit
+         * until it is closed, so it should be combined with
+         * {@link RotationPolicy.Builder#withMaxSegmentBytes(long)}
+         *
+         * @param maxTotalBytes the maximum size of all the segments together (0 for unlimited).
+         *                      The compressed segments count with their compressed size.
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withMaxTotalBytes(long maxTotalBytes) {
+            if (maxTotalBytes < 0) {
+                throw new IllegalArgumentException("maxTotalBytes should not be negative");
+            }
+            this.maxTotalBytes = maxTotalBytes;
+            return this;
+        }
+
+        /**
+         * @param maxAgeMillis the time after which a segment which is not written anymore gets
+         *                     deleted (0 for unlimited)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withMaxAgeMillis(long maxAgeMillis) {
+            if (maxAgeMillis < 0) {
+                throw new IllegalArgumentException("maxAgeMillis should not be negative");
+            }
+            this.maxAgeMillis = maxAgeMillis;
+            return this;
+        }
+
+        /**
+         * @param maxFileCount the maximum number of segments kept, including the one currently
+         *                     written (0 for unlimited)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withMaxFileCount(int maxFileCount) {
+            if (maxFileCount < 0) {
+                throw new IllegalArgumentException("maxFileCount should not be negative");
+            }
+            this.maxFileCount = maxFileCount;
+            return this;
+        }
+
+        /**
+         * @return the newly built {@link RetentionPolicy}
+         */
+        @NonNull
+        public RetentionPolicy build() {
+            return new RetentionPolicy(this);
+        }
+    }
+}
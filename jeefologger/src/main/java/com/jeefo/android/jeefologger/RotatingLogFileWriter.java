@@ -0,0 +1,507 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes the {@link LogRecord}s to a log split into segments according to a {@link RotationPolicy}.
+ * <p>
+ * Every write only compares the size of the current segment and the record's time with the
+ * limits. Once a limit is reached, the next segment is opened on a background thread while the
+ * records keep going to the current one; the first write after the new segment is ready switches
+ * to it and hands the old one back to the background thread to be closed.
+ * </p>
+ * <p>
+ * Every segment gets its own {@link ILogRecordEncoder}. The records are encoded (into an
+ * {@link EncodedRecordBuffer} reused by the writing thread) and written while holding the segment's
+ * lock unless the encoder is thread-safe. Apart from that, this is
+ * thread-safe to the same extent as the {@link ILogFileWriter}s created by the {@link Factory}.
+ * </p>
+ * <p>
+ * When the {@link Factory} creates a {@link LogTimeIndex} for the segments, the position of a
+ * record is added to it every few KB or seconds.
+ * </p>
+ */
+class RotatingLogFileWriter {
+    private static final long FAILED_ROLLOVER_BACK_OFF_MILLIS = 10000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Creates the {@link ILogFileWriter} and the {@link ILogRecordEncoder} for every segment
+     */
+    interface Factory {
+        /**
+         * @param segmentFile the {@link File} of the segment (created if missing)
+         * @param flushPolicy the {@link FlushPolicy} to be used by the writer
+         * @return the {@link ILogFileWriter} appending to the segment
+         * @throws IOException if the file cannot be opened
+         */
+        @NonNull
+        ILogFileWriter create(@NonNull File segmentFile, @NonNull FlushPolicy flushPolicy) throws IOException;
+
+        /**
+         * @param isEmptySegment true if nothing was written to the segment yet
+         * @return the {@link ILogRecordEncoder} for the records of the segment
+         */
+        @NonNull
+        ILogRecordEncoder createEncoder(boolean isEmptySegment);
+
+        /**
+         * @return the file extension of the segments (including the dot)
+         */
+        @NonNull
+        String getSegmentExtension();
+
+        /**
+         * @param segmentFile the {@link File} of the segment
+         * @return the {@link LogTimeIndex} of the segment or null if the segments are not indexed
+         * @throws IOException if the index cannot be opened
+         */
+        @Nullable
+        LogTimeIndex createTimeIndex(@NonNull File segmentFile) throws IOException;
+    }
+
+    /**
+     * Notified (on the background thread) about the segments which are not written anymore
+     */
+    interface Listener {
+        /**
+         * @param segmentFile the {@link File} of the segment which was just closed
+         */
+        void onSegmentClosed(@NonNull File segmentFile);
+    }
+
+    /**
+     * An open segment along with the details required by the rotation checks
+     */
+    private static final class Segment {
+        @NonNull
+        final ILogFileWriter writer;
+        @NonNull
+        final ILogRecordEncoder encoder;
+        @Nullable
+        final LogTimeIndex timeIndex;
+        @NonNull
+        final String day;
+        final int index;
+        final long endMillis;
+        final AtomicLong bytesCount;
+        final CountDownLatch closedLatch = new CountDownLatch(1);
+
+        Segment(@NonNull ILogFileWriter writer, @NonNull ILogRecordEncoder encoder, @Nullable LogTimeIndex timeIndex,
+                @NonNull String day, int index, long endMillis, long bytesCount) {
+            this.writer = writer;
+            this.encoder = encoder;
+            this.timeIndex = timeIndex;
+            this.day = day;
+            this.index = index;
+            this.endMillis = endMillis;
+            this.bytesCount = new AtomicLong(bytesCount);
+        }
+    }
+
+    @NonNull
+    private final File logsDirectory;
+    @NonNull
+    private final String process;
+    @NonNull
+    private final RotationPolicy rotationPolicy;
+    @NonNull
+    private final Factory factory;
+    @Nullable
+    private final Listener listener;
+    @NonNull
+    private volatile FlushPolicy flushPolicy;
+    private final ExecutorService rolloverExecutor = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("JeeFo-LogRollover"));
+
+    private volatile Segment currentSegment;
+    // the last segment handed to the background thread to be closed
+    private volatile Segment closingSegment;
+    private final AtomicReference<Segment> preparedSegment = new AtomicReference<>();
+    private final AtomicBoolean isRolloverPending = new AtomicBoolean(false);
+    private volatile long nextRolloverAttemptMillis = 0;
+    // the records are encoded in a buffer reused by each writing thread; the writers copy the bytes
+    private final ThreadLocal<EncodedRecordBuffer> recordBuffers = new ThreadLocal<EncodedRecordBuffer>() {
+        @Override
+        protected EncodedRecordBuffer initialValue() {
+            return new EncodedRecordBuffer();
+        }
+    };
+
+    /**
+     * Opens (on the calling thread) the latest segment of the current day, or a new one if that
+     * is already full
+     *
+     * @param logsDirectory  the directory holding the segments
+     * @param process        the process writing the segments (see {@link LogSegmentFiles#getProcessTag(String, String)})
+     * @param rotationPolicy the {@link RotationPolicy} to be applied
+     * @param flushPolicy    the {@link FlushPolicy} for the segments' writers
+     * @param factory        the {@link Factory} creating the segments' writers
+     * @param listener       the {@link Listener} notified about the closed segments (can be null)
+     * @throws IOException if the segment cannot be opened
+     */
+    RotatingLogFileWriter(@NonNull File logsDirectory, @NonNull String process, @NonNull RotationPolicy rotationPolicy,
+                          @NonNull FlushPolicy flushPolicy, @NonNull Factory factory,
+                          @Nullable Listener listener) throws IOException {
+        this.logsDirectory = logsDirectory;
+        this.process = process;
+        this.rotationPolicy = rotationPolicy;
+        this.flushPolicy = flushPolicy;
+        this.factory = factory;
+        this.listener = listener;
+
+        final long nowMillis = System.currentTimeMillis();
+        final String day = formatDay(nowMillis);
+        final int lastIndex = LogSegmentFiles.getLastSegmentIndex(logsDirectory, day, process);
+        int index = Math.max(0, lastIndex);
+
+        final File lastSegmentFile = getSegmentFile(day, index);
+        final long maxSegmentBytes = rotationPolicy.getMaxSegmentBytes();
+        if (lastIndex >= 0 && !lastSegmentFile.exists()) {
+            // the last segment was already compressed
+            ++index;
+        } else if (maxSegmentBytes > 0 && lastSegmentFile.length() >= maxSegmentBytes) {
+            ++index;
+        }
+
+        currentSegment = openSegment(day, index, nowMillis);
+    }
+
+    /**
+     * @param record the {@link LogRecord} to be appended to the log
+     * @throws IOException if encoding or writing the record failed
+     */
+    void write(@NonNull LogRecord record) throws IOException {
+        Segment segment = switchToPreparedSegment();
+
+        while (true) {
+            try {
+                if (segment.encoder.isThreadSafe()) {
+                    writeToSegment(segment, record);
+                } else {
+                    synchronized (segment) {
+                        writeToSegment(segment, record);
+                    }
+                }
+                return;
+            } catch (IOException e) {
+                final Segment latestSegment = currentSegment;
+                if (latestSegment == segment) {
+                    throw e;
+                }
+                // the segment was closed by a concurrent switch; retry on the new one
+                segment = latestSegment;
+            }
+        }
+    }
+
+    private void writeToSegment(@NonNull Segment segment, @NonNull LogRecord record) throws IOException {
+        final LogTimeIndex timeIndex = segment.timeIndex;
+        final boolean isIndexed = timeIndex != null && timeIndex.isDue(record.timestampMillis, segment.bytesCount.get());
+        if (isIndexed) {
+            segment.encoder.startSyncPoint();
+        }
+
+        final EncodedRecordBuffer recordBuffer = recordBuffers.get();
+        recordBuffer.reset();
+        segment.encoder.encode(record, recordBuffer);
+        final int recordLength = recordBuffer.size();
+
+        if (shouldRollover(segment, recordLength, record.timestampMillis)) {
+            requestRollover(segment, record.timestampMillis);
+        }
+
+        final long recordOffset = segment.writer.write(recordBuffer.getBuffer(), 0, recordLength, record.logLevel, record.timestampMillis);
+        segment.bytesCount.addAndGet(recordLength);
+        if (isIndexed) {
+            timeIndex.add(record.timestampMillis, recordOffset);
+        }
+    }
+
+    /**
+     * Pushes the records kept in memory to the current segment
+     *
+     * @throws IOException if writing to the file failed
+     */
+    void flush() throws IOException {
+        currentSegment.writer.flush();
+    }
+
+    /**
+     * Same as {@link RotatingLogFileWriter#flush()} but only if the {@link FlushPolicy} says so
+     *
+     * @throws IOException if writing to the file failed
+     */
+    void flushIfExpired() throws IOException {
+        currentSegment.writer.flushIfExpired();
+    }
+
+    /**
+     * Makes sure the records written so far reach the storage device (see
+     * {@link ILogFileWriter#force()}), including the ones from a segment which is being closed in
+     * background. Like {@link RotatingLogFileWriter#flush()}, this only covers the records which
+     * are not kept in memory anymore.
+     *
+     * @throws IOException if syncing the file failed
+     */
+    void force() throws IOException {
+        final Segment segment = currentSegment;
+        final Segment previousSegment = closingSegment;
+        if (previousSegment != null) {
+            // the segments are synced before being closed
+            awaitClosed(previousSegment);
+        }
+
+        try {
+            segment.writer.force();
+        } catch (IOException e) {
+            if (segment == currentSegment) {
+                throw e;
+            }
+            // the segment was switched out and it's being synced and closed in background
+            awaitClosed(segment);
+        }
+    }
+
+    /**
+     * Stops the background thread and closes the current segment
+     *
+     * @throws IOException if writing to or closing the file failed
+     */
+    void close() throws IOException {
+        rolloverExecutor.shutdown();
+        try {
+            rolloverExecutor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final Segment unusedSegment = preparedSegment.getAndSet(null);
+        if (unusedSegment != null) {
+            closeQuietly(unusedSegment);
+            final File unusedFile = unusedSegment.writer.getFile();
+            if (unusedFile.length() == 0 && !unusedFile.delete()) {
+                Log.w(JeefoLogger.TAG_LIBRARY_LOG, "Failed to delete the unused log segment " + unusedFile.getName());
+            }
+            final File unusedIndexFile = LogTimeIndex.getIndexFile(unusedFile);
+            if (unusedIndexFile.length() == 0) {
+                //noinspection ResultOfMethodCallIgnored
+                unusedIndexFile.delete();
+            }
+        }
+
+        final Segment segment = currentSegment;
+        if (segment.timeIndex != null) {
+            segment.timeIndex.close();
+        }
+        segment.writer.close();
+    }
+
+    /**
+     * @param flushPolicy the {@link FlushPolicy} to be used from now on
+     */
+    void setFlushPolicy(@NonNull FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        currentSegment.writer.setFlushPolicy(flushPolicy);
+    }
+
+    /**
+     * @return whether {@link RotatingLogFileWriter#write(LogRecord)} can be called by multiple
+     * threads at the same time (the other methods still need to be serialized)
+     */
+    boolean supportsConcurrentWrites() {
+        return currentSegment.writer.supportsConcurrentWrites();
+    }
+
+    /**
+     * @return the segment currently written
+     */
+    @NonNull
+    File getFile() {
+        return currentSegment.writer.getFile();
+    }
+
+    /**
+     * @return the number of bytes in the segment currently written (unlike the length of the
+     * file, this excludes the space some writers reserve ahead)
+     */
+    long getBytesCount() {
+        return currentSegment.bytesCount.get();
+    }
+
+    /**
+     * @return the segment to be written; the prepared one if the background thread finished
+     * opening it
+     */
+    @NonNull
+    private Segment switchToPreparedSegment() {
+        final Segment segment = currentSegment;
+        final Segment nextSegment = preparedSegment.get();
+
+        if (nextSegment == null || !preparedSegment.compareAndSet(nextSegment, null)) {
+            return segment;
+        }
+
+        nextSegment.writer.setFlushPolicy(flushPolicy);
+        // set before switching so whoever sees the new segment also sees the closing one
+        closingSegment = segment;
+        currentSegment = nextSegment;
+        isRolloverPending.set(false);
+
+        rolloverExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly(segment);
+                if (closingSegment == segment) {
+                    closingSegment = null;
+                }
+                if (listener != null) {
+                    listener.onSegmentClosed(segment.writer.getFile());
+                }
+            }
+        });
+        return nextSegment;
+    }
+
+    private boolean shouldRollover(@NonNull Segment segment, int recordLength, long timestampMillis) {
+        final long maxSegmentBytes = rotationPolicy.getMaxSegmentBytes();
+        final long bytesCount = segment.bytesCount.get();
+
+        return (maxSegmentBytes > 0 && bytesCount > 0 && bytesCount + recordLength > maxSegmentBytes)
+                || (rotationPolicy.isRolloverAtMidnight() && timestampMillis >= segment.endMillis);
+    }
+
+    /**
+     * Asks the background thread to open the next segment (unless that's already happening)
+     */
+    private void requestRollover(@NonNull final Segment segment, final long timestampMillis) {
+        if (timestampMillis < nextRolloverAttemptMillis || !isRolloverPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            rolloverExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (segment != currentSegment) {
+                        // stale request made by a thread which was still writing the old segment
+                        isRolloverPending.set(false);
+                        return;
+                    }
+
+                    try {
+                        final String day = formatDay(timestampMillis);
+                        final int index = day.equals(segment.day)
+                                ? segment.index + 1
+                                : LogSegmentFiles.getLastSegmentIndex(logsDirectory, day, process) + 1;
+
+                        preparedSegment.set(openSegment(day, index, timestampMillis));
+                    } catch (Exception e) {
+                        Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to open the next log segment: " + e.getMessage());
+                        nextRolloverAttemptMillis = System.currentTimeMillis() + FAILED_ROLLOVER_BACK_OFF_MILLIS;
+                        isRolloverPending.set(false);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            // the writer is closing
+            isRolloverPending.set(false);
+        }
+    }
+
+    @NonNull
+    private Segment openSegment(@NonNull String day, int index, long timestampMillis) throws IOException {
+        final File segmentFile = getSegmentFile(day, index);
+        // some writers (e.g. memory mapped) grow the file ahead so the length is taken beforehand
+        final long segmentLength = segmentFile.length();
+        final ILogFileWriter writer = factory.create(segmentFile, flushPolicy);
+        final LogTimeIndex timeIndex;
+        try {
+            timeIndex = factory.createTimeIndex(segmentFile);
+        } catch (IOException e) {
+            writer.close();
+            throw e;
+        }
+        return new Segment(writer, factory.createEncoder(segmentLength == 0), timeIndex,
+                day, index, getNextMidnightMillis(timestampMillis), segmentLength);
+    }
+
+    @NonNull
+    private File getSegmentFile(@NonNull String day, int index) {
+        return new File(logsDirectory, LogSegmentFiles.getSegmentName(day, process, index, factory.getSegmentExtension()));
+    }
+
+    private static void closeQuietly(@Nullable Segment segment) {
+        if (segment == null) {
+            return;
+        }
+
+        try {
+            segment.writer.flush();
+            segment.writer.force();
+            segment.writer.close();
+        } catch (Exception e) {
+            Log.e(JeefoLogger.TAG_LIBRARY_LOG, "Failed to close the log segment: " + e.getMessage());
+        } finally {
+            if (segment.timeIndex != null) {
+                segment.timeIndex.close();
+            }
+            segment.closedLatch.countDown();
+        }
+    }
+
+    private static void awaitClosed(@NonNull Segment segment) {
+        try {
+            segment.closedLatch.await(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @NonNull
+    private static String formatDay(long timestampMillis) {
+        return new SimpleDateFormat(LogSegmentFiles.DAY_PATTERN, Locale.UK).format(new Date(timestampMillis));
+    }
+
+    private static long getNextMidnightMillis(long timestampMillis) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestampMillis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+}
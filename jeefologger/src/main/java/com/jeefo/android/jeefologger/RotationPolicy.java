@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Decides when the persistent logger closes the current log file (segment) and starts a new one.
+ * <p>
+ * The checks are made for every record, but they only compare a couple of numbers; closing the
+ * old segment and opening the new one happens on a background thread.
+ * </p>
+ * <p>
+ * <b>NOTE:</b> The default policy ({@link RotationPolicy#DAILY}) starts a new segment at midnight
+ * and never limits the size or the number of segments.
+ * </p>
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class RotationPolicy {
+
+    /**
+     * One segment per day, with no size or count limit
+     */
+    public static final RotationPolicy DAILY = new Builder().build();
+
+    private final long maxSegmentBytes;
+    private final boolean rolloverAtMidnight;
+    private final int maxSegmentCount;
+
+    private RotationPolicy(@NonNull Builder builder) {
+        this.maxSegmentBytes = builder.maxSegmentBytes;
+        this.rolloverAtMidnight = builder.rolloverAtMidnight;
+        this.maxSegmentCount = builder.maxSegmentCount;
+    }
+
+    /**
+     * @return the maximum size of a segment in bytes; 0 if unlimited
+     */
+    public long getMaxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    /**
+     * @return whether a new segment is started at midnight
+     */
+    public boolean isRolloverAtMidnight() {
+        return rolloverAtMidnight;
+    }
+
+    /**
+     * @return the maximum number of segments kept in the logs directory; 0 if unlimited
+     */
+    public int getMaxSegmentCount() {
+        return maxSegmentCount;
+    }
+
+    /**
+     * Builder class for the {@link RotationPolicy}
+     */
+    public static class Builder {
+        private long maxSegmentBytes = 0;
+        private boolean rolloverAtMidnight = true;
+        private int maxSegmentCount = 0;
+
+        /**
+         * <b>NOTE:</b> A segment can get slightly bigger than this as the records keep going to
+         * it while the next segment is being opened in background
+         *
+         * @param maxSegmentBytes the size after which a new segment is started (0 for unlimited)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withMaxSegmentBytes(long maxSegmentBytes) {
+            if (maxSegmentBytes < 0) {
+                throw new IllegalArgumentException("maxSegmentBytes should not be negative");
+            }
+            this.maxSegmentBytes = maxSegmentBytes;
+            return this;
+        }
+
+        /**
+         * @param rolloverAtMidnight whether a new segment should be started at midnight (the
+         *                           default is true)
+         * @return self to allow cascading
+         */
+        public Builder withRolloverAtMidnight(boolean rolloverAtMidnight) {
+            this.rolloverAtMidnight = rolloverAtMidnight;
+            return this;
+        }
+
+        /**
+         * The oldest segments are deleted once there are more than this many of them. The
+         * segment currently written is never deleted. Same as
+         * {@link RetentionPolicy.Builder#withMaxFileCount(int)}; the lower of the two applies.
+         *
+         * @param maxSegmentCount the maximum number of segments kept (0 for unlimited)
+         * @return self to allow cascading
+         * @throws IllegalArgumentException for negative values
+         */
+        public Builder withMaxSegmentCount(int maxSegmentCount) {
+            if (maxSegmentCount < 0) {
+                throw new IllegalArgumentException("maxSegmentCount should not be negative");
+            }
+            this.maxSegmentCount = maxSegmentCount;
+            return this;
+        }
+
+        /**
+         * @return the newly built {@link RotationPolicy}
+         */
+        @NonNull
+        public RotationPolicy build() {
+            return new RotationPolicy(this);
+        }
+    }
+}
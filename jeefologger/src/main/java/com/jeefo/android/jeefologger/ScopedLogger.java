@@ -20,10 +20,6 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.Arrays;
-import java.util.LinkedList;
-
-
 /**
  * Created by Alexandru Iustin Dochioiu on 13/12/17.
  * <p>
@@ -167,13 +163,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Verbose(String messageToLog, Object... args) {
-        try {
-            InternalVerbose(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.v(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Verbose(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.VERBOSE)) {
+            return;
         }
+
+        Verbose(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -184,13 +179,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Verbose(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalVerbose(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.v(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Verbose(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.VERBOSE)) {
+            return;
         }
+
+        Verbose(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -200,13 +194,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Debug(String messageToLog, Object... args) {
-        try {
-            InternalDebug(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.d(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Debug(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.DEBUG)) {
+            return;
         }
+
+        Debug(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -217,13 +210,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Debug(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalDebug(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.d(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Debug(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.DEBUG)) {
+            return;
         }
+
+        Debug(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -233,13 +225,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Info(String messageToLog, Object... args) {
-        try {
-            InternalInfo(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.i(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Info(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.INFO)) {
+            return;
         }
+
+        Info(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -249,13 +240,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Warn(String messageToLog, Object... args) {
-        try {
-            InternalWarn(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.w(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Warn(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WARN)) {
+            return;
         }
+
+        Warn(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -266,13 +256,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Warn(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalWarn(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.w(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Warn(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WARN)) {
+            return;
         }
+
+        Warn(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -282,13 +271,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Error(String messageToLog, Object... args) {
-        try {
-            InternalError(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Error(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
         }
+
+        Error(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -299,13 +287,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Error(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalError(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Error(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
         }
+
+        Error(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -314,13 +301,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param exception the exception to be logged
      */
     @Override
-    public synchronized void Error(Exception exception) {
-        try {
-            InternalError(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, " ");
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, ""));
+    public void Error(Exception exception) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
         }
+
+        Error(LogCallContext.capture(), exception);
     }
 
     /**
@@ -330,13 +316,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Wtf(String messageToLog, Object... args) {
-        try {
-            InternalWtf(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Wtf(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
         }
+
+        Wtf(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -347,13 +332,12 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Wtf(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalWtf(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, " " + messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Wtf(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
         }
+
+        Wtf(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -362,20 +346,27 @@ public class ScopedLogger extends AbstractScopedLogger {
      * @param exception the exception to be logged
      */
     @Override
-    public synchronized void Wtf(Exception exception) {
-        try {
-            InternalWtf(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, " ");
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "ScopedLogger"));
-            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, ""));
+    public void Wtf(Exception exception) {
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
         }
+
+        Wtf(LogCallContext.capture(), exception);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    String getMessageLogPrefix() {
+    String getMessageLogPrefix(@NonNull LogCallContext context) {
         return getLoggingPrefix();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    String getMessageStart() {
+        return " ";
+    }
 }
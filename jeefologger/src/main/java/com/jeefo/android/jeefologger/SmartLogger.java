@@ -16,13 +16,10 @@
 
 package com.jeefo.android.jeefologger;
 
-
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.Arrays;
-import java.util.LinkedList;
-
 /**
  * Created by Alexandru Iustin Dochioiu on 5/27/2018
  * <p>
@@ -119,18 +116,14 @@ class SmartLogger extends AbstractScopedLogger {
      * {@inheritDoc}
      */
     @Override
-    String getMessageLogPrefix() {
-
-        final String methodName = SmartLoggerUtils.getMethodsName(fullClientClassName, traceElements);
-        StringBuilder messageLogPrefix = new StringBuilder();
-        messageLogPrefix.append(getLoggingPrefix());
-
-        if (!methodName.equals("")) {
-            messageLogPrefix.append("[").append(TAG_KEY_METHOD).append(" ").append(methodName).append("]");
+    String getMessageLogPrefix(@NonNull LogCallContext context) {
+        String methodTag = SmartLoggerUtils.getMethodTag(fullClientClassName, context.getTraceElements());
+        if (methodTag.length() == 0 && context.isCallSite()) {
+            // the instrumented call was made by another class (e.g. through a ScopedLogger), so the
+            // methods of the client class are further down the stack
+            methodTag = SmartLoggerUtils.getMethodTag(fullClientClassName, context.getThreadStackTrace());
         }
-
-        messageLogPrefix.append(" ");
-        return messageLogPrefix.toString();
+        return getLoggingPrefix() + methodTag + " ";
     }
 
     /**
@@ -141,12 +134,11 @@ class SmartLogger extends AbstractScopedLogger {
      */
     @Override
     public void Verbose(String messageToLog, Object... args) {
-        try {
-            InternalVerbose(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.v(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        if (!FinalLogger.isLoggable(LogLevel.VERBOSE)) {
+            return;
         }
+
+        Verbose(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -157,12 +149,11 @@ class SmartLogger extends AbstractScopedLogger {
      */
     @Override
     public void Verbose(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalVerbose(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.v(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+        if (!FinalLogger.isLoggable(LogLevel.VERBOSE)) {
+            return;
         }
+
+        Verbose(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -172,13 +163,12 @@ class SmartLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Debug(String messageToLog, Object... args) {
-        try {
-            InternalDebug(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.d(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Debug(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.DEBUG)) {
+            return;
         }
+
+        Debug(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -189,13 +179,12 @@ class SmartLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Debug(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalDebug(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.d(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Debug(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.DEBUG)) {
+            return;
         }
+
+        Debug(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -205,13 +194,12 @@ class SmartLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Info(String messageToLog, Object... args) {
-        try {
-            InternalInfo(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.i(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Info(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.INFO)) {
+            return;
         }
+
+        Info(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -221,13 +209,12 @@ class SmartLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Warn(String messageToLog, Object... args) {
-        try {
-            InternalWarn(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.w(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Warn(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WARN)) {
+            return;
         }
+
+        Warn(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -238,13 +225,12 @@ class SmartLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Warn(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalWarn(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.w(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Warn(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.WARN)) {
+            return;
         }
+
+        Warn(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -254,13 +240,12 @@ class SmartLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Error(String messageToLog, Object... args) {
-        try {
-            InternalError(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+    public void Error(String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
         }
+
+        Error(LogCallContext.capture(), messageToLog, args);
     }
 
     /**
@@ -271,13 +256,12 @@ class SmartLogger extends AbstractScopedLogger {
      * @param args         arguments for messageToLog
      */
     @Override
-    public synchronized void Error(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalError(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+    public void Error(Exception exception, String messageToLog, Object... args) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
         }
+
+        Error(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     /**
@@ -286,42 +270,38 @@ class SmartLogger extends AbstractScopedLogger {
      * @param exception the exception to be logged
      */
     @Override
-    public synchronized void Error(Exception exception) {
-        try {
-            InternalError(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, "");
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.e(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, ""));
+    public void Error(Exception exception) {
+        if (!FinalLogger.isLoggable(LogLevel.ERROR)) {
+            return;
         }
+
+        Error(LogCallContext.capture(), exception);
     }
 
     @Override
     public void Wtf(String messageToLog, Object... args) {
-        try {
-            InternalWtf(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(null, messageToLog, args));
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
         }
+
+        Wtf(LogCallContext.capture(), messageToLog, args);
     }
 
     @Override
     public void Wtf(Exception exception, String messageToLog, Object... args) {
-        try {
-            InternalWtf(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, messageToLog, args);
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, messageToLog, args));
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
         }
+
+        Wtf(LogCallContext.capture(), exception, messageToLog, args);
     }
 
     @Override
     public void Wtf(Exception exception) {
-        try {
-            InternalWtf(new LinkedList<>(Arrays.asList(Thread.currentThread().getStackTrace())), exception, "");
-        } catch (Exception libraryException) {
-            Log.wtf(JeefoLogger.TAG_LIBRARY_LOG, StringUtils.getFormattedMessage(libraryException, "SmartLogger"));
-            Log.wtf(FinalLogger.TAG_LOGGING_PREFIX, StringUtils.getFormattedMessage(exception, ""));
+        if (!FinalLogger.isLoggable(LogLevel.WTF)) {
+            return;
         }
+
+        Wtf(LogCallContext.capture(), exception);
     }
 }
@@ -19,69 +19,121 @@ package com.jeefo.android.jeefologger;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Locale;
-
 /**
  * Created by Alexandru Iustin Dochioiu on 5/27/2018
  */
 class SmartLoggerUtils {
-
+    private static final int MAX_CACHED_CALL_SITES = 1024;
+    private static final CallSiteCache methodTags = new CallSiteCache(MAX_CACHED_CALL_SITES);
 
     /**
-     * Queries a {@link List} of {@link StackTraceElement} for the first sequence of a class (sequance
-     * because we are interested in the methods chaining inside the class)
+     * Finds the methods of a class in the stack trace (see
+     * {@link SmartLoggerUtils#findCallSiteEnd(String, StackTraceElement[], int)}) and renders
+     * them as the "[Method ...]" tag. The tag is rendered once per call site and then taken from
+     * a cache keyed by the frames it was rendered from.
      *
-     * @param className the full name (with package) of the class we are looking for in the trace list
-     * @param elements the {@link LinkedList} of {@link StackTraceElement} to be inspected
-     * @return the methods name for the first sequence of a given class or empty string if the class never
-     *          occurred in the list
+     * @param className the full name (with package) of the class we are looking for in the trace
+     * @param elements  the stack trace to be inspected
+     * @return the "[Method ...]" tag or empty string if the class never occurred in the trace
      */
     @NonNull
-    static String getMethodsName(String className, @Nullable LinkedList<StackTraceElement> elements) {
+    static String getMethodTag(@NonNull String className, @Nullable StackTraceElement[] elements) {
         if (elements == null) {
             return "";
         }
 
-        String methodName = "";
-        boolean foundMethod = false;
+        int start = 0;
+        while (start < elements.length && !isClassFrame(className, elements[start])) {
+            ++start;
+        }
+        if (start == elements.length) {
+            return "";
+        }
 
-        while (elements.size() > 0) {
-            String elementClassName = elements.getFirst().getClassName();
-            String anonymousHostClassName = null;
+        final int end = findCallSiteEnd(className, elements, start);
+        final CallSiteCache.Key callSite = methodTags.getLookupKey();
+        for (int index = start; index < end; ++index) {
+            callSite.add(elements[index]);
+        }
 
-            if (elementClassName.contains("$")) {
-                // that generally means it's an anonymous class such as runnable
-                anonymousHostClassName = elementClassName.substring(0, elementClassName.indexOf('$'));
+        String methodTag = methodTags.get(callSite);
+        if (methodTag == null) {
+            methodTag = "[" + AbstractScopedLogger.TAG_KEY_METHOD + " " + getMethodsName(elements, start, end) + "]";
+            methodTags.put(callSite, methodTag);
+        }
+        return methodTag;
+    }
+
+    /**
+     * Finds the end of the first sequence of a class in the stack trace (sequence because we are
+     * interested in the methods chaining inside the class): the method calling the logger and the
+     * method of the same class calling it (if any). The frame following a method of an anonymous
+     * class (such as a runnable) is part of the sequence as well, as it tells where it was called.
+     *
+     * @param className the full name (with package) of the class we are looking for in the trace
+     * @param elements  the stack trace to be inspected
+     * @param start     the index of the first frame of the class
+     * @return the index after the last frame of the sequence
+     */
+    private static int findCallSiteEnd(@NonNull String className, @NonNull StackTraceElement[] elements, int start) {
+        int end = start;
+        for (int methodsCount = 0; methodsCount < 2; ++methodsCount) {
+            if (end >= elements.length || !isClassFrame(className, elements[end])) {
+                break;
             }
+            end += isAnonymousClassFrame(elements[end]) ? 2 : 1;
+        }
+        return Math.min(end, elements.length);
+    }
 
-            if (className.compareTo(elementClassName) == 0 || (anonymousHostClassName != null && className.compareTo(anonymousHostClassName) == 0)) {
-                if (!foundMethod) {
-                    methodName = elements.getFirst().getMethodName();
-                } else {
-                    methodName = String.format(Locale.UK, "%s#%s", elements.getFirst().getMethodName(), methodName);
-                }
-                elements.removeFirst();
-
-                if (anonymousHostClassName != null) {
-                    methodName = String.format(Locale.UK, "%s <- %s#%s()", methodName, getClassNameFromFileName(elements.getFirst().getFileName()), elements.getFirst().getMethodName());
-                    elements.removeFirst();
-                }
-
-                if (!foundMethod) {
-                    foundMethod = true;
-                    continue; // to avoid removing another stack trace element
-                }
+    /**
+     * @param elements the stack trace
+     * @param start    the index of the first frame of the call site
+     * @param end      the index after the last frame of the call site
+     * @return the methods name of the call site such as "outerMethod#method" or
+     * "run &lt;- Host#method()" for an anonymous class
+     */
+    @NonNull
+    private static String getMethodsName(@NonNull StackTraceElement[] elements, int start, int end) {
+        final StringBuilder methodsName = new StringBuilder();
+        int index = start;
+        while (index < end) {
+            if (index == start) {
+                methodsName.append(elements[index].getMethodName());
+            } else {
+                methodsName.insert(0, '#').insert(0, elements[index].getMethodName());
             }
 
-            if (foundMethod) {
-                break;
+            if (isAnonymousClassFrame(elements[index]) && index + 1 < end) {
+                final StackTraceElement hostElement = elements[index + 1];
+                methodsName.append(" <- ").append(getClassNameFromFileName(hostElement.getFileName()))
+                        .append('#').append(hostElement.getMethodName()).append("()");
+                ++index;
             }
-            elements.removeFirst();
+            ++index;
         }
+        return methodsName.toString();
+    }
+
+    /**
+     * @param className the full name (with package) of a class
+     * @param element   a frame of the stack trace
+     * @return whether the frame belongs to the class or to an anonymous class defined in it
+     */
+    private static boolean isClassFrame(@NonNull String className, @NonNull StackTraceElement element) {
+        final String elementClassName = element.getClassName();
+        if (className.equals(elementClassName)) {
+            return true;
+        }
+        // the host of an anonymous class is the name before the first '$'
+        return className.indexOf('$') < 0
+                && elementClassName.length() > className.length()
+                && elementClassName.charAt(className.length()) == '$'
+                && elementClassName.startsWith(className);
+    }
 
-        return methodName;
+    private static boolean isAnonymousClassFrame(@NonNull StackTraceElement element) {
+        return element.getClassName().indexOf('$') >= 0;
     }
 
     /**
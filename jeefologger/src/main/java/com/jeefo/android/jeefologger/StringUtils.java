@@ -44,6 +44,25 @@ class StringUtils {
      * will be ignored.
      */
     static String getFormattedMessage(@Nullable Exception ex, @Nullable String message, Object... args) {
+        final String formattedMessage = formatTemplate(message, args);
+
+        // If there's an exception, log its message
+        if (ex != null) {
+            return formattedMessage + getExceptionSuffix(ex);
+        }
+        return formattedMessage;
+    }
+
+    /**
+     * Same as {@link StringUtils#getFormattedMessage(Exception, String, Object...)} but without
+     * the exception message
+     *
+     * @param message the message containing placeholders
+     * @param args    the {@link Object} arguments to replace the placeholders
+     * @return the formatted string message
+     */
+    @NonNull
+    static String formatTemplate(@Nullable String message, Object... args) {
         StringBuilder formattedMessage = new StringBuilder();
 
         if (message != null && !message.equals("")) {
@@ -62,12 +81,42 @@ class StringUtils {
                 appendArgsAtEndOfString(formattedMessage, args);
             }
         }
+        return formattedMessage.toString();
+    }
 
-        // If there's an exception, log its message
-        if (ex != null) {
-            formattedMessage.append(" :: ").append(ex.getMessage());
+    /**
+     * @param ex the exception whose message will be logged
+     * @return the text appended to the formatted message for the exception
+     */
+    @NonNull
+    static String getExceptionSuffix(@NonNull Exception ex) {
+        return " :: " + ex.getMessage();
+    }
+
+    /**
+     * Takes a snapshot of the arguments so they can be formatted later (possibly on another
+     * thread). Only the immutable values (strings, boxed primitives and characters) can be kept:
+     * any other argument (e.g. a {@link java.util.Date} or a {@link java.math.BigDecimal}) is
+     * formatted differently by its conversion than by its toString() value, so the message has to
+     * be formatted right away.
+     *
+     * @param args the arguments of a log message
+     * @return a new array with the captured arguments or null if any of them cannot be captured
+     */
+    @Nullable
+    static Object[] captureArgs(@NonNull Object[] args) {
+        final Object[] capturedArgs = new Object[args.length];
+        for (int index = 0; index < args.length; ++index) {
+            final Object arg = args[index];
+            if (arg == null || arg instanceof String || arg instanceof Integer || arg instanceof Long
+                    || arg instanceof Double || arg instanceof Float || arg instanceof Boolean
+                    || arg instanceof Short || arg instanceof Byte || arg instanceof Character) {
+                capturedArgs[index] = arg;
+            } else {
+                return null;
+            }
         }
-        return formattedMessage.toString();
+        return capturedArgs;
     }
 
     /**
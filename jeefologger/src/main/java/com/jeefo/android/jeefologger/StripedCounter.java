@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for events happening on many threads at once (like java.util.concurrent.atomic.LongAdder,
+ * which is not available on the older Android versions). Every thread increments one of several
+ * cells, each on its own cache line, so the threads rarely compete for the same one; reading the
+ * value sums all the cells.
+ */
+final class StripedCounter {
+    // 8 longs = 64 bytes, the usual size of a cache line
+    private static final int CELL_SPACING = 8;
+    private static final int MAX_CELLS_COUNT = 64;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int cellsCount = 1;
+        final int wantedCount = Math.min(MAX_CELLS_COUNT, 2 * Runtime.getRuntime().availableProcessors());
+        while (cellsCount < wantedCount) {
+            cellsCount <<= 1;
+        }
+
+        cells = new AtomicLongArray(cellsCount * CELL_SPACING);
+        mask = cellsCount - 1;
+    }
+
+    /**
+     * Thread-safe and lock-free
+     */
+    void increment() {
+        // the threads ids are usually consecutive, so they are spread over the cells
+        final long threadId = Thread.currentThread().getId();
+        final int cell = (int) ((threadId * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        cells.getAndIncrement(cell * CELL_SPACING);
+    }
+
+    /**
+     * @return the number of increments so far; the ones happening meanwhile may be left out
+     */
+    long sum() {
+        long sum = 0;
+        for (int cell = 0; cell <= mask; ++cell) {
+            sum += cells.get(cell * CELL_SPACING);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a POSIX (ustar) tar archive: a 512 bytes header before every file, the content padded to
+ * a multiple of 512 bytes and two empty blocks at the end.
+ */
+class TarLogArchiveWriter extends LogArchiveWriter {
+    private static final int BLOCK_SIZE = 512;
+    private static final int MAX_NAME_LENGTH = 100;
+    // 11 octal digits
+    private static final long MAX_SIZE = 077777777777L;
+
+    private final byte[] block = new byte[BLOCK_SIZE];
+
+    TarLogArchiveWriter(@NonNull WritableByteChannel output) {
+        super(output);
+    }
+
+    @Override
+    void writeEntryHeader(@NonNull String name, long modifiedMillis, long size, long crc32) throws IOException {
+        final byte[] nameBytes = name.getBytes("UTF-8");
+        if (nameBytes.length > MAX_NAME_LENGTH) {
+            throw new IOException("The file name is too long for a tar archive: " + name);
+        }
+        if (size > MAX_SIZE) {
+            throw new IOException("The file is too large for a tar archive: " + name);
+        }
+
+        final byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, Math.max(0, modifiedMillis / 1000));
+        // a regular file
+        header[156] = '0';
+        putAscii(header, 257, "ustar\u0000" + "00");
+
+        // the checksum is computed with its own field filled with spaces
+        putAscii(header, 148, "        ");
+        long checksum = 0;
+        for (byte headerByte : header) {
+            checksum += headerByte & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+
+        write(ByteBuffer.wrap(header));
+    }
+
+    @Override
+    void writeEntryEnd(long size) throws IOException {
+        final int paddingLength = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+        if (paddingLength > 0) {
+            write(ByteBuffer.wrap(block, 0, paddingLength));
+        }
+    }
+
+    @Override
+    void writeArchiveEnd() throws IOException {
+        write(ByteBuffer.wrap(block));
+        write(ByteBuffer.wrap(block));
+    }
+
+    /**
+     * Writes the value as zero-padded octal digits followed by a NUL byte
+     */
+    private static void putOctal(@NonNull byte[] header, int offset, int length, long value) {
+        long remainingValue = value;
+        header[offset + length - 1] = 0;
+        for (int index = offset + length - 2; index >= offset; --index) {
+            header[index] = (byte) ('0' + (remainingValue & 7));
+            remainingValue >>>= 3;
+        }
+    }
+
+    private static void putAscii(@NonNull byte[] header, int offset, @NonNull String value) {
+        for (int index = 0; index < value.length(); ++index) {
+            header[offset + index] = (byte) value.charAt(index);
+        }
+    }
+}
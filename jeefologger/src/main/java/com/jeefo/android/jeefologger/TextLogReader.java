@@ -0,0 +1,357 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+
+/**
+ * Reads the records of a text segment ("yyyy/MM/dd HH:mm:ss TYPE/[TAGS]message" lines, see
+ * {@link TextLogRecordEncoder}). The time can have any of the {@link PersistenceTimestamp} layouts
+ * and the lines which do not start with a time continue the message of the record before them.
+ * <p>
+ * The time and the level of every record are parsed straight from the bytes and checked against
+ * the {@link LogQuery} first; the tag and text filters are matched against the bytes as well, so
+ * only the matching records are turned into strings.
+ * </p>
+ */
+class TextLogReader implements ILogSegmentReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[][] LEVEL_NAMES = new byte[LogLevel.NONE][];
+
+    static {
+        for (int logLevel = 0; logLevel < LogLevel.NONE; ++logLevel) {
+            //noinspection ConstantConditions
+            LEVEL_NAMES[logLevel] = LogRecord.getLevelName(logLevel).getBytes();
+        }
+    }
+
+    @NonNull
+    private final InputStream input;
+    @NonNull
+    private final LogQuery query;
+    private final Calendar calendar = Calendar.getInstance();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition = 0;
+    private int bufferLength = 0;
+    private boolean isFinished = false;
+
+    // the record being read and the line read ahead (the start of the next record)
+    private byte[] recordBytes = new byte[256];
+    private int recordLength = 0;
+    private byte[] lineBytes = new byte[256];
+    private int lineLength = 0;
+    private boolean hasPendingLine = false;
+    private long recordTimeMillis = 0;
+    private boolean isRecordTimeTruncated = true;
+
+    // the layout of the time of the line parsed last
+    private boolean isParsedTimeTruncated = true;
+    private int parsedBodyStart = 0;
+
+    // the time of the hour parsed last, reused while the records are logged in the same hour
+    private long cachedHourKey = -1;
+    private long cachedHourMillis = 0;
+
+    /**
+     * @param input the raw (already decompressed) content of the text segment, positioned at the
+     *              start of a line; closed along with this reader
+     * @param query the {@link LogQuery} the records must match
+     */
+    TextLogReader(@NonNull InputStream input, @NonNull LogQuery query) {
+        this.input = input;
+        this.query = query;
+    }
+
+    @Nullable
+    @Override
+    public String readNext() throws IOException {
+        if (!readMatchingRecord()) {
+            return null;
+        }
+
+        final int length = recordLength > 0 && recordBytes[recordLength - 1] == '\n' ? recordLength - 1 : recordLength;
+        return new String(recordBytes, 0, length, "UTF-8");
+    }
+
+    @Override
+    public boolean skipNext() throws IOException {
+        return readMatchingRecord();
+    }
+
+    @Override
+    public long getRecordTimeMillis() {
+        return recordTimeMillis;
+    }
+
+    @Override
+    public boolean isRecordTimeTruncated() {
+        return isRecordTimeTruncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Reads the next matching record into recordBytes
+     *
+     * @return false if there's no matching record left
+     */
+    private boolean readMatchingRecord() throws IOException {
+        while (true) {
+            if (!hasPendingLine && !readLine()) {
+                return false;
+            }
+            hasPendingLine = false;
+
+            final long timeMillis = parseTime(lineBytes, lineLength);
+            if (timeMillis == Long.MIN_VALUE) {
+                // the rest of a record which started before the reading position
+                continue;
+            }
+            final boolean isTimeTruncated = isParsedTimeTruncated;
+            final int bodyStart = parsedBodyStart;
+
+            // the record is made of this line and the following ones which do not start with a time
+            final byte[] firstLine = lineBytes;
+            lineBytes = recordBytes;
+            recordBytes = firstLine;
+            recordLength = lineLength;
+            while (readLine()) {
+                if (parseTime(lineBytes, lineLength) != Long.MIN_VALUE) {
+                    hasPendingLine = true;
+                    break;
+                }
+                appendLineToRecord();
+            }
+
+            if (query.isPastEnd(timeMillis)) {
+                isFinished = true;
+                hasPendingLine = false;
+                return false;
+            }
+            final boolean matchesTime = isTimeTruncated ? query.matchesSecond(timeMillis) : query.matchesTime(timeMillis);
+            if (matchesTime && matchesLevelTagsAndText(bodyStart)) {
+                recordTimeMillis = timeMillis;
+                isRecordTimeTruncated = isTimeTruncated;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param timeEnd the position after the time and the space following it
+     */
+    private boolean matchesLevelTagsAndText(int timeEnd) {
+        int bodyStart = timeEnd;
+        int logLevel = LogLevel.NONE;
+        for (int level = 0; level < LEVEL_NAMES.length; ++level) {
+            if (startsWithType(timeEnd, LEVEL_NAMES[level])) {
+                logLevel = level;
+                bodyStart += LEVEL_NAMES[level].length + 1;
+                break;
+            }
+        }
+        if (!query.matchesLevel(logLevel)) {
+            return false;
+        }
+
+        final byte[] tagBytes = query.getTagBytes();
+        final byte[] textBytes = query.getTextBytes();
+        if (tagBytes == null && textBytes == null) {
+            return true;
+        }
+
+        // the filters only look at the tags and the message
+        if (tagBytes != null && !LogQuery.contains(recordBytes, bodyStart, LogQuery.getTagsEnd(recordBytes, bodyStart, recordLength), tagBytes)) {
+            return false;
+        }
+        return textBytes == null || LogQuery.contains(recordBytes, bodyStart, recordLength, textBytes);
+    }
+
+    /**
+     * @return whether the record continues with the given level name followed by '/'
+     */
+    private boolean startsWithType(int typeStart, @NonNull byte[] levelName) {
+        final int typeEnd = typeStart + levelName.length;
+        if (recordLength <= typeEnd || recordBytes[typeEnd] != '/') {
+            return false;
+        }
+        for (int index = 0; index < levelName.length; ++index) {
+            if (recordBytes[typeStart + index] != levelName[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the time at the start of the line, along with its layout (isParsedTimeTruncated and
+     * parsedBodyStart)
+     *
+     * @return the time of the line (to the second if it has no milliseconds);
+     * {@link Long#MIN_VALUE} if the line does not start with a time
+     */
+    private long parseTime(@NonNull byte[] line, int length) {
+        final int secondsEnd = TimestampEncoder.SECONDS_LENGTH;
+        if (length <= secondsEnd || line[4] != '/' || line[7] != '/' || line[10] != ' '
+                || line[13] != ':' || line[16] != ':') {
+            return Long.MIN_VALUE;
+        }
+
+        // ".SSS" and " +123ns" are optional (see PersistenceTimestamp)
+        int millis = 0;
+        int timeEnd = secondsEnd;
+        isParsedTimeTruncated = true;
+        if (line[timeEnd] == '.' && length > timeEnd + 4) {
+            millis = parseNumber(line, timeEnd + 1, 3);
+            if (millis < 0) {
+                return Long.MIN_VALUE;
+            }
+            timeEnd += 4;
+            isParsedTimeTruncated = false;
+        }
+        timeEnd = skipMonotonicTime(line, length, timeEnd);
+        if (line[timeEnd] != ' ') {
+            return Long.MIN_VALUE;
+        }
+        parsedBodyStart = timeEnd + 1;
+
+        final int year = parseNumber(line, 0, 4);
+        final int month = parseNumber(line, 5, 2);
+        final int day = parseNumber(line, 8, 2);
+        final int hour = parseNumber(line, 11, 2);
+        final int minute = parseNumber(line, 14, 2);
+        final int second = parseNumber(line, 17, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return Long.MIN_VALUE;
+        }
+
+        // the offset from UTC only changes on whole hours, so the minutes and the seconds are added
+        final long hourKey = ((year * 100L + month) * 100L + day) * 100L + hour;
+        if (hourKey != cachedHourKey) {
+            calendar.clear();
+            calendar.set(year, month - 1, day, hour, 0, 0);
+            cachedHourMillis = calendar.getTimeInMillis();
+            cachedHourKey = hourKey;
+        }
+        return cachedHourMillis + minute * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * @param timeEnd the position after the wall clock time
+     * @return the position after the " +123ns" monotonic time following it; timeEnd if there's none
+     */
+    private static int skipMonotonicTime(@NonNull byte[] line, int length, int timeEnd) {
+        if (timeEnd + 2 >= length || line[timeEnd] != ' ' || line[timeEnd + 1] != '+') {
+            return timeEnd;
+        }
+
+        int position = timeEnd + 2;
+        while (position < length && line[position] >= '0' && line[position] <= '9') {
+            ++position;
+        }
+        if (position == timeEnd + 2 || position + 2 >= length || line[position] != 'n' || line[position + 1] != 's') {
+            return timeEnd;
+        }
+        return position + 2;
+    }
+
+    /**
+     * @return the number or -1 if the bytes are not all digits
+     */
+    private static int parseNumber(@NonNull byte[] line, int start, int length) {
+        int value = 0;
+        for (int index = start; index < start + length; ++index) {
+            final int digit = line[index] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private void appendLineToRecord() {
+        if (recordBytes.length < recordLength + lineLength) {
+            final byte[] newBytes = new byte[Math.max(recordLength + lineLength, recordBytes.length * 2)];
+            System.arraycopy(recordBytes, 0, newBytes, 0, recordLength);
+            recordBytes = newBytes;
+        }
+        System.arraycopy(lineBytes, 0, recordBytes, recordLength, lineLength);
+        recordLength += lineLength;
+    }
+
+    /**
+     * Reads the next line (including its terminator) into lineBytes
+     *
+     * @return false if there's no line left; a zero byte (the padding of the memory mapped
+     * segments) ends the data
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        while (!isFinished) {
+            if (bufferPosition == bufferLength) {
+                bufferLength = input.read(buffer, 0, buffer.length);
+                bufferPosition = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    isFinished = true;
+                    break;
+                }
+            }
+
+            int lineEnd = bufferPosition;
+            while (lineEnd < bufferLength && buffer[lineEnd] != '\n' && buffer[lineEnd] != 0) {
+                ++lineEnd;
+            }
+
+            final boolean isZero = lineEnd < bufferLength && buffer[lineEnd] == 0;
+            final boolean isLineEnd = lineEnd < bufferLength && buffer[lineEnd] == '\n';
+            final int copiedEnd = isLineEnd ? lineEnd + 1 : lineEnd;
+            appendToLine(buffer, bufferPosition, copiedEnd - bufferPosition);
+            bufferPosition = copiedEnd;
+
+            if (isZero) {
+                isFinished = true;
+                break;
+            }
+            if (isLineEnd) {
+                return true;
+            }
+        }
+        return lineLength > 0;
+    }
+
+    private void appendToLine(@NonNull byte[] source, int start, int length) {
+        if (lineBytes.length < lineLength + length) {
+            final byte[] newBytes = new byte[Math.max(lineLength + length, lineBytes.length * 2)];
+            System.arraycopy(lineBytes, 0, newBytes, 0, lineLength);
+            lineBytes = newBytes;
+        }
+        System.arraycopy(source, start, lineBytes, lineLength, length);
+        lineLength += length;
+    }
+}
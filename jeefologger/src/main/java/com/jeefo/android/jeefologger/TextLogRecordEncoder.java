@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Encodes the {@link LogRecord}s as the plain text lines of the log file:
+ * "yyyy/MM/dd HH:mm:ss TYPE/[TAGS]message" (the time as set by the {@link PersistenceTimestamp})
+ * <p>
+ * The encoder only caches the rendered time (see {@link TimestampEncoder}), so it can be used by
+ * multiple threads at the same time.
+ * </p>
+ */
+class TextLogRecordEncoder implements ILogRecordEncoder {
+    @NonNull
+    private final TimestampEncoder timestampEncoder;
+
+    /**
+     * Creates an encoder writing the time to the second ({@link PersistenceTimestamp#SECONDS})
+     */
+    TextLogRecordEncoder() {
+        this(PersistenceTimestamp.SECONDS);
+    }
+
+    /**
+     * @param timestampPrecision the {@link PersistenceTimestamp} of the time in front of the lines
+     */
+    TextLogRecordEncoder(@PersistenceTimestamp int timestampPrecision) {
+        this.timestampEncoder = new TimestampEncoder(timestampPrecision);
+    }
+
+    /**
+     * Appends the UTF-8 bytes of the log line, including the line terminator. The parts of the
+     * line are written one after the other, without joining them in a String first.
+     *
+     * @param record the {@link LogRecord} to be encoded
+     * @param output the buffer the line is appended to
+     */
+    @Override
+    public void encode(@NonNull LogRecord record, @NonNull EncodedRecordBuffer output) {
+        final int timestampOffset = output.reserve(timestampEncoder.getLength(record));
+        timestampEncoder.encode(record, output.getBuffer(), timestampOffset);
+
+        if (record.type != null) {
+            output.writeUtf8(record.type);
+            output.write('/');
+            output.writeUtf8(record.tagsPrefix);
+        }
+        output.writeUtf8(record.getFormattedMessage());
+        output.write('\n');
+    }
+
+    /**
+     * Nothing to do as every line stands on its own
+     */
+    @Override
+    public void startSyncPoint() {
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Writes the time in front of the text log lines (see {@link PersistenceTimestamp}) straight into
+ * the line's bytes.
+ * <p>
+ * The "yyyy/MM/dd HH:mm:ss" part is rendered once per second and reused by all the records logged
+ * in the same second; the milliseconds and the monotonic time are appended digit by digit. So,
+ * unlike a {@link java.text.SimpleDateFormat}, nothing is allocated for most of the records.
+ * </p>
+ * <p>
+ * The encoder can be used by multiple threads at the same time.
+ * </p>
+ */
+final class TimestampEncoder {
+    // "yyyy/MM/dd HH:mm:ss"
+    static final int SECONDS_LENGTH = 19;
+
+    /**
+     * The rendered second, replaced as a whole so the threads always see a consistent pair
+     */
+    private static final class RenderedSecond {
+        final long secondMillis;
+        @NonNull
+        final byte[] bytes;
+
+        RenderedSecond(long secondMillis, @NonNull byte[] bytes) {
+            this.secondMillis = secondMillis;
+            this.bytes = bytes;
+        }
+    }
+
+    @PersistenceTimestamp
+    private final int precision;
+    private final Calendar calendar = Calendar.getInstance();
+    private volatile RenderedSecond renderedSecond = new RenderedSecond(Long.MIN_VALUE, new byte[0]);
+
+    /**
+     * @param precision the {@link PersistenceTimestamp} of the written time
+     */
+    TimestampEncoder(@PersistenceTimestamp int precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * @param record the {@link LogRecord} whose time is encoded
+     * @return the number of bytes {@link TimestampEncoder#encode(LogRecord, byte[], int)} writes,
+     * including the space after the time
+     */
+    int getLength(@NonNull LogRecord record) {
+        switch (precision) {
+            case PersistenceTimestamp.MONOTONIC_NANOS:
+                // " +" and "ns"
+                return SECONDS_LENGTH + 4 + 4 + getDigitsCount(Math.max(0, record.monotonicNanos)) + 1;
+            case PersistenceTimestamp.MILLISECONDS:
+                return SECONDS_LENGTH + 4 + 1;
+            case PersistenceTimestamp.SECONDS:
+            default:
+                return SECONDS_LENGTH + 1;
+        }
+    }
+
+    /**
+     * Writes the time of the record, followed by a space
+     *
+     * @param record      the {@link LogRecord} whose time is encoded
+     * @param destination the bytes the time is written to
+     * @param offset      the position of the time in the destination
+     * @return the position after the written bytes
+     */
+    int encode(@NonNull LogRecord record, @NonNull byte[] destination, int offset) {
+        final long timestampMillis = record.timestampMillis;
+        final int millis = (int) (((timestampMillis % 1000) + 1000) % 1000);
+        final long secondMillis = timestampMillis - millis;
+
+        RenderedSecond second = renderedSecond;
+        if (second.secondMillis != secondMillis) {
+            second = render(secondMillis);
+            renderedSecond = second;
+        }
+        System.arraycopy(second.bytes, 0, destination, offset, SECONDS_LENGTH);
+        int position = offset + SECONDS_LENGTH;
+
+        if (precision == PersistenceTimestamp.MILLISECONDS || precision == PersistenceTimestamp.MONOTONIC_NANOS) {
+            destination[position] = '.';
+            position = putDigits(destination, position + 1, millis, 3);
+        }
+        if (precision == PersistenceTimestamp.MONOTONIC_NANOS) {
+            destination[position++] = ' ';
+            destination[position++] = '+';
+            final long monotonicNanos = Math.max(0, record.monotonicNanos);
+            position = putDigits(destination, position, monotonicNanos, getDigitsCount(monotonicNanos));
+            destination[position++] = 'n';
+            destination[position++] = 's';
+        }
+
+        destination[position++] = ' ';
+        return position;
+    }
+
+    /**
+     * @return "yyyy/MM/dd HH:mm:ss" in the current time zone
+     */
+    @NonNull
+    private RenderedSecond render(long secondMillis) {
+        final byte[] bytes = new byte[SECONDS_LENGTH];
+        synchronized (calendar) {
+            // the time zone can be changed while the app runs
+            calendar.setTimeZone(TimeZone.getDefault());
+            calendar.setTimeInMillis(secondMillis);
+            putDigits(bytes, 0, calendar.get(Calendar.YEAR), 4);
+            bytes[4] = '/';
+            putDigits(bytes, 5, calendar.get(Calendar.MONTH) + 1, 2);
+            bytes[7] = '/';
+            putDigits(bytes, 8, calendar.get(Calendar.DAY_OF_MONTH), 2);
+            bytes[10] = ' ';
+            putDigits(bytes, 11, calendar.get(Calendar.HOUR_OF_DAY), 2);
+            bytes[13] = ':';
+            putDigits(bytes, 14, calendar.get(Calendar.MINUTE), 2);
+            bytes[16] = ':';
+            putDigits(bytes, 17, calendar.get(Calendar.SECOND), 2);
+        }
+        return new RenderedSecond(secondMillis, bytes);
+    }
+
+    /**
+     * Writes the zero-padded decimal digits of a non-negative value
+     *
+     * @return the position after the digits
+     */
+    private static int putDigits(@NonNull byte[] destination, int offset, long value, int digitsCount) {
+        long remainingValue = value;
+        for (int index = offset + digitsCount - 1; index >= offset; --index) {
+            destination[index] = (byte) ('0' + remainingValue % 10);
+            remainingValue /= 10;
+        }
+        return offset + digitsCount;
+    }
+
+    private static int getDigitsCount(long value) {
+        int digitsCount = 1;
+        long remainingValue = value / 10;
+        while (remainingValue > 0) {
+            ++digitsCount;
+            remainingValue /= 10;
+        }
+        return digitsCount;
+    }
+}
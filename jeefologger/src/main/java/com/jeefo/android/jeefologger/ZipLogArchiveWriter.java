@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Writes a ZIP archive whose entries are stored without compression, so the content of the log
+ * files (already compressed or not) can be copied as it is. Only the central directory (about 50
+ * bytes per entry) is kept in memory until the archive ends.
+ */
+class ZipLogArchiveWriter extends LogArchiveWriter {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final short VERSION = 10;
+    // the names are UTF-8
+    private static final short FLAGS = 0x0800;
+    private static final short METHOD_STORED = 0;
+    // the limits of the ZIP format without the ZIP64 extensions
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES_COUNT = 0xFFFF;
+
+    private static final class CentralEntry {
+        final byte[] name;
+        final int dosTime;
+        final long size;
+        final long crc32;
+        final long localHeaderOffset;
+
+        CentralEntry(byte[] name, int dosTime, long size, long crc32, long localHeaderOffset) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.size = size;
+            this.crc32 = crc32;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private final List<CentralEntry> entries = new ArrayList<>();
+    private final Calendar calendar = Calendar.getInstance();
+
+    ZipLogArchiveWriter(@NonNull WritableByteChannel output) {
+        super(output);
+    }
+
+    @Override
+    void writeEntryHeader(@NonNull String name, long modifiedMillis, long size, long crc32) throws IOException {
+        final long offset = getWrittenBytesCount();
+        if (size > MAX_SIZE || offset + size > MAX_SIZE || entries.size() == MAX_ENTRIES_COUNT) {
+            throw new IOException("The logs are too large for a ZIP archive");
+        }
+
+        final CentralEntry entry = new CentralEntry(name.getBytes("UTF-8"), getDosTime(modifiedMillis), size, crc32, offset);
+        final ByteBuffer header = ByteBuffer.allocate(30 + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort(VERSION)
+                .putShort(FLAGS)
+                .putShort(METHOD_STORED)
+                .putInt(entry.dosTime)
+                .putInt((int) crc32)
+                .putInt((int) size)
+                .putInt((int) size)
+                .putShort((short) entry.name.length)
+                .putShort((short) 0)
+                .put(entry.name);
+        header.flip();
+        write(header);
+        entries.add(entry);
+    }
+
+    @Override
+    void writeEntryEnd(long size) {
+        // the sizes and the checksum are already in the header
+    }
+
+    @Override
+    void writeArchiveEnd() throws IOException {
+        final long centralDirectoryOffset = getWrittenBytesCount();
+        for (CentralEntry entry : entries) {
+            final ByteBuffer header = ByteBuffer.allocate(46 + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIGNATURE)
+                    .putShort(VERSION)
+                    .putShort(VERSION)
+                    .putShort(FLAGS)
+                    .putShort(METHOD_STORED)
+                    .putInt(entry.dosTime)
+                    .putInt((int) entry.crc32)
+                    .putInt((int) entry.size)
+                    .putInt((int) entry.size)
+                    .putShort((short) entry.name.length)
+                    // extra field, comment, disk number, internal and external attributes
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putInt(0)
+                    .putInt((int) entry.localHeaderOffset)
+                    .put(entry.name);
+            header.flip();
+            write(header);
+        }
+
+        final long centralDirectorySize = getWrittenBytesCount() - centralDirectoryOffset;
+        if (getWrittenBytesCount() > MAX_SIZE) {
+            throw new IOException("The logs are too large for a ZIP archive");
+        }
+
+        final ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) entries.size())
+                .putShort((short) entries.size())
+                .putInt((int) centralDirectorySize)
+                .putInt((int) centralDirectoryOffset)
+                .putShort((short) 0);
+        end.flip();
+        write(end);
+    }
+
+    /**
+     * @return the time in the MS-DOS format used by the ZIP archives (local time, 2 seconds
+     * precision, 1980 at the earliest): the date in the high 16 bits and the time in the low ones
+     */
+    private int getDosTime(long timeMillis) {
+        calendar.setTimeInMillis(timeMillis);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // 1980/01/01 00:00:00
+            return (1 << 5 | 1) << 16;
+        }
+
+        final int date = (year - 1980) << 9 | (calendar.get(Calendar.MONTH) + 1) << 5 | calendar.get(Calendar.DAY_OF_MONTH);
+        final int time = calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) / 2;
+        return date << 16 | time;
+    }
+}
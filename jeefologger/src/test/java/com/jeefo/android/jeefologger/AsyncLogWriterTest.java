@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The writer thread is started only after the ring buffer was filled (or held back by a slow
+ * target) so the records dropped by each {@link BackPressureMode} are known exactly
+ */
+public class AsyncLogWriterTest {
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void block_waitsForAFreeSlotAndLosesNothing() throws InterruptedException {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget(0);
+        final AsyncLogWriter writer = newWriter(4, target, BackPressurePolicy.BLOCK, droppedRecords);
+        writer.start();
+
+        final AtomicBoolean isEnqueued = new AtomicBoolean(false);
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int index = 0; index < 10; ++index) {
+                    writer.enqueue(newRecord(index, LogLevel.INFO));
+                }
+                isEnqueued.set(true);
+            }
+        };
+        producer.start();
+        // the target holds the first record so the producer blocks on the full buffer
+        awaitState(producer, Thread.State.TIMED_WAITING);
+        assertFalse(isEnqueued.get());
+
+        target.release();
+        producer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        assertTrue(isEnqueued.get());
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+
+        assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]", target.getMessages().toString());
+        assertEquals(0, droppedRecords.sum());
+        assertEquals("[]", target.getDropReports().toString());
+    }
+
+    @Test
+    public void block_dropsTheRecordWhenTheTimeoutRunsOut() {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget();
+        final BackPressurePolicy policy = new BackPressurePolicy.Builder().withBlockTimeout(50).build();
+        final AsyncLogWriter writer = newWriter(4, target, policy, droppedRecords);
+
+        fill(writer, 4);
+        final long startNanos = System.nanoTime();
+        assertTrue(writer.enqueue(newRecord(4, LogLevel.ERROR)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) >= 50);
+        assertEquals(1, droppedRecords.sum());
+
+        writer.start();
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        assertEquals("[0, 1, 2, 3]", target.getMessages().toString());
+        assertEquals("[1]", target.getDropReports().toString());
+    }
+
+    @Test
+    public void dropNewest_dropsTheRecordsWhichDoNotFit() {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget();
+        final AsyncLogWriter writer = newWriter(4, target, BackPressurePolicy.DROP_NEWEST, droppedRecords);
+
+        fill(writer, 7);
+        assertEquals(3, droppedRecords.sum());
+
+        writer.start();
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        assertEquals("[0, 1, 2, 3]", target.getMessages().toString());
+        assertEquals("[3]", target.getDropReports().toString());
+    }
+
+    @Test
+    public void dropOldest_discardsTheOldestQueuedRecords() throws InterruptedException {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget();
+        final AsyncLogWriter writer = newWriter(4, target, BackPressurePolicy.DROP_OLDEST, droppedRecords);
+        fill(writer, 4);
+
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                writer.enqueue(newRecord(4, LogLevel.INFO));
+            }
+        };
+        producer.start();
+        // the discard request is placed before the producer waits for a free slot
+        awaitState(producer, Thread.State.TIMED_WAITING);
+
+        writer.start();
+        producer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+
+        assertEquals("[1, 2, 3, 4]", target.getMessages().toString());
+        assertEquals(1, droppedRecords.sum());
+        assertEquals("[1]", target.getDropReports().toString());
+    }
+
+    @Test
+    public void dropOldest_givesTheDiscardRequestBackWhenTheTimeoutRunsOut() {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget();
+        final BackPressurePolicy policy = new BackPressurePolicy.Builder()
+                .withMode(BackPressureMode.DROP_OLDEST)
+                .withBlockTimeout(20)
+                .build();
+        final AsyncLogWriter writer = newWriter(4, target, policy, droppedRecords);
+
+        fill(writer, 6);
+        // only the records which timed out are dropped, none of the queued ones
+        assertEquals(2, droppedRecords.sum());
+
+        writer.start();
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        assertEquals("[0, 1, 2, 3]", target.getMessages().toString());
+        assertEquals(2, droppedRecords.sum());
+        assertEquals("[2]", target.getDropReports().toString());
+    }
+
+    @Test
+    public void dropBelowLevel_keepsTheImportantRecordsAboveTheHighWaterMark() {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget();
+        final BackPressurePolicy policy = new BackPressurePolicy.Builder()
+                .withMode(BackPressureMode.DROP_BELOW_LEVEL)
+                .withMinKeptLevel(LogLevel.WARN)
+                .withBlockTimeout(20)
+                .build();
+        // the high-water mark of a buffer of 8 is 6 records
+        final AsyncLogWriter writer = newWriter(8, target, policy, droppedRecords);
+
+        fill(writer, 6);
+        assertTrue(writer.enqueue(newRecord(6, LogLevel.INFO)));
+        assertEquals(1, droppedRecords.sum());
+        assertTrue(writer.enqueue(newRecord(7, LogLevel.WARN)));
+        assertTrue(writer.enqueue(newRecord(8, LogLevel.DEBUG)));
+        assertTrue(writer.enqueue(newRecord(9, LogLevel.ERROR)));
+        assertEquals(2, droppedRecords.sum());
+        // the buffer is full so even the important records wait and then get dropped
+        assertTrue(writer.enqueue(newRecord(10, LogLevel.ERROR)));
+        assertEquals(3, droppedRecords.sum());
+
+        writer.start();
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        assertEquals("[0, 1, 2, 3, 4, 5, 7, 9]", target.getMessages().toString());
+        assertEquals("[3]", target.getDropReports().toString());
+    }
+
+    @Test
+    public void droppedRecords_areReportedOnceWithTheTotal() throws InterruptedException {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget(0);
+        final AsyncLogWriter writer = newWriter(16, target, BackPressurePolicy.DROP_NEWEST, droppedRecords);
+        writer.start();
+
+        // the target holds the first record while the storm fills the buffer
+        fill(writer, 1000);
+        target.release();
+        assertTrue(writer.awaitDrained(SHUTDOWN_TIMEOUT_MILLIS));
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+
+        final int writtenCount = target.getMessages().size();
+        assertEquals(1000, writtenCount + droppedRecords.sum());
+        assertTrue(writtenCount >= 16);
+        assertEquals("[" + droppedRecords.sum() + "]", target.getDropReports().toString());
+    }
+
+    @Test
+    public void enqueue_failsOnceTheWriterIsStopped() {
+        final StripedCounter droppedRecords = new StripedCounter();
+        final SlowTarget target = new SlowTarget();
+        final AsyncLogWriter writer = newWriter(4, target, BackPressurePolicy.BLOCK, droppedRecords);
+
+        fill(writer, 4);
+        writer.start();
+        writer.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        assertFalse(writer.isRunning());
+
+        fill(writer, 4);
+        assertFalse(writer.enqueue(newRecord(4, LogLevel.INFO)));
+        assertEquals(0, droppedRecords.sum());
+    }
+
+    @NonNull
+    private static AsyncLogWriter newWriter(int capacity, @NonNull SlowTarget target, @NonNull BackPressurePolicy policy,
+                                            @NonNull StripedCounter droppedRecords) {
+        return new AsyncLogWriter(new LogRecordRingBuffer(capacity), target, new Object(), 0, policy, droppedRecords);
+    }
+
+    private static void fill(@NonNull AsyncLogWriter writer, int count) {
+        for (int index = 0; index < count; ++index) {
+            assertTrue(writer.enqueue(newRecord(index, LogLevel.INFO)));
+        }
+    }
+
+    @NonNull
+    private static LogRecord newRecord(int index, @LogLevel int logLevel) {
+        final LogRecord record = new LogRecord();
+        record.set(index, logLevel, null, "", String.valueOf(index));
+        return record;
+    }
+
+    private static void awaitState(@NonNull Thread thread, @NonNull Thread.State state) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+        while (thread.getState() != state) {
+            assertTrue("thread state " + thread.getState(), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Collects the messages and the drop reports; it can hold back the record at a given position
+     * until released, like a target stuck on a slow disk
+     */
+    private static class SlowTarget implements AsyncLogWriter.Target {
+        private final List<String> messages = new ArrayList<>();
+        private final List<Long> dropReports = new ArrayList<>();
+        private final CountDownLatch releaseLatch = new CountDownLatch(1);
+        private final int heldRecordIndex;
+
+        SlowTarget() {
+            this(-1);
+        }
+
+        SlowTarget(int heldRecordIndex) {
+            this.heldRecordIndex = heldRecordIndex;
+        }
+
+        void release() {
+            releaseLatch.countDown();
+        }
+
+        @Override
+        public void onRecord(@NonNull LogRecord record) {
+            if (messages.size() == heldRecordIndex) {
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                messages.add(record.message);
+            }
+        }
+
+        @Override
+        public void onIdle() {
+        }
+
+        @Override
+        public void onStopped() {
+        }
+
+        @Override
+        public synchronized void onRecordsDropped(long droppedCount) {
+            dropReports.add(droppedCount);
+        }
+
+        @NonNull
+        synchronized List<String> getMessages() {
+            return new ArrayList<>(messages);
+        }
+
+        @NonNull
+        synchronized List<Long> getDropReports() {
+            return new ArrayList<>(dropReports);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryLogRecordEncoderTest {
+    private static final long START_MILLIS = 1531612800000L;
+
+    @Test
+    public void decodedSegment_matchesTheTextLines() throws IOException {
+        final List<LogRecord> records = createRecords(2000);
+
+        final byte[] binary = encode(new BinaryLogRecordEncoder(true), records);
+        final byte[] text = encode(new TextLogRecordEncoder(), records);
+
+        assertArrayEquals(text, readFully(new BinaryLogInputStream(new ByteArrayInputStream(binary))));
+        // the repeated tags, prefixes and templates are only written once
+        assertTrue("binary " + binary.length + " vs text " + text.length, binary.length * 2 < text.length);
+    }
+
+    @Test
+    public void decodedSegment_matchesTheTextLinesAfterSyncPoints() throws IOException {
+        final List<LogRecord> records = createRecords(300);
+        final BinaryLogRecordEncoder encoder = new BinaryLogRecordEncoder(true);
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        int syncPointOffset = -1;
+
+        for (int index = 0; index < records.size(); ++index) {
+            if (index == 200) {
+                encoder.startSyncPoint();
+                syncPointOffset = binary.size();
+            }
+            buffer.reset();
+            encoder.encode(records.get(index), buffer);
+            binary.write(buffer.getBuffer(), 0, buffer.size());
+        }
+
+        assertArrayEquals(encode(new TextLogRecordEncoder(), records),
+                readFully(new BinaryLogInputStream(new ByteArrayInputStream(binary.toByteArray()))));
+
+        // a sync point can be read without the records before it
+        final byte[] all = binary.toByteArray();
+        final InputStream fromSyncPoint = new ByteArrayInputStream(all, syncPointOffset, all.length - syncPointOffset);
+        assertArrayEquals(encode(new TextLogRecordEncoder(), records.subList(200, records.size())),
+                readFully(new BinaryLogInputStream(fromSyncPoint, false, Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void deferredFormatting_readsTheSameAsTheEagerFormatting() throws IOException {
+        final Object[][] messages = {
+                {"year %tY", new Date(0)},
+                {"grouped %,d", new BigInteger("12345678901234567890")},
+                {"rounded %.2f", new BigDecimal("3.14159")},
+                {"int %d long %d string %s double %.3f char %c bool %b null %s", 7, 1L << 40, "text", 2.5, 'c', true, null},
+                {"mixed %s %tY %d", "text", new Date(0), 3},
+                {"not a number %d", "text"},
+                {"missing %s %s", "one"},
+                {"no placeholders", 1},
+        };
+
+        final List<LogRecord> eagerRecords = new ArrayList<>();
+        final List<LogRecord> deferredRecords = new ArrayList<>();
+        for (int index = 0; index < messages.length; ++index) {
+            final String template = (String) messages[index][0];
+            final Object[] args = new Object[messages[index].length - 1];
+            System.arraycopy(messages[index], 1, args, 0, args.length);
+            final Exception exception = index % 2 == 0 ? null : new IOException("disk full");
+
+            final LogRecord eagerRecord = new LogRecord();
+            PersistentLogger.setRecord(eagerRecord, START_MILLIS + index, LogLevel.INFO, "[tag]", exception, template, args, false);
+            eagerRecords.add(eagerRecord);
+            final LogRecord deferredRecord = new LogRecord();
+            PersistentLogger.setRecord(deferredRecord, START_MILLIS + index, LogLevel.INFO, "[tag]", exception, template, args, true);
+            deferredRecords.add(deferredRecord);
+        }
+
+        final byte[] eager = readFully(new BinaryLogInputStream(new ByteArrayInputStream(
+                encode(new BinaryLogRecordEncoder(true), eagerRecords))));
+        final byte[] deferred = readFully(new BinaryLogInputStream(new ByteArrayInputStream(
+                encode(new BinaryLogRecordEncoder(true), deferredRecords))));
+
+        assertEquals(new String(eager, "UTF-8"), new String(deferred, "UTF-8"));
+        assertArrayEquals(encode(new TextLogRecordEncoder(), eagerRecords), deferred);
+        // the messages whose arguments can all be captured are still formatted when read
+        assertNotNull(deferredRecords.get(3).template);
+        assertNull(deferredRecords.get(0).template);
+        assertNull(deferredRecords.get(4).template);
+    }
+
+    @Test(expected = IOException.class)
+    public void decoding_failsWithoutTheMagic() throws IOException {
+        readFully(new BinaryLogInputStream(new ByteArrayInputStream("2018/07/15 00:00:00 INFO/text\n".getBytes("UTF-8"))));
+    }
+
+    @NonNull
+    static List<LogRecord> createRecords(int count) {
+        final String[] levelNames = {"VERBOSE", "DEBUG", "INFO", "WARN", "ERROR", "WTF"};
+        final List<LogRecord> records = new ArrayList<>();
+
+        final LogRecord sessionRecord = new LogRecord();
+        sessionRecord.set(START_MILLIS, LogLevel.NONE, null, "", "Session Started");
+        records.add(sessionRecord);
+
+        for (int index = 0; index < count; ++index) {
+            final LogRecord record = new LogRecord();
+            final int logLevel = index % levelNames.length;
+            final long timestampMillis = START_MILLIS + index * 377L;
+            final String tags = index % 3 == 0 ? "" : "[user bob][session " + (index / 100) + "]";
+            final String prefix = "[Class Activity" + (index % 4) + "][Method onCreate] ";
+
+            switch (index % 4) {
+                case 0:
+                    record.set(timestampMillis, logLevel, levelNames[logLevel], tags, prefix + "plain message " + index);
+                    break;
+                case 1:
+                    record.set(timestampMillis, logLevel, levelNames[logLevel], tags,
+                            prefix + "\u00fcber \u4e2d\u6587 \ud83d\ude00 multi\nline " + index);
+                    break;
+                case 2:
+                    record.setDeferred(timestampMillis, logLevel, levelNames[logLevel], tags,
+                            prefix + "int %d long %d string %s bool %s char %s double %s null %s",
+                            new Object[]{index, (long) index << 33, "k" + (index % 11), index % 2 == 0, 'x', index / 8.0, null}, null);
+                    break;
+                default:
+                    record.setDeferred(timestampMillis, logLevel, levelNames[logLevel], tags,
+                            prefix + "failed %s", new Object[]{"step " + index}, " :: java.io.IOException: disk full");
+                    break;
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    @NonNull
+    static byte[] encode(@NonNull ILogRecordEncoder encoder, @NonNull List<LogRecord> records) throws IOException {
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (LogRecord record : records) {
+            buffer.reset();
+            encoder.encode(record, buffer);
+            output.write(buffer.getBuffer(), 0, buffer.size());
+        }
+        return output.toByteArray();
+    }
+
+    @NonNull
+    static byte[] readFully(@NonNull InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        try {
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CallSiteCacheTest {
+
+    @Test
+    public void get_findsThePrefixByTheFrames() {
+        final CallSiteCache cache = new CallSiteCache(1024);
+        cache.put(key(cache, 1, 2), "[prefix]");
+
+        assertEquals("[prefix]", cache.get(key(cache, 1, 2)));
+        assertNull(cache.get(key(cache, 2, 1)));
+        assertNull(cache.get(key(cache, 1)));
+    }
+
+    @Test
+    public void put_copiesTheLookupKey() {
+        final CallSiteCache cache = new CallSiteCache(1024);
+        final CallSiteCache.Key lookupKey = key(cache, 1, 2);
+        cache.put(lookupKey, "[prefix]");
+
+        // the lookup key is reused for the next call site
+        lookupKey.add(frame(3));
+
+        assertEquals("[prefix]", cache.get(key(cache, 1, 2)));
+    }
+
+    @Test
+    public void put_clearsTheCacheWhenFull() {
+        final CallSiteCache cache = new CallSiteCache(1024);
+        for (int site = 0; site < 1024; ++site) {
+            cache.put(key(cache, site), "[site " + site + "]");
+        }
+        for (int site = 0; site < 1024; ++site) {
+            assertEquals("[site " + site + "]", cache.get(key(cache, site)));
+        }
+
+        cache.put(key(cache, 1024), "[site 1024]");
+
+        assertNull(cache.get(key(cache, 0)));
+        assertNull(cache.get(key(cache, 1023)));
+        assertEquals("[site 1024]", cache.get(key(cache, 1024)));
+    }
+
+    @Test
+    public void key_growsPastItsInitialCapacity() {
+        final CallSiteCache cache = new CallSiteCache(1024);
+        final int[] lines = new int[100];
+        for (int index = 0; index < lines.length; ++index) {
+            lines[index] = index;
+        }
+        cache.put(key(cache, lines), "[deep]");
+
+        assertEquals("[deep]", cache.get(key(cache, lines)));
+    }
+
+    private static CallSiteCache.Key key(CallSiteCache cache, int... lines) {
+        final CallSiteCache.Key key = cache.getLookupKey();
+        for (int line : lines) {
+            key.add(frame(line));
+        }
+        return key;
+    }
+
+    private static StackTraceElement frame(int line) {
+        return new StackTraceElement("com.example.app.MainActivity", "onCreate", "MainActivity.java", line);
+    }
+}
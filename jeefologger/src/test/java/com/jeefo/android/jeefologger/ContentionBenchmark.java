@@ -0,0 +1,270 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the messages per second logged by 1 to 4 threads sharing one {@link SmartLogger}, one
+ * {@link ScopedLogger} wrapping it and the {@link CallSiteLogger} calls made by the instrumented
+ * code, together with the number of times the threads were blocked on a monitor. The messages end
+ * up in a counting {@link IInternalLog}, so the cost of the output is left out, and every message
+ * is checked to carry the method tag of the thread which logged it.
+ * <p>
+ * Run it as a plain java program with the unit test classpath; the optional argument is the
+ * number of messages per thread.
+ * </p>
+ */
+public class ContentionBenchmark {
+    private static final int[] THREADS_COUNTS = {1, 2, 4};
+
+    private interface Worker {
+        void log(int threadIndex, int messagesCount);
+    }
+
+    private final CountingLog countingLog = new CountingLog();
+    // created through a helper, so the SmartLogger finds this class at the same stack depth as
+    // when it is created by the SmartLoggerFactory
+    private final ILog smartLogger = createSmartLogger(countingLog);
+    private final ILog scopedLogger = new ScopedLogger(smartLogger, ContentionBenchmark.class, "run");
+
+    public static void main(String[] args) throws Exception {
+        final int messagesCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        FinalLogger.setLogcatMinLevel(LogLevel.VERBOSE);
+
+        new ContentionBenchmark().run(messagesCount);
+    }
+
+    private static ILog createSmartLogger(IInternalLog logger) {
+        return new SmartLogger(logger, false);
+    }
+
+    private void run(int messagesCount) throws Exception {
+        final Worker smartWorker = new Worker() {
+            @Override
+            public void log(int threadIndex, int messagesCount) {
+                logFromWorkerMethod(smartLogger, threadIndex, messagesCount);
+            }
+        };
+        final Worker scopedWorker = new Worker() {
+            @Override
+            public void log(int threadIndex, int messagesCount) {
+                logFromWorkerMethod(scopedLogger, threadIndex, messagesCount);
+            }
+        };
+        final Worker callSiteWorker = new Worker() {
+            @Override
+            public void log(int threadIndex, int messagesCount) {
+                // created once per call site, as the instrumented classes do
+                final LogCallContext callSite = CallSiteLogger.createCallSite(ContentionBenchmark.class.getName(),
+                        "worker" + threadIndex, "ContentionBenchmark.java", 100 + threadIndex);
+                for (int index = 0; index < messagesCount; ++index) {
+                    CallSiteLogger.Info(smartLogger, "message", null, callSite);
+                }
+            }
+        };
+
+        // warm up
+        run("SmartLogger", smartWorker, 4, messagesCount / 4);
+        run("ScopedLogger", scopedWorker, 4, messagesCount / 4);
+        run("CallSiteLogger", callSiteWorker, 4, messagesCount / 4);
+        countingLog.reset();
+
+        for (int threadsCount : THREADS_COUNTS) {
+            System.out.println(run("SmartLogger", smartWorker, threadsCount, messagesCount));
+            System.out.println(run("ScopedLogger", scopedWorker, threadsCount, messagesCount));
+            System.out.println(run("CallSiteLogger", callSiteWorker, threadsCount, messagesCount));
+        }
+        System.out.println(String.format(Locale.UK, "%d messages, %d without the method tag of their thread",
+                countingLog.messagesCount.get(), countingLog.wrongTagsCount.get()));
+        System.out.println("last message: " + countingLog.lastMessage);
+    }
+
+    // one method per thread, so every thread logs with its own method tag
+    private static void logFromWorkerMethod(ILog logger, int threadIndex, int messagesCount) {
+        switch (threadIndex) {
+            case 0:
+                worker0(logger, messagesCount);
+                break;
+            case 1:
+                worker1(logger, messagesCount);
+                break;
+            case 2:
+                worker2(logger, messagesCount);
+                break;
+            default:
+                worker3(logger, messagesCount);
+                break;
+        }
+    }
+
+    private static void worker0(ILog logger, int messagesCount) {
+        for (int index = 0; index < messagesCount; ++index) {
+            logger.Info("message");
+        }
+    }
+
+    private static void worker1(ILog logger, int messagesCount) {
+        for (int index = 0; index < messagesCount; ++index) {
+            logger.Info("message");
+        }
+    }
+
+    private static void worker2(ILog logger, int messagesCount) {
+        for (int index = 0; index < messagesCount; ++index) {
+            logger.Info("message");
+        }
+    }
+
+    private static void worker3(ILog logger, int messagesCount) {
+        for (int index = 0; index < messagesCount; ++index) {
+            logger.Info("message");
+        }
+    }
+
+    private static String run(String name, final Worker worker, int threadsCount, final int messagesCount) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(threadsCount + 1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Thread[] threads = new Thread[threadsCount];
+        for (int index = 0; index < threadsCount; ++index) {
+            final int threadIndex = index;
+            threads[index] = new Thread("worker" + index) {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                        worker.log(threadIndex, messagesCount);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[index].start();
+        }
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        barrier.await();
+        final long startNanos = System.nanoTime();
+        long blockedCount = 0;
+        for (Thread thread : threads) {
+            // the blocked count is only available while the thread is alive
+            long threadBlockedCount = 0;
+            while (thread.isAlive()) {
+                final ThreadInfo threadInfo = threadBean.getThreadInfo(thread.getId());
+                if (threadInfo != null) {
+                    threadBlockedCount = threadInfo.getBlockedCount();
+                }
+                thread.join(5);
+            }
+            blockedCount += threadBlockedCount;
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return String.format(Locale.UK, "%-16s threads=%d %10.0f messages/s %6d blocked", name, threadsCount,
+                threadsCount * messagesCount / (elapsedNanos / 1e9), blockedCount);
+    }
+
+    /**
+     * Counts the messages and checks that the method tag of each of them ends with the method of
+     * the thread logging it (the threads are named after their methods)
+     */
+    private static class CountingLog implements IInternalLog {
+        private final AtomicLong messagesCount = new AtomicLong();
+        private final AtomicLong wrongTagsCount = new AtomicLong();
+        private volatile String lastMessage;
+
+        void reset() {
+            messagesCount.set(0);
+            wrongTagsCount.set(0);
+        }
+
+        private void log(String messageToLog) {
+            messagesCount.incrementAndGet();
+            if (messageToLog.contains("[Method ")
+                    && !messageToLog.contains(Thread.currentThread().getName() + "]")) {
+                wrongTagsCount.incrementAndGet();
+            }
+            lastMessage = messageToLog;
+        }
+
+        @Override
+        public void InternalVerbose(@NonNull LogCallContext context, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalVerbose(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalDebug(@NonNull LogCallContext context, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalDebug(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalInfo(@NonNull LogCallContext context, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalWarn(@NonNull LogCallContext context, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalWarn(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalError(@NonNull LogCallContext context, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalError(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalWtf(@NonNull LogCallContext context, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+
+        @Override
+        public void InternalWtf(@NonNull LogCallContext context, Exception exception, String messageToLog, Object... args) {
+            log(messageToLog);
+        }
+    }
+}
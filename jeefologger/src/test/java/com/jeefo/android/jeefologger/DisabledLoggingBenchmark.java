@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Measures the time and the memory a message costs when its level is not logged anywhere, for
+ * each kind of logger. Such a message is discarded by the {@link ILog#isLoggable(int)} check
+ * before the stack trace is captured or the message is built.
+ * <p>
+ * Run it as a plain java program with the unit test classpath; the optional argument is the
+ * number of calls per logger.
+ * </p>
+ */
+public class DisabledLoggingBenchmark {
+
+    private interface Call {
+        void run();
+    }
+
+    // created the way the apps create them, as fields
+    private final ILog smartLogger = SmartLoggerFactory.createSmartLogger(false);
+    private final ILog scopedLogger = new ScopedLogger(DisabledLoggingBenchmark.class, false);
+
+    public static void main(String[] args) {
+        final int callsCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        // nothing below WARN is logged: no persistence and no flight recorder
+        FinalLogger.setLogcatMinLevel(LogLevel.WARN);
+        LazyLogger.setPackageName(DisabledLoggingBenchmark.class.getPackage().getName());
+
+        new DisabledLoggingBenchmark().run(callsCount);
+    }
+
+    private void run(int callsCount) {
+        run("SmartLogger.Verbose", callsCount, new Call() {
+            @Override
+            public void run() {
+                smartLogger.Verbose("disabled message");
+            }
+        });
+        run("SmartLogger.Debug with args", callsCount, new Call() {
+            @Override
+            public void run() {
+                smartLogger.Debug("disabled message %s", "argument");
+            }
+        });
+        run("ScopedLogger.Verbose", callsCount, new Call() {
+            @Override
+            public void run() {
+                scopedLogger.Verbose("disabled message");
+            }
+        });
+        run("LazyLogger.Verbose", callsCount, new Call() {
+            @Override
+            public void run() {
+                LazyLogger.Verbose("disabled message");
+            }
+        });
+    }
+
+    private static void run(String name, int callsCount, Call call) {
+        // warm up
+        for (int index = 0; index < callsCount / 10; ++index) {
+            call.run();
+        }
+
+        final long allocatedBefore = getAllocatedBytes();
+        final long startNanos = System.nanoTime();
+        for (int index = 0; index < callsCount; ++index) {
+            call.run();
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long allocatedBytes = getAllocatedBytes() - allocatedBefore;
+
+        System.out.println(String.format(Locale.UK, "%-28s %8.1f ns/call %8.1f bytes/call", name,
+                (double) elapsedNanos / callsCount, allocatedBefore < 0 ? Double.NaN : (double) allocatedBytes / callsCount));
+    }
+
+    /**
+     * @return the bytes allocated by the calling thread so far; -1 if the JVM cannot tell
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the records per second persisted with each {@link PersistenceDurability}, the way the
+ * {@link PersistentLogger} writes them: the records are appended to a {@link ChannelLogFileWriter}
+ * under a lock and the threads needing durability wait on a shared {@link GroupCommitter}. Every
+ * 100th record is an error.
+ * <p>
+ * Run it as a plain java program with the unit test classpath; the optional argument is the
+ * directory the log files are written to (the syncs are only meaningful on a real device or disk).
+ * </p>
+ */
+public class DurabilityBenchmark {
+    private static final int RECORDS_PER_THREAD = 2000;
+    private static final int[] THREADS_COUNTS = {1, 4};
+
+    private final Object lock = new Object();
+    private ChannelLogFileWriter writer;
+    private final GroupCommitter groupCommitter = new GroupCommitter(new GroupCommitter.SyncAction() {
+        @Override
+        public void sync() throws IOException {
+            synchronized (lock) {
+                writer.flush();
+            }
+            writer.force();
+        }
+    }, 0);
+
+    public static void main(String[] args) throws Exception {
+        final File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "jeefo-durability-benchmark");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        for (int threadsCount : THREADS_COUNTS) {
+            new DurabilityBenchmark().run(directory, "NONE", PersistenceDurability.NONE, 0, threadsCount);
+            new DurabilityBenchmark().run(directory, "SYNC_ON_ERROR", PersistenceDurability.SYNC_ON_ERROR, 0, threadsCount);
+            new DurabilityBenchmark().run(directory, "GROUP_COMMIT", PersistenceDurability.GROUP_COMMIT, 0, threadsCount);
+            new DurabilityBenchmark().run(directory, "GROUP_COMMIT, 2 ms window", PersistenceDurability.GROUP_COMMIT, 2, threadsCount);
+        }
+    }
+
+    private void run(File directory, String name, final int durability, long windowMillis, int threadsCount) throws Exception {
+        final File file = new File(directory, "benchmark_Log.txt");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        writer = new ChannelLogFileWriter(file, new FlushPolicy.Builder().flushEveryBytes(64 * 1024).build());
+        groupCommitter.setWindowMillis(windowMillis);
+
+        final TextLogRecordEncoder encoder = new TextLogRecordEncoder();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Thread[] threads = new Thread[threadsCount];
+        for (int index = 0; index < threadsCount; ++index) {
+            threads[index] = new Thread() {
+                @Override
+                public void run() {
+                    final LogRecord record = new LogRecord();
+                    final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+                    try {
+                        for (int sequence = 0; sequence < RECORDS_PER_THREAD; ++sequence) {
+                            final int logLevel = sequence % 100 == 99 ? LogLevel.ERROR : LogLevel.INFO;
+                            record.set(System.currentTimeMillis(), logLevel, LogRecord.getLevelName(logLevel), "",
+                                    "record number " + sequence + " with some payload text");
+                            buffer.reset();
+                            encoder.encode(record, buffer);
+                            synchronized (lock) {
+                                writer.write(buffer.getBuffer(), 0, buffer.size(), logLevel, record.timestampMillis);
+                            }
+
+                            if (durability == PersistenceDurability.GROUP_COMMIT
+                                    || (durability == PersistenceDurability.SYNC_ON_ERROR && logLevel >= LogLevel.ERROR)) {
+                                groupCommitter.commit();
+                            }
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+        }
+
+        final long startNanos = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        writer.close();
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        System.out.println(String.format(Locale.UK, "%-28s threads=%d %10.0f records/s", name, threadsCount,
+                threadsCount * RECORDS_PER_THREAD / (elapsedNanos / 1e9)));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EncodedRecordBufferTest {
+    private static final long TIMESTAMP_MILLIS = 1531650029000L;
+
+    @Test
+    public void textLines_matchTheBaselineBytes() throws UnsupportedEncodingException {
+        final char[] longMessage = new char[EncodedRecordBuffer.INITIAL_CAPACITY * 3];
+        Arrays.fill(longMessage, '\u00e9');
+        final String[] messages = {
+                "plain ASCII message",
+                "caf\u00e9 na\u00efve \u00fcber",
+                "\u65e5\u672c\u8a9e\u306e\u30e1\u30c3\u30bb\u30fc\u30b8",
+                // U+1F600 and U+10FFFF as surrogate pairs
+                "emoji \ud83d\ude00 and \udbff\udfff",
+                "mixed a\u00e9\u4e2d\ud83d\ude00z",
+                new String(longMessage),
+                "",
+        };
+        final TextLogRecordEncoder encoder = new TextLogRecordEncoder();
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+
+        for (String message : messages) {
+            final LogRecord record = new LogRecord();
+            record.set(TIMESTAMP_MILLIS, LogLevel.INFO, "INFO", "[tag\u00e9 \ud83d\ude00] ", message);
+
+            buffer.reset();
+            encoder.encode(record, buffer);
+
+            assertArrayEquals(message, getBaselineLine(record), Arrays.copyOf(buffer.getBuffer(), buffer.size()));
+        }
+    }
+
+    @Test
+    public void writeUtf8_replacesTheUnpairedSurrogates() throws UnsupportedEncodingException {
+        final String[] values = {"lone high \ud83d end", "lone low \ude00 end", "reversed \ude00\ud83d", "\ud83d"};
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+
+        for (String value : values) {
+            buffer.reset();
+            buffer.writeUtf8(value);
+
+            final byte[] expected = value.getBytes("UTF-8");
+            assertArrayEquals(value, expected, Arrays.copyOf(buffer.getBuffer(), buffer.size()));
+            assertEquals(expected.length, EncodedRecordBuffer.getUtf8Length(value, 0, value.length()));
+        }
+    }
+
+    @Test
+    public void writeUtf8_range() throws UnsupportedEncodingException {
+        final String value = "ab\u00e9\ud83d\ude00cd";
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+
+        buffer.writeUtf8(value, 2, 5);
+
+        assertArrayEquals("\u00e9\ud83d\ude00".getBytes("UTF-8"), Arrays.copyOf(buffer.getBuffer(), buffer.size()));
+        assertEquals(6, EncodedRecordBuffer.getUtf8Length(value, 2, 5));
+    }
+
+    @Test
+    public void reset_dropsTheGrownBuffer() {
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+        buffer.reserve(EncodedRecordBuffer.MAX_RETAINED_CAPACITY + 1);
+
+        buffer.reset();
+
+        assertEquals(0, buffer.size());
+        assertEquals(EncodedRecordBuffer.INITIAL_CAPACITY, buffer.getBuffer().length);
+    }
+
+    @Test
+    public void encode_doesNotAllocateInSteadyState() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final TextLogRecordEncoder encoder = new TextLogRecordEncoder(PersistenceTimestamp.MONOTONIC_NANOS);
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+        final LogRecord record = new LogRecord();
+        record.set(TIMESTAMP_MILLIS, LogLevel.INFO, "INFO", "[tag] ", "caf\u00e9 message \ud83d\ude00 of a usual length");
+        final long threadId = Thread.currentThread().getId();
+
+        // warm up, so the time is rendered and the code is compiled
+        encodeRecords(encoder, buffer, record, 200000);
+
+        final int recordsCount = 100000;
+        final long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        encodeRecords(encoder, buffer, record, recordsCount);
+        final long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // a few bytes are allocated by the measurement itself
+        assertTrue(allocatedBytes + " bytes allocated for " + recordsCount + " records", allocatedBytes < 1024);
+    }
+
+    private static void encodeRecords(@NonNull TextLogRecordEncoder encoder, @NonNull EncodedRecordBuffer buffer,
+                                      @NonNull LogRecord record, int recordsCount) {
+        for (int index = 0; index < recordsCount; ++index) {
+            buffer.reset();
+            record.monotonicNanos = index;
+            encoder.encode(record, buffer);
+        }
+    }
+
+    /**
+     * @return the line as the logger wrote it before the records were encoded in place
+     */
+    @NonNull
+    private static byte[] getBaselineLine(@NonNull LogRecord record) throws UnsupportedEncodingException {
+        return (new SimpleDateFormat("yyyy/MM/dd HH:mm:ss ", Locale.UK).format(new Date(record.timestampMillis)) + record.type + "/" +
+                record.tagsPrefix + record.getFormattedMessage() + "\n").getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.jeefo.android.jeefologger.BinaryLogRecordEncoderTest.createRecords;
+import static com.jeefo.android.jeefologger.BinaryLogRecordEncoderTest.encode;
+import static com.jeefo.android.jeefologger.BinaryLogRecordEncoderTest.readFully;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramedLogRecoveryTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void framedRecords_readBackAsTheTextLines() throws IOException {
+        final List<LogRecord> records = createRecords(500);
+        final byte[] framed = encode(new FramedLogRecordEncoder(new TextLogRecordEncoder()), records);
+
+        assertEquals(0xFA, framed[0] & 0xFF);
+        assertArrayEquals(encode(new TextLogRecordEncoder(), records),
+                readFully(new FramedLogInputStream(new ByteArrayInputStream(framed))));
+    }
+
+    @Test
+    public void recover_cutsTheTornTail() throws IOException {
+        final List<LogRecord> records = createRecords(100);
+        final byte[] framed = encode(new FramedLogRecordEncoder(new TextLogRecordEncoder()), records);
+        final byte[] lastFrame = encode(new FramedLogRecordEncoder(new TextLogRecordEncoder()),
+                records.subList(records.size() - 1, records.size()));
+        final int validLength = framed.length - lastFrame.length;
+
+        // the process died in the middle of the last record
+        final File segment = writeSegment(Arrays.copyOf(framed, validLength + lastFrame.length / 2));
+
+        final FramedLogRecovery.Result result = FramedLogRecovery.recover(segment);
+
+        assertEquals(records.size() - 1, result.recordsCount);
+        assertEquals(lastFrame.length / 2, result.truncatedBytesCount);
+        assertTrue(result.wasDamaged());
+        assertEquals(validLength, segment.length());
+        assertArrayEquals(encode(new TextLogRecordEncoder(), records.subList(0, records.size() - 1)),
+                readFully(new FramedLogInputStream(new FileInputStream(segment))));
+    }
+
+    @Test
+    public void recover_cutsTheZeroPaddingSilently() throws IOException {
+        final List<LogRecord> records = createRecords(20);
+        final byte[] framed = encode(new FramedLogRecordEncoder(new TextLogRecordEncoder()), records);
+        // the memory mapped writer leaves zeros after the data
+        final File segment = writeSegment(Arrays.copyOf(framed, framed.length + 4096));
+
+        final FramedLogRecovery.Result result = FramedLogRecovery.recover(segment);
+
+        assertEquals(records.size(), result.recordsCount);
+        assertEquals(4096, result.truncatedBytesCount);
+        assertFalse(result.wasDamaged());
+        assertEquals(framed.length, segment.length());
+    }
+
+    @Test
+    public void damagedRecord_isSkippedByTheReader() throws IOException {
+        final List<LogRecord> records = createRecords(50);
+        final FramedLogRecordEncoder encoder = new FramedLogRecordEncoder(new TextLogRecordEncoder());
+        final byte[] head = encode(encoder, records.subList(0, 10));
+        final byte[] framed = encode(encoder, records);
+        // a byte of the 11th record's payload is overwritten
+        framed[head.length + FramedLogFormat.HEADER_LENGTH + 5] ^= 0x20;
+        final File segment = writeSegment(framed);
+
+        final FramedLogRecovery.Result result = FramedLogRecovery.recover(segment);
+
+        // the damaged record is left in place for the readers to skip
+        assertEquals(records.size() - 1, result.recordsCount);
+        assertEquals(0, result.truncatedBytesCount);
+        assertTrue(result.wasDamaged());
+        assertEquals(framed.length, segment.length());
+
+        final List<LogRecord> expectedRecords = new ArrayList<>(records);
+        expectedRecords.remove(10);
+        assertArrayEquals(encode(new TextLogRecordEncoder(), expectedRecords),
+                readFully(new FramedLogInputStream(new FileInputStream(segment))));
+    }
+
+    @NonNull
+    private File writeSegment(@NonNull byte[] content) throws IOException {
+        final File segment = folder.newFile("2018_07_15_Log" + FramedLogFormat.EXTENSION);
+        final FileOutputStream output = new FileOutputStream(segment);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+        return segment;
+    }
+}
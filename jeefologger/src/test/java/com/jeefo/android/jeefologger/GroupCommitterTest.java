@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitterTest {
+
+    @Test
+    public void commit_sharesTheSyncsBetweenTheThreads() throws InterruptedException {
+        final AtomicInteger syncsCount = new AtomicInteger(0);
+        final GroupCommitter committer = new GroupCommitter(new GroupCommitter.SyncAction() {
+            @Override
+            public void sync() {
+                syncsCount.incrementAndGet();
+            }
+        }, 20);
+
+        final int threadsCount = 8;
+        final Thread[] threads = new Thread[threadsCount];
+        for (int index = 0; index < threadsCount; ++index) {
+            threads[index] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        committer.commit();
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            threads[index].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(syncsCount.get() + " syncs", syncsCount.get() >= 1 && syncsCount.get() < threadsCount);
+    }
+
+    @Test
+    public void commit_interruptedBefore_syncsStraightAway() throws IOException {
+        final AtomicBoolean wasInterruptedWhileSyncing = new AtomicBoolean(true);
+        final AtomicInteger syncsCount = new AtomicInteger(0);
+        final GroupCommitter committer = new GroupCommitter(new GroupCommitter.SyncAction() {
+            @Override
+            public void sync() {
+                wasInterruptedWhileSyncing.set(Thread.currentThread().isInterrupted());
+                syncsCount.incrementAndGet();
+            }
+        }, 60000);
+
+        Thread.currentThread().interrupt();
+        final long startNanos = System.nanoTime();
+        committer.commit();
+
+        assertTrue(Thread.interrupted());
+        assertEquals(1, syncsCount.get());
+        // an interrupted thread would close the interruptible channel being synced
+        assertFalse(wasInterruptedWhileSyncing.get());
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(30));
+    }
+
+    @Test
+    public void commit_interruptedInTheWindow_syncsStraightAway() throws Exception {
+        final AtomicInteger syncsCount = new AtomicInteger(0);
+        final GroupCommitter committer = new GroupCommitter(new GroupCommitter.SyncAction() {
+            @Override
+            public void sync() {
+                syncsCount.incrementAndGet();
+            }
+        }, 60000);
+        final AtomicBoolean wasInterruptedAfterCommit = new AtomicBoolean(false);
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    committer.commit();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                wasInterruptedAfterCommit.set(Thread.currentThread().isInterrupted());
+            }
+        };
+        thread.start();
+        Thread.sleep(100);
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+
+        assertFalse(thread.isAlive());
+        assertEquals(1, syncsCount.get());
+        assertTrue(wasInterruptedAfterCommit.get());
+    }
+
+    @Test
+    public void commit_interruptedWhileWaiting_waitsForTheSync() throws Exception {
+        final CountDownLatch syncStarted = new CountDownLatch(1);
+        final CountDownLatch syncAllowed = new CountDownLatch(1);
+        final AtomicInteger syncsCount = new AtomicInteger(0);
+        final GroupCommitter committer = new GroupCommitter(new GroupCommitter.SyncAction() {
+            @Override
+            public void sync() {
+                syncsCount.incrementAndGet();
+                syncStarted.countDown();
+                try {
+                    syncAllowed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 0);
+
+        final Thread syncingThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    committer.commit();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        syncingThread.start();
+        syncStarted.await();
+
+        final AtomicBoolean wasInterruptedAfterCommit = new AtomicBoolean(false);
+        final CountDownLatch committed = new CountDownLatch(1);
+        final Thread waitingThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    committer.commit();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                wasInterruptedAfterCommit.set(Thread.currentThread().isInterrupted());
+                committed.countDown();
+            }
+        };
+        waitingThread.start();
+        waitingThread.interrupt();
+
+        // the record of the waiting thread is not durable yet
+        assertFalse(committed.await(200, TimeUnit.MILLISECONDS));
+
+        syncAllowed.countDown();
+        syncingThread.join();
+        waitingThread.join();
+
+        assertEquals(0, committed.getCount());
+        assertTrue(wasInterruptedAfterCommit.get());
+        // the waiting thread asked after the first sync had started, so it needed its own
+        assertEquals(2, syncsCount.get());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class LazyLoggerUtilsTest {
+    private static final String PACKAGE_PREFIX = "com.example.app.";
+
+    @Test
+    public void getTracePrefix_groupsTheMethodsOfTheSameClass() {
+        final StackTraceElement[] elements = {
+                frame("java.lang.Thread", "getStackTrace"),
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Info"),
+                frame("com.example.app.net.Client", "fetch"),
+                frame("com.example.app.net.Client", "load"),
+                frame("com.example.app.MainActivity", "onCreate"),
+                frame("android.app.ActivityThread", "main"),
+        };
+
+        assertEquals("[Class MainActivity][Method onCreate][Class Client][Method load][Method fetch()] ",
+                LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements));
+    }
+
+    @Test
+    public void getTracePrefix_skipsThePackagesStartingWithTheSameName() {
+        final StackTraceElement[] elements = {
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Info"),
+                frame("com.example.app.net.Client", "fetch"),
+                // "com.example.app" is a prefix of this package, but the package is another one
+                frame("com.example.appx.Other", "call"),
+                frame("com.example.application.Third", "run"),
+                frame("com.example.app.MainActivity", "onCreate"),
+        };
+
+        assertEquals("[Class MainActivity][Method onCreate][Class Client][Method fetch] ",
+                LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements));
+        assertEquals("[Class Other][Method call] ", LazyLoggerUtils.getTracePrefix("com.example.appx.", elements));
+    }
+
+    @Test
+    public void getTracePrefix_anonymousClassCalledFromItsHost() {
+        final StackTraceElement[] elements = {
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Info"),
+                frame("com.example.app.MainActivity$1", "run"),
+                frame("com.example.app.MainActivity", "access$000"),
+                frame("com.example.app.MainActivity", "onCreate"),
+        };
+
+        assertEquals("[Class MainActivity][Method run() <- MainActivity#onCreate] ",
+                LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements));
+    }
+
+    @Test
+    public void getTracePrefix_anonymousClassCalledFromAnotherClass() {
+        final StackTraceElement[] elements = {
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Info"),
+                frame("com.example.app.MainActivity$1", "run"),
+                frame("com.example.app.net.Client", "load"),
+                frame("com.example.app.MainActivity", "onCreate"),
+        };
+
+        assertEquals("[Class MainActivity][Method onCreate][Method run() <- Client#load()] ",
+                LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements));
+    }
+
+    @Test
+    public void getTracePrefix_anonymousClassAtTheBottom() {
+        final StackTraceElement[] elements = {
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Info"),
+                frame("com.example.app.MainActivity$1", "run"),
+                frame("java.lang.Thread", "run"),
+        };
+
+        // the host is unknown, so the method is shown as the one of a named class
+        assertEquals("[Class MainActivity][Method run] ", LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements));
+    }
+
+    @Test
+    public void getTracePrefix_noFrameOfThePackage() {
+        final StackTraceElement[] elements = {
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Info"),
+                frame("java.lang.Thread", "run"),
+        };
+
+        assertEquals(" ", LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements));
+    }
+
+    @Test
+    public void getTracePrefix_isCachedPerSequenceOfPackageFrames() {
+        final StackTraceElement[] elements = {
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Info"),
+                frame("com.example.app.net.Client", "fetch"),
+                frame("com.example.app.MainActivity", "onCreate"),
+                frame("android.app.ActivityThread", "main"),
+        };
+        // other frames outside of the package, same frames of the package
+        final StackTraceElement[] otherElements = {
+                frame("com.jeefo.android.jeefologger.LazyLogger", "Debug"),
+                frame("com.example.app.net.Client", "fetch"),
+                frame("android.os.Handler", "dispatchMessage"),
+                frame("com.example.app.MainActivity", "onCreate"),
+        };
+
+        final String tracePrefix = LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements);
+
+        assertSame(tracePrefix, LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, elements.clone()));
+        assertSame(tracePrefix, LazyLoggerUtils.getTracePrefix(PACKAGE_PREFIX, otherElements));
+    }
+
+    @NonNull
+    private static StackTraceElement frame(@NonNull String className, @NonNull String methodName) {
+        final int packageEnd = className.lastIndexOf('.');
+        final int nameEnd = className.indexOf('$');
+        final String simpleName = className.substring(packageEnd + 1, nameEnd > 0 ? nameEnd : className.length());
+        return new StackTraceElement(className, methodName, simpleName + ".java", 10);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static com.jeefo.android.jeefologger.BinaryLogRecordEncoderTest.encode;
+import static com.jeefo.android.jeefologger.BinaryLogRecordEncoderTest.readFully;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogExporterTest {
+    private static final long START_MILLIS = 1531612800000L;
+    private static final String FIRST_SEGMENT = "2018_07_15_Log.txt";
+    private static final String SECOND_SEGMENT = "2018_07_15_Log_1.txt";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TimeZone defaultTimeZone;
+    private File[] segments;
+
+    @Before
+    public void setUp() throws IOException {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+
+        // the second segment is listed first to check the export order; the first one is bigger
+        // than the copy buffer
+        segments = new File[]{
+                writeSegment(SECOND_SEGMENT, START_MILLIS + 60000, 1000, 100),
+                writeSegment(FIRST_SEGMENT, START_MILLIS, 20, 3000)
+        };
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void zip_holdsTheWholeSegmentsAndTheManifest() throws IOException {
+        final Map<String, byte[]> entries = readZip(export(LogExportOptions.ALL_AS_ZIP));
+
+        assertEquals(Arrays.asList(FIRST_SEGMENT, SECOND_SEGMENT, LogExporter.MANIFEST_NAME), new ArrayList<>(entries.keySet()));
+        assertEquals(readLines(segments[1]), toLines(entries.get(FIRST_SEGMENT)));
+        assertEquals(readLines(segments[0]), toLines(entries.get(SECOND_SEGMENT)));
+
+        final String manifest = new String(entries.get(LogExporter.MANIFEST_NAME), "UTF-8");
+        assertTrue(manifest, manifest.contains("\"fromTimeMillis\": null,\n  \"toTimeMillis\": null,"));
+        assertTrue(manifest, manifest.contains("{\"name\": \"" + FIRST_SEGMENT + "\", \"logFile\": \"" + FIRST_SEGMENT
+                + "\", \"bytes\": " + segments[1].length() + ", \"records\": 3000, \"firstTimeMillis\": " + START_MILLIS
+                + ", \"lastTimeMillis\": " + (START_MILLIS + 59000) + ", \"cut\": false}"));
+        assertTrue(manifest, manifest.contains("{\"name\": \"" + SECOND_SEGMENT + "\", \"logFile\": \"" + SECOND_SEGMENT
+                + "\", \"bytes\": " + segments[0].length() + ", \"records\": 100, \"firstTimeMillis\": " + (START_MILLIS + 60000)
+                + ", \"lastTimeMillis\": " + (START_MILLIS + 159000) + ", \"cut\": false}"));
+    }
+
+    @Test
+    public void timeRange_cutsTheSegmentsAtItsEnds() throws IOException {
+        final LogExportOptions options = new LogExportOptions.Builder()
+                .withTimeRange(START_MILLIS + 30000, START_MILLIS + 80000)
+                .build();
+        final Map<String, byte[]> entries = readZip(export(options));
+
+        assertEquals(Arrays.asList(FIRST_SEGMENT, SECOND_SEGMENT, LogExporter.MANIFEST_NAME), new ArrayList<>(entries.keySet()));
+        assertEquals(readLines(segments[1]).subList(1500, 3000), toLines(entries.get(FIRST_SEGMENT)));
+        assertEquals(readLines(segments[0]).subList(0, 20), toLines(entries.get(SECOND_SEGMENT)));
+
+        final String manifest = new String(entries.get(LogExporter.MANIFEST_NAME), "UTF-8");
+        assertTrue(manifest, manifest.contains("\"fromTimeMillis\": " + (START_MILLIS + 30000)
+                + ",\n  \"toTimeMillis\": " + (START_MILLIS + 80000) + ","));
+        assertTrue(manifest, manifest.contains("\"records\": 1500, \"firstTimeMillis\": " + (START_MILLIS + 30000)
+                + ", \"lastTimeMillis\": " + (START_MILLIS + 59000) + ", \"cut\": true}"));
+        assertTrue(manifest, manifest.contains("\"records\": 20, \"firstTimeMillis\": " + (START_MILLIS + 60000)
+                + ", \"lastTimeMillis\": " + (START_MILLIS + 79000) + ", \"cut\": true}"));
+    }
+
+    @Test
+    public void timeRange_leavesOutTheSegmentsOutsideOfIt() throws IOException {
+        final LogExportOptions options = new LogExportOptions.Builder()
+                .withTimeRange(START_MILLIS + 65000, Long.MAX_VALUE)
+                .build();
+        final Map<String, byte[]> entries = readZip(export(options));
+
+        assertEquals(Arrays.asList(SECOND_SEGMENT, LogExporter.MANIFEST_NAME), new ArrayList<>(entries.keySet()));
+        assertEquals(readLines(segments[0]).subList(5, 100), toLines(entries.get(SECOND_SEGMENT)));
+
+        final String manifest = new String(entries.get(LogExporter.MANIFEST_NAME), "UTF-8");
+        assertTrue(manifest, manifest.contains("\"toTimeMillis\": null,"));
+        assertTrue(manifest, manifest.contains("\"records\": 95, \"firstTimeMillis\": " + (START_MILLIS + 65000)
+                + ", \"lastTimeMillis\": " + (START_MILLIS + 159000) + ", \"cut\": true}"));
+    }
+
+    @Test
+    public void tar_holdsTheSameEntriesAsTheZip() throws IOException {
+        final LogExportOptions zipOptions = new LogExportOptions.Builder()
+                .withTimeRange(START_MILLIS + 30000, START_MILLIS + 80000)
+                .build();
+        final LogExportOptions tarOptions = new LogExportOptions.Builder()
+                .withFormat(LogExportFormat.TAR)
+                .withTimeRange(START_MILLIS + 30000, START_MILLIS + 80000)
+                .build();
+        final Map<String, byte[]> zipEntries = readZip(export(zipOptions));
+        final Map<String, byte[]> tarEntries = readTar(export(tarOptions));
+
+        assertEquals(new ArrayList<>(zipEntries.keySet()), new ArrayList<>(tarEntries.keySet()));
+        for (String name : zipEntries.keySet()) {
+            if (!name.equals(LogExporter.MANIFEST_NAME)) {
+                assertEquals(name, toLines(zipEntries.get(name)), toLines(tarEntries.get(name)));
+            }
+        }
+    }
+
+    @Test
+    public void export_toAFileStream() throws IOException {
+        final File archive = new File(folder.getRoot(), "logs.zip");
+        final FileOutputStream output = new FileOutputStream(archive);
+        try {
+            LogExporter.export(segments, LogExportOptions.ALL_AS_ZIP, output);
+        } finally {
+            output.close();
+        }
+
+        final Map<String, byte[]> entries = readZip(readFully(new FileInputStream(archive)));
+        assertEquals(readLines(segments[1]), toLines(entries.get(FIRST_SEGMENT)));
+        assertEquals(readLines(segments[0]), toLines(entries.get(SECOND_SEGMENT)));
+    }
+
+    @NonNull
+    private File writeSegment(@NonNull String name, long startMillis, long intervalMillis, int recordsCount) throws IOException {
+        final List<LogRecord> records = new ArrayList<>();
+        for (int index = 0; index < recordsCount; ++index) {
+            final LogRecord record = new LogRecord();
+            record.set(startMillis + index * intervalMillis, LogLevel.INFO, "INFO", "[user bob]",
+                    "[Class Exporter][Method run] record " + index + " of " + name);
+            records.add(record);
+        }
+
+        final File segment = folder.newFile(name);
+        final FileOutputStream output = new FileOutputStream(segment);
+        try {
+            output.write(encode(new TextLogRecordEncoder(), records));
+        } finally {
+            output.close();
+        }
+        return segment;
+    }
+
+    @NonNull
+    private byte[] export(@NonNull LogExportOptions options) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LogExporter.export(segments, options, output);
+        return output.toByteArray();
+    }
+
+    @NonNull
+    private static Map<String, byte[]> readZip(@NonNull byte[] archive) throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        final ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(archive));
+        try {
+            ZipEntry entry;
+            while ((entry = input.getNextEntry()) != null) {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int count;
+                while ((count = input.read(buffer)) > 0) {
+                    content.write(buffer, 0, count);
+                }
+                entries.put(entry.getName(), content.toByteArray());
+            }
+        } finally {
+            input.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the ustar entries: a 512 bytes header (the name and the octal size) followed by the
+     * content padded to 512 bytes, up to the zero-filled end blocks
+     */
+    @NonNull
+    private static Map<String, byte[]> readTar(@NonNull byte[] archive) throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        int offset = 0;
+        while (offset + 512 <= archive.length && archive[offset] != 0) {
+            int nameEnd = offset;
+            while (nameEnd < offset + 100 && archive[nameEnd] != 0) {
+                ++nameEnd;
+            }
+            final String name = new String(archive, offset, nameEnd - offset, "US-ASCII");
+            final int size = Integer.parseInt(new String(archive, offset + 124, 11, "US-ASCII").trim(), 8);
+            entries.put(name, Arrays.copyOfRange(archive, offset + 512, offset + 512 + size));
+            offset += 512 + (size + 511) / 512 * 512;
+        }
+        assertEquals(archive.length, offset + 1024);
+        return entries;
+    }
+
+    @NonNull
+    private static List<String> readLines(@NonNull File file) throws IOException {
+        return toLines(readFully(new FileInputStream(file)));
+    }
+
+    @NonNull
+    private static List<String> toLines(@NonNull byte[] content) throws IOException {
+        return Arrays.asList(new String(content, "UTF-8").split("\n"));
+    }
+}
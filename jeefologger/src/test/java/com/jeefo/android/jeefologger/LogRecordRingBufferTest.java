@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogRecordRingBufferTest {
+    private static final int PRODUCERS_COUNT = 4;
+    private static final int RECORDS_PER_PRODUCER = 50000;
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertEquals(1, new LogRecordRingBuffer(1).getCapacity());
+        assertEquals(8, new LogRecordRingBuffer(5).getCapacity());
+        assertEquals(1024, new LogRecordRingBuffer(1024).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_mustBePositive() {
+        new LogRecordRingBuffer(0);
+    }
+
+    @Test
+    public void offer_failsWhenFullUntilDrained() {
+        final LogRecordRingBuffer buffer = new LogRecordRingBuffer(4);
+        for (int index = 0; index < 4; ++index) {
+            assertTrue(buffer.offer(newRecord(index)));
+        }
+        assertFalse(buffer.offer(newRecord(4)));
+
+        final List<String> drained = new ArrayList<>();
+        assertEquals(2, buffer.drain(collectMessages(drained), 2));
+        assertTrue(buffer.offer(newRecord(4)));
+        assertTrue(buffer.offer(newRecord(5)));
+        assertFalse(buffer.offer(newRecord(6)));
+
+        assertEquals(4, buffer.drain(collectMessages(drained), Integer.MAX_VALUE));
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.drain(collectMessages(drained), Integer.MAX_VALUE));
+        assertEquals("[0, 1, 2, 3, 4, 5]", drained.toString());
+    }
+
+    @Test
+    public void drain_handsOutCopiesInClaimOrderAndClearsThem() {
+        final LogRecordRingBuffer buffer = new LogRecordRingBuffer(8);
+        final LogRecord record = new LogRecord();
+        record.setDeferred(1234L, LogLevel.WARN, "WARN", "[tag]", "value %d", new Object[]{7}, null);
+        assertTrue(buffer.offer(record));
+        // the record offered can be reused straight away
+        record.set(1L, LogLevel.DEBUG, "DEBUG", "", "second");
+        assertTrue(buffer.offer(record));
+
+        final List<LogRecord> seen = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        buffer.drain(new LogRecordRingBuffer.RecordHandler() {
+            @Override
+            public void onRecord(@NonNull LogRecord drainedRecord) {
+                seen.add(drainedRecord);
+                messages.add(drainedRecord.timestampMillis + " " + drainedRecord.logLevel + " "
+                        + drainedRecord.tagsPrefix + drainedRecord.getFormattedMessage());
+            }
+        }, Integer.MAX_VALUE);
+
+        assertEquals("[1234 3 [tag]value 7, 1 1 second]", messages.toString());
+        for (LogRecord drainedRecord : seen) {
+            assertNull(drainedRecord.template);
+            assertNull(drainedRecord.args);
+            assertEquals("", drainedRecord.message);
+        }
+    }
+
+    @Test
+    public void concurrentProducers_everyRecordIsDrainedOnceInProducerOrder() throws InterruptedException {
+        final LogRecordRingBuffer buffer = new LogRecordRingBuffer(256);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread[] producers = new Thread[PRODUCERS_COUNT];
+
+        for (int producer = 0; producer < PRODUCERS_COUNT; ++producer) {
+            final int producerId = producer;
+            producers[producer] = new Thread() {
+                @Override
+                public void run() {
+                    final LogRecord record = new LogRecord();
+                    try {
+                        start.await();
+                        for (int sequence = 0; sequence < RECORDS_PER_PRODUCER; ++sequence) {
+                            // the producer id in the level, the sequence in the time
+                            record.set(sequence, producerId, null, "", "");
+                            while (!buffer.offer(record)) {
+                                Thread.yield();
+                            }
+                        }
+                    } catch (Throwable throwable) {
+                        failure.compareAndSet(null, throwable);
+                    }
+                }
+            };
+            producers[producer].start();
+        }
+
+        final long[] nextSequences = new long[PRODUCERS_COUNT];
+        final int[] outOfOrderCount = new int[1];
+        final LogRecordRingBuffer.RecordHandler handler = new LogRecordRingBuffer.RecordHandler() {
+            @Override
+            public void onRecord(@NonNull LogRecord record) {
+                if (record.timestampMillis != nextSequences[record.logLevel]) {
+                    ++outOfOrderCount[0];
+                }
+                nextSequences[record.logLevel] = record.timestampMillis + 1;
+            }
+        };
+
+        start.countDown();
+        int drainedCount = 0;
+        final int expectedCount = PRODUCERS_COUNT * RECORDS_PER_PRODUCER;
+        final long deadline = System.currentTimeMillis() + 60000;
+        while (drainedCount < expectedCount && System.currentTimeMillis() < deadline) {
+            final int batchCount = buffer.drain(handler, 64);
+            if (batchCount == 0) {
+                Thread.yield();
+            }
+            drainedCount += batchCount;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(expectedCount, drainedCount);
+        assertEquals(0, outOfOrderCount[0]);
+        for (long nextSequence : nextSequences) {
+            assertEquals(RECORDS_PER_PRODUCER, nextSequence);
+        }
+        assertTrue(buffer.isEmpty());
+        assertEquals(expectedCount, buffer.getConsumerPosition());
+    }
+
+    @NonNull
+    private static LogRecord newRecord(int index) {
+        final LogRecord record = new LogRecord();
+        record.set(index, LogLevel.INFO, "INFO", "", String.valueOf(index));
+        return record;
+    }
+
+    @NonNull
+    private static LogRecordRingBuffer.RecordHandler collectMessages(@NonNull final List<String> messages) {
+        return new LogRecordRingBuffer.RecordHandler() {
+            @Override
+            public void onRecord(@NonNull LogRecord record) {
+                messages.add(record.message);
+            }
+        };
+    }
+}
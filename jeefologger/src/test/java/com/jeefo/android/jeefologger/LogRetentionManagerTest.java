@@ -0,0 +1,334 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The limits are applied on a background thread, so the tests wait for it to catch up (see
+ * {@link LogRetentionManagerTest#awaitIdle(LogRetentionManager)}) before checking the files
+ */
+public class LogRetentionManagerTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final String DAY = "2018_01_02";
+    private static final String PREVIOUS_DAY = "2018_01_01";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void start_deletesTheOldestSegmentsFirst() throws Exception {
+        final File previousDaySegment = createSegment(PREVIOUS_DAY, 7, 100);
+        final File firstSegment = createSegment(DAY, 0, 100);
+        final File secondSegment = createSegment(DAY, 1, 100);
+        final File activeSegment = createSegment(DAY, 2, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(2).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        // the index orders the segments of a day only
+        assertFalse(previousDaySegment.exists());
+        assertFalse(firstSegment.exists());
+        assertTrue(secondSegment.exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @Test
+    public void start_countsTheActiveSegmentTowardsTheFileCount() throws Exception {
+        final File[] segments = createSegments(5, 100);
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(3).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertEquals(3, LogSegmentFiles.listSegments(folder.getRoot()).length);
+        assertFalse(segments[2].exists());
+        assertTrue(segments[3].exists());
+        assertTrue(segments[4].exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @Test
+    public void start_appliesTheLowerOfTheFileCounts() throws Exception {
+        final File[] segments = createSegments(5, 100);
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(4).build(), 2);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertEquals(2, LogSegmentFiles.listSegments(folder.getRoot()).length);
+        assertTrue(segments[4].exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @Test
+    public void start_appliesTheSegmentCountWithoutRetentionPolicy() throws Exception {
+        final File[] segments = createSegments(5, 100);
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(RetentionPolicy.UNLIMITED, 3);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertEquals(3, LogSegmentFiles.listSegments(folder.getRoot()).length);
+        assertTrue(segments[3].exists());
+        assertTrue(segments[4].exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @Test
+    public void start_countsTheActiveSegmentTowardsTheTotalBytes() throws Exception {
+        final File[] segments = createSegments(4, 100);
+        final File activeSegment = createSegment(DAY, segments.length, 150);
+
+        // 400 closed bytes + 150 active ones, so two segments have to go
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxTotalBytes(400).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertFalse(segments[0].exists());
+        assertFalse(segments[1].exists());
+        assertTrue(segments[2].exists());
+        assertTrue(segments[3].exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @Test
+    public void start_neverDeletesTheActiveSegment() throws Exception {
+        final File[] segments = createSegments(2, 100);
+        final File activeSegment = createSegment(DAY, segments.length, 1000);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxTotalBytes(500).build(), 1);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertFalse(segments[0].exists());
+        assertFalse(segments[1].exists());
+        assertTrue(activeSegment.exists());
+        assertEquals(1000, activeSegment.length());
+    }
+
+    @Test
+    public void start_deletesTheSegmentsOlderThanTheMaxAge() throws Exception {
+        final long nowMillis = System.currentTimeMillis();
+        final File[] segments = createSegments(4, 100);
+        setLastModified(segments[0], nowMillis - TimeUnit.HOURS.toMillis(3));
+        setLastModified(segments[1], nowMillis - TimeUnit.HOURS.toMillis(2));
+        setLastModified(segments[2], nowMillis - TimeUnit.MINUTES.toMillis(30));
+        setLastModified(segments[3], nowMillis - TimeUnit.MINUTES.toMillis(10));
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(
+                new RetentionPolicy.Builder().withMaxAgeMillis(TimeUnit.HOURS.toMillis(1)).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertFalse(segments[0].exists());
+        assertFalse(segments[1].exists());
+        assertTrue(segments[2].exists());
+        assertTrue(segments[3].exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @Test
+    public void start_deletesTheIndexFilesOfTheDeletedSegments() throws Exception {
+        final File compressedSegment = createFile(LogSegmentFiles.getSegmentName(DAY, LogSegmentFiles.MAIN_PROCESS, 0,
+                LogSegmentFiles.TEXT_EXTENSION + LogSegmentCompressor.GZIP_EXTENSION), 50);
+        final File[] segments = {compressedSegment, createSegment(DAY, 1, 100), createSegment(DAY, 2, 100)};
+        final File[] indexFiles = new File[segments.length];
+        for (int index = 0; index < segments.length; ++index) {
+            indexFiles[index] = createFile(LogTimeIndex.getIndexFile(segments[index]).getName(), 24);
+        }
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(2).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        // the index of a compressed segment is named after the uncompressed one
+        assertEquals(DAY + "_Log" + LogSegmentFiles.TEXT_EXTENSION + LogTimeIndex.EXTENSION, indexFiles[0].getName());
+        assertFalse(segments[0].exists());
+        assertFalse(indexFiles[0].exists());
+        assertFalse(segments[1].exists());
+        assertFalse(indexFiles[1].exists());
+        assertTrue(segments[2].exists());
+        assertTrue(indexFiles[2].exists());
+    }
+
+    @Test
+    public void start_ignoresTheSegmentsOfTheOtherProcesses() throws Exception {
+        final File[] segments = createSegments(3, 100);
+        final File otherSegment = createFile(LogSegmentFiles.getSegmentName(PREVIOUS_DAY, "remote", 0,
+                LogSegmentFiles.TEXT_EXTENSION), 100);
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(2).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertTrue(otherSegment.exists());
+        assertFalse(segments[1].exists());
+        assertTrue(segments[2].exists());
+    }
+
+    @Test
+    public void onSegmentClosed_deletesTheOldestSegment() throws Exception {
+        final File[] segments = createSegments(2, 100);
+        final File closedSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(3).build(), 0);
+        manager.start(closedSegment, closedSegment.length());
+        awaitIdle(manager);
+        assertTrue(segments[0].exists());
+
+        final File activeSegment = createSegment(DAY, segments.length + 1, 0);
+        manager.onSegmentClosed(closedSegment, activeSegment.length());
+        awaitIdle(manager);
+
+        assertFalse(segments[0].exists());
+        assertTrue(segments[1].exists());
+        assertTrue(closedSegment.exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @Test
+    public void onSegmentCompressed_countsTheCompressedBytes() throws Exception {
+        final File[] segments = createSegments(3, 100);
+        final File closedSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxTotalBytes(350).build(), 0);
+        manager.start(closedSegment, 0);
+
+        final File compressedSegment = createFile(segments[0].getName() + LogSegmentCompressor.GZIP_EXTENSION, 10);
+        assertTrue(segments[0].delete());
+        manager.onSegmentCompressed(segments[0], compressedSegment);
+        // 10 + 100 + 100 + 100 bytes, while it would be 400 without the compression
+        manager.onSegmentClosed(closedSegment, 0);
+        awaitIdle(manager);
+
+        assertTrue(compressedSegment.exists());
+        assertTrue(segments[1].exists());
+        assertTrue(segments[2].exists());
+        assertTrue(closedSegment.exists());
+    }
+
+    @Test
+    public void onSegmentCompressed_deletesTheCompressedVersionOfADeletedSegment() throws Exception {
+        final File[] segments = createSegments(3, 100);
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(3).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+        assertFalse(segments[0].exists());
+
+        final File compressedSegment = createFile(segments[0].getName() + LogSegmentCompressor.GZIP_EXTENSION, 10);
+        manager.onSegmentCompressed(segments[0], compressedSegment);
+        awaitIdle(manager);
+
+        assertFalse(compressedSegment.exists());
+    }
+
+    @Test
+    public void setLimits_appliesTheNewLimitsStraightAway() throws Exception {
+        final File[] segments = createSegments(4, 100);
+        final File activeSegment = createSegment(DAY, segments.length, 100);
+
+        final LogRetentionManager manager = newManager(new RetentionPolicy.Builder().withMaxFileCount(10).build(), 0);
+        manager.start(activeSegment, activeSegment.length());
+        awaitIdle(manager);
+        assertEquals(5, LogSegmentFiles.listSegments(folder.getRoot()).length);
+
+        manager.setLimits(new RetentionPolicy.Builder().withMaxTotalBytes(250).build(), 0);
+        awaitIdle(manager);
+
+        assertEquals(2, LogSegmentFiles.listSegments(folder.getRoot()).length);
+        assertTrue(segments[3].exists());
+        assertTrue(activeSegment.exists());
+    }
+
+    @NonNull
+    private LogRetentionManager newManager(@NonNull RetentionPolicy policy, int maxSegmentCount) {
+        return new LogRetentionManager(folder.getRoot(), LogSegmentFiles.MAIN_PROCESS, policy, maxSegmentCount);
+    }
+
+    /**
+     * Waits for the tasks queued so far to be done. The tasks run in order on a single thread, so
+     * this queues one more which deletes a marker file (as if a segment which is not tracked got
+     * compressed) and waits for the file to be gone.
+     */
+    private void awaitIdle(@NonNull LogRetentionManager manager) throws Exception {
+        final File marker = createFile("marker" + LogSegmentFiles.TEXT_EXTENSION + LogSegmentCompressor.GZIP_EXTENSION, 0);
+        manager.onSegmentCompressed(new File(folder.getRoot(), "marker" + LogSegmentFiles.TEXT_EXTENSION), marker);
+
+        final long deadlineMillis = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (marker.exists()) {
+            assertTrue("Timed out waiting for the retention thread", System.currentTimeMillis() < deadlineMillis);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * @return the first segments of the day, oldest first
+     */
+    @NonNull
+    private File[] createSegments(int count, int bytesCount) throws IOException {
+        final File[] segments = new File[count];
+        for (int index = 0; index < count; ++index) {
+            segments[index] = createSegment(DAY, index, bytesCount);
+        }
+        return segments;
+    }
+
+    @NonNull
+    private File createSegment(@NonNull String day, int index, int bytesCount) throws IOException {
+        return createFile(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, index,
+                LogSegmentFiles.TEXT_EXTENSION), bytesCount);
+    }
+
+    @NonNull
+    private File createFile(@NonNull String name, int bytesCount) throws IOException {
+        final File file = new File(folder.getRoot(), name);
+        final FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[bytesCount]);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private static void setLastModified(@NonNull File file, long timeMillis) {
+        assertTrue(file.setLastModified(timeMillis));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogTimeIndexTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findOffset_returnsTheLastEntryOlderThanTheTime() throws IOException {
+        final File segment = folder.newFile("2018_07_15_Log.txt");
+        final LogTimeIndex index = new LogTimeIndex(segment, 0, 0);
+        index.add(1000, 0);
+        index.add(2000, 100);
+        index.add(3000, 200);
+        index.close();
+
+        assertEquals(0, LogTimeIndex.findOffset(segment, 500));
+        assertEquals(0, LogTimeIndex.findOffset(segment, 1000));
+        assertEquals(0, LogTimeIndex.findOffset(segment, 1500));
+        assertEquals(100, LogTimeIndex.findOffset(segment, 2500));
+        assertEquals(200, LogTimeIndex.findOffset(segment, 5000));
+    }
+
+    @Test
+    public void findOffset_withoutIndex_returnsTheStart() {
+        assertEquals(0, LogTimeIndex.findOffset(new File(folder.getRoot(), "missing.txt"), 5000));
+    }
+
+    @Test
+    public void add_afterTheClockWasSetBack_keepsIndexing() throws IOException {
+        final File segment = folder.newFile("2018_07_15_Log.txt");
+        final LogTimeIndex index = new LogTimeIndex(segment, 0, 1000);
+        index.add(10000, 0);
+        index.add(11000, 100);
+
+        // the clock is set back by an hour
+        assertTrue(index.isDue(11000 - 3600000, 150));
+        index.add(11000 - 3600000, 150);
+        assertFalse(index.isDue(11500 - 3600000, 180));
+        assertTrue(index.isDue(12000 - 3600000, 200));
+        index.add(12000 - 3600000, 200);
+        // placed before the last entry
+        index.add(13000 - 3600000, 190);
+        index.close();
+
+        assertEquals(4 * 16, LogTimeIndex.getIndexFile(segment).length());
+        // the first record not older than the time comes before the clock was set back
+        assertEquals(0, LogTimeIndex.findOffset(segment, 10500 - 3600000));
+        assertEquals(0, LogTimeIndex.findOffset(segment, 10500));
+        // every record is older
+        assertEquals(200, LogTimeIndex.findOffset(segment, 20000));
+    }
+
+    @Test
+    public void truncate_dropsTheEntriesPastTheData() throws IOException {
+        final File segment = folder.newFile("2018_07_15_Log.txt");
+        final LogTimeIndex index = new LogTimeIndex(segment, 0, 0);
+        index.add(1000, 0);
+        index.add(2000, 100);
+        index.add(3000, 200);
+        index.close();
+
+        LogTimeIndex.truncate(segment, 150);
+
+        assertEquals(2 * 16, LogTimeIndex.getIndexFile(segment).length());
+        assertEquals(100, LogTimeIndex.findOffset(segment, 5000));
+
+        // the records appended from there on are indexed again
+        final LogTimeIndex reopened = new LogTimeIndex(segment, 0, 0);
+        reopened.add(4000, 150);
+        reopened.close();
+        assertEquals(150, LogTimeIndex.findOffset(segment, 5000));
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jeefo.android.jeefologger.BinaryLogRecordEncoderTest.readFully;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class MappedLogFileWriterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int WRITERS_COUNT = 4;
+    private static final int RECORDS_PER_WRITER = 5000;
+    // small enough for the writers to race over many remaps
+    private static final int REGION_SIZE = 512;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concurrentWrites_everyRecordIsWrittenOnceAndIntact() throws Exception {
+        final File file = folder.newFile("segment.log");
+        final MappedLogFileWriter writer = new MappedLogFileWriter(file, REGION_SIZE);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final long[] writtenLengths = new long[WRITERS_COUNT];
+        final Thread[] writers = new Thread[WRITERS_COUNT];
+
+        for (int writerIndex = 0; writerIndex < WRITERS_COUNT; ++writerIndex) {
+            final int writerId = writerIndex;
+            writers[writerIndex] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int sequence = 0; sequence < RECORDS_PER_WRITER; ++sequence) {
+                            final byte[] line = newLine(writerId, sequence);
+                            writer.write(line, 0, line.length, LogLevel.INFO, sequence);
+                            writtenLengths[writerId] += line.length;
+                        }
+                    } catch (Throwable throwable) {
+                        failure.compareAndSet(null, throwable);
+                    }
+                }
+            };
+            writers[writerIndex].start();
+        }
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writer.close();
+        assertNull(failure.get());
+
+        long expectedLength = 0;
+        for (long writtenLength : writtenLengths) {
+            expectedLength += writtenLength;
+        }
+        assertEquals(expectedLength, file.length());
+
+        final Map<String, Integer> linesCount = new HashMap<>();
+        for (String line : readFile(file).split("\n")) {
+            final Integer count = linesCount.get(line);
+            linesCount.put(line, count == null ? 1 : count + 1);
+        }
+        assertEquals(WRITERS_COUNT * RECORDS_PER_WRITER, linesCount.size());
+        for (int writerId = 0; writerId < WRITERS_COUNT; ++writerId) {
+            for (int sequence = 0; sequence < RECORDS_PER_WRITER; ++sequence) {
+                final String text = new String(newLine(writerId, sequence), UTF_8);
+                final String line = text.substring(0, text.length() - 1);
+                assertEquals(line, Integer.valueOf(1), linesCount.get(line));
+            }
+        }
+    }
+
+    @Test
+    public void close_whileWritingKeepsEveryAcceptedRecord() throws Exception {
+        final File file = folder.newFile("segment.log");
+        final MappedLogFileWriter writer = new MappedLogFileWriter(file, REGION_SIZE);
+        final CountDownLatch halfWritten = new CountDownLatch(WRITERS_COUNT);
+        final int[] acceptedCounts = new int[WRITERS_COUNT];
+        final Thread[] writers = new Thread[WRITERS_COUNT];
+
+        for (int writerIndex = 0; writerIndex < WRITERS_COUNT; ++writerIndex) {
+            final int writerId = writerIndex;
+            writers[writerIndex] = new Thread() {
+                @Override
+                public void run() {
+                    for (int sequence = 0; ; ++sequence) {
+                        if (sequence == RECORDS_PER_WRITER / 2) {
+                            halfWritten.countDown();
+                        }
+                        final byte[] line = newLine(writerId, sequence);
+                        try {
+                            writer.write(line, 0, line.length, LogLevel.INFO, sequence);
+                        } catch (IOException closed) {
+                            return;
+                        }
+                        acceptedCounts[writerId] = sequence + 1;
+                    }
+                }
+            };
+            writers[writerIndex].start();
+        }
+        halfWritten.await();
+        writer.close();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+
+        // every record accepted before the close is complete and nothing follows them
+        final StringBuilder expected = new StringBuilder();
+        int acceptedCount = 0;
+        for (int writerId = 0; writerId < WRITERS_COUNT; ++writerId) {
+            acceptedCount += acceptedCounts[writerId];
+            for (int sequence = 0; sequence < acceptedCounts[writerId]; ++sequence) {
+                expected.append(new String(newLine(writerId, sequence), UTF_8));
+            }
+        }
+        assertEquals(expected.length(), file.length());
+        assertEquals(acceptedCount, readFile(file).split("\n").length);
+    }
+
+    @Test
+    public void write_recordLongerThanTheRegion() throws IOException {
+        final File file = folder.newFile("segment.log");
+        final MappedLogFileWriter writer = new MappedLogFileWriter(file, 16);
+        final StringBuilder longLine = new StringBuilder();
+        for (int index = 0; index < 100; ++index) {
+            longLine.append(index % 10);
+        }
+
+        assertEquals(0, write(writer, "first\n"));
+        assertEquals(6, write(writer, longLine + "\n"));
+        assertEquals(107, write(writer, "last\n"));
+        writer.close();
+
+        assertEquals("first\n" + longLine + "\nlast\n", readFile(file));
+    }
+
+    @Test
+    public void reopen_appendsAfterTheClosedData() throws IOException {
+        final File file = folder.newFile("segment.log");
+        MappedLogFileWriter writer = new MappedLogFileWriter(file, REGION_SIZE);
+        write(writer, "first line\n");
+        writer.close();
+        // the mapped tail was cut on close
+        assertEquals(11, file.length());
+
+        writer = new MappedLogFileWriter(file, REGION_SIZE);
+        assertEquals(11, write(writer, "second line\n"));
+        writer.close();
+
+        assertEquals("first line\nsecond line\n", readFile(file));
+    }
+
+    @Test
+    public void reopen_trimsTheZeroTailLeftByACrash() throws IOException {
+        final File file = folder.newFile("segment.log");
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write("before the crash\n".getBytes(UTF_8));
+            // the writer was killed with a region mapped past the data (longer than a scan chunk)
+            output.write(new byte[3 * REGION_SIZE + 20000]);
+        } finally {
+            output.close();
+        }
+
+        final MappedLogFileWriter writer = new MappedLogFileWriter(file, REGION_SIZE);
+        assertEquals(17, write(writer, "after the crash\n"));
+        writer.close();
+
+        assertEquals("before the crash\nafter the crash\n", readFile(file));
+    }
+
+    @Test
+    public void findEndOfData_ofEmptyAndZeroFilledFiles() throws IOException {
+        final File file = folder.newFile("segment.log");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            assertEquals(0, MappedLogFileWriter.findEndOfData(randomAccessFile));
+            randomAccessFile.setLength(20000);
+            assertEquals(0, MappedLogFileWriter.findEndOfData(randomAccessFile));
+            randomAccessFile.seek(8191);
+            randomAccessFile.write('x');
+            assertEquals(8192, MappedLogFileWriter.findEndOfData(randomAccessFile));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test
+    public void write_failsOnceClosed() throws IOException {
+        final MappedLogFileWriter writer = new MappedLogFileWriter(folder.newFile("segment.log"), REGION_SIZE);
+        writer.close();
+        try {
+            write(writer, "too late\n");
+            fail("expected an IOException");
+        } catch (IOException expected) {
+            // the record is rejected
+        }
+    }
+
+    private static long write(@NonNull MappedLogFileWriter writer, @NonNull String line) throws IOException {
+        final byte[] data = line.getBytes(UTF_8);
+        return writer.write(data, 0, data.length, LogLevel.INFO, 0);
+    }
+
+    @NonNull
+    private static byte[] newLine(int writerId, int sequence) {
+        // a varying length so the records straddle the region ends at different offsets
+        final StringBuilder line = new StringBuilder().append(writerId).append('-').append(sequence).append(' ');
+        for (int index = sequence % 37; index > 0; --index) {
+            line.append((char) ('a' + index % 26));
+        }
+        return line.append('\n').toString().getBytes(UTF_8);
+    }
+
+    @NonNull
+    private static String readFile(@NonNull File file) throws IOException {
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            return new String(readFully(input), UTF_8);
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Measures the lines per second persisted in a burst of 100k lines, by opening, appending to and
+ * closing the log file for every line (as the {@link PersistentLogger} used to) and by appending
+ * to a {@link ChannelLogFileWriter} kept open for the session with different {@link FlushPolicy}s.
+ * <p>
+ * Run it as a plain java program with the unit test classpath; the optional argument is the
+ * directory the log files are written to.
+ * </p>
+ */
+public class PersistentWriterBenchmark {
+    private static final int LINES_COUNT = 100000;
+    private static final int ROUNDS_COUNT = 3;
+
+    public static void main(String[] args) throws IOException {
+        final File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "jeefo-writer-benchmark");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        for (int round = 0; round < ROUNDS_COUNT; ++round) {
+            report("reopen per line", LINES_COUNT, writeReopeningFile(newFile(directory)));
+            report("channel, flush every record", LINES_COUNT, writeToChannel(newFile(directory), FlushPolicy.EVERY_RECORD));
+            report("channel, flush every 64 records", LINES_COUNT, writeToChannel(newFile(directory),
+                    new FlushPolicy.Builder().flushEveryRecords(64).build()));
+            report("channel, flush every 16 KB", LINES_COUNT, writeToChannel(newFile(directory),
+                    new FlushPolicy.Builder().flushEveryBytes(16 * 1024).build()));
+        }
+    }
+
+    private static File newFile(File directory) {
+        final File file = new File(directory, "benchmark_Log.txt");
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return file;
+    }
+
+    private static long writeReopeningFile(File file) throws IOException {
+        final long startNanos = System.nanoTime();
+        for (int index = 0; index < LINES_COUNT; ++index) {
+            final String timestamp = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss", Locale.UK).format(new Date());
+            final BufferedWriter writer = new BufferedWriter(new FileWriter(file, true));
+            try {
+                writer.append(timestamp).append(" DEBUG/[Class Benchmark][Method run] line ")
+                        .append(String.valueOf(index)).append(" with some payload");
+                writer.newLine();
+            } finally {
+                writer.close();
+            }
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private static long writeToChannel(File file, FlushPolicy flushPolicy) throws IOException {
+        final TextLogRecordEncoder encoder = new TextLogRecordEncoder();
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+        final LogRecord record = new LogRecord();
+
+        final long startNanos = System.nanoTime();
+        final ChannelLogFileWriter writer = new ChannelLogFileWriter(file, flushPolicy);
+        try {
+            for (int index = 0; index < LINES_COUNT; ++index) {
+                record.set(System.currentTimeMillis(), LogLevel.DEBUG, "DEBUG", "",
+                        "[Class Benchmark][Method run] line " + index + " with some payload");
+                buffer.reset();
+                encoder.encode(record, buffer);
+                writer.write(buffer.getBuffer(), 0, buffer.size(), record.logLevel, record.timestampMillis);
+            }
+        } finally {
+            writer.close();
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private static void report(String name, int linesCount, long elapsedNanos) {
+        System.out.println(String.format(Locale.UK, "%-32s %10.0f lines/s", name, linesCount / (elapsedNanos / 1e9)));
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jeefo.android.jeefologger.BinaryLogRecordEncoderTest.readFully;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The next segment is opened on a background thread, so the tests wait for it to be ready (see
+ * {@link SegmentsFactory#awaitPreparedSegment()}) before the write which switches to it
+ */
+public class RotatingLogFileWriterTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final int MAX_SEGMENT_BYTES = 200;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_rollsOverOnceTheSegmentIsFull() throws Exception {
+        final RotationPolicy policy = new RotationPolicy.Builder()
+                .withMaxSegmentBytes(MAX_SEGMENT_BYTES)
+                .withRolloverAtMidnight(false)
+                .build();
+        final SegmentsFactory factory = new SegmentsFactory();
+        final RotatingLogFileWriter writer = newWriter(policy, factory, null);
+        final long nowMillis = System.currentTimeMillis();
+        final List<String> lines = new ArrayList<>();
+
+        for (int index = 0; index < 20; ++index) {
+            lines.add(write(writer, nowMillis, LogLevel.INFO, "record " + (100 + index)));
+            if (writer.getBytesCount() > MAX_SEGMENT_BYTES) {
+                factory.awaitPreparedSegment();
+            }
+        }
+        writer.close();
+
+        // every segment ends with the record going over the limit
+        final int lineLength = lines.get(0).length();
+        final int linesPerSegment = MAX_SEGMENT_BYTES / lineLength + 1;
+        final File[] segments = LogSegmentFiles.listSegments(folder.getRoot());
+        final String day = formatDay(nowMillis);
+        assertEquals((20 + linesPerSegment - 1) / linesPerSegment, segments.length);
+        for (int index = 0; index < segments.length; ++index) {
+            assertEquals(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, index, ".txt"), segments[index].getName());
+            final int end = Math.min(lines.size(), (index + 1) * linesPerSegment);
+            assertEquals(lines.subList(index * linesPerSegment, end), readLines(segments[index]));
+        }
+    }
+
+    @Test
+    public void write_rollsOverAtMidnight() throws Exception {
+        final RotationPolicy policy = new RotationPolicy.Builder().withRolloverAtMidnight(true).build();
+        final SegmentsFactory factory = new SegmentsFactory();
+        final List<File> closedSegments = new ArrayList<>();
+        final RotatingLogFileWriter writer = newWriter(policy, factory, new RotatingLogFileWriter.Listener() {
+            @Override
+            public void onSegmentClosed(@NonNull File segmentFile) {
+                synchronized (closedSegments) {
+                    closedSegments.add(segmentFile);
+                }
+            }
+        });
+        final long nowMillis = System.currentTimeMillis();
+        final long tomorrowMillis = getNextMidnightMillis(nowMillis) + 1000;
+
+        final String today = write(writer, nowMillis, LogLevel.INFO, "today");
+        // the record past midnight asks for the next segment but is still written to the current one
+        final String midnight = write(writer, tomorrowMillis, LogLevel.INFO, "midnight");
+        factory.awaitPreparedSegment();
+        final String tomorrow = write(writer, tomorrowMillis, LogLevel.INFO, "tomorrow");
+        writer.close();
+
+        final File todaySegment = new File(folder.getRoot(),
+                LogSegmentFiles.getSegmentName(formatDay(nowMillis), LogSegmentFiles.MAIN_PROCESS, 0, ".txt"));
+        final File tomorrowSegment = new File(folder.getRoot(),
+                LogSegmentFiles.getSegmentName(formatDay(tomorrowMillis), LogSegmentFiles.MAIN_PROCESS, 0, ".txt"));
+        assertEquals(Arrays.asList(today, midnight), readLines(todaySegment));
+        assertEquals(Arrays.asList(tomorrow), readLines(tomorrowSegment));
+        synchronized (closedSegments) {
+            assertEquals(Arrays.asList(todaySegment), closedSegments);
+        }
+    }
+
+    @Test
+    public void write_retriesOnTheNewSegmentAfterAConcurrentSwitch() throws Exception {
+        final RotationPolicy policy = new RotationPolicy.Builder()
+                .withMaxSegmentBytes(MAX_SEGMENT_BYTES)
+                .withRolloverAtMidnight(false)
+                .build();
+        final SegmentsFactory factory = new SegmentsFactory();
+        final CountDownLatch closedLatch = new CountDownLatch(1);
+        final RotatingLogFileWriter writer = newWriter(policy, factory, new RotatingLogFileWriter.Listener() {
+            @Override
+            public void onSegmentClosed(@NonNull File segmentFile) {
+                closedLatch.countDown();
+            }
+        });
+        final long nowMillis = System.currentTimeMillis();
+
+        final List<String> firstLines = new ArrayList<>();
+        for (int index = 0; index < 3; ++index) {
+            firstLines.add(write(writer, nowMillis, LogLevel.INFO, "first segment " + index));
+        }
+        assertTrue(writer.getBytesCount() < MAX_SEGMENT_BYTES);
+        final StringBuilder heldMessage = new StringBuilder("held ");
+        while (heldMessage.length() < MAX_SEGMENT_BYTES) {
+            heldMessage.append('x');
+        }
+
+        // this write asks for the next segment and is then held in the first one while another
+        // thread switches to the next segment
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final String[] heldLine = new String[1];
+        final Thread heldWriter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    heldLine[0] = write(writer, nowMillis, LogLevel.WTF, heldMessage.toString());
+                } catch (Throwable throwable) {
+                    failure.set(throwable);
+                }
+            }
+        };
+        factory.holdWrite(heldWriter);
+        heldWriter.start();
+        factory.awaitHeldWrite();
+        factory.awaitPreparedSegment();
+
+        final String switchingLine = write(writer, nowMillis, LogLevel.INFO, "second segment");
+        assertTrue(closedLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        factory.releaseHeldWrite();
+        heldWriter.join(TIMEOUT_MILLIS);
+        writer.close();
+
+        assertNull(failure.get());
+        final File[] segments = LogSegmentFiles.listSegments(folder.getRoot());
+        assertEquals(2, segments.length);
+        assertEquals(firstLines, readLines(segments[0]));
+        // the held record was not written to the closed segment
+        assertEquals(Arrays.asList(switchingLine, heldLine[0]), readLines(segments[1]));
+    }
+
+    @Test
+    public void close_deletesThePreparedSegmentNeverWritten() throws Exception {
+        final RotationPolicy policy = new RotationPolicy.Builder()
+                .withMaxSegmentBytes(MAX_SEGMENT_BYTES)
+                .withRolloverAtMidnight(false)
+                .build();
+        final SegmentsFactory factory = new SegmentsFactory(true);
+        final RotatingLogFileWriter writer = newWriter(policy, factory, null);
+        final long nowMillis = System.currentTimeMillis();
+
+        while (writer.getBytesCount() <= MAX_SEGMENT_BYTES) {
+            write(writer, nowMillis, LogLevel.INFO, "first segment");
+        }
+        factory.awaitPreparedSegment();
+        final File preparedFile = new File(folder.getRoot(),
+                LogSegmentFiles.getSegmentName(formatDay(nowMillis), LogSegmentFiles.MAIN_PROCESS, 1, ".txt"));
+        assertTrue(preparedFile.exists());
+        writer.close();
+
+        assertFalse(preparedFile.exists());
+        assertFalse(LogTimeIndex.getIndexFile(preparedFile).exists());
+        assertEquals(1, LogSegmentFiles.listSegments(folder.getRoot()).length);
+    }
+
+    @Test
+    public void constructor_continuesTheLatestSegmentOfTheDay() throws Exception {
+        final RotationPolicy policy = new RotationPolicy.Builder().withMaxSegmentBytes(MAX_SEGMENT_BYTES).build();
+        final String day = formatDay(System.currentTimeMillis());
+        createFile(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 0, ".txt.gz"), 10);
+        createFile(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 1, ".txt"), 10);
+
+        final RotatingLogFileWriter writer = newWriter(policy, new SegmentsFactory(), null);
+        writer.close();
+
+        // appended to, as it is not full
+        assertEquals(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 1, ".txt"), writer.getFile().getName());
+    }
+
+    @Test
+    public void constructor_startsANewSegmentAfterAFullOne() throws Exception {
+        final RotationPolicy policy = new RotationPolicy.Builder().withMaxSegmentBytes(MAX_SEGMENT_BYTES).build();
+        final String day = formatDay(System.currentTimeMillis());
+        createFile(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 0, ".txt"), MAX_SEGMENT_BYTES);
+
+        final RotatingLogFileWriter writer = newWriter(policy, new SegmentsFactory(), null);
+        writer.close();
+
+        assertEquals(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 1, ".txt"), writer.getFile().getName());
+    }
+
+    @Test
+    public void constructor_startsANewSegmentAfterACompressedOne() throws Exception {
+        final RotationPolicy policy = new RotationPolicy.Builder().withMaxSegmentBytes(MAX_SEGMENT_BYTES).build();
+        final String day = formatDay(System.currentTimeMillis());
+        createFile(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 0, ".txt.gz"), 10);
+        final String lastSegment = LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 1, ".txt");
+        createFile(lastSegment + ".gz", 10);
+        // the index of the compressed segment is kept next to it
+        createFile(lastSegment + LogTimeIndex.EXTENSION, 16);
+
+        final RotatingLogFileWriter writer = newWriter(policy, new SegmentsFactory(true), null);
+        final String line = write(writer, System.currentTimeMillis(), LogLevel.INFO, "restarted");
+        writer.close();
+
+        final File segment = writer.getFile();
+        assertEquals(LogSegmentFiles.getSegmentName(day, LogSegmentFiles.MAIN_PROCESS, 2, ".txt"), segment.getName());
+        assertEquals(Arrays.asList(line), readLines(segment));
+        // the new segment has its own index, with an entry for its first record
+        assertEquals(16, LogTimeIndex.getIndexFile(segment).length());
+        assertEquals(16, new File(folder.getRoot(), lastSegment + LogTimeIndex.EXTENSION).length());
+    }
+
+    @NonNull
+    private RotatingLogFileWriter newWriter(@NonNull RotationPolicy policy, @NonNull SegmentsFactory factory,
+                                            @Nullable RotatingLogFileWriter.Listener listener) throws IOException {
+        return new RotatingLogFileWriter(folder.getRoot(), LogSegmentFiles.MAIN_PROCESS, policy, FlushPolicy.EVERY_RECORD,
+                factory, listener);
+    }
+
+    /**
+     * @return the line written to the segment, without the line break
+     */
+    @NonNull
+    private static String write(@NonNull RotatingLogFileWriter writer, long timestampMillis, @LogLevel int logLevel,
+                                @NonNull String message) throws IOException {
+        final LogRecord record = newRecord(timestampMillis, logLevel, message);
+        writer.write(record);
+        final String line = encode(record);
+        return line.substring(0, line.length() - 1);
+    }
+
+    @NonNull
+    private static LogRecord newRecord(long timestampMillis, @LogLevel int logLevel, @NonNull String message) {
+        final LogRecord record = new LogRecord();
+        record.set(timestampMillis, logLevel, logLevel == LogLevel.WTF ? "WTF" : "INFO", "", message);
+        return record;
+    }
+
+    /**
+     * @return the text line of the record, as written to the segments
+     */
+    @NonNull
+    private static String encode(@NonNull LogRecord record) throws IOException {
+        final EncodedRecordBuffer buffer = new EncodedRecordBuffer();
+        new TextLogRecordEncoder().encode(record, buffer);
+        return new String(buffer.getBuffer(), 0, buffer.size(), "UTF-8");
+    }
+
+    private void createFile(@NonNull String name, int length) throws IOException {
+        final FileOutputStream output = new FileOutputStream(new File(folder.getRoot(), name));
+        try {
+            output.write(new byte[length]);
+        } finally {
+            output.close();
+        }
+    }
+
+    @NonNull
+    private static List<String> readLines(@NonNull File file) throws IOException {
+        return Arrays.asList(new String(readFully(new FileInputStream(file)), "UTF-8").split("\n"));
+    }
+
+    @NonNull
+    private static String formatDay(long timestampMillis) {
+        return new SimpleDateFormat(LogSegmentFiles.DAY_PATTERN, Locale.UK).format(new Date(timestampMillis));
+    }
+
+    private static long getNextMidnightMillis(long timestampMillis) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestampMillis);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Creates text segments written through a {@link ChannelLogFileWriter}, keeping track of the
+     * segments opened by the background thread. The writes of a given thread into the first
+     * segment can be held back until released.
+     */
+    private static final class SegmentsFactory implements RotatingLogFileWriter.Factory {
+        private final boolean isIndexed;
+        private final Semaphore preparedSegments = new Semaphore(0);
+        private final CountDownLatch heldWriteLatch = new CountDownLatch(1);
+        private final CountDownLatch releaseLatch = new CountDownLatch(1);
+        private volatile Thread rolloverThread;
+        private volatile Thread heldThread;
+        private volatile int openedCount = 0;
+
+        SegmentsFactory() {
+            this(false);
+        }
+
+        SegmentsFactory(boolean isIndexed) {
+            this.isIndexed = isIndexed;
+        }
+
+        void holdWrite(@NonNull Thread thread) {
+            heldThread = thread;
+        }
+
+        void awaitHeldWrite() throws InterruptedException {
+            assertTrue(heldWriteLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        void releaseHeldWrite() {
+            releaseLatch.countDown();
+        }
+
+        /**
+         * Waits until the background thread opened the next segment and went back to waiting for
+         * work, which it does right after handing the segment over
+         */
+        void awaitPreparedSegment() throws InterruptedException {
+            assertTrue(preparedSegments.tryAcquire(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (rolloverThread.getState() != Thread.State.WAITING) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+
+        @NonNull
+        @Override
+        public ILogFileWriter create(@NonNull File segmentFile, @NonNull FlushPolicy flushPolicy) throws IOException {
+            final ChannelLogFileWriter writer = new ChannelLogFileWriter(segmentFile, flushPolicy);
+            return openedCount == 0 ? new HoldingLogFileWriter(writer) : writer;
+        }
+
+        @NonNull
+        @Override
+        public ILogRecordEncoder createEncoder(boolean isEmptySegment) {
+            if (++openedCount > 1) {
+                rolloverThread = Thread.currentThread();
+                preparedSegments.release();
+            }
+            return new TextLogRecordEncoder();
+        }
+
+        @NonNull
+        @Override
+        public String getSegmentExtension() {
+            return LogSegmentFiles.TEXT_EXTENSION;
+        }
+
+        @Nullable
+        @Override
+        public LogTimeIndex createTimeIndex(@NonNull File segmentFile) throws IOException {
+            return isIndexed ? new LogTimeIndex(segmentFile, 0, 0) : null;
+        }
+
+        /**
+         * Holds the write of the held thread before passing it on
+         */
+        private final class HoldingLogFileWriter implements ILogFileWriter {
+            @NonNull
+            private final ILogFileWriter writer;
+
+            HoldingLogFileWriter(@NonNull ILogFileWriter writer) {
+                this.writer = writer;
+            }
+
+            @Override
+            public long write(@NonNull byte[] data, int offset, int length, @LogLevel int logLevel, long timestampMillis) throws IOException {
+                if (Thread.currentThread() == heldThread) {
+                    heldWriteLatch.countDown();
+                    try {
+                        releaseLatch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return writer.write(data, offset, length, logLevel, timestampMillis);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+
+            @Override
+            public void flushIfExpired() throws IOException {
+                writer.flushIfExpired();
+            }
+
+            @Override
+            public void force() throws IOException {
+                writer.force();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+
+            @Override
+            public void setFlushPolicy(@NonNull FlushPolicy flushPolicy) {
+                writer.setFlushPolicy(flushPolicy);
+            }
+
+            @Override
+            public boolean supportsConcurrentWrites() {
+                return writer.supportsConcurrentWrites();
+            }
+
+            @NonNull
+            @Override
+            public File getFile() {
+                return writer.getFile();
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SmartLoggerUtilsTest {
+    private static final String CLASS_NAME = SmartLoggerUtilsTest.class.getName();
+
+    @Test
+    public void getMethodTag_namedCaller() {
+        final StackTraceElement[] elements = captureInNamedMethod();
+
+        assertEquals("[Method getMethodTag_namedCaller#captureInNamedMethod]", SmartLoggerUtils.getMethodTag(CLASS_NAME, elements));
+        assertEquals(getBaselineMethodTag(CLASS_NAME, elements), SmartLoggerUtils.getMethodTag(CLASS_NAME, elements));
+    }
+
+    @Test
+    public void getMethodTag_outerAndInnerMethods() {
+        final StackTraceElement[] elements = outerMethod();
+
+        assertEquals("[Method outerMethod#innerMethod]", SmartLoggerUtils.getMethodTag(CLASS_NAME, elements));
+        assertEquals(getBaselineMethodTag(CLASS_NAME, elements), SmartLoggerUtils.getMethodTag(CLASS_NAME, elements));
+    }
+
+    @Test
+    public void getMethodTag_anonymousCaller() {
+        final StackTraceElement[][] elements = new StackTraceElement[1][];
+        new Runnable() {
+            @Override
+            public void run() {
+                elements[0] = Thread.currentThread().getStackTrace();
+            }
+        }.run();
+
+        assertEquals("[Method run <- SmartLoggerUtilsTest#getMethodTag_anonymousCaller()]",
+                SmartLoggerUtils.getMethodTag(CLASS_NAME, elements[0]));
+        assertEquals(getBaselineMethodTag(CLASS_NAME, elements[0]), SmartLoggerUtils.getMethodTag(CLASS_NAME, elements[0]));
+    }
+
+    @Test
+    public void getMethodTag_instrumentedAnonymousCaller() {
+        final LogCallContext callSite = LogCallContext.forCallSite("com.example.Host$1", "run", "Host.java", 12,
+                "com.example.Host", "onCreate");
+
+        assertEquals("[Method run <- Host#onCreate()]", SmartLoggerUtils.getMethodTag("com.example.Host", callSite.getTraceElements()));
+    }
+
+    @Test
+    public void getMethodTag_classNotInTheTrace() {
+        final StackTraceElement[] elements = Thread.currentThread().getStackTrace();
+
+        assertEquals("", SmartLoggerUtils.getMethodTag("com.example.Missing", elements));
+        assertEquals("", SmartLoggerUtils.getMethodTag(CLASS_NAME, null));
+    }
+
+    @Test
+    public void getMethodTag_isCachedPerCallSite() {
+        final StackTraceElement[] elements = outerMethod();
+
+        assertSame(SmartLoggerUtils.getMethodTag(CLASS_NAME, elements), SmartLoggerUtils.getMethodTag(CLASS_NAME, elements.clone()));
+        // same method, another caller
+        assertEquals("[Method getMethodTag_isCachedPerCallSite#innerMethod]", SmartLoggerUtils.getMethodTag(CLASS_NAME, innerMethod()));
+    }
+
+    @Test
+    public void getMethodTag_matchesTheBaselineOnRandomTraces() {
+        final String[] classNames = {"a.Host", "a.Host$1", "a.Host$1$2", "a.Other", "a.HostX", "a.Other$3", "a.Host$Inner"};
+        final String[] methodNames = {"first", "second", "run", "call"};
+        final String[] targetClassNames = {"a.Host", "a.Host$1", "a.Other", "a.Host$Inner"};
+        final Random random = new Random(42);
+        int comparedCount = 0;
+
+        for (int attempt = 0; attempt < 20000; ++attempt) {
+            final StackTraceElement[] elements = new StackTraceElement[1 + random.nextInt(8)];
+            for (int index = 0; index < elements.length; ++index) {
+                final String className = classNames[random.nextInt(classNames.length)];
+                final int separator = className.indexOf('$');
+                final String simpleName = className.substring(2, separator > 0 ? separator : className.length());
+                elements[index] = new StackTraceElement(className, methodNames[random.nextInt(methodNames.length)],
+                        simpleName + ".java", index);
+            }
+            final String targetClassName = targetClassNames[random.nextInt(targetClassNames.length)];
+
+            final String baselineTag;
+            try {
+                baselineTag = getBaselineMethodTag(targetClassName, elements);
+            } catch (NoSuchElementException e) {
+                // the baseline failed on an anonymous class frame at the bottom of the trace
+                continue;
+            }
+            assertEquals(targetClassName + " in " + Arrays.toString(elements), baselineTag,
+                    SmartLoggerUtils.getMethodTag(targetClassName, elements));
+            ++comparedCount;
+        }
+
+        assertTrue(comparedCount > 10000);
+    }
+
+    private static StackTraceElement[] captureInNamedMethod() {
+        return Thread.currentThread().getStackTrace();
+    }
+
+    private static StackTraceElement[] outerMethod() {
+        return innerMethod();
+    }
+
+    private static StackTraceElement[] innerMethod() {
+        return Thread.currentThread().getStackTrace();
+    }
+
+    /**
+     * The "[Method ...]" tag as the SmartLogger rendered it before the tags were cached, walking
+     * a copy of the whole trace
+     */
+    @NonNull
+    private static String getBaselineMethodTag(@NonNull String className, @NonNull StackTraceElement[] trace) {
+        final LinkedList<StackTraceElement> elements = new LinkedList<>(Arrays.asList(trace));
+        String methodName = "";
+        boolean foundMethod = false;
+
+        while (elements.size() > 0) {
+            final String elementClassName = elements.getFirst().getClassName();
+            String anonymousHostClassName = null;
+
+            if (elementClassName.contains("$")) {
+                anonymousHostClassName = elementClassName.substring(0, elementClassName.indexOf('$'));
+            }
+
+            if (className.compareTo(elementClassName) == 0 || (anonymousHostClassName != null && className.compareTo(anonymousHostClassName) == 0)) {
+                if (!foundMethod) {
+                    methodName = elements.getFirst().getMethodName();
+                } else {
+                    methodName = String.format(Locale.UK, "%s#%s", elements.getFirst().getMethodName(), methodName);
+                }
+                elements.removeFirst();
+
+                if (anonymousHostClassName != null) {
+                    methodName = String.format(Locale.UK, "%s <- %s#%s()", methodName,
+                            SmartLoggerUtils.getClassNameFromFileName(elements.getFirst().getFileName()), elements.getFirst().getMethodName());
+                    elements.removeFirst();
+                }
+
+                if (!foundMethod) {
+                    foundMethod = true;
+                    continue;
+                }
+            }
+
+            if (foundMethod) {
+                break;
+            }
+            elements.removeFirst();
+        }
+
+        return methodName.equals("") ? "" : "[" + AbstractScopedLogger.TAG_KEY_METHOD + " " + methodName + "]";
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimestampEncoderTest {
+    // 2018/07/15 10:20:29.998 UTC
+    private static final long TIMESTAMP_MILLIS = 1531650029998L;
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void seconds_matchTheDateFormat() {
+        final TimestampEncoder encoder = new TimestampEncoder(PersistenceTimestamp.SECONDS);
+
+        assertEquals("2018/07/15 10:20:29 ", encode(encoder, TIMESTAMP_MILLIS, 0));
+        assertEquals(format("yyyy/MM/dd HH:mm:ss ", TIMESTAMP_MILLIS), encode(encoder, TIMESTAMP_MILLIS, 0));
+    }
+
+    @Test
+    public void milliseconds_acrossASecondBoundary() {
+        final TimestampEncoder encoder = new TimestampEncoder(PersistenceTimestamp.MILLISECONDS);
+
+        // the rendered second is reused for the first records and replaced after the boundary
+        for (long timestampMillis = TIMESTAMP_MILLIS; timestampMillis < TIMESTAMP_MILLIS + 1005; ++timestampMillis) {
+            assertEquals(format("yyyy/MM/dd HH:mm:ss.SSS ", timestampMillis), encode(encoder, timestampMillis, 0));
+        }
+        assertEquals("2018/07/15 10:20:29.999 ", encode(encoder, TIMESTAMP_MILLIS + 1, 0));
+        assertEquals("2018/07/15 10:20:30.000 ", encode(encoder, TIMESTAMP_MILLIS + 2, 0));
+    }
+
+    @Test
+    public void monotonicNanos_appendTheNanos() {
+        final TimestampEncoder encoder = new TimestampEncoder(PersistenceTimestamp.MONOTONIC_NANOS);
+
+        assertEquals("2018/07/15 10:20:29.998 +123456789ns ", encode(encoder, TIMESTAMP_MILLIS, 123456789));
+        assertEquals("2018/07/15 10:20:30.001 +0ns ", encode(encoder, TIMESTAMP_MILLIS + 3, 0));
+        assertEquals("2018/07/15 10:20:30.001 +" + Long.MAX_VALUE + "ns ",
+                encode(encoder, TIMESTAMP_MILLIS + 3, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void timeZoneChange_isPickedUpAtTheNextSecond() {
+        final TimestampEncoder encoder = new TimestampEncoder(PersistenceTimestamp.SECONDS);
+        assertEquals("2018/07/15 10:20:29 ", encode(encoder, TIMESTAMP_MILLIS, 0));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+
+        assertEquals("2018/07/15 12:20:30 ", encode(encoder, TIMESTAMP_MILLIS + 2, 0));
+    }
+
+    /**
+     * Checks {@link TimestampEncoder#getLength(LogRecord)} as well
+     */
+    @NonNull
+    private static String encode(@NonNull TimestampEncoder encoder, long timestampMillis, long monotonicNanos) {
+        final LogRecord record = new LogRecord();
+        record.set(timestampMillis, LogLevel.INFO, "INFO", "[tag] ", "message");
+        record.monotonicNanos = monotonicNanos;
+
+        // the time is written in the middle of the line
+        final byte[] bytes = new byte[100];
+        final int length = encoder.getLength(record);
+        assertEquals(10 + length, encoder.encode(record, bytes, 10));
+        return new String(bytes, 10, length, Charset.forName("US-ASCII"));
+    }
+
+    @NonNull
+    private static String format(@NonNull String pattern, long timestampMillis) {
+        return new SimpleDateFormat(pattern, Locale.US).format(new Date(timestampMillis));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Alexandru Iustin Dochioiu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jeefo.android.jeefologger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the LazyLogger's "[Class X][Method Y]" tags taken from the cache of
+ * {@link LazyLoggerUtils#getTracePrefix(String, StackTraceElement[])} with the tags rendered from
+ * the whole stack trace for every message, as the LazyLogger used to. The stack traces are 60 to
+ * 120 frames deep, with a few frames of the app among the ones of the framework.
+ * <p>
+ * Run it as a plain java program with the unit test classpath; the optional argument is the
+ * number of calls per round.
+ * </p>
+ */
+public class TracePrefixBenchmark {
+    private static final String PACKAGE_NAME = "com.example.app";
+    private static final String[] APP_CLASSES = {"MainActivity", "net.Client", "Repository", "ui.ListAdapter"};
+    private static final String[] APP_METHODS = {"onCreate", "load", "fetch", "bind", "access$000"};
+    private static final String[] FRAMEWORK_CLASSES = {"android.os.Handler", "android.os.Looper",
+            "android.app.ActivityThread", "java.lang.reflect.Method", "com.android.internal.os.ZygoteInit"};
+    private static final int CALL_SITES_COUNT = 16;
+
+    /**
+     * The classes of the package and the methods called in each of them, in calling order
+     */
+    private static final class PackageCall {
+        final String className;
+        final LinkedList<String> methodNames = new LinkedList<>();
+
+        PackageCall(String className) {
+            this.className = className;
+        }
+    }
+
+    public static void main(String[] args) {
+        final int callsCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final Random random = new Random(11);
+        final StackTraceElement[][] callSites = new StackTraceElement[CALL_SITES_COUNT][];
+        for (int site = 0; site < CALL_SITES_COUNT; ++site) {
+            callSites[site] = createStackTrace(random, 60 + random.nextInt(61), 4 + random.nextInt(5));
+        }
+
+        for (int round = 0; round < 3; ++round) {
+            long sink = 0;
+            long allocatedBefore = getAllocatedBytes();
+            long startNanos = System.nanoTime();
+            for (int index = 0; index < callsCount; ++index) {
+                sink += renderBaselineTracePrefix(callSites[index % CALL_SITES_COUNT]).length();
+            }
+            print("rendered for every message", callsCount, startNanos, allocatedBefore);
+
+            allocatedBefore = getAllocatedBytes();
+            startNanos = System.nanoTime();
+            for (int index = 0; index < callsCount; ++index) {
+                sink += LazyLoggerUtils.getTracePrefix(PACKAGE_NAME + ".", callSites[index % CALL_SITES_COUNT]).length();
+            }
+            print("cached per call site", callsCount, startNanos, allocatedBefore);
+            System.out.println("(" + sink + ")");
+        }
+    }
+
+    private static StackTraceElement[] createStackTrace(Random random, int depth, int appFramesCount) {
+        final StackTraceElement[] elements = new StackTraceElement[depth];
+        elements[0] = new StackTraceElement("java.lang.Thread", "getStackTrace", "Thread.java", 1);
+        elements[1] = new StackTraceElement("com.jeefo.android.jeefologger.LazyLogger", "Info", "LazyLogger.java", 1);
+        for (int index = 2; index < depth; ++index) {
+            final String className = FRAMEWORK_CLASSES[random.nextInt(FRAMEWORK_CLASSES.length)];
+            elements[index] = new StackTraceElement(className, "dispatch", className.substring(className.lastIndexOf('.') + 1) + ".java", index);
+        }
+        // the frames of the app are near the top, right after the logger's
+        for (int appFrame = 0; appFrame < appFramesCount; ++appFrame) {
+            final String className = APP_CLASSES[random.nextInt(APP_CLASSES.length)];
+            elements[2 + random.nextInt(3 * appFramesCount)] = new StackTraceElement(PACKAGE_NAME + "." + className,
+                    APP_METHODS[random.nextInt(APP_METHODS.length)], className.substring(className.lastIndexOf('.') + 1) + ".java", appFrame);
+        }
+        return elements;
+    }
+
+    /**
+     * The tags as the LazyLogger rendered them before they were cached (the stack traces of the
+     * benchmark have no anonymous classes)
+     */
+    private static String renderBaselineTracePrefix(StackTraceElement[] elements) {
+        final LinkedList<PackageCall> packageCalls = new LinkedList<>();
+
+        for (int index = elements.length - 1; index >= 0; --index) {
+            if (elements[index].getClassName().contains(PACKAGE_NAME)) {
+                final String className = SmartLoggerUtils.getClassNameFromFileName(elements[index].getFileName());
+                final String methodName = elements[index].getMethodName() + "()";
+                if (methodName.contains("access$")) {
+                    continue;
+                }
+
+                if (packageCalls.size() > 0 && className.equals(packageCalls.getLast().className)) {
+                    packageCalls.getLast().methodNames.add(methodName);
+                    continue;
+                }
+
+                final PackageCall packageCall = new PackageCall(className);
+                packageCall.methodNames.add(elements[index].getMethodName());
+                packageCalls.add(packageCall);
+            }
+        }
+
+        final StringBuilder tracePrefix = new StringBuilder();
+        for (PackageCall packageCall : packageCalls) {
+            tracePrefix.append(String.format(Locale.UK, "[%s %s]", AbstractScopedLogger.TAG_KEY_CLASS, packageCall.className));
+            for (String methodName : packageCall.methodNames) {
+                tracePrefix.append(String.format(Locale.UK, "[%s %s]", AbstractScopedLogger.TAG_KEY_METHOD, methodName));
+            }
+        }
+        return tracePrefix.append(" ").toString();
+    }
+
+    private static void print(String name, int callsCount, long startNanos, long allocatedBefore) {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long allocatedBytes = getAllocatedBytes() - allocatedBefore;
+        System.out.println(String.format(Locale.UK, "%-28s %8.1f ns/call %8.1f bytes/call", name,
+                (double) elapsedNanos / callsCount, allocatedBefore < 0 ? Double.NaN : (double) allocatedBytes / callsCount));
+    }
+
+    /**
+     * @return the bytes allocated by the calling thread so far; -1 if the JVM cannot tell
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}